@@ -47,6 +47,11 @@ public class ActiveDirectoryConfiguration extends DirectoryConfiguration {
 	public static final String ACTIVE_DIRECTORY_INCLUDE_DEFAULT_USERS = "activeDirectory.includeDefaultUsers";
 	public static final String ACTIVE_DIRECTORY_INCLUDE_BUILTN_GROUPS = "activeDirectory.includeBuiltInGroups";
 	public static final String ACTIVE_DIRECTORY_USERNAME_IS_SAMACCOUNTNAME = "activeDirectory.usernameSamAccountName";
+	public static final String ACTIVE_DIRECTORY_GROUP_INDEX_REFRESH = "activeDirectory.groupIndexRefresh";
+	public static final String ACTIVE_DIRECTORY_GROUP_INDEX_TTL = "activeDirectory.groupIndexTtl";
+	public static final String ACTIVE_DIRECTORY_TOKEN_GROUPS = "activeDirectory.tokenGroups";
+	public static final String ACTIVE_DIRECTORY_NESTED_GROUPS = "activeDirectory.nestedGroups";
+	public static final String ACTIVE_DIRECTORY_DIRSYNC_OBJECT_SECURITY = "activeDirectory.dirSyncObjectSecurity";
 	
 	public ActiveDirectoryConfiguration(MultiMap configurationParameters) {
 		super(addConfigurationParameters(configurationParameters));
@@ -284,7 +289,7 @@ public class ActiveDirectoryConfiguration extends DirectoryConfiguration {
 	@Override
 	protected Map<String, String> getInitialConfigurationParameters() {
 		return Collections.singletonMap("java.naming.ldap.attributes.binary",
-				"objectSID objectGUID");
+				"objectSID objectGUID tokenGroups");
 	}
 
 	public boolean isUsernameSamAccountName() {
@@ -292,6 +297,62 @@ public class ActiveDirectoryConfiguration extends DirectoryConfiguration {
 				ACTIVE_DIRECTORY_USERNAME_IS_SAMACCOUNTNAME, Boolean.FALSE);
 	}
 
+	/**
+	 * Milliseconds between reads of the groups that changed since the group
+	 * index was last brought up to date, the default is one minute. Zero only
+	 * rebuilds the index when its time to live expires.
+	 * 
+	 * @return group index refresh interval
+	 */
+	public long getGroupIndexRefreshInterval() {
+		return configurationParameters.getIntegerOrDefault(ACTIVE_DIRECTORY_GROUP_INDEX_REFRESH, 60) * 1000L;
+	}
+
+	/**
+	 * Milliseconds before the group index is rebuilt in full, dropping
+	 * groups that have been deleted. The default is one hour.
+	 * 
+	 * @return group index time to live
+	 */
+	public long getGroupIndexTtl() {
+		return configurationParameters.getIntegerOrDefault(ACTIVE_DIRECTORY_GROUP_INDEX_TTL, 3600) * 1000L;
+	}
+
+	/**
+	 * Whether the roles of an identity are found by reading its constructed
+	 * <code>tokenGroups</code> attribute, which holds the SIDs of every group
+	 * it is a member of, including nested and primary groups. This costs one
+	 * read per identity, instead of following <code>memberOf</code>.
+	 * 
+	 * @return use token groups
+	 */
+	public boolean isTokenGroups() {
+		return configurationParameters.getBooleanOrDefault(ACTIVE_DIRECTORY_TOKEN_GROUPS, Boolean.FALSE);
+	}
+
+	/**
+	 * Whether the roles of an identity include the groups its groups are
+	 * nested in. Nesting is worked out from the <code>member</code> attributes
+	 * of the indexed groups, so needs no reads per identity. Not needed when
+	 * {@link #isTokenGroups()} is set, as token groups are already nested.
+	 * 
+	 * @return include nested groups
+	 */
+	public boolean isNestedGroups() {
+		return configurationParameters.getBooleanOrDefault(ACTIVE_DIRECTORY_NESTED_GROUPS, Boolean.FALSE);
+	}
+
+	/**
+	 * Whether synchronization with DirSync returns only what the account may
+	 * read, so does not need the "Replicating Directory Changes" right.
+	 * Deletions of objects it cannot read are then not reported.
+	 * 
+	 * @return object security
+	 */
+	public boolean isDirSyncObjectSecurity() {
+		return configurationParameters.getBooleanOrDefault(ACTIVE_DIRECTORY_DIRSYNC_OBJECT_SECURITY, Boolean.FALSE);
+	}
+
 	public String getOU() {
 		return configurationParameters.getString(DIRECTORY_USER_OU);
 	}
@@ -33,8 +33,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -57,7 +57,6 @@ import javax.naming.ldap.LdapName;
 import javax.naming.ldap.Rdn;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -70,9 +69,13 @@ import com.identity4j.connector.exception.ConnectorException;
 import com.identity4j.connector.exception.InvalidLoginCredentialsException;
 import com.identity4j.connector.exception.PasswordChangeRequiredException;
 import com.identity4j.connector.exception.PasswordPolicyViolationException;
+import com.identity4j.connector.jndi.directory.DirectoryChange;
+import com.identity4j.connector.jndi.directory.DirectoryChangeListener;
 import com.identity4j.connector.jndi.directory.DirectoryConnector;
 import com.identity4j.connector.jndi.directory.DirectoryExceptionParser;
 import com.identity4j.connector.jndi.directory.DirectoryIdentity;
+import com.identity4j.connector.jndi.directory.LdapBatch;
+import com.identity4j.connector.jndi.directory.LdapHostBalancer;
 import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
 import com.identity4j.connector.principal.AccountStatus;
 import com.identity4j.connector.principal.AccountStatusType;
@@ -81,6 +84,9 @@ import com.identity4j.connector.principal.PasswordStatus;
 import com.identity4j.connector.principal.PasswordStatusType;
 import com.identity4j.connector.principal.Principal;
 import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.update.AttributeChange;
+import com.identity4j.connector.update.UpdatePlan;
+import com.identity4j.connector.update.UpdatePlanner;
 import com.identity4j.util.CollectionUtil;
 import com.identity4j.util.StringUtil;
 import com.identity4j.util.Util;
@@ -135,6 +141,8 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 	public static final String MAXIMUM_PASSWORD_AGE_ATTRIBUTE = "maxPwdAge";
 	public static final String COMMON_NAME_ATTRIBUTE = "cn";
 	public static final String MEMBER_OF_ATTRIBUTE = "memberOf";
+	public static final String TOKEN_GROUPS_ATTRIBUTE = "tokenGroups";
+	public static final String MATCHING_RULE_IN_CHAIN = "1.2.840.113556.1.4.1941";
 	public static final String MEMBER_ATTRIBUTE = "member";
 	public static final String MAIL_ATTRIBUTE = "mail";
 	public static final String MOBILE_PHONE_NUMBER_ATTRIBUTE = "mobile";
@@ -240,6 +248,22 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 	private List<String> identityAttributesToRetrieve = new ArrayList<String>(
 			ALL_USER_ATTRIBUTES);
 
+	private final UpdatePlanner userPlanner = new UpdatePlanner() {
+		@Override
+		protected boolean isIgnored(String name) {
+			return isExcludeForUserUpdate(name);
+		}
+	};
+
+	private final UpdatePlanner groupPlanner = new UpdatePlanner() {
+		@Override
+		protected boolean isIgnored(String name) {
+			return isExcludeForGroupUpdate(name);
+		}
+	};
+
+	private GroupIndex groupIndex;
+
 	// Controls for Win2008 R2 password history on admin reset
 	final byte[] controlData = { 48, (byte) 132, 0, 0, 0, 3, 2, 1, 1 };
 	final String LDAP_SERVER_POLICY_HINTS_OID = "1.2.840.113556.1.4.2066";
@@ -277,9 +301,66 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 				}
 			}
 		}
+		groupIndex = createGroupIndex();
 		getPasswordCharacteristics();
 	}
 
+	@Override
+	protected void onClose() {
+		if (groupIndex != null) {
+			groupIndex.close();
+		}
+		super.onClose();
+	}
+
+	private GroupIndex createGroupIndex() {
+		ActiveDirectoryConfiguration config = getActiveDirectoryConfiguration();
+		/* USNs are local to each controller, so only follow them on one */
+		long refreshInterval = config.getLoadBalancing() == LdapHostBalancer.Policy.FAILOVER ? config
+				.getGroupIndexRefreshInterval() : 0;
+		return new GroupIndex(new GroupIndex.GroupSource() {
+			@Override
+			public Iterator<ActiveDirectoryGroup> groups(long minUsn) throws NamingException, IOException {
+				ActiveDirectoryConfiguration config = getActiveDirectoryConfiguration();
+				String filter = ldapService.buildObjectClassFilter(config.getRoleObjectClass(),
+						config.getRoleNameAttribute(), WILDCARD_SEARCH);
+				if (minUsn > 0) {
+					filter = "(&" + filter + "(" + GroupIndex.USN_CHANGED_ATTRIBUTE + ">=" + minUsn + "))";
+				}
+				/* A single search, so the index thread never waits on the search threads */
+				return ldapService.search(config.getBaseDn(), filter, new ResultMapper<ActiveDirectoryGroup>() {
+					@Override
+					public ActiveDirectoryGroup apply(SearchResult result) throws NamingException {
+						return mapRole(result);
+					}
+
+					@Override
+					public boolean isApplyFilters() {
+						return true;
+					}
+				}, configureRoleSearchControls(ldapService.getSearchControls()));
+			}
+
+			@Override
+			public ActiveDirectoryGroup lookup(String dn) throws NamingException, IOException {
+				/* The same attributes a search for the group returns */
+				return mapRole(dn, ldapService.getAttributes(new LdapName(dn),
+						configureRoleSearchControls(ldapService.getSearchControls()).getReturningAttributes()));
+			}
+
+			@Override
+			public Attribute attribute(String dn, String name) throws NamingException, IOException {
+				/* The server names the attribute for the range it returned */
+				NamingEnumeration<? extends Attribute> attrs = ldapService.getAttributes(new LdapName(dn), name).getAll();
+				try {
+					return attrs.hasMore() ? attrs.next() : null;
+				} finally {
+					attrs.close();
+				}
+			}
+		}, refreshInterval, config.getGroupIndexTtl());
+	}
+
 	protected boolean areCredentialsValid(Identity identity, char[] password) throws ConnectorException {
 
 		String authType = getConfiguration().getConfigurationParameters().getString(ActiveDirectoryConfiguration.ACTIVE_DIRECTORY_AUTHENTICATION);
@@ -339,6 +420,8 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 					.getAttribute(DISTINGUISHED_NAME_ATTRIBUTE);
 
 			ldapService.unbind(new LdapName(roleOU));
+			groupIndex.remove(roleOU);
+			rolesChanged();
 		} catch (NamingException e) {
 			processNamingException(e);
 			throw new IllegalStateException("Unreachable code");
@@ -347,25 +430,25 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 		}
 	}
 
-	private void assignRole(LdapName userDn, Role role) throws NamingException, IOException {
+	private void assignRole(LdapBatch batch, LdapName userDn, Role role) {
 		
 		List<ModificationItem> modificationItems = new ArrayList<ModificationItem>();
 		Attribute attribute = new BasicAttribute(MEMBER_ATTRIBUTE, userDn.toString());
 		modificationItems.add(new ModificationItem(
 				DirContext.ADD_ATTRIBUTE, attribute));
 		
-		ldapService.update(((ActiveDirectoryGroup)role).getDn(),
+		batch.update(((ActiveDirectoryGroup)role).getDn(),
 				modificationItems.toArray(new ModificationItem[0]));
 	}
 	
-	private void revokeRole(LdapName userDn, Role role) throws NamingException, IOException {
+	private void revokeRole(LdapBatch batch, LdapName userDn, Role role) {
 		
 		List<ModificationItem> modificationItems = new ArrayList<ModificationItem>();
 		Attribute attribute = new BasicAttribute(MEMBER_ATTRIBUTE, userDn.toString());
 		modificationItems.add(new ModificationItem(
 				DirContext.REMOVE_ATTRIBUTE, attribute));
 
-		ldapService.update(((ActiveDirectoryGroup)role).getDn(),
+		batch.update(((ActiveDirectoryGroup)role).getDn(),
 				modificationItems.toArray(new ModificationItem[0]));
 	}
 	
@@ -373,95 +456,58 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 			List<ModificationItem> modificationItems, 
 			Principal previousState, 
 			Principal newState) {
-		
-		for (Map.Entry<String, String[]> entry : newState.getAttributes()
-				.entrySet()) {
-			if (!isExcludeForUserUpdate(entry.getKey())) {
-				if (!previousState.getAttributes()
-						.containsKey(entry.getKey())) {
-					// New
-					if (entry.getValue().length > 0) {
-
-						String[] value = entry.getValue();
-						if (value.length > 0 && !StringUtils.isEmpty(value[0])) {
-							Attribute attr = new BasicAttribute(entry.getKey());
-							for(String val : value) {
-								attr.add(val);
-							}
-							modificationItems.add(new ModificationItem(
-									DirContext.ADD_ATTRIBUTE, attr));
-						}
-					}
-				} else {
-					String[] oldValue = previousState.getAttributes().get(entry.getKey());
-					String[] newValue = newState.getAttributes().get(entry.getKey());
-					if (!ArrayUtils.isEquals(oldValue, newValue)) {
-
-						String[] value = entry.getValue();
-						if (value.length > 0 && !StringUtils.isEmpty(value[0])) {
-							Attribute attr = new BasicAttribute(entry.getKey());
-							for(String val : value) {
-								attr.add(val);
-							}
-							modificationItems.add(new ModificationItem(
-									DirContext.REPLACE_ATTRIBUTE, attr));
-						} else {
-							Attribute attr = new BasicAttribute(entry.getKey());
-							modificationItems.add(new ModificationItem(
-									DirContext.REMOVE_ATTRIBUTE, attr));
-						}
-					}
-				}
-			}
-		}
+		addModifications(modificationItems, userPlanner.planAttributes(previousState, newState));
 	}
 	
 	protected void processGroupAttributes(
 			List<ModificationItem> modificationItems, 
 			Principal previousState, 
 			Principal newState) {
-		
-		for (Map.Entry<String, String[]> entry : newState.getAttributes()
-				.entrySet()) {
-			if (!isExcludeForGroupUpdate(entry.getKey())) {
-				if (!previousState.getAttributes()
-						.containsKey(entry.getKey())) {
-					// New
-					if (entry.getValue().length > 0) {
-
-						String[] value = entry.getValue();
-						if (value.length > 0 && !StringUtils.isEmpty(value[0])) {
-							Attribute attr = new BasicAttribute(entry.getKey());
-							for(String val : value) {
-								attr.add(val);
-							}
-							modificationItems.add(new ModificationItem(
-									DirContext.ADD_ATTRIBUTE, attr));
-						}
+		addModifications(modificationItems, groupPlanner.planAttributes(previousState, newState));
+	}
+
+	/**
+	 * Turn planned attribute changes into modifications. Changes to multi-valued
+	 * attributes only add and remove the values that differ, so large
+	 * attributes are not rewritten in full for a single value.
+	 */
+	private void addModifications(List<ModificationItem> modificationItems, UpdatePlan plan) {
+		for (AttributeChange change : plan.getAttributeChanges()) {
+			switch (change.getType()) {
+			case ADD:
+				modificationItems.add(new ModificationItem(DirContext.ADD_ATTRIBUTE,
+						toAttribute(change.getName(), Arrays.asList(change.getNewValues()))));
+				break;
+			case REMOVE:
+				modificationItems.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE,
+						new BasicAttribute(change.getName())));
+				break;
+			default:
+				if (change.isMultiValued()) {
+					if (!change.getRemovedValues().isEmpty()) {
+						modificationItems.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE,
+								toAttribute(change.getName(), change.getRemovedValues())));
 					}
-				} else {
-					String[] oldValue = previousState.getAttributes().get(entry.getKey());
-					String[] newValue = newState.getAttributes().get(entry.getKey());
-					if (!ArrayUtils.isEquals(oldValue, newValue)) {
-
-						String[] value = entry.getValue();
-						if (value.length > 0 && !StringUtils.isEmpty(value[0])) {
-							Attribute attr = new BasicAttribute(entry.getKey());
-							for(String val : value) {
-								attr.add(val);
-							}
-							modificationItems.add(new ModificationItem(
-									DirContext.REPLACE_ATTRIBUTE, attr));
-						} else {
-							Attribute attr = new BasicAttribute(entry.getKey());
-							modificationItems.add(new ModificationItem(
-									DirContext.REMOVE_ATTRIBUTE, attr));
-						}
+					if (!change.getAddedValues().isEmpty()) {
+						modificationItems.add(new ModificationItem(DirContext.ADD_ATTRIBUTE,
+								toAttribute(change.getName(), change.getAddedValues())));
 					}
+				} else {
+					modificationItems.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE,
+							toAttribute(change.getName(), Arrays.asList(change.getNewValues()))));
 				}
+				break;
 			}
 		}
 	}
+
+	private static Attribute toAttribute(String name, Collection<String> values) {
+		Attribute attr = new BasicAttribute(name);
+		for (String val : values) {
+			attr.add(val);
+		}
+		return attr;
+	}
 	
 	@Override
 	public void updateRole(final Role role) throws ConnectorException {
@@ -487,8 +533,10 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 			}
 
 
-			ldapService.update(roleDn,
-					modificationItems.toArray(new ModificationItem[0]));
+			if(!modificationItems.isEmpty()) {
+				ldapService.update(roleDn,
+						modificationItems.toArray(new ModificationItem[0]));
+			}
 
 			
 			// Update roles
@@ -520,6 +568,9 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 						+ role.getAttribute(OU_ATTRIBUTE));
 				ldapService.rename(roleDn, newDN);
 			}
+			/* Looked up again when next needed */
+			groupIndex.remove(roleOu);
+			rolesChanged();
 
 		} catch (NamingException e) {
 			processNamingException(e);
@@ -547,6 +598,7 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 			LdapName usersDn = new LdapName(identityOU);
 			String principalName = identity.getPrincipalName();
 
+			UpdatePlan plan = userPlanner.plan(oldIdentity, identity);
 			processUserAttributes(modificationItems, oldIdentity, identity);
 
 			String principalNameWithDomain = principalName + "@"
@@ -563,36 +615,31 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 
 			String contactDetail = identity
 					.getAddress(com.identity4j.connector.Media.mobile);
-			if (!StringUtil.isNullOrEmpty(contactDetail)) {
+			if (plan.isChanged(UpdatePlan.Property.MOBILE) && !StringUtil.isNullOrEmpty(contactDetail)) {
 				Attribute attribute = new BasicAttribute(
 						MOBILE_PHONE_NUMBER_ATTRIBUTE, contactDetail);
 				modificationItems.add(new ModificationItem(
 						DirContext.REPLACE_ATTRIBUTE, attribute));
 			}
 
-			if(!modificationItems.isEmpty()) {
-				ldapService.update(usersDn,
-						modificationItems.toArray(new ModificationItem[0]));
-			}
+			/* Attributes, roles and any rename are changed on one connection */
+			LdapBatch batch = ldapService.createBatch();
+			batch.update(usersDn,
+					modificationItems.toArray(new ModificationItem[0]));
 			
 			// Update roles
-			List<Role> toRemove = new ArrayList<Role>(Arrays.asList(oldIdentity.getRoles()));
-			List<Role> toAdd = new ArrayList<Role>(Arrays.asList(identity.getRoles()));
-			toRemove.removeAll(Arrays.asList(identity.getRoles()));
-			toAdd.removeAll(Arrays.asList(oldIdentity.getRoles()));
-			
-			for(Role r : toRemove) {
-				revokeRole(usersDn, r);
+			for(Role r : plan.getRolesRemoved()) {
+				revokeRole(batch, usersDn, r);
 			}
 			
-			for(Role r : toAdd) {
-				assignRole(usersDn, r);
+			for(Role r : plan.getRolesAdded()) {
+				assignRole(batch, usersDn, r);
 			}
 			
-			if (Util.differs(oldIdentity.getFullName(), identity.getFullName())) {
+			if (plan.isChanged(UpdatePlan.Property.FULL_NAME)) {
 				LdapName newDN = new LdapName(usersDn.getSuffix(1).toString());
 				newDN.add(0, "CN=" + identity.getFullName());
-				ldapService.rename(usersDn, newDN);
+				batch.rename(usersDn, newDN);
 			} else if (Util.differs(
 					oldIdentity.getAttribute(COMMON_NAME_ATTRIBUTE),
 					identity.getAttribute(COMMON_NAME_ATTRIBUTE))) {
@@ -600,14 +647,15 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 				newDN.remove(newDN.size() - 1);
 				newDN.add(newDN.size(),
 						"CN=" + identity.getAttribute(COMMON_NAME_ATTRIBUTE));
-				ldapService.rename(usersDn, newDN);
+				batch.rename(usersDn, newDN);
 			} else if (Util.differs(oldIdentity.getAttribute(OU_ATTRIBUTE),
 					identity.getAttribute(OU_ATTRIBUTE))) {
 				LdapName newDN = new LdapName("CN="
 						+ identity.getAttribute(COMMON_NAME_ATTRIBUTE) + ","
 						+ identity.getAttribute(OU_ATTRIBUTE));
-				ldapService.rename(usersDn, newDN);
+				batch.rename(usersDn, newDN);
 			}
+			ldapService.execute(batch);
 
 		} catch (NamingException e) {
 			processNamingException(e);
@@ -700,7 +748,12 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 
 			ldapService.bind(roleDn, attributes.toArray(new Attribute[0]));
 			
-			return getRoleByName(role.getPrincipalName());
+			Role created = getRoleByName(role.getPrincipalName());
+			if (created instanceof ActiveDirectoryGroup) {
+				groupIndex.put((ActiveDirectoryGroup) created);
+			}
+			rolesChanged();
+			return created;
 
 		} catch (NamingException e) {
 			processNamingException(e);
@@ -880,11 +933,14 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 								identity.getAddress(com.identity4j.connector.Media.mobile)));
 			}
 
-			ldapService.bind(userDn, attributes.toArray(new Attribute[0]));
+			/* The entry and its group memberships are created on one connection */
+			LdapBatch batch = ldapService.createBatch();
+			batch.bind(userDn, attributes.toArray(new Attribute[0]));
 
 			for(Role r : identity.getRoles()) {
-				assignRole(userDn, r);
+				assignRole(batch, userDn, r);
 			}
+			ldapService.execute(batch);
 			
 			DirectoryIdentity directoryIdentity = (DirectoryIdentity) getIdentityByName(upn);
 			
@@ -1168,6 +1224,7 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 			SearchControls searchControls) {
 		searchControls = super.configureSearchControls(searchControls);
 		List<String> attr = new ArrayList<String>(ALL_ROLE_ATTRIBUTES);
+		attr.add(GroupIndex.USN_CHANGED_ATTRIBUTE);
 		searchControls.setReturningAttributes(attr.toArray(new String[0]));
 		return searchControls;
 	}
@@ -1324,46 +1381,13 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 
 	private String[] getElements(Attribute attribute)
 			throws NamingException {
-		Collection<String> values = new ArrayList<String>();
-		for (int index = 0; index < attribute.size(); index++) {
-			// TODO how to decide how non-string attributes are
-			// converted
-			final Object object = attribute.get(index);
-			if (object instanceof byte[]) {
-				values.add(StringUtil
-						.convertByteToString((byte[]) object));
-			} else if (object instanceof String
-					|| object instanceof Number
-					|| object instanceof Boolean) {
-				values.add(object.toString());
-			} else {
-				LOG.warn("Unknown attribute class, assuming String.");
-				values.add(object.toString());
-			}
-		}
-		return values.toArray(new String[values.size()]);
+		return getAttributeDecoder().decode(attribute);
 	}
 	
 	@Override
 	protected Iterator<Identity> getIdentities(String filter) {
 
 		final ActiveDirectoryConfiguration config = (ActiveDirectoryConfiguration) getConfiguration();
-		final Map<String, ActiveDirectoryGroup> groups = new HashMap<String, ActiveDirectoryGroup>();
-		final Map<Long, ActiveDirectoryGroup> groupsByRID = new HashMap<Long, ActiveDirectoryGroup>();
-
-		if (config.isEnableRoles()) {
-			Iterator<Role> it = getRoles();
-			while (it.hasNext()) {
-				ActiveDirectoryGroup group = (ActiveDirectoryGroup) it.next();
-				String dn = group.getDn().toString();
-				// https://jira.springsource.org/browse/LDAP-109
-				dn = dn.replace("\\\\", "\\\\\\");
-				dn = dn.replace("/", "\\/");
-
-				groups.put(dn.toLowerCase(), group);
-				groupsByRID.put(group.getRid(), group);
-			}
-		}
 
 		final int minimumPasswordAge = getMinimumPasswordAge();
 		final int maximumPasswordAge = getMaximumPasswordAge();
@@ -1547,58 +1571,52 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 					if (config.isEnableRoles()) {
 						boolean memberOfSupported = true;
 
+						Iterator<String> groupDnsItr;
 						try {
-							Long rid = Long
-									.parseLong((String) getAttribute(attributes
-											.get(PRIMARY_GROUP_ID_ATTRIBUTE)));
-							ActiveDirectoryGroup primaryGroup = groupsByRID
-									.get(rid);
-							if (primaryGroup != null) {
-								directoryIdentity.addRole(primaryGroup);
+							if (config.isTokenGroups()) {
+								for (String sid : getTokenGroups(result)) {
+									ActiveDirectoryGroup activeDirectoryGroup = groupIndex
+											.getBySid(sid);
+									if (activeDirectoryGroup != null) {
+										directoryIdentity
+												.addRole(activeDirectoryGroup);
+									}
+								}
+								return directoryIdentity;
+							}
+
+							Set<ActiveDirectoryGroup> groups = new LinkedHashSet<ActiveDirectoryGroup>();
+							try {
+								Long rid = Long
+										.parseLong((String) getAttribute(attributes
+												.get(PRIMARY_GROUP_ID_ATTRIBUTE)));
+								ActiveDirectoryGroup primaryGroup = groupIndex
+										.getByRid(rid);
+								if (primaryGroup != null) {
+									groups.add(primaryGroup);
+								}
+							} catch (NumberFormatException e) {
 							}
-						} catch (NumberFormatException e) {
-						}
 
-						Iterator<String> groupDnsItr;
-						try {
 							groupDnsItr = memberOfSupported ? getUsersGroups(result)
 									: getGroupsForUser(result);
 
 							while (groupDnsItr.hasNext()) {
-								String dn = groupDnsItr.next();
-
-								// https://jira.springsource.org/browse/LDAP-109
-								dn = dn.replace("\\\\", "\\\\\\");
-								dn = dn.replace("/", "\\/");
-
-								if (groups.containsKey(dn.toLowerCase())) {
-									directoryIdentity.addRole(groups.get(dn
-											.toLowerCase()));
-								} else {
-									LdapContext ctx = ldapService
-											.lookupContext(new LdapName(dn));
-									try {
-										
-										ActiveDirectoryGroup activeDirectoryGroup = mapRole(
-												dn, ctx.getAttributes(""));
-										if (activeDirectoryGroup != null) {
-											groups.put(dn.toLowerCase(),
-													activeDirectoryGroup);
-											groupsByRID.put(
-													activeDirectoryGroup
-															.getRid(),
-													activeDirectoryGroup);
-											directoryIdentity
-													.addRole(activeDirectoryGroup);
-										}
-									} finally {
-										try {
-											ctx.close();
-										} catch (Exception e) {
-										}
-									}
+								ActiveDirectoryGroup activeDirectoryGroup = groupIndex
+										.getByDn(groupDnsItr.next());
+								if (activeDirectoryGroup != null) {
+									groups.add(activeDirectoryGroup);
+								}
+							}
+
+							if (config.isNestedGroups()) {
+								for (ActiveDirectoryGroup group : new ArrayList<ActiveDirectoryGroup>(groups)) {
+									groups.addAll(groupIndex.getNested(group));
 								}
 							}
+							for (ActiveDirectoryGroup group : groups) {
+								directoryIdentity.addRole(group);
+							}
 						} catch (IOException e) {
 							LOG.error("Problem in getting roles", e);
 						}
@@ -1873,6 +1891,201 @@ public class ActiveDirectoryConnector extends DirectoryConnector {
 		return STRING_ITERATOR;
 	}
 
+	/**
+	 * Pass the identities and roles that were added, changed or deleted since
+	 * an earlier call to a listener, using DirSync. Without a cookie every
+	 * identity and role is passed as an addition. The listener is given a
+	 * cookie to resume from after each batch the server returns, and the last
+	 * one is also returned.
+	 * <p>
+	 * The account used must have the "Replicating Directory Changes" right on
+	 * the domain, unless
+	 * {@link ActiveDirectoryConfiguration#ACTIVE_DIRECTORY_DIRSYNC_OBJECT_SECURITY}
+	 * is set.
+	 * 
+	 * @param listener listener
+	 * @param cookie cookie from an earlier call, or <code>null</code>
+	 * @return cookie to pass to the next call
+	 */
+	public byte[] synchronize(final DirectoryChangeListener listener, byte[] cookie) {
+		final ActiveDirectoryConfiguration config = getActiveDirectoryConfiguration();
+		/* Computers are users too, but not identities */
+		String filter = String.format("(&(objectClass=%s)(!(objectClass=computer)))", config.getIdentityObjectClass());
+		if (config.isEnableRoles()) {
+			filter = String.format("(|%s(objectClass=%s))", filter, config.getRoleObjectClass());
+		}
+		int flags = DirSyncControl.PUBLIC_DATA_ONLY;
+		if (config.isDirSyncObjectSecurity()) {
+			flags |= DirSyncControl.OBJECT_SECURITY;
+		}
+		DirSync dirSync = new DirSync(getRootDn(), filter, flags, new DirSync.Resolver() {
+			@Override
+			public Iterator<? extends Principal> resolve(String guidFilter) {
+				List<Principal> principals = new ArrayList<Principal>();
+				for (Iterator<Identity> it = getIdentities(String.format(
+						"(&(!(%s=computer))(%s=%s)%s)", OBJECT_CLASS_ATTRIBUTE,
+						OBJECT_CLASS_ATTRIBUTE, config.getIdentityObjectClass(),
+						guidFilter)); it.hasNext();) {
+					principals.add(it.next());
+				}
+				if (config.isEnableRoles()) {
+					for (Iterator<Role> it = getRoles(String.format("(&(%s=%s)%s)",
+							OBJECT_CLASS_ATTRIBUTE, config.getRoleObjectClass(),
+							guidFilter)); it.hasNext();) {
+						principals.add(it.next());
+					}
+				}
+				return principals.iterator();
+			}
+		});
+
+		try {
+			LdapContext context = ldapService.openDedicatedConnection();
+			try {
+				return dirSync.run(context, cookie, new DirectoryChangeListener() {
+					@Override
+					public void changed(DirectoryChange change) {
+						if (change.isRole()) {
+							groupIndex.put((ActiveDirectoryGroup) change.getPrincipal());
+							rolesChanged();
+						} else if (change.getType() == DirectoryChange.Type.DELETE
+								&& (change.getObjectClasses() == null || change.isObjectClass(config.getRoleObjectClass()))) {
+							/* Reported under its tombstone DN, so found by GUID */
+							groupIndex.removeByGuid(change.getEntryUUID());
+							rolesChanged();
+						}
+						listener.changed(change);
+					}
+
+					@Override
+					public void checkpoint(byte[] cookie) {
+						listener.checkpoint(cookie);
+					}
+
+					@Override
+					public void refreshRequired() {
+						listener.refreshRequired();
+					}
+
+					@Override
+					public void failed(Throwable exception) {
+						listener.failed(exception);
+					}
+				});
+			} finally {
+				context.close();
+			}
+		} catch (NamingException e) {
+			processNamingException(e);
+			throw new IllegalStateException("Unreachable code");
+		} catch (IOException e) {
+			throw new ConnectorException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Get every group an identity is a member of, directly or through nested
+	 * groups, by asking the server with the in chain matching rule. This is
+	 * one search, so suits a single identity. When reading many identities
+	 * set {@link ActiveDirectoryConfiguration#ACTIVE_DIRECTORY_NESTED_GROUPS},
+	 * which works out nesting locally from one read of all groups.
+	 * 
+	 * @param identity identity
+	 * @return roles
+	 */
+	public Iterator<Role> getNestedRoles(Identity identity) {
+		String dn = ((DirectoryIdentity) identity).getDn().toString();
+		return getRoles(String.format("(&(objectClass=%s)(%s:%s:=%s))",
+				getActiveDirectoryConfiguration().getRoleObjectClass(),
+				MEMBER_ATTRIBUTE, MATCHING_RULE_IN_CHAIN, escapeFilterValue(dn)));
+	}
+
+	/**
+	 * Get whether an identity is a member of a role, directly or through
+	 * nested groups. The server checks this with the in chain matching rule,
+	 * in a base scope search of the identity.
+	 * 
+	 * @param identity identity
+	 * @param role role
+	 * @return member
+	 */
+	public boolean isNestedMember(Identity identity, Role role) {
+		String filter = String.format("(%s:%s:=%s)", MEMBER_OF_ATTRIBUTE,
+				MATCHING_RULE_IN_CHAIN,
+				escapeFilterValue(((ActiveDirectoryGroup) role).getDn().toString()));
+		SearchControls controls = ldapService.getSearchControls();
+		controls.setSearchScope(SearchControls.OBJECT_SCOPE);
+		controls.setReturningAttributes(new String[] { DISTINGUISHED_NAME_ATTRIBUTE });
+		try {
+			return ldapService.search(((DirectoryIdentity) identity).getDn(),
+					filter, new ResultMapper<Boolean>() {
+						@Override
+						public Boolean apply(SearchResult result) {
+							return Boolean.TRUE;
+						}
+
+						public boolean isApplyFilters() {
+							return false;
+						}
+					}, controls).hasNext();
+		} catch (NamingException e) {
+			processNamingException(e);
+			throw new IllegalStateException("Unreachable code");
+		} catch (IOException e) {
+			throw new ConnectorException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Escape a value for use in a search filter (RFC 4515).
+	 */
+	static String escapeFilterValue(String value) {
+		StringBuilder b = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			switch (ch) {
+			case '\\':
+				b.append("\\5c");
+				break;
+			case '*':
+				b.append("\\2a");
+				break;
+			case '(':
+				b.append("\\28");
+				break;
+			case ')':
+				b.append("\\29");
+				break;
+			case '\0':
+				b.append("\\00");
+				break;
+			default:
+				b.append(ch);
+			}
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Read the SIDs of all groups a user is a member of, directly or through
+	 * nesting. <code>tokenGroups</code> is constructed by the server, so is
+	 * only returned by a base scope read of the user.
+	 */
+	private List<String> getTokenGroups(SearchResult result)
+			throws NamingException, IOException {
+		Attribute attribute = ldapService.getAttributes(
+				new LdapName(result.getNameInNamespace()),
+				TOKEN_GROUPS_ATTRIBUTE).get(TOKEN_GROUPS_ATTRIBUTE);
+		List<String> sids = new ArrayList<String>();
+		if (attribute != null) {
+			NamingEnumeration<?> all = attribute.getAll();
+			while (all.hasMore()) {
+				sids.add(ActiveDirectoryUtils.decodeSID((byte[]) all.next()));
+			}
+		}
+		return sids;
+	}
+
 	private Iterator<String> getGroupsForUser(SearchResult result)
 			throws NamingException, IOException {
 		String filter = ldapService.buildObjectClassFilter("group", "member",
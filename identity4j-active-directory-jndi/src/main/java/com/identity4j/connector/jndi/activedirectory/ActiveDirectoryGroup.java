@@ -32,11 +32,13 @@ public class ActiveDirectoryGroup extends RoleImpl {
 	private static final long serialVersionUID = -7675417973639150879L;
 	private final Name dn;
 	private final Long rid;
+	private final String sid;
 	
 	public ActiveDirectoryGroup(String guid, String samAccountName, Name dn, byte[] sid) {
 		super(guid, samAccountName);
 		this.dn = dn;
 		rid = ActiveDirectoryUtils.getRIDFromSID(sid);
+		this.sid = ActiveDirectoryUtils.decodeSID(sid);
 	}
 
 	/**
@@ -64,4 +66,14 @@ public class ActiveDirectoryGroup extends RoleImpl {
 		return rid;
 	}
 
+	/**
+	 * Get the security identifier in its string form, e.g.
+	 * <code>S-1-5-21-...</code>.
+	 * 
+	 * @return sid
+	 */
+	public final String getSid() {
+		return sid;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,284 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.jndi.directory.DirectoryChange;
+import com.identity4j.connector.jndi.directory.DirectoryChangeListener;
+import com.identity4j.connector.jndi.directory.DirectoryIdentity;
+import com.identity4j.connector.principal.Principal;
+
+/**
+ * Reads the changes made to a domain since a cookie using the
+ * {@link DirSyncControl}, and passes them to a
+ * {@link DirectoryChangeListener}.
+ * <p>
+ * DirSync returns only the attributes that changed, so changed objects are
+ * read again in full, a few at a time by GUID, using the connector's normal
+ * mapping and include and exclude rules. An object that has
+ * <code>whenCreated</code> among its changes is an addition, anything else a
+ * modification. Deleted objects are returned by the server as tombstones with
+ * <code>isDeleted</code> set, and are passed on without a principal; the
+ * entry UUID of the change is the GUID the principal had, and its object
+ * classes are those of the tombstone, read by GUID if the server did not
+ * send them. Deleted computers are not passed on, as computers are not
+ * identities.
+ */
+class DirSync {
+
+	final static Log LOG = LogFactory.getLog(DirSync.class);
+
+	static final String SHOW_DELETED_OID = "1.2.840.113556.1.4.417";
+	static final String IS_DELETED_ATTRIBUTE = "isDeleted";
+	static final String WHEN_CREATED_ATTRIBUTE = "whenCreated";
+	static final String OBJECT_CLASS_ATTRIBUTE = "objectClass";
+	static final String COMPUTER_OBJECT_CLASS = "computer";
+	static final int GUIDS_PER_SEARCH = 50;
+
+	/**
+	 * Reads the current state of changed objects.
+	 */
+	interface Resolver {
+		/**
+		 * Read the identities and roles matching a filter.
+		 * 
+		 * @param filter filter on <code>objectGUID</code>
+		 * @return principals
+		 */
+		Iterator<? extends Principal> resolve(String filter) throws NamingException, IOException;
+	}
+
+	private final Name root;
+	private final String filter;
+	private final int flags;
+	private final Resolver resolver;
+
+	/**
+	 * @param root root of the domain, DirSync may not search below it
+	 * @param filter filter for the objects to return, including deleted ones
+	 * @param flags {@link DirSyncControl} flags
+	 * @param resolver reads changed objects in full
+	 */
+	DirSync(Name root, String filter, int flags, Resolver resolver) {
+		this.root = root;
+		this.filter = filter;
+		this.flags = flags;
+		this.resolver = resolver;
+	}
+
+	/**
+	 * Read all changes since a cookie, checkpointing after each batch the
+	 * server returns.
+	 * 
+	 * @param context dedicated connection, with no other request controls
+	 * @param cookie cookie from an earlier run, or <code>null</code> to
+	 *            return every object as an addition
+	 * @param listener listener
+	 * @return cookie to pass to the next run
+	 * @throws NamingException
+	 * @throws IOException
+	 */
+	byte[] run(LdapContext context, byte[] cookie, DirectoryChangeListener listener) throws NamingException,
+			IOException {
+		SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		DirSyncControl response;
+		do {
+			context.setRequestControls(new Control[] { new DirSyncControl(flags, 0, cookie),
+					new BasicControl(SHOW_DELETED_OID) });
+			Map<String, DirectoryChange.Type> changed = new LinkedHashMap<String, DirectoryChange.Type>();
+			Map<String, byte[]> guids = new LinkedHashMap<String, byte[]>();
+			List<DirectoryChange> deleted = new ArrayList<DirectoryChange>();
+			Map<String, byte[]> unclassified = new LinkedHashMap<String, byte[]>();
+			NamingEnumeration<SearchResult> results = context.search(root, filter, controls);
+			try {
+				while (results.hasMore()) {
+					SearchResult result = results.next();
+					Attributes attributes = result.getAttributes();
+					Attribute guidAttribute = attributes.get(ActiveDirectoryConnector.OBJECT_GUID_ATTRIBUTE);
+					if (guidAttribute == null) {
+						continue;
+					}
+					byte[] guidBytes = (byte[]) guidAttribute.get();
+					String guid = UUID.nameUUIDFromBytes(guidBytes).toString();
+					if (isDeleted(attributes)) {
+						DirectoryChange change = new DirectoryChange(DirectoryChange.Type.DELETE,
+								result.getNameInNamespace(), null);
+						change.setEntryUUID(guid);
+						Attribute objectClass = attributes.get(OBJECT_CLASS_ATTRIBUTE);
+						if (objectClass == null) {
+							unclassified.put(guid, guidBytes);
+						} else {
+							change.setObjectClasses(values(objectClass));
+						}
+						deleted.add(change);
+					} else {
+						changed.put(guid, attributes.get(WHEN_CREATED_ATTRIBUTE) == null ? DirectoryChange.Type.MODIFY
+								: DirectoryChange.Type.ADD);
+						guids.put(guid, guidBytes);
+					}
+				}
+			} finally {
+				results.close();
+			}
+			response = DirSyncControl.get(context.getResponseControls());
+			if (response == null) {
+				throw new ConnectorException("Directory did not return a DirSync response.");
+			}
+
+			if (!unclassified.isEmpty()) {
+				classify(context, deleted, new ArrayList<byte[]>(unclassified.values()));
+			}
+			int computers = 0;
+			for (DirectoryChange change : deleted) {
+				if (change.isObjectClass(COMPUTER_OBJECT_CLASS)) {
+					computers++;
+				} else {
+					listener.changed(change);
+				}
+			}
+			resolve(changed, new ArrayList<byte[]>(guids.values()), listener);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("DirSync returned " + changed.size() + " changed and " + (deleted.size() - computers)
+						+ " deleted objects");
+			}
+			cookie = response.getCookie();
+			listener.checkpoint(cookie);
+		} while (response.isMore());
+		return cookie;
+	}
+
+	/**
+	 * Read the object classes of tombstones the server sent without them.
+	 * This replaces the request controls of the context, which are set again
+	 * for each DirSync search.
+	 */
+	private void classify(LdapContext context, List<DirectoryChange> deleted, List<byte[]> guids)
+			throws NamingException {
+		Map<String, DirectoryChange> byGuid = new LinkedHashMap<String, DirectoryChange>();
+		for (DirectoryChange change : deleted) {
+			byGuid.put(change.getEntryUUID(), change);
+		}
+		context.setRequestControls(new Control[] { new BasicControl(SHOW_DELETED_OID) });
+		SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		controls.setReturningAttributes(new String[] { ActiveDirectoryConnector.OBJECT_GUID_ATTRIBUTE,
+				OBJECT_CLASS_ATTRIBUTE });
+		for (int i = 0; i < guids.size(); i += GUIDS_PER_SEARCH) {
+			NamingEnumeration<SearchResult> results = context.search(root,
+					guidFilter(guids.subList(i, Math.min(guids.size(), i + GUIDS_PER_SEARCH))), controls);
+			try {
+				while (results.hasMore()) {
+					Attributes attributes = results.next().getAttributes();
+					Attribute guid = attributes.get(ActiveDirectoryConnector.OBJECT_GUID_ATTRIBUTE);
+					Attribute objectClass = attributes.get(OBJECT_CLASS_ATTRIBUTE);
+					if (guid != null && objectClass != null) {
+						DirectoryChange change = byGuid.get(UUID.nameUUIDFromBytes((byte[]) guid.get()).toString());
+						if (change != null) {
+							change.setObjectClasses(values(objectClass));
+						}
+					}
+				}
+			} finally {
+				results.close();
+			}
+		}
+	}
+
+	private void resolve(Map<String, DirectoryChange.Type> changed, List<byte[]> guids,
+			DirectoryChangeListener listener) throws NamingException, IOException {
+		for (int i = 0; i < guids.size(); i += GUIDS_PER_SEARCH) {
+			String filter = guidFilter(guids.subList(i, Math.min(guids.size(), i + GUIDS_PER_SEARCH)));
+			for (Iterator<? extends Principal> it = resolver.resolve(filter); it.hasNext();) {
+				Principal principal = it.next();
+				DirectoryChange.Type type = changed.get(principal.getGuid());
+				if (type != null) {
+					DirectoryChange change = new DirectoryChange(type, dn(principal), principal);
+					change.setEntryUUID(principal.getGuid());
+					listener.changed(change);
+				}
+			}
+		}
+	}
+
+	private static String guidFilter(List<byte[]> guids) {
+		StringBuilder filter = new StringBuilder("(|");
+		for (byte[] guid : guids) {
+			filter.append('(').append(ActiveDirectoryConnector.OBJECT_GUID_ATTRIBUTE).append('=');
+			appendEscaped(filter, guid);
+			filter.append(')');
+		}
+		return filter.append(')').toString();
+	}
+
+	private static String[] values(Attribute attribute) throws NamingException {
+		String[] values = new String[attribute.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = String.valueOf(attribute.get(i));
+		}
+		return values;
+	}
+
+	private static String dn(Principal principal) {
+		if (principal instanceof ActiveDirectoryGroup) {
+			return ((ActiveDirectoryGroup) principal).getDn().toString();
+		}
+		return principal instanceof DirectoryIdentity ? ((DirectoryIdentity) principal).getDn().toString() : null;
+	}
+
+	private static boolean isDeleted(Attributes attributes) throws NamingException {
+		Attribute attribute = attributes.get(IS_DELETED_ATTRIBUTE);
+		return attribute != null && "TRUE".equalsIgnoreCase(String.valueOf(attribute.get()));
+	}
+
+	static void appendEscaped(StringBuilder filter, byte[] value) {
+		for (byte b : value) {
+			filter.append('\\');
+			filter.append(Character.forDigit((b >> 4) & 0xf, 16));
+			filter.append(Character.forDigit(b & 0xf, 16));
+		}
+	}
+}
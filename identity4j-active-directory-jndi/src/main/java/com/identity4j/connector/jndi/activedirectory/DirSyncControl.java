@@ -0,0 +1,124 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+import com.identity4j.connector.jndi.directory.Ber;
+
+/**
+ * The Active Directory DirSync control, which makes a search return only the
+ * objects, and the attributes of them, that changed since the cookie of an
+ * earlier search. The same control is returned by the server with the cookie
+ * to use next time.
+ */
+public class DirSyncControl extends BasicControl {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String OID = "1.2.840.113556.1.4.841";
+
+	/**
+	 * Return only objects and attributes the caller may read, so the
+	 * "Replicating Directory Changes" right is not needed.
+	 */
+	public static final int OBJECT_SECURITY = 0x1;
+
+	/**
+	 * Return parents before their children.
+	 */
+	public static final int ANCESTORS_FIRST_ORDER = 0x800;
+
+	/**
+	 * Do not return secret attributes such as password hashes.
+	 */
+	public static final int PUBLIC_DATA_ONLY = 0x2000;
+
+	/**
+	 * Return only the values that were added or removed from multi-valued
+	 * attributes, rather than all of them.
+	 */
+	public static final int INCREMENTAL_VALUES = 0x80000000;
+
+	private final boolean more;
+	private final byte[] cookie;
+
+	/**
+	 * @param flags flags
+	 * @param maxBytes most bytes of attribute values to return at once, or 0
+	 *            for the server's limit
+	 * @param cookie cookie from an earlier search, or <code>null</code> to
+	 *            return every object
+	 */
+	public DirSyncControl(int flags, int maxBytes, byte[] cookie) {
+		super(OID, true, Ber.sequence(Ber.integer(flags), Ber.integer(maxBytes),
+				Ber.octets(cookie == null ? new byte[0] : cookie)));
+		this.more = false;
+		this.cookie = cookie;
+	}
+
+	public DirSyncControl(String id, boolean criticality, byte[] value) throws IOException {
+		super(id, criticality, value);
+		Ber.Reader reader = new Ber.Reader(value).sequence();
+		more = reader.integer() != 0;
+		reader.integer();
+		cookie = reader.octets();
+	}
+
+	/**
+	 * Find and decode the control in a set of response controls.
+	 * 
+	 * @param controls controls, may be <code>null</code>
+	 * @return control, or <code>null</code> if not present
+	 * @throws IOException if the control cannot be decoded
+	 */
+	public static DirSyncControl get(Control[] controls) throws IOException {
+		if (controls != null) {
+			for (Control control : controls) {
+				if (OID.equals(control.getID())) {
+					return control instanceof DirSyncControl ? (DirSyncControl) control
+							: new DirSyncControl(control.getID(), control.isCritical(), control.getEncodedValue());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Whether there are more changes to read, by searching again with this
+	 * cookie.
+	 * 
+	 * @return more
+	 */
+	public boolean isMore() {
+		return more;
+	}
+
+	public byte[] getCookie() {
+		return cookie;
+	}
+}
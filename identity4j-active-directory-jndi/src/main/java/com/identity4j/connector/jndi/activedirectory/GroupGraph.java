@@ -0,0 +1,110 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which groups are members of which other groups, built once from an
+ * enumeration of all groups so the groups a group is nested in can be found
+ * without going back to the directory. Groups are identified by keys, as
+ * made by {@link GroupIndex#key(String)}. Nesting may contain cycles, which
+ * Active Directory allows.
+ */
+class GroupGraph {
+
+	private final Map<String, Set<String>> parents = new HashMap<String, Set<String>>();
+	private final Map<String, Set<String>> closures = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * Record that one group is a member of another. Must not be called once
+	 * the graph is being queried.
+	 * 
+	 * @param group key of containing group
+	 * @param member key of member group
+	 */
+	void addMember(String group, String member) {
+		Set<String> memberOf = parents.get(member);
+		if (memberOf == null) {
+			memberOf = new HashSet<String>();
+			parents.put(member, memberOf);
+		}
+		memberOf.add(group);
+	}
+
+	/**
+	 * Get every group a group is nested in, directly or through other groups.
+	 * The result is remembered, and reused when finding the groups of any
+	 * group that is a member of this one.
+	 * 
+	 * @param group key of group
+	 * @return keys of containing groups, not including the group itself
+	 */
+	Set<String> getAncestors(String group) {
+		Set<String> ancestors = closures.get(group);
+		if (ancestors != null) {
+			return ancestors;
+		}
+		ancestors = new LinkedHashSet<String>();
+		Deque<String> pending = new ArrayDeque<String>();
+		pending.add(group);
+		while (!pending.isEmpty()) {
+			Set<String> memberOf = parents.get(pending.poll());
+			if (memberOf == null) {
+				continue;
+			}
+			for (String parent : memberOf) {
+				if (parent.equals(group) || !ancestors.add(parent)) {
+					continue;
+				}
+				Set<String> known = closures.get(parent);
+				if (known == null) {
+					pending.add(parent);
+				} else {
+					/* Already complete, no need to walk it again */
+					for (String ancestor : known) {
+						if (!ancestor.equals(group)) {
+							ancestors.add(ancestor);
+						}
+					}
+				}
+			}
+		}
+		ancestors = Collections.unmodifiableSet(ancestors);
+		closures.put(group, ancestors);
+		return ancestors;
+	}
+
+	int size() {
+		return parents.size();
+	}
+}
@@ -0,0 +1,589 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.util.NamedThreadFactory;
+
+/**
+ * The groups of the domain by DN, RID and SID, shared by every identity lookup so
+ * groups are not enumerated each time. The index is built on first use. It
+ * is then brought up to date by reading only the groups whose
+ * <code>uSNChanged</code> is higher than any seen so far, and rebuilt in full
+ * when its time to live expires. Deleted groups drop out then, or when they
+ * are reported by {@link ActiveDirectoryConnector#synchronize}.
+ * A DN that is not in the index is looked up and added. The nesting of the
+ * indexed groups is worked out from their <code>member</code> attributes
+ * when first asked for, see {@link GroupGraph}. Groups with more members
+ * than the server returns at once have the rest of them read range by
+ * range.
+ * <p>
+ * Builds and refreshes run on a thread of the index's own, never on the
+ * caller's, which may be one of the threads mapping a parallel search. Only
+ * the first build is waited for. After that callers are served the index as
+ * it is while a rebuild is read, and the new index replaces it in one step
+ * when complete.
+ */
+class GroupIndex {
+
+	final static Log LOG = LogFactory.getLog(GroupIndex.class);
+
+	public static final String USN_CHANGED_ATTRIBUTE = "uSNChanged";
+
+	private static final String RANGED_MEMBER_ATTRIBUTE = ActiveDirectoryConnector.MEMBER_ATTRIBUTE + ";range=";
+
+	/**
+	 * Reads groups from the directory.
+	 */
+	interface GroupSource {
+		/**
+		 * Read groups. This is called from the index's own thread, so must not
+		 * wait on the threads that run parallel searches.
+		 * 
+		 * @param minUsn only groups with a <code>uSNChanged</code> of at least
+		 *            this, or 0 for all groups
+		 * @return groups
+		 */
+		Iterator<ActiveDirectoryGroup> groups(long minUsn) throws NamingException, IOException;
+
+		/**
+		 * Read one group.
+		 * 
+		 * @param dn DN
+		 * @return group, or <code>null</code> if it is not a group
+		 */
+		ActiveDirectoryGroup lookup(String dn) throws NamingException, IOException;
+
+		/**
+		 * Read one attribute of a group, such as the next range of a large
+		 * <code>member</code> attribute.
+		 * 
+		 * @param dn DN
+		 * @param name attribute name, for example
+		 *            <code>member;range=1500-*</code>
+		 * @return attribute, named for the range actually returned, or
+		 *         <code>null</code> if there is none
+		 */
+		Attribute attribute(String dn, String name) throws NamingException, IOException;
+	}
+
+	private final GroupSource source;
+	private final long refreshInterval;
+	private final long ttl;
+	private final Object lock = new Object();
+
+	private volatile Snapshot snapshot;
+	private volatile boolean stale;
+	/* Guarded by lock */
+	private ExecutorService executor;
+	private Future<?> update;
+	private List<Change> changesDuringBuild;
+
+	/**
+	 * @param source group source
+	 * @param refreshInterval milliseconds between reads of changed groups, or
+	 *            0 to only rebuild
+	 * @param ttl milliseconds before the index is rebuilt
+	 */
+	GroupIndex(GroupSource source, long refreshInterval, long ttl) {
+		this.source = source;
+		this.refreshInterval = refreshInterval;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Get a group by DN, looking it up if it is not in the index.
+	 * 
+	 * @param dn DN
+	 * @return group, or <code>null</code> if it is not a group
+	 */
+	ActiveDirectoryGroup getByDn(String dn) throws NamingException, IOException {
+		ActiveDirectoryGroup group = current().byDn.get(key(dn));
+		if (group == null) {
+			group = source.lookup(dn);
+			if (group != null) {
+				put(group);
+			}
+		}
+		return group;
+	}
+
+	/**
+	 * Get a group by its relative identifier.
+	 * 
+	 * @param rid RID
+	 * @return group, or <code>null</code> if not known
+	 */
+	ActiveDirectoryGroup getByRid(Long rid) throws NamingException, IOException {
+		Snapshot snapshot = current();
+		return rid == null ? null : snapshot.byRid.get(rid);
+	}
+
+	/**
+	 * Get a group by its security identifier, as found in the
+	 * <code>tokenGroups</code> of a user. Only groups in the index are found,
+	 * so the well known and foreign groups a user may also hold are not.
+	 * 
+	 * @param sid sid in string form
+	 * @return group, or <code>null</code> if not known
+	 */
+	ActiveDirectoryGroup getBySid(String sid) throws NamingException, IOException {
+		return current().bySid.get(sid);
+	}
+
+	/**
+	 * Get every indexed group a group is nested in, directly or through other
+	 * groups.
+	 * 
+	 * @param group group
+	 * @return containing groups
+	 */
+	Set<ActiveDirectoryGroup> getNested(ActiveDirectoryGroup group) throws NamingException, IOException {
+		Snapshot snapshot = current();
+		GroupGraph graph = snapshot.graph;
+		if (graph == null) {
+			synchronized (snapshot) {
+				graph = snapshot.graph;
+				if (graph == null) {
+					graph = buildGraph(snapshot.byDn);
+					snapshot.graph = graph;
+				}
+			}
+		}
+		Set<ActiveDirectoryGroup> nested = new LinkedHashSet<ActiveDirectoryGroup>();
+		for (String key : graph.getAncestors(key(group.getDn().toString()))) {
+			ActiveDirectoryGroup ancestor = snapshot.byDn.get(key);
+			if (ancestor != null) {
+				nested.add(ancestor);
+			}
+		}
+		return nested;
+	}
+
+	/**
+	 * Add or replace a group, for example after it was created or changed
+	 * through the connector.
+	 * 
+	 * @param group group
+	 */
+	void put(ActiveDirectoryGroup group) {
+		synchronized (lock) {
+			if (changesDuringBuild != null) {
+				changesDuringBuild.add(new Change(group, null, null));
+			}
+			Snapshot snapshot = this.snapshot;
+			if (snapshot != null) {
+				snapshot.put(group);
+			}
+		}
+	}
+
+	/**
+	 * Remove a group, for example after it was deleted or renamed.
+	 * 
+	 * @param dn DN
+	 */
+	void remove(String dn) {
+		synchronized (lock) {
+			if (changesDuringBuild != null) {
+				changesDuringBuild.add(new Change(null, dn, null));
+			}
+			Snapshot snapshot = this.snapshot;
+			if (snapshot != null) {
+				snapshot.remove(dn);
+			}
+		}
+	}
+
+	/**
+	 * Remove a group by GUID, for example when reported deleted, when the
+	 * tombstone DN it is reported with is of no use.
+	 * 
+	 * @param guid GUID
+	 */
+	void removeByGuid(String guid) {
+		synchronized (lock) {
+			if (changesDuringBuild != null) {
+				changesDuringBuild.add(new Change(null, null, guid));
+			}
+			Snapshot snapshot = this.snapshot;
+			if (snapshot != null) {
+				snapshot.removeByGuid(guid);
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the index in the background when next used.
+	 */
+	void invalidate() {
+		stale = true;
+	}
+
+	int size() {
+		Snapshot snapshot = this.snapshot;
+		return snapshot == null ? 0 : snapshot.byDn.size();
+	}
+
+	/**
+	 * Wait for a build or refresh that is under way to finish.
+	 */
+	void awaitUpdate() throws NamingException, IOException {
+		Future<?> update;
+		synchronized (lock) {
+			update = this.update;
+		}
+		if (update != null) {
+			await(update);
+		}
+	}
+
+	/**
+	 * Stop the thread that builds the index.
+	 */
+	void close() {
+		synchronized (lock) {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+	}
+
+	private Snapshot current() throws NamingException, IOException {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot == null) {
+			/* Nothing to serve yet, so wait for the first build */
+			await(schedule(true));
+			snapshot = this.snapshot;
+		} else {
+			long now = System.currentTimeMillis();
+			if (stale || now - snapshot.built >= ttl) {
+				schedule(true);
+			} else if (refreshInterval > 0 && now - snapshot.refreshed >= refreshInterval) {
+				schedule(false);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Start a build or refresh, unless one is already under way.
+	 */
+	private Future<?> schedule(final boolean rebuild) {
+		synchronized (lock) {
+			if (update == null || update.isDone()) {
+				if (executor == null) {
+					executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("GroupIndex"));
+				}
+				update = executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (rebuild) {
+								rebuild();
+							} else {
+								refresh();
+							}
+						} catch (Exception e) {
+							LOG.warn("Failed to " + (rebuild ? "build" : "refresh") + " the group index.", e);
+							throw e instanceof RuntimeException ? (RuntimeException) e : new GroupIndexException(e);
+						}
+					}
+				});
+			}
+			return update;
+		}
+	}
+
+	private static void await(Future<?> future) throws NamingException, IOException {
+		try {
+			future.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedNamingException("Interrupted waiting for the group index.");
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof GroupIndexException) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof NamingException) {
+				throw (NamingException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	private void rebuild() throws NamingException, IOException {
+		synchronized (lock) {
+			changesDuringBuild = new ArrayList<Change>();
+		}
+		stale = false;
+		try {
+			Snapshot built = new Snapshot(System.currentTimeMillis());
+			for (Iterator<ActiveDirectoryGroup> it = source.groups(0); it.hasNext();) {
+				ActiveDirectoryGroup group = it.next();
+				if (group != null) {
+					built.put(group);
+					built.highestUsn = Math.max(built.highestUsn, usn(group));
+				}
+			}
+			synchronized (lock) {
+				/* Changes made through the connector may not have been read */
+				for (Change change : changesDuringBuild) {
+					if (change.group != null) {
+						built.put(change.group);
+					} else if (change.dn != null) {
+						built.remove(change.dn);
+					} else {
+						built.removeByGuid(change.guid);
+					}
+				}
+				built.graph = null;
+				snapshot = built;
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Indexed " + built.byDn.size() + " groups up to USN " + built.highestUsn);
+			}
+		} finally {
+			synchronized (lock) {
+				changesDuringBuild = null;
+			}
+		}
+	}
+
+	private void refresh() throws NamingException, IOException {
+		Snapshot snapshot = this.snapshot;
+		if (snapshot.highestUsn == 0) {
+			/* No USNs returned, so changes cannot be found */
+			snapshot.refreshed = System.currentTimeMillis();
+			return;
+		}
+		int changed = 0;
+		long usn = snapshot.highestUsn;
+		for (Iterator<ActiveDirectoryGroup> it = source.groups(snapshot.highestUsn + 1); it.hasNext();) {
+			ActiveDirectoryGroup group = it.next();
+			if (group == null) {
+				continue;
+			}
+			synchronized (lock) {
+				snapshot.put(group);
+			}
+			usn = Math.max(usn, usn(group));
+			changed++;
+		}
+		snapshot.highestUsn = usn;
+		snapshot.refreshed = System.currentTimeMillis();
+		if (LOG.isDebugEnabled() && changed > 0) {
+			LOG.debug("Updated " + changed + " changed groups up to USN " + usn);
+		}
+	}
+
+	private GroupGraph buildGraph(Map<String, ActiveDirectoryGroup> byDn) throws NamingException, IOException {
+		GroupGraph graph = new GroupGraph();
+		for (Map.Entry<String, ActiveDirectoryGroup> en : byDn.entrySet()) {
+			for (String member : members(en.getValue())) {
+				/* Only members that are groups, not users */
+				String key = key(member);
+				if (byDn.containsKey(key)) {
+					graph.addMember(en.getKey(), key);
+				}
+			}
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Found nesting of " + graph.size() + " groups");
+		}
+		return graph;
+	}
+
+	/**
+	 * Get all members of a group. Large groups are returned with only the
+	 * first range of members, as <code>member;range=0-1499</code>, so the
+	 * following ranges are read until the last, whose upper bound is
+	 * <code>*</code>.
+	 */
+	private List<String> members(ActiveDirectoryGroup group) throws NamingException, IOException {
+		List<String> members = new ArrayList<String>();
+		String range = null;
+		for (Map.Entry<String, String[]> attr : group.getAttributes().entrySet()) {
+			String name = attr.getKey();
+			if (name.equalsIgnoreCase(ActiveDirectoryConnector.MEMBER_ATTRIBUTE)) {
+				members.addAll(Arrays.asList(attr.getValue()));
+			} else if (name.toLowerCase().startsWith(RANGED_MEMBER_ATTRIBUTE)) {
+				members.addAll(Arrays.asList(attr.getValue()));
+				range = name;
+			}
+		}
+		String dn = group.getDn().toString();
+		while (range != null && !range.endsWith("-*")) {
+			long next;
+			try {
+				next = Long.parseLong(range.substring(range.lastIndexOf('-') + 1)) + 1;
+			} catch (NumberFormatException nfe) {
+				LOG.warn("Unexpected member range " + range + " for " + dn + ", nesting may be incomplete.");
+				break;
+			}
+			Attribute attr = source.attribute(dn, ActiveDirectoryConnector.MEMBER_ATTRIBUTE + ";range=" + next + "-*");
+			if (attr == null) {
+				break;
+			}
+			for (NamingEnumeration<?> values = attr.getAll(); values.hasMore();) {
+				members.add(String.valueOf(values.next()));
+			}
+			range = attr.getID();
+		}
+		return members;
+	}
+
+	private static long usn(ActiveDirectoryGroup group) {
+		String usn = group.getAttribute(USN_CHANGED_ATTRIBUTE);
+		try {
+			return usn == null || usn.length() == 0 ? 0 : Long.parseLong(usn);
+		} catch (NumberFormatException nfe) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Normalise a DN for lookup. Escapes are made consistent as they were
+	 * when the index was built per search (see LDAP-109).
+	 */
+	static String key(String dn) {
+		return dn.replace("\\\\", "\\\\\\").replace("/", "\\/").toLowerCase();
+	}
+
+	/**
+	 * One complete index. Replaced as a whole by a rebuild, and changed in
+	 * place by refreshes and changes made through the connector.
+	 */
+	static class Snapshot {
+		final Map<String, ActiveDirectoryGroup> byDn = new ConcurrentHashMap<String, ActiveDirectoryGroup>();
+		final Map<Long, ActiveDirectoryGroup> byRid = new ConcurrentHashMap<Long, ActiveDirectoryGroup>();
+		final Map<String, ActiveDirectoryGroup> bySid = new ConcurrentHashMap<String, ActiveDirectoryGroup>();
+		final ConcurrentMap<String, ActiveDirectoryGroup> byGuid = new ConcurrentHashMap<String, ActiveDirectoryGroup>();
+		final long built;
+		volatile long refreshed;
+		volatile GroupGraph graph;
+		/* Only used on the index thread */
+		long highestUsn;
+
+		Snapshot(long built) {
+			this.built = built;
+			this.refreshed = built;
+		}
+
+		void put(ActiveDirectoryGroup group) {
+			String key = key(group.getDn().toString());
+			/* A rename or move leaves the old DN behind */
+			ActiveDirectoryGroup previous = byGuid.get(group.getGuid());
+			if (previous == null) {
+				previous = bySid.get(group.getSid());
+			}
+			if (previous != null) {
+				String previousKey = key(previous.getDn().toString());
+				if (!previousKey.equals(key) && byDn.get(previousKey) == previous) {
+					byDn.remove(previousKey);
+				}
+			}
+			byDn.put(key, group);
+			if (group.getRid() != null) {
+				byRid.put(group.getRid(), group);
+			}
+			bySid.put(group.getSid(), group);
+			byGuid.put(group.getGuid(), group);
+			graph = null;
+		}
+
+		void remove(String dn) {
+			ActiveDirectoryGroup group = byDn.remove(key(dn));
+			if (group != null) {
+				if (group.getRid() != null) {
+					byRid.remove(group.getRid());
+				}
+				bySid.remove(group.getSid());
+				/* Unless a rename already put it back under its new DN */
+				byGuid.remove(group.getGuid(), group);
+				graph = null;
+			}
+		}
+
+		void removeByGuid(String guid) {
+			ActiveDirectoryGroup group = byGuid.get(guid);
+			if (group != null) {
+				remove(group.getDn().toString());
+			}
+		}
+	}
+
+	/**
+	 * A group put, or removed by DN or GUID, while a rebuild was being read.
+	 */
+	static class Change {
+		final ActiveDirectoryGroup group;
+		final String dn;
+		final String guid;
+
+		Change(ActiveDirectoryGroup group, String dn, String guid) {
+			this.group = group;
+			this.dn = dn;
+			this.guid = guid;
+		}
+	}
+
+	/**
+	 * Carries a checked failure out of the index thread.
+	 */
+	@SuppressWarnings("serial")
+	static class GroupIndexException extends RuntimeException {
+		GroupIndexException(Throwable cause) {
+			super(cause);
+		}
+	}
+}
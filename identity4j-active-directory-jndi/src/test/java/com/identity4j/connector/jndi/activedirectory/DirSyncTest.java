@@ -0,0 +1,253 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.junit.Test;
+
+import com.identity4j.connector.jndi.directory.Ber;
+import com.identity4j.connector.jndi.directory.DirectoryChange;
+import com.identity4j.connector.jndi.directory.DirectoryChangeListener;
+import com.identity4j.connector.principal.Principal;
+
+public class DirSyncTest {
+
+	@Test
+	public void testControlEncoding() throws Exception {
+		DirSyncControl request = new DirSyncControl(DirSyncControl.INCREMENTAL_VALUES, 0, null);
+		Ber.Reader reader = new Ber.Reader(request.getEncodedValue()).sequence();
+		assertEquals(Integer.MIN_VALUE, reader.integer());
+		assertEquals(0, reader.integer());
+		assertEquals(0, reader.octets().length);
+
+		DirSyncControl response = DirSyncControl.get(new Control[] { new BasicControl(
+				DirSyncControl.OID, false, Ber.sequence(Ber.integer(1), Ber.integer(0),
+						Ber.octets(new byte[] { 7, 8 }))) });
+		assertTrue(response.isMore());
+		assertArrayEquals(new byte[] { 7, 8 }, response.getCookie());
+		assertNull(DirSyncControl.get(new Control[0]));
+	}
+
+	@Test
+	public void testChangesResolvedAndCheckpointed() throws Exception {
+		final byte[] alice = guid(1), bob = guid(2), staff = guid(3), pc = guid(4);
+		LinkedList<List<SearchResult>> pages = new LinkedList<List<SearchResult>>();
+		pages.add(Collections.singletonList(result("CN=Alice,DC=example,DC=com", alice, "whenCreated",
+				"20260101000000.0Z")));
+		List<SearchResult> second = new ArrayList<SearchResult>();
+		second.add(result("CN=Staff,DC=example,DC=com", staff, "member", "CN=Alice,DC=example,DC=com"));
+		second.add(result("CN=Bob\\0ADEL:x,CN=Deleted Objects,DC=example,DC=com", bob, "isDeleted", "TRUE"));
+		SearchResult deletedPc = result("CN=PC\\0ADEL:y,CN=Deleted Objects,DC=example,DC=com", pc, "isDeleted",
+				"TRUE");
+		deletedPc.getAttributes().put(objectClass("top", "person", "organizationalPerson", "user", "computer"));
+		second.add(deletedPc);
+		pages.add(second);
+		FakeDirSyncContext fake = new FakeDirSyncContext(pages);
+		/* Bob's tombstone was sent without its object classes */
+		SearchResult tombstone = result("CN=Bob\\0ADEL:x,CN=Deleted Objects,DC=example,DC=com", bob, "isDeleted",
+				"TRUE");
+		tombstone.getAttributes().put(objectClass("top", "person", "organizationalPerson", "user"));
+		fake.tombstones.add(tombstone);
+
+		final List<String> filters = new ArrayList<String>();
+		DirSync dirSync = new DirSync(new LdapName("DC=example,DC=com"), "(objectClass=user)", 0,
+				new DirSync.Resolver() {
+					@Override
+					public Iterator<? extends Principal> resolve(String filter) throws NamingException {
+						filters.add(filter);
+						List<Principal> principals = new ArrayList<Principal>();
+						if (filter.contains("\\01")) {
+							principals.add(new ActiveDirectoryGroup(UUID.nameUUIDFromBytes(alice).toString(),
+									"Alice", new LdapName("CN=Alice,DC=example,DC=com"), new byte[28]));
+						}
+						if (filter.contains("\\03")) {
+							principals.add(new ActiveDirectoryGroup(UUID.nameUUIDFromBytes(staff).toString(),
+									"Staff", new LdapName("CN=Staff,DC=example,DC=com"), new byte[28]));
+						}
+						return principals.iterator();
+					}
+				});
+		RecordingListener listener = new RecordingListener();
+		byte[] cookie = dirSync.run(fake.context, new byte[] { 9 }, listener);
+
+		assertArrayEquals(new byte[] { 2 }, cookie);
+		assertEquals(2, listener.checkpoints);
+		/* Sent the stored cookie, then the one returned */
+		assertArrayEquals(Ber.sequence(Ber.integer(0), Ber.integer(0), Ber.octets(new byte[] { 9 })),
+				fake.requests.get(0).getEncodedValue());
+		assertEquals(DirSync.SHOW_DELETED_OID, fake.showDeleted.getID());
+
+		assertEquals(3, listener.changes.size());
+		assertEquals(DirectoryChange.Type.ADD, listener.changes.get(0).getType());
+		assertEquals("CN=Alice,DC=example,DC=com", listener.changes.get(0).getDn());
+		/* Deletions are passed on first, without reading them */
+		assertEquals(DirectoryChange.Type.DELETE, listener.changes.get(1).getType());
+		assertEquals(UUID.nameUUIDFromBytes(bob).toString(), listener.changes.get(1).getEntryUUID());
+		assertNull(listener.changes.get(1).getPrincipal());
+		assertTrue(listener.changes.get(1).isObjectClass("User"));
+		assertFalse(listener.changes.get(1).isObjectClass(DirSync.COMPUTER_OBJECT_CLASS));
+		/* Only Bob's tombstone was read, and the deleted computer not passed on */
+		assertEquals(1, fake.classified.size());
+		assertTrue(fake.classified.get(0).contains("\\02"));
+		assertFalse(fake.classified.get(0).contains("\\04"));
+		assertEquals(DirectoryChange.Type.MODIFY, listener.changes.get(2).getType());
+		assertEquals("Staff", listener.changes.get(2).getPrincipal().getPrincipalName());
+		assertFalse(filters.get(1).contains("\\02"));
+	}
+
+	private static byte[] guid(int id) {
+		byte[] guid = new byte[16];
+		guid[15] = (byte) id;
+		return guid;
+	}
+
+	private static Attribute objectClass(String... classes) {
+		Attribute attribute = new BasicAttribute(DirSync.OBJECT_CLASS_ATTRIBUTE);
+		for (String c : classes) {
+			attribute.add(c);
+		}
+		return attribute;
+	}
+
+	private static SearchResult result(String dn, byte[] guid, String attribute, String value) {
+		BasicAttributes attributes = new BasicAttributes(true);
+		attributes.put(ActiveDirectoryConnector.OBJECT_GUID_ATTRIBUTE, guid);
+		attributes.put(attribute, value);
+		SearchResult result = new SearchResult(dn, null, attributes, false);
+		result.setNameInNamespace(dn);
+		return result;
+	}
+
+	static class RecordingListener implements DirectoryChangeListener {
+		final List<DirectoryChange> changes = new ArrayList<DirectoryChange>();
+		int checkpoints;
+
+		public void changed(DirectoryChange change) {
+			changes.add(change);
+		}
+
+		public void checkpoint(byte[] cookie) {
+			checkpoints++;
+		}
+
+		public void refreshRequired() {
+		}
+
+		public void failed(Throwable exception) {
+		}
+	}
+
+	/**
+	 * Returns one page of results per search, with a DirSync response whose
+	 * cookie is the page number.
+	 */
+	static class FakeDirSyncContext implements InvocationHandler {
+		final LdapContext context = (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { LdapContext.class }, this);
+		final List<DirSyncControl> requests = new ArrayList<DirSyncControl>();
+		final LinkedList<List<SearchResult>> pages;
+		final List<SearchResult> tombstones = new ArrayList<SearchResult>();
+		final List<String> classified = new ArrayList<String>();
+		Control showDeleted;
+		boolean classifying;
+		int page;
+
+		FakeDirSyncContext(LinkedList<List<SearchResult>> pages) {
+			this.pages = pages;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("setRequestControls")) {
+				Control[] controls = (Control[]) args[0];
+				/* Tombstones are read with only the show deleted control */
+				classifying = controls.length == 1;
+				if (!classifying) {
+					requests.add((DirSyncControl) controls[0]);
+					showDeleted = controls[1];
+				}
+				return null;
+			} else if (name.equals("search")) {
+				final Iterator<SearchResult> it;
+				if (classifying) {
+					classified.add((String) args[1]);
+					it = tombstones.iterator();
+				} else {
+					page++;
+					it = pages.removeFirst().iterator();
+				}
+				return new NamingEnumeration<SearchResult>() {
+					public boolean hasMoreElements() {
+						return it.hasNext();
+					}
+
+					public SearchResult nextElement() {
+						return it.next();
+					}
+
+					public boolean hasMore() {
+						return it.hasNext();
+					}
+
+					public SearchResult next() {
+						return it.next();
+					}
+
+					public void close() {
+					}
+				};
+			} else if (name.equals("getResponseControls")) {
+				return new Control[] { new DirSyncControl(DirSyncControl.OID, false, Ber.sequence(
+						Ber.integer(pages.isEmpty() ? 0 : 1), Ber.integer(0), Ber.octets(new byte[] { (byte) page }))) };
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class GroupGraphTest {
+
+	@Test
+	public void testTransitiveAncestors() {
+		GroupGraph graph = new GroupGraph();
+		/* staff is in employees, which is in everyone and vpn */
+		graph.addMember("employees", "staff");
+		graph.addMember("everyone", "employees");
+		graph.addMember("vpn", "employees");
+		graph.addMember("vpn", "contractors");
+
+		assertEquals(set("employees", "everyone", "vpn"), graph.getAncestors("staff"));
+		assertEquals(set("vpn"), graph.getAncestors("contractors"));
+		assertTrue(graph.getAncestors("everyone").isEmpty());
+		/* Remembered */
+		assertSame(graph.getAncestors("staff"), graph.getAncestors("staff"));
+	}
+
+	@Test
+	public void testCycles() {
+		GroupGraph graph = new GroupGraph();
+		graph.addMember("b", "a");
+		graph.addMember("c", "b");
+		graph.addMember("a", "c");
+		graph.addMember("d", "c");
+
+		assertEquals(set("b", "c", "d"), graph.getAncestors("a"));
+		/* Uses what is known of a, which includes c itself */
+		assertEquals(set("a", "b", "d"), graph.getAncestors("c"));
+		assertEquals(set("a", "c", "d"), graph.getAncestors("b"));
+	}
+
+	@Test
+	public void testFilterValueEscaped() {
+		assertEquals("CN=Smith\\5c, John \\28Sales\\29\\2a,DC=example,DC=com",
+				ActiveDirectoryConnector.escapeFilterValue("CN=Smith\\, John (Sales)*,DC=example,DC=com"));
+	}
+
+	private static Set<String> set(String... keys) {
+		return new HashSet<String>(Arrays.asList(keys));
+	}
+}
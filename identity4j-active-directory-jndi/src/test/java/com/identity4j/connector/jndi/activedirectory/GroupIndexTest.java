@@ -0,0 +1,286 @@
+/* HEADER */
+package com.identity4j.connector.jndi.activedirectory;
+
+/*
+ * #%L
+ * Identity4J Active Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.ldap.LdapName;
+
+import org.junit.Test;
+
+public class GroupIndexTest {
+
+	private final List<ActiveDirectoryGroup> directory = new ArrayList<ActiveDirectoryGroup>();
+	private final List<Long> reads = new ArrayList<Long>();
+	private final List<String> lookups = new ArrayList<String>();
+	private final Map<String, Attribute> ranges = new HashMap<String, Attribute>();
+	private final List<String> rangesRead = new ArrayList<String>();
+
+	private final GroupIndex.GroupSource source = new GroupIndex.GroupSource() {
+		@Override
+		public Iterator<ActiveDirectoryGroup> groups(long minUsn) throws NamingException, IOException {
+			reads.add(minUsn);
+			List<ActiveDirectoryGroup> groups = new ArrayList<ActiveDirectoryGroup>();
+			for (ActiveDirectoryGroup group : directory) {
+				if (Long.parseLong(group.getAttribute(GroupIndex.USN_CHANGED_ATTRIBUTE)) >= minUsn) {
+					groups.add(group);
+				}
+			}
+			return groups.iterator();
+		}
+
+		@Override
+		public ActiveDirectoryGroup lookup(String dn) throws NamingException, IOException {
+			lookups.add(dn);
+			return dn.startsWith("CN=Other") ? group("Other", 2000, 1) : null;
+		}
+
+		@Override
+		public Attribute attribute(String dn, String name) throws NamingException, IOException {
+			rangesRead.add(name);
+			return ranges.get(dn + "/" + name);
+		}
+	};
+
+	@Test
+	public void testBuiltOnceAndShared() throws Exception {
+		directory.add(group("Staff", 1100, 10));
+		directory.add(group("Domain Users", 513, 11));
+		GroupIndex index = new GroupIndex(source, 0, 60000);
+
+		assertEquals("Staff", index.getByDn("cn=staff,dc=example,dc=com").getPrincipalName());
+		assertEquals("Domain Users", index.getByRid(513L).getPrincipalName());
+		assertSame(index.getByRid(1100L), index.getByDn("CN=Staff,DC=example,DC=com"));
+		assertEquals(1, reads.size());
+	}
+
+	@Test
+	public void testUnknownDnLookedUpOnce() throws Exception {
+		GroupIndex index = new GroupIndex(source, 0, 60000);
+		assertEquals("Other", index.getByDn("CN=Other,DC=example,DC=com").getPrincipalName());
+		assertEquals("Other", index.getByDn("CN=Other,DC=example,DC=com").getPrincipalName());
+		assertEquals(2000L, (long) index.getByRid(2000L).getRid());
+		assertEquals(1, lookups.size());
+		assertNull(index.getByDn("CN=Nobody,DC=example,DC=com"));
+	}
+
+	@Test
+	public void testOnlyChangesReadOnRefresh() throws Exception {
+		directory.add(group("Staff", 1100, 10));
+		GroupIndex index = new GroupIndex(source, 1, 60000);
+		index.getByRid(1100L);
+
+		directory.add(group("Sales", 1101, 12));
+		/* Renamed, same RID */
+		directory.set(0, group("Employees", 1100, 13));
+		Thread.sleep(5);
+		/* Changes are read in the background */
+		index.getByRid(1101L);
+		index.awaitUpdate();
+		assertEquals("Sales", index.getByRid(1101L).getPrincipalName());
+		assertEquals(11L, (long) reads.get(1));
+		assertEquals("Employees", index.getByRid(1100L).getPrincipalName());
+		assertNull(index.getByDn("CN=Staff,DC=example,DC=com"));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	public void testOldIndexServedDuringRebuild() throws Exception {
+		directory.add(group("Staff", 1100, 10));
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> threads = new ArrayList<String>();
+		GroupIndex index = new GroupIndex(new GroupIndex.GroupSource() {
+			@Override
+			public Iterator<ActiveDirectoryGroup> groups(long minUsn) throws NamingException, IOException {
+				threads.add(Thread.currentThread().getName());
+				if (threads.size() > 1) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+				return source.groups(minUsn);
+			}
+
+			@Override
+			public ActiveDirectoryGroup lookup(String dn) throws NamingException, IOException {
+				return source.lookup(dn);
+			}
+
+			@Override
+			public Attribute attribute(String dn, String name) throws NamingException, IOException {
+				return source.attribute(dn, name);
+			}
+		}, 0, 50);
+		try {
+			assertEquals("Staff", index.getByRid(1100L).getPrincipalName());
+
+			directory.set(0, group("Employees", 1100, 11));
+			Thread.sleep(60);
+			/* The rebuild is held up, but callers are not */
+			assertEquals("Staff", index.getByRid(1100L).getPrincipalName());
+			assertEquals("Staff", index.getByRid(1100L).getPrincipalName());
+
+			release.countDown();
+			index.awaitUpdate();
+			assertEquals("Employees", index.getByRid(1100L).getPrincipalName());
+			for (String thread : threads) {
+				assertTrue(thread, thread.startsWith("GroupIndex-"));
+			}
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testTokenGroupSidsResolved() throws Exception {
+		directory.add(group("Staff", 1100, 10));
+		GroupIndex index = new GroupIndex(source, 0, 60000);
+
+		String sid = group("Staff", 1100, 10).getSid();
+		assertTrue(sid, sid.startsWith("S-1-5-21-") && sid.endsWith("-1100"));
+		assertEquals("Staff", index.getBySid(sid).getPrincipalName());
+		/* Well known groups such as Everyone are not in the index */
+		assertNull(index.getBySid("S-1-1-0"));
+
+		index.remove("CN=Staff,DC=example,DC=com");
+		assertNull(index.getBySid(sid));
+	}
+
+	@Test
+	public void testDeletedGroupRemovedByGuid() throws Exception {
+		directory.add(group("Staff", 1100, 10));
+		directory.add(group("Sales", 1101, 11));
+		GroupIndex index = new GroupIndex(source, 0, 60000);
+		assertEquals("Staff", index.getByRid(1100L).getPrincipalName());
+
+		/* The group helper uses the name as the GUID */
+		index.removeByGuid("Staff");
+		assertNull(index.getByRid(1100L));
+		assertNull(index.getBySid(group("Staff", 1100, 10).getSid()));
+		assertEquals("Sales", index.getByRid(1101L).getPrincipalName());
+		index.removeByGuid("Nobody");
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testMovedGroupPutUnderNewDn() throws Exception {
+		directory.add(group("Staff", 1100, 10));
+		GroupIndex index = new GroupIndex(source, 0, 60000);
+		ActiveDirectoryGroup staff = index.getByRid(1100L);
+
+		/* As reported by DirSync, a modify with the new DN */
+		ActiveDirectoryGroup moved = new ActiveDirectoryGroup("Staff", "Staff", new LdapName(
+				"CN=Staff,OU=Teams,DC=example,DC=com"), sid(1100));
+		index.put(moved);
+		assertSame(moved, index.getByDn("CN=Staff,OU=Teams,DC=example,DC=com"));
+		assertNull(index.getByDn(staff.getDn().toString()));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testNestingFromMembers() throws Exception {
+		ActiveDirectoryGroup staff = group("Staff", 1100, 10);
+		ActiveDirectoryGroup employees = group("Employees", 1101, 11);
+		employees.setAttribute(ActiveDirectoryConnector.MEMBER_ATTRIBUTE, "CN=Staff,DC=example,DC=com",
+				"CN=Alice,DC=example,DC=com");
+		ActiveDirectoryGroup everyone = group("Everyone", 1102, 12);
+		everyone.setAttribute(ActiveDirectoryConnector.MEMBER_ATTRIBUTE, "cn=employees,dc=example,dc=com");
+		directory.add(staff);
+		directory.add(employees);
+		directory.add(everyone);
+		GroupIndex index = new GroupIndex(source, 0, 60000);
+
+		Iterator<ActiveDirectoryGroup> nested = index.getNested(staff).iterator();
+		assertEquals("Employees", nested.next().getPrincipalName());
+		assertEquals("Everyone", nested.next().getPrincipalName());
+		assertFalse(nested.hasNext());
+		assertTrue(index.getNested(everyone).isEmpty());
+	}
+
+	@Test
+	public void testNestingFromRangedMembers() throws Exception {
+		ActiveDirectoryGroup staff = group("Staff", 1100, 10);
+		ActiveDirectoryGroup big = group("Big", 1101, 11);
+		big.setAttribute(ActiveDirectoryConnector.MEMBER_ATTRIBUTE + ";range=0-1", "CN=Alice,DC=example,DC=com",
+				"CN=Bob,DC=example,DC=com");
+		directory.add(staff);
+		directory.add(big);
+		/* The server answers with the range it chose, not the one asked for */
+		ranges.put("CN=Big,DC=example,DC=com/member;range=2-*", range("member;range=2-3",
+				"CN=Carol,DC=example,DC=com", "CN=Dave,DC=example,DC=com"));
+		ranges.put("CN=Big,DC=example,DC=com/member;range=4-*", range("member;range=4-*",
+				"CN=Staff,DC=example,DC=com"));
+		GroupIndex index = new GroupIndex(source, 0, 60000);
+
+		Iterator<ActiveDirectoryGroup> nested = index.getNested(staff).iterator();
+		assertEquals("Big", nested.next().getPrincipalName());
+		assertFalse(nested.hasNext());
+		assertEquals(Arrays.asList("member;range=2-*", "member;range=4-*"), rangesRead);
+	}
+
+	private static Attribute range(String name, String... values) {
+		Attribute attr = new BasicAttribute(name);
+		for (String value : values) {
+			attr.add(value);
+		}
+		return attr;
+	}
+
+	private static ActiveDirectoryGroup group(String name, long rid, long usn) throws NamingException {
+		ActiveDirectoryGroup group = new ActiveDirectoryGroup(name, name, new LdapName("CN=" + name
+				+ ",DC=example,DC=com"), sid(rid));
+		group.setAttribute(GroupIndex.USN_CHANGED_ATTRIBUTE, String.valueOf(usn));
+		return group;
+	}
+
+	private static byte[] sid(long rid) {
+		byte[] sid = new byte[28];
+		sid[0] = 1;
+		sid[1] = 5;
+		sid[7] = 5;
+		sid[8] = 21;
+		for (int i = 0; i < 4; i++) {
+			sid[24 + i] = (byte) (rid >> (8 * i));
+		}
+		return sid;
+	}
+}
@@ -37,6 +37,9 @@ import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Principal;
 import com.identity4j.connector.principal.Role;
+import com.identity4j.util.events.OperationEvent;
+import com.identity4j.util.events.OperationEvents;
+import com.identity4j.util.events.OperationKind;
 import com.identity4j.util.passwords.PasswordCharacteristics;
 import com.identity4j.util.validator.ValidationContext;
 
@@ -83,12 +86,21 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 
 	public final Identity logon(String username, char[] password) throws PrincipalNotFoundException,
 			InvalidLoginCredentialsException, ConnectorException {
-		Identity identity = getIdentityByName(username);
-		if (identity == null) {
-			throw new InvalidLoginCredentialsException("Invalid username or password: '" + username + "'");
+		OperationEvent event = beginEvent("logon", username);
+		try {
+			Identity identity = getIdentityByName(username);
+			if (identity == null) {
+				throw new InvalidLoginCredentialsException("Invalid username or password: '" + username + "'");
+			}
+			assertValidCredentials(identity, password);
+			event.succeeded();
+			return identity;
+		} catch (RuntimeException re) {
+			event.failed(re);
+			throw re;
+		} finally {
+			event.end();
 		}
-		assertValidCredentials(identity, password);
-		return identity;
 	}
 
 	private void assertValidCredentials(Identity identity, char[] password) throws ConnectorException,
@@ -111,6 +123,7 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 		/**
 		 * Optimised by LDP to only retrieve Identity once.
 		 */
+		OperationEvent event = beginEvent("checkCredentials", username);
 		try {
 			Identity identity = getIdentityByName(username);
 			boolean valid = areCredentialsValid(identity, password);
@@ -119,9 +132,16 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 					processor.processIdentity(identity, this);
 				}
 			}
+			event.result(valid ? "valid" : "invalid");
 			return valid;
 		} catch (PrincipalNotFoundException e) {
+			event.result("notFound");
 			return false;
+		} catch (RuntimeException re) {
+			event.failed(re);
+			throw re;
+		} finally {
+			event.end();
 		}
 	}
 
@@ -139,17 +159,26 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 
 	public final void changePassword(String username, String guid, char[] oldPassword, char[] password)
 			throws InvalidLoginCredentialsException, ConnectorException {
-		Identity identity = getIdentityByName(username);
-		assertGuid(identity, guid);
+		OperationEvent event = beginEvent("changePassword", username);
 		try {
-			assertValidCredentials(identity, oldPassword);
-			assertPasswordChangeIsAllowed(identity, oldPassword, password);
-		}
-		catch(PasswordChangeRequiredException pcre) {
-			// Not really surprising :)
+			Identity identity = getIdentityByName(username);
+			assertGuid(identity, guid);
+			try {
+				assertValidCredentials(identity, oldPassword);
+				assertPasswordChangeIsAllowed(identity, oldPassword, password);
+			}
+			catch(PasswordChangeRequiredException pcre) {
+				// Not really surprising :)
+			}
+			
+			changePassword(identity, oldPassword, password);
+			event.succeeded();
+		} catch (RuntimeException re) {
+			event.failed(re);
+			throw re;
+		} finally {
+			event.end();
 		}
-		
-		changePassword(identity, oldPassword, password);
 	}
 
 	/**
@@ -179,9 +208,18 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 
 	public final void setPassword(String username, String guid, char[] password, boolean forcePasswordChangeAtLogon, PasswordResetType resetType)
 			throws PrincipalNotFoundException, InvalidLoginCredentialsException, ConnectorException {
-		Identity identity = getIdentityByName(username);
-		assertGuid(identity, guid);
-		setPassword(identity, password, forcePasswordChangeAtLogon, resetType);
+		OperationEvent event = beginEvent("setPassword", username);
+		try {
+			Identity identity = getIdentityByName(username);
+			assertGuid(identity, guid);
+			setPassword(identity, password, forcePasswordChangeAtLogon, resetType);
+			event.succeeded();
+		} catch (RuntimeException re) {
+			event.failed(re);
+			throw re;
+		} finally {
+			event.end();
+		}
 	}
 
 	@Deprecated
@@ -201,23 +239,65 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 	}
 
 	public final boolean isIdentityNameInUse(String identityName) throws ConnectorException {
+		OperationEvent event = beginEvent("isIdentityNameInUse", identityName);
 		try {
+			if (isIdentityNameKnownUnused(identityName)) {
+				event.result("notInUse");
+				return false;
+			}
 			getIdentityByName(identityName);
+			event.result("inUse");
 			return true;
 		} catch (PrincipalNotFoundException infe) {
+			event.result("notInUse");
 			return false;
+		} finally {
+			event.end();
 		}
 	}
 
 	public final boolean isRoleNameInUse(String rolename) throws ConnectorException {
+		OperationEvent event = beginEvent("isRoleNameInUse", rolename);
 		try {
+			if (isRoleNameKnownUnused(rolename)) {
+				event.result("notInUse");
+				return false;
+			}
 			getRoleByName(rolename);
+			event.result("inUse");
 			return true;
 		} catch (PrincipalNotFoundException rnfe) {
+			event.result("notInUse");
 			return false;
+		} finally {
+			event.end();
 		}
 	}
 
+	/**
+	 * Get whether an identity name is known not to be in use without asking
+	 * the backend. Must never return <code>true</code> for a name that might
+	 * be in use. The default knows nothing, so every check is a lookup.
+	 * 
+	 * @param identityName identity name
+	 * @return known to be unused
+	 */
+	protected boolean isIdentityNameKnownUnused(String identityName) {
+		return false;
+	}
+
+	/**
+	 * Get whether a role name is known not to be in use without asking the
+	 * backend. Must never return <code>true</code> for a name that might be
+	 * in use. The default knows nothing, so every check is a lookup.
+	 * 
+	 * @param roleName role name
+	 * @return known to be unused
+	 */
+	protected boolean isRoleNameKnownUnused(String roleName) {
+		return false;
+	}
+
 	/**
 	 * Very inefficient default implementation. It is highly recommended
 	 * sub-classes override this.
@@ -348,10 +428,19 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 	}
 
 	public void open(ConnectorConfigurationParameters parameters) throws ConnectorException {
-		this.parameters = parameters;
-		onOpen(parameters);
-		if (!isOpen()) {
-			throw new ConnectorException("Connector should be open but was closed");
+		OperationEvent event = beginEvent("open", null);
+		try {
+			this.parameters = parameters;
+			onOpen(parameters);
+			if (!isOpen()) {
+				throw new ConnectorException("Connector should be open but was closed");
+			}
+			event.succeeded();
+		} catch (RuntimeException re) {
+			event.failed(re);
+			throw re;
+		} finally {
+			event.end();
 		}
 	}
 
@@ -375,6 +464,18 @@ public abstract class AbstractConnector implements Connector, ValidationContext
 		throw new UnsupportedOperationException();
 	}
 	
+	/**
+	 * Begin a {@link OperationKind#CONNECTOR} event for an operation of this
+	 * connector. Events cost next to nothing unless they are being recorded.
+	 * 
+	 * @param operation operation name
+	 * @param principalName principal acted on or <code>null</code>
+	 * @return event
+	 */
+	protected final OperationEvent beginEvent(String operation, String principalName) {
+		return OperationEvents.begin(OperationKind.CONNECTOR, getClass(), operation).principal(principalName);
+	}
+
 	public Object getAttribute(String name) {
 		return attributes.get(name);
 	}
@@ -0,0 +1,545 @@
+/* HEADER */
+package com.identity4j.connector.bulk;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CommunicationException;
+import javax.naming.ServiceUnavailableException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.Media;
+import com.identity4j.connector.PasswordCreationCallback;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.principal.RoleImpl;
+import com.identity4j.util.NamedThreadFactory;
+
+/**
+ * Copies identities and roles from any source into any target
+ * {@link Connector} using a bounded pool of worker threads.
+ * <p>
+ * Roles are always created before the identities that are members of them.
+ * When importing from a source connector all of its roles are imported first,
+ * and any role referenced by an identity that does not yet exist in the
+ * target is created (once) before that identity is. Principals are read from
+ * the source as workers become free, so a large source is never held in
+ * memory in its entirety.
+ * <p>
+ * Operations that fail for what looks like a transient reason (a
+ * communication failure rather than a rejected request) are retried with an
+ * exponential back-off. The resulting {@link ImportReport} contains counts,
+ * throughput and details of any principals that could not be imported.
+ */
+public class BulkImporter {
+
+	final static Log LOG = LogFactory.getLog(BulkImporter.class);
+
+	private int threads = 8;
+	private int targetConcurrency;
+	private int maxRetries = 3;
+	private long retryDelay = 500;
+	private int maxFailures = 1000;
+	private boolean updateExisting;
+	private boolean createMissingRoles = true;
+	private PasswordCreationCallback passwordCallback;
+	private boolean forcePasswordChange;
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of worker threads.
+	 *
+	 * @param threads threads
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Must have at least one thread");
+		}
+		this.threads = threads;
+	}
+
+	public int getTargetConcurrency() {
+		return targetConcurrency;
+	}
+
+	/**
+	 * Set the maximum number of calls that may be made to the target
+	 * connector at the same time. Zero (the default) means the limit is the
+	 * number of threads. Use this to protect targets with strict rate or
+	 * connection limits while still allowing the source to be read ahead.
+	 *
+	 * @param targetConcurrency maximum concurrent target operations
+	 */
+	public void setTargetConcurrency(int targetConcurrency) {
+		this.targetConcurrency = targetConcurrency;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Get the delay in milliseconds before the first retry. The delay doubles
+	 * for every subsequent attempt.
+	 *
+	 * @return retry delay
+	 */
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+	public void setRetryDelay(long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	public int getMaxFailures() {
+		return maxFailures;
+	}
+
+	/**
+	 * Set the maximum number of failure details to keep in the report.
+	 *
+	 * @param maxFailures maximum failures
+	 */
+	public void setMaxFailures(int maxFailures) {
+		this.maxFailures = maxFailures;
+	}
+
+	/**
+	 * Get whether identities that already exist in the target should be
+	 * updated. If <code>false</code> they are skipped.
+	 *
+	 * @return update existing
+	 */
+	public boolean isUpdateExisting() {
+		return updateExisting;
+	}
+
+	public void setUpdateExisting(boolean updateExisting) {
+		this.updateExisting = updateExisting;
+	}
+
+	/**
+	 * Get whether roles referenced by an identity but missing from the target
+	 * should be created. If <code>false</code> such memberships are dropped.
+	 *
+	 * @return create missing roles
+	 */
+	public boolean isCreateMissingRoles() {
+		return createMissingRoles;
+	}
+
+	public void setCreateMissingRoles(boolean createMissingRoles) {
+		this.createMissingRoles = createMissingRoles;
+	}
+
+	public PasswordCreationCallback getPasswordCallback() {
+		return passwordCallback;
+	}
+
+	/**
+	 * Set the callback used to create the initial password of new
+	 * identities. If not set, identities are created without a password.
+	 *
+	 * @param passwordCallback password callback
+	 */
+	public void setPasswordCallback(PasswordCreationCallback passwordCallback) {
+		this.passwordCallback = passwordCallback;
+	}
+
+	public boolean isForcePasswordChange() {
+		return forcePasswordChange;
+	}
+
+	public void setForcePasswordChange(boolean forcePasswordChange) {
+		this.forcePasswordChange = forcePasswordChange;
+	}
+
+	/**
+	 * Import all roles and then all identities from one connector into
+	 * another.
+	 *
+	 * @param source source connector
+	 * @param target target connector
+	 * @return report
+	 */
+	public ImportReport importAll(Connector source, Connector target) {
+		Job job = new Job(target);
+		try {
+			job.importRoles(source.allRoles());
+			job.importIdentities(source.allIdentities());
+		} finally {
+			job.report.finish();
+		}
+		return job.report;
+	}
+
+	/**
+	 * Import identities into a connector. Roles referenced by the identities
+	 * are looked up (and created if missing and
+	 * {@link #isCreateMissingRoles()}) in the target.
+	 *
+	 * @param identities identities to import
+	 * @param target target connector
+	 * @return report
+	 */
+	public ImportReport importIdentities(Iterator<? extends Identity> identities, Connector target) {
+		Job job = new Job(target);
+		try {
+			job.importIdentities(identities);
+		} finally {
+			job.report.finish();
+		}
+		return job.report;
+	}
+
+	/**
+	 * Import roles into a connector. Roles that already exist are left as is.
+	 *
+	 * @param roles roles to import
+	 * @param target target connector
+	 * @return report
+	 */
+	public ImportReport importRoles(Iterator<? extends Role> roles, Connector target) {
+		Job job = new Job(target);
+		try {
+			job.importRoles(roles);
+		} finally {
+			job.report.finish();
+		}
+		return job.report;
+	}
+
+	/**
+	 * Map an identity read from the source to the identity that will be
+	 * created in the target. The roles of the returned identity are replaced
+	 * with the matching target roles before it is created. The default
+	 * implementation copies the names, contact details and attributes so the
+	 * source object is never modified.
+	 *
+	 * @param source source identity
+	 * @return identity to create in the target
+	 */
+	protected IdentityImpl map(Identity source) {
+		IdentityImpl identity = new IdentityImpl(source.getGuid(), source.getPrincipalName());
+		identity.setFullName(source.getFullName());
+		identity.setOtherName(source.getOtherName());
+		for (Media media : Media.values()) {
+			String address = source.getAddress(media);
+			if (address != null) {
+				identity.setAddress(media, address);
+			}
+		}
+		identity.setAttributes(source.getAttributes());
+		identity.setRoles(source.getRoles());
+		return identity;
+	}
+
+	/**
+	 * Determine whether a failure is likely to be transient and so worth
+	 * retrying. The default implementation looks for I/O or directory
+	 * communication failures anywhere in the cause chain.
+	 *
+	 * @param exception exception
+	 * @return transient
+	 */
+	protected boolean isTransient(Throwable exception) {
+		if (exception instanceof PrincipalAlreadyExistsException || exception instanceof PrincipalNotFoundException) {
+			return false;
+		}
+		for (Throwable t = exception; t != null; t = t.getCause() == t ? null : t.getCause()) {
+			if (t instanceof IOException || t instanceof CommunicationException
+					|| t instanceof ServiceUnavailableException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * State of a single import into a target.
+	 */
+	class Job {
+		final Connector target;
+		final ImportReport report = new ImportReport(maxFailures);
+		final Semaphore permits;
+		final ConcurrentMap<String, FutureTask<Role>> roles = new ConcurrentHashMap<String, FutureTask<Role>>();
+
+		Job(Connector target) {
+			this.target = target;
+			permits = new Semaphore(targetConcurrency > 0 ? targetConcurrency : threads);
+		}
+
+		void importRoles(Iterator<? extends Role> it) {
+			run(it, new Worker<Role>() {
+				public void process(final Role role) {
+					final String name = role.getPrincipalName();
+					FutureTask<Role> task = new FutureTask<Role>(new Callable<Role>() {
+						public Role call() throws Exception {
+							if (isRoleInTarget(name)) {
+								return targetRole(name);
+							}
+							return createRole(role);
+						}
+					});
+					FutureTask<Role> existing = roles.putIfAbsent(name, task);
+					resolve(name, existing == null ? task : existing, existing == null);
+				}
+			});
+		}
+
+		void importIdentities(Iterator<? extends Identity> it) {
+			run(it, new Worker<Identity>() {
+				public void process(Identity source) {
+					final IdentityImpl identity = map(source);
+					final String name = identity.getPrincipalName();
+					List<Role> targetRoles = new ArrayList<Role>();
+					for (Role role : identity.getRoles()) {
+						Role targetRole = roleFor(role);
+						if (targetRole != null) {
+							targetRoles.add(targetRole);
+						}
+					}
+					identity.setRoles(targetRoles.toArray(new Role[0]));
+
+					if (isIdentityInTarget(name)) {
+						if (updateExisting) {
+							call(new Callable<Void>() {
+								public Void call() throws Exception {
+									target.updateIdentity(identity);
+									return null;
+								}
+							});
+							report.identityUpdated();
+						} else {
+							report.identitySkipped();
+						}
+						return;
+					}
+					call(new Callable<Identity>() {
+						public Identity call() throws Exception {
+							if (passwordCallback == null) {
+								return target.createIdentity(identity, (char[]) null);
+							}
+							return target.createIdentity(identity, passwordCallback, forcePasswordChange);
+						}
+					});
+					report.identityCreated();
+				}
+			});
+		}
+
+		/**
+		 * Get the target role for a role referenced by an identity, creating
+		 * it if required. Concurrent identities referencing the same new role
+		 * wait for a single creation.
+		 */
+		Role roleFor(final Role role) {
+			final String name = role.getPrincipalName();
+			FutureTask<Role> task = roles.get(name);
+			boolean owner = false;
+			if (task == null) {
+				task = new FutureTask<Role>(new Callable<Role>() {
+					public Role call() throws Exception {
+						if (isRoleInTarget(name)) {
+							return targetRole(name);
+						}
+						if (!createMissingRoles) {
+							return null;
+						}
+						return createRole(new RoleImpl(role.getGuid(), name));
+					}
+				});
+				FutureTask<Role> existing = roles.putIfAbsent(name, task);
+				if (existing == null) {
+					owner = true;
+				} else {
+					task = existing;
+				}
+			}
+			return resolve(name, task, owner);
+		}
+
+		Role resolve(String name, FutureTask<Role> task, boolean owner) {
+			if (owner) {
+				task.run();
+			}
+			try {
+				return task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ConnectorException("Interrupted waiting for role.", e);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (!owner) {
+					/* Fail everything that needed the role, not only its creator */
+					throw new ConnectorException("Role " + name + " could not be created. " + cause.getMessage(),
+							cause);
+				}
+				throw cause instanceof RuntimeException ? (RuntimeException) cause : new ConnectorException(
+						cause.getMessage(), cause);
+			}
+		}
+
+		Role createRole(final Role role) {
+			Role created = call(new Callable<Role>() {
+				public Role call() throws Exception {
+					return target.createRole(role);
+				}
+			});
+			report.roleCreated();
+			return created;
+		}
+
+		boolean isRoleInTarget(final String name) {
+			return call(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return target.isRoleNameInUse(name);
+				}
+			});
+		}
+
+		Role targetRole(final String name) {
+			return call(new Callable<Role>() {
+				public Role call() throws Exception {
+					return target.getRoleByName(name);
+				}
+			});
+		}
+
+		boolean isIdentityInTarget(final String name) {
+			return call(new Callable<Boolean>() {
+				public Boolean call() throws Exception {
+					return target.isIdentityNameInUse(name);
+				}
+			});
+		}
+
+		/**
+		 * Call the target, holding a permit for the duration of each attempt
+		 * and retrying transient failures.
+		 */
+		<T> T call(Callable<T> callable) {
+			long delay = retryDelay;
+			for (int attempt = 0;; attempt++) {
+				try {
+					permits.acquire();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new ConnectorException("Interrupted waiting for target.", ie);
+				}
+				try {
+					return callable.call();
+				} catch (Exception e) {
+					if (attempt >= maxRetries || !isTransient(e)) {
+						throw e instanceof RuntimeException ? (RuntimeException) e : new ConnectorException(
+								e.getMessage(), e);
+					}
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Transient failure, retrying in " + delay + "ms", e);
+					}
+				} finally {
+					permits.release();
+				}
+				report.retried();
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new ConnectorException("Interrupted waiting to retry.", ie);
+				}
+				delay *= 2;
+			}
+		}
+
+		/**
+		 * Feed principals from the source to the workers, blocking the source
+		 * whenever the work queue is full, then wait for all work to finish.
+		 */
+		<P extends Principal> void run(Iterator<? extends P> it, final Worker<P> worker) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(threads * 4), new NamedThreadFactory("BulkImport"),
+					new ThreadPoolExecutor.CallerRunsPolicy());
+			try {
+				while (it.hasNext()) {
+					final P principal = it.next();
+					executor.execute(new Runnable() {
+						public void run() {
+							try {
+								worker.process(principal);
+							} catch (RuntimeException re) {
+								LOG.warn("Failed to import " + principal.getPrincipalName() + ". " + re.getMessage());
+								report.failed(principal.getPrincipalName(), re);
+							}
+						}
+					});
+				}
+			} finally {
+				executor.shutdown();
+				try {
+					while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+						if (LOG.isInfoEnabled()) {
+							LOG.info(report);
+						}
+					}
+				} catch (InterruptedException e) {
+					executor.shutdownNow();
+					Thread.currentThread().interrupt();
+					throw new ConnectorException("Interrupted waiting for import to complete.", e);
+				}
+			}
+		}
+	}
+
+	interface Worker<P> {
+		void process(P principal);
+	}
+}
@@ -0,0 +1,200 @@
+/* HEADER */
+package com.identity4j.connector.bulk;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a {@link BulkImporter} run. Counters are updated by the worker
+ * threads as the import progresses so the report may also be used to monitor
+ * a running import.
+ */
+public class ImportReport {
+
+	private final AtomicLong identitiesCreated = new AtomicLong();
+	private final AtomicLong identitiesUpdated = new AtomicLong();
+	private final AtomicLong identitiesSkipped = new AtomicLong();
+	private final AtomicLong rolesCreated = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final List<Failure> failures = new ArrayList<Failure>();
+	private final int maxFailures;
+	private final long started = System.currentTimeMillis();
+	private volatile long finished;
+
+	ImportReport(int maxFailures) {
+		this.maxFailures = maxFailures;
+	}
+
+	public long getIdentitiesCreated() {
+		return identitiesCreated.get();
+	}
+
+	public long getIdentitiesUpdated() {
+		return identitiesUpdated.get();
+	}
+
+	/**
+	 * Get the number of identities that already existed in the target and
+	 * were left untouched.
+	 *
+	 * @return skipped identities
+	 */
+	public long getIdentitiesSkipped() {
+		return identitiesSkipped.get();
+	}
+
+	public long getRolesCreated() {
+		return rolesCreated.get();
+	}
+
+	/**
+	 * Get the number of principals that could not be imported, even after
+	 * retrying.
+	 *
+	 * @return failed principals
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * Get the total number of retries made for transient failures.
+	 *
+	 * @return retries
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Get the details of failed principals. At most the configured maximum
+	 * number of failures are kept, although {@link #getFailed()} counts all of
+	 * them.
+	 *
+	 * @return failures
+	 */
+	public List<Failure> getFailures() {
+		synchronized (failures) {
+			return Collections.unmodifiableList(new ArrayList<Failure>(failures));
+		}
+	}
+
+	/**
+	 * Get the time taken in milliseconds, or the time taken so far if the
+	 * import is still running.
+	 *
+	 * @return elapsed time
+	 */
+	public long getElapsed() {
+		return (finished == 0 ? System.currentTimeMillis() : finished) - started;
+	}
+
+	/**
+	 * Get the number of principals processed (successfully or not) per
+	 * second.
+	 *
+	 * @return throughput
+	 */
+	public double getThroughput() {
+		long elapsed = Math.max(1, getElapsed());
+		long processed = getIdentitiesCreated() + getIdentitiesUpdated() + getIdentitiesSkipped() + getRolesCreated()
+				+ getFailed();
+		return processed * 1000d / elapsed;
+	}
+
+	public boolean isFinished() {
+		return finished != 0;
+	}
+
+	void identityCreated() {
+		identitiesCreated.incrementAndGet();
+	}
+
+	void identityUpdated() {
+		identitiesUpdated.incrementAndGet();
+	}
+
+	void identitySkipped() {
+		identitiesSkipped.incrementAndGet();
+	}
+
+	void roleCreated() {
+		rolesCreated.incrementAndGet();
+	}
+
+	void retried() {
+		retries.incrementAndGet();
+	}
+
+	void failed(String principalName, Throwable exception) {
+		failed.incrementAndGet();
+		synchronized (failures) {
+			if (failures.size() < maxFailures) {
+				failures.add(new Failure(principalName, exception));
+			}
+		}
+	}
+
+	void finish() {
+		finished = System.currentTimeMillis();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"ImportReport [identitiesCreated=%d, identitiesUpdated=%d, identitiesSkipped=%d, rolesCreated=%d, failed=%d, retries=%d, elapsed=%dms, throughput=%.1f/s]",
+				getIdentitiesCreated(), getIdentitiesUpdated(), getIdentitiesSkipped(), getRolesCreated(), getFailed(),
+				getRetries(), getElapsed(), getThroughput());
+	}
+
+	/**
+	 * A principal that could not be imported.
+	 */
+	public static class Failure {
+		private final String principalName;
+		private final Throwable exception;
+
+		Failure(String principalName, Throwable exception) {
+			this.principalName = principalName;
+			this.exception = exception;
+		}
+
+		public String getPrincipalName() {
+			return principalName;
+		}
+
+		public Throwable getException() {
+			return exception;
+		}
+
+		@Override
+		public String toString() {
+			return principalName + ": " + exception.getMessage();
+		}
+	}
+}
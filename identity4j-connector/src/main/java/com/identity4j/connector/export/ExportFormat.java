@@ -0,0 +1,54 @@
+/* HEADER */
+package com.identity4j.connector.export;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Output formats supported by {@link PrincipalExporter}.
+ */
+public enum ExportFormat {
+	/**
+	 * Newline delimited JSON, one principal object per line.
+	 */
+	NDJSON("ndjson"),
+	/**
+	 * RFC 4180 comma separated values with a heading row.
+	 */
+	CSV("csv");
+
+	private final String extension;
+
+	private ExportFormat(String extension) {
+		this.extension = extension;
+	}
+
+	/**
+	 * Get the conventional file extension for this format (without the
+	 * leading dot).
+	 *
+	 * @return extension
+	 */
+	public String getExtension() {
+		return extension;
+	}
+}
@@ -0,0 +1,463 @@
+/* HEADER */
+package com.identity4j.connector.export;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.Media;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.util.json.JsonMapperService;
+
+/**
+ * Streams the identities and roles of any {@link Connector} to NDJSON or CSV.
+ * <p>
+ * Principals are written one at a time as they are returned by
+ * {@link Connector#allIdentities()} and {@link Connector#allRoles()}, so memory
+ * use does not depend on the size of the directory being exported. Output
+ * goes through a large buffer directly onto the file channel and may
+ * optionally be gzip compressed.
+ * <p>
+ * The set of native attributes written may be restricted with
+ * {@link #setAttributes(Collection)}. For CSV a projection is needed for any
+ * attributes to be written at all, as the column headings must be known
+ * before the first row is produced.
+ */
+public class PrincipalExporter {
+
+	final static Log LOG = LogFactory.getLog(PrincipalExporter.class);
+
+	/**
+	 * Default size of the output buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private static final List<String> IDENTITY_COLUMNS = Arrays.asList("guid", "principalName", "fullName",
+			"otherName", "email", "mobile", "accountStatus", "passwordStatus", "lastSignOnDate", "roles");
+	private static final List<String> ROLE_COLUMNS = Arrays.asList("guid", "principalName");
+
+	private ExportFormat format = ExportFormat.NDJSON;
+	private boolean compress;
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private String charset = "UTF-8";
+	private char valueSeparator = '|';
+	private List<String> attributes;
+
+	public ExportFormat getFormat() {
+		return format;
+	}
+
+	public void setFormat(ExportFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * Get if the output will be gzip compressed.
+	 *
+	 * @return compress
+	 */
+	public boolean isCompress() {
+		return compress;
+	}
+
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size must be at least 1 byte");
+		}
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Character set used for CSV output. NDJSON is always UTF-8.
+	 *
+	 * @return charset
+	 */
+	public String getCharset() {
+		return charset;
+	}
+
+	public void setCharset(String charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Character used to join multi-valued attributes and role names in CSV
+	 * output.
+	 *
+	 * @return value separator
+	 */
+	public char getValueSeparator() {
+		return valueSeparator;
+	}
+
+	public void setValueSeparator(char valueSeparator) {
+		this.valueSeparator = valueSeparator;
+	}
+
+	/**
+	 * Get the native attribute names to export. <code>null</code> means all
+	 * attributes for NDJSON and none for CSV.
+	 *
+	 * @return attribute projection
+	 */
+	public Collection<String> getAttributes() {
+		return attributes == null ? null : Collections.unmodifiableList(attributes);
+	}
+
+	public void setAttributes(Collection<String> attributes) {
+		this.attributes = attributes == null ? null : new ArrayList<String>(attributes);
+	}
+
+	/**
+	 * Export all identities to a file. If compression is enabled the file will
+	 * contain gzip data regardless of its name.
+	 *
+	 * @param connector connector
+	 * @param file file to write
+	 * @return number of identities written
+	 * @throws IOException
+	 */
+	public long exportIdentities(Connector connector, File file) throws IOException {
+		OutputStream out = openFile(file);
+		try {
+			return exportIdentities(connector, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Export all roles to a file. If compression is enabled the file will
+	 * contain gzip data regardless of its name.
+	 *
+	 * @param connector connector
+	 * @param file file to write
+	 * @return number of roles written
+	 * @throws IOException
+	 */
+	public long exportRoles(Connector connector, File file) throws IOException {
+		OutputStream out = openFile(file);
+		try {
+			return exportRoles(connector, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Export all identities to a stream. The stream is flushed (and the gzip
+	 * trailer written if compressing) but not closed.
+	 *
+	 * @param connector connector
+	 * @param out stream to write to
+	 * @return number of identities written
+	 * @throws IOException
+	 */
+	public long exportIdentities(Connector connector, OutputStream out) throws IOException {
+		return export(connector.allIdentities(), out, IDENTITY_COLUMNS);
+	}
+
+	/**
+	 * Export all roles to a stream. The stream is flushed (and the gzip trailer
+	 * written if compressing) but not closed.
+	 *
+	 * @param connector connector
+	 * @param out stream to write to
+	 * @return number of roles written
+	 * @throws IOException
+	 */
+	public long exportRoles(Connector connector, OutputStream out) throws IOException {
+		return export(connector.allRoles(), out, ROLE_COLUMNS);
+	}
+
+	protected OutputStream openFile(File file) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		return new BufferedOutputStream(Channels.newOutputStream(fos.getChannel()), bufferSize);
+	}
+
+	private long export(Iterator<? extends Principal> it, OutputStream out, List<String> columns)
+			throws IOException {
+		GZIPOutputStream gzip = null;
+		OutputStream target = out;
+		if (compress) {
+			gzip = new GZIPOutputStream(new NonClosingOutputStream(out), bufferSize);
+			target = gzip;
+		}
+		long count;
+		if (format == ExportFormat.CSV) {
+			Writer writer = new OutputStreamWriter(target, charset);
+			count = writeCsv(it, writer, columns);
+			writer.flush();
+		} else {
+			JsonGenerator generator = JsonMapperService.getInstance().createGenerator(target);
+			/* Records are separated by new lines only, not the default space */
+			generator.setRootValueSeparator(null);
+			count = writeJson(it, generator);
+			generator.close();
+		}
+		if (gzip != null) {
+			gzip.finish();
+		}
+		target.flush();
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Exported " + count + " principals as " + format);
+		}
+		return count;
+	}
+
+	private long writeJson(Iterator<? extends Principal> it, JsonGenerator generator) throws IOException {
+		long count = 0;
+		while (it.hasNext()) {
+			Principal principal = it.next();
+			generator.writeStartObject();
+			generator.writeStringField("guid", principal.getGuid());
+			generator.writeStringField("principalName", principal.getPrincipalName());
+			if (principal instanceof Identity) {
+				Identity identity = (Identity) principal;
+				writeStringFieldIfSet(generator, "fullName", identity.getFullName());
+				writeStringFieldIfSet(generator, "otherName", identity.getOtherName());
+				writeStringFieldIfSet(generator, "email", identity.getAddress(Media.email));
+				writeStringFieldIfSet(generator, "mobile", identity.getAddress(Media.mobile));
+				if (identity.getAccountStatus() != null) {
+					generator.writeStringField("accountStatus", String.valueOf(identity.getAccountStatus().getType()));
+				}
+				if (identity.getPasswordStatus() != null) {
+					generator.writeStringField("passwordStatus",
+							String.valueOf(identity.getPasswordStatus().getType()));
+				}
+				if (identity.getLastSignOnDate() != null) {
+					generator.writeNumberField("lastSignOnDate", identity.getLastSignOnDate().getTime());
+				}
+				generator.writeArrayFieldStart("roles");
+				for (Role role : identity.getRoles()) {
+					generator.writeString(role.getPrincipalName());
+				}
+				generator.writeEndArray();
+			}
+			generator.writeObjectFieldStart("attributes");
+			if (attributes == null) {
+				for (Map.Entry<String, String[]> en : principal.getAttributes().entrySet()) {
+					writeAttribute(generator, en.getKey(), en.getValue());
+				}
+			} else {
+				for (String name : attributes) {
+					String[] values = principal.getAttributes(name);
+					if (values != null) {
+						writeAttribute(generator, name, values);
+					}
+				}
+			}
+			generator.writeEndObject();
+			generator.writeEndObject();
+			generator.writeRaw('\n');
+			count++;
+		}
+		return count;
+	}
+
+	private void writeAttribute(JsonGenerator generator, String name, String[] values) throws IOException {
+		generator.writeArrayFieldStart(name);
+		for (String value : values) {
+			generator.writeString(value);
+		}
+		generator.writeEndArray();
+	}
+
+	private void writeStringFieldIfSet(JsonGenerator generator, String name, String value) throws IOException {
+		if (value != null) {
+			generator.writeStringField(name, value);
+		}
+	}
+
+	private long writeCsv(Iterator<? extends Principal> it, Writer writer, List<String> columns) throws IOException {
+		List<String> heading = new ArrayList<String>(columns);
+		if (attributes != null) {
+			heading.addAll(attributes);
+		}
+		writeCsvRow(writer, heading);
+
+		List<String> row = new ArrayList<String>(heading.size());
+		StringBuilder joined = new StringBuilder();
+		long count = 0;
+		while (it.hasNext()) {
+			Principal principal = it.next();
+			row.clear();
+			row.add(principal.getGuid());
+			row.add(principal.getPrincipalName());
+			if (principal instanceof Identity) {
+				Identity identity = (Identity) principal;
+				row.add(identity.getFullName());
+				row.add(identity.getOtherName());
+				row.add(identity.getAddress(Media.email));
+				row.add(identity.getAddress(Media.mobile));
+				row.add(identity.getAccountStatus() == null ? null : String.valueOf(identity.getAccountStatus()
+						.getType()));
+				row.add(identity.getPasswordStatus() == null ? null : String.valueOf(identity.getPasswordStatus()
+						.getType()));
+				Date lastSignOn = identity.getLastSignOnDate();
+				row.add(lastSignOn == null ? null : String.valueOf(lastSignOn.getTime()));
+				joined.setLength(0);
+				for (Role role : identity.getRoles()) {
+					if (joined.length() > 0) {
+						joined.append(valueSeparator);
+					}
+					joined.append(role.getPrincipalName());
+				}
+				row.add(joined.toString());
+			}
+			if (attributes != null) {
+				for (String name : attributes) {
+					String[] values = principal.getAttributes(name);
+					joined.setLength(0);
+					if (values != null) {
+						for (int i = 0; i < values.length; i++) {
+							if (i > 0) {
+								joined.append(valueSeparator);
+							}
+							if (values[i] != null) {
+								joined.append(values[i]);
+							}
+						}
+					}
+					row.add(joined.toString());
+				}
+			}
+			writeCsvRow(writer, row);
+			count++;
+		}
+		return count;
+	}
+
+	private void writeCsvRow(Writer writer, List<String> row) throws IOException {
+		for (int i = 0; i < row.size(); i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			String value = row.get(i);
+			if (value != null) {
+				writeCsvValue(writer, value);
+			}
+		}
+		writer.write("\r\n");
+	}
+
+	private void writeCsvValue(Writer writer, String value) throws IOException {
+		boolean quote = false;
+		int len = value.length();
+		for (int i = 0; i < len && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		if (!quote) {
+			writer.write(value);
+			return;
+		}
+		writer.write('"');
+		for (int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				writer.write('"');
+			}
+			writer.write(c);
+		}
+		writer.write('"');
+	}
+
+	/**
+	 * Stops {@link GZIPOutputStream} closing the caller's stream so the
+	 * stream variants leave it open as documented.
+	 */
+	static class NonClosingOutputStream extends OutputStream {
+		private final OutputStream out;
+
+		NonClosingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	/**
+	 * Convenience to produce a file name for an export of the given kind using
+	 * the conventional extension for the current format and compression.
+	 *
+	 * @param baseName base name, e.g. <code>identities</code>
+	 * @return file name
+	 */
+	public String getFileName(String baseName) {
+		if (baseName == null) {
+			throw new ConnectorException("Base name may not be null");
+		}
+		return baseName + "." + format.getExtension() + (compress ? ".gz" : "");
+	}
+}
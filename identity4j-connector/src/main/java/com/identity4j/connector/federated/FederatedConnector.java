@@ -0,0 +1,670 @@
+/* HEADER */
+package com.identity4j.connector.federated;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.AbstractConnector;
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.ConnectorCapability;
+import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.Media;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.util.AbstractFilteredIterator;
+import com.identity4j.util.NamedThreadFactory;
+import com.identity4j.util.PrefetchingConcatIterator;
+
+/**
+ * Presents several connectors as one. Delegates are given in priority order,
+ * the first being the highest priority.
+ * <p>
+ * Lookups by name are sent to all delegates at the same time. Depending on
+ * the {@link LookupMode}, either the first delegate to find the principal
+ * wins, or the highest priority delegate that has it does. In the latter case
+ * the answer is returned as soon as every higher priority delegate has
+ * answered, so a quick "not found" from one backend never waits on a slow
+ * backend of lower priority.
+ * <p>
+ * {@link #allIdentities()} and {@link #allRoles()} read from all delegates
+ * at once and return the results in priority order, dropping principals
+ * whose de-duplication key has already been seen. Operations on an existing
+ * principal are routed to the delegate it is found in, while new principals
+ * are created in the first delegate. The delegate each identity was found in
+ * is remembered, so repeated operations on the same identity do not look it
+ * up in every delegate each time.
+ * <p>
+ * Delegates are opened and configured by the caller, but are closed when
+ * this connector is closed.
+ */
+public class FederatedConnector extends AbstractConnector {
+
+	final static Log LOG = LogFactory.getLog(FederatedConnector.class);
+
+	/**
+	 * De-duplication key meaning the principal name
+	 */
+	public static final String KEY_PRINCIPAL_NAME = "principalName";
+	/**
+	 * De-duplication key meaning the principal GUID
+	 */
+	public static final String KEY_GUID = "guid";
+	/**
+	 * De-duplication key meaning the email address of an identity
+	 */
+	public static final String KEY_EMAIL = "email";
+
+	private static final Set<ConnectorCapability> CREATE_CAPABILITIES = EnumSet.of(ConnectorCapability.createUser,
+			ConnectorCapability.createRole, ConnectorCapability.createIdentityGUID, ConnectorCapability.createRoleGUID);
+
+	/**
+	 * How the result of a lookup is chosen when several delegates may have
+	 * the principal.
+	 */
+	public enum LookupMode {
+		/**
+		 * Return whichever delegate finds the principal first.
+		 */
+		FIRST,
+		/**
+		 * Return the principal from the highest priority delegate that has it.
+		 */
+		PRIORITY
+	}
+
+	private final List<Connector> delegates;
+	private LookupMode lookupMode = LookupMode.PRIORITY;
+	private String deduplicationKey = KEY_PRINCIPAL_NAME;
+	private boolean caseInsensitiveKeys = true;
+	private long lookupTimeout;
+	private int bufferSize = 1000;
+	private int ownerCacheSize = 10000;
+	private final Map<String, Connector> owners = new LinkedHashMap<String, Connector>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Connector> eldest) {
+			return size() > ownerCacheSize;
+		}
+	};
+	private ExecutorService executor;
+	private boolean ownExecutor;
+
+	public FederatedConnector(Connector... delegates) {
+		this(Arrays.asList(delegates));
+	}
+
+	public FederatedConnector(List<? extends Connector> delegates) {
+		if (delegates.isEmpty()) {
+			throw new IllegalArgumentException("At least one delegate connector is required.");
+		}
+		this.delegates = Collections.unmodifiableList(new ArrayList<Connector>(delegates));
+	}
+
+	/**
+	 * Get the delegates in priority order.
+	 *
+	 * @return delegates
+	 */
+	public List<Connector> getDelegates() {
+		return delegates;
+	}
+
+	public LookupMode getLookupMode() {
+		return lookupMode;
+	}
+
+	public void setLookupMode(LookupMode lookupMode) {
+		this.lookupMode = lookupMode;
+	}
+
+	/**
+	 * Get the key used to decide whether principals from different delegates
+	 * are the same. One of {@link #KEY_PRINCIPAL_NAME} (the default),
+	 * {@link #KEY_GUID}, {@link #KEY_EMAIL} or the name of a native
+	 * attribute. Principals without a value for the key are never treated as
+	 * duplicates.
+	 *
+	 * @return de-duplication key
+	 */
+	public String getDeduplicationKey() {
+		return deduplicationKey;
+	}
+
+	public void setDeduplicationKey(String deduplicationKey) {
+		this.deduplicationKey = deduplicationKey;
+	}
+
+	public boolean isCaseInsensitiveKeys() {
+		return caseInsensitiveKeys;
+	}
+
+	public void setCaseInsensitiveKeys(boolean caseInsensitiveKeys) {
+		this.caseInsensitiveKeys = caseInsensitiveKeys;
+	}
+
+	/**
+	 * Get the maximum time in milliseconds to wait for delegates to answer a
+	 * lookup. When reached, the best answer so far is used. If no delegate
+	 * has found the principal by then, the lookup fails rather than reporting
+	 * the principal as not found. Zero (the default) waits indefinitely.
+	 *
+	 * @return lookup timeout
+	 */
+	public long getLookupTimeout() {
+		return lookupTimeout;
+	}
+
+	public void setLookupTimeout(long lookupTimeout) {
+		this.lookupTimeout = lookupTimeout;
+	}
+
+	/**
+	 * Get the number of principals read ahead from each delegate while
+	 * enumerating.
+	 *
+	 * @return buffer size
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Get the number of identities whose delegate is remembered.
+	 *
+	 * @return owner cache size
+	 */
+	public int getOwnerCacheSize() {
+		return ownerCacheSize;
+	}
+
+	public void setOwnerCacheSize(int ownerCacheSize) {
+		this.ownerCacheSize = ownerCacheSize;
+	}
+
+	/**
+	 * Set the executor used to call delegates. If not set, a cached pool of
+	 * daemon threads is created and shut down when the connector is closed.
+	 *
+	 * @param executor executor
+	 */
+	public synchronized void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+		ownExecutor = false;
+	}
+
+	protected synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new NamedThreadFactory("Federated"));
+			ownExecutor = true;
+		}
+		return executor;
+	}
+
+	@Override
+	public Set<ConnectorCapability> getCapabilities() {
+		Set<ConnectorCapability> capabilities = new HashSet<ConnectorCapability>();
+		for (Connector delegate : delegates) {
+			capabilities.addAll(delegate.getCapabilities());
+		}
+		/* New principals are only ever created in the first delegate */
+		capabilities.removeAll(CREATE_CAPABILITIES);
+		for (ConnectorCapability capability : delegates.get(0).getCapabilities()) {
+			if (CREATE_CAPABILITIES.contains(capability)) {
+				capabilities.add(capability);
+			}
+		}
+		return capabilities;
+	}
+
+	@Override
+	public boolean isOpen() {
+		for (Connector delegate : delegates) {
+			if (!delegate.isOpen()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return delegates.get(0).isReadOnly();
+	}
+
+	@Override
+	protected void onOpen(ConnectorConfigurationParameters parameters) throws ConnectorException {
+		// Delegates are opened individually
+	}
+
+	@Override
+	protected void onClose() {
+		for (Connector delegate : delegates) {
+			try {
+				delegate.close();
+			} catch (RuntimeException re) {
+				LOG.warn("Failed to close delegate connector.", re);
+			}
+		}
+		synchronized (this) {
+			if (ownExecutor && executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+	}
+
+	@Override
+	public Identity getIdentityByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		return findIdentity(name).principal;
+	}
+
+	@Override
+	public Role getRoleByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		return findRole(name).principal;
+	}
+
+	@Override
+	public Iterator<Identity> allIdentities() throws ConnectorException {
+		List<Callable<Iterator<Identity>>> sources = new ArrayList<Callable<Iterator<Identity>>>();
+		for (final Connector delegate : delegates) {
+			sources.add(new Callable<Iterator<Identity>>() {
+				public Iterator<Identity> call() throws Exception {
+					return delegate.allIdentities();
+				}
+			});
+		}
+		return deduplicate(new PrefetchingConcatIterator<Identity>(getExecutor(), sources, bufferSize));
+	}
+
+	@Override
+	public Iterator<Role> allRoles() throws ConnectorException {
+		List<Callable<Iterator<Role>>> sources = new ArrayList<Callable<Iterator<Role>>>();
+		for (final Connector delegate : delegates) {
+			sources.add(new Callable<Iterator<Role>>() {
+				public Iterator<Role> call() throws Exception {
+					return delegate.allRoles();
+				}
+			});
+		}
+		return deduplicate(new PrefetchingConcatIterator<Role>(getExecutor(), sources, bufferSize));
+	}
+
+	@Override
+	protected boolean areCredentialsValid(final Identity identity, final char[] password) throws ConnectorException {
+		return onOwner(identity.getPrincipalName(), new OwnerCall<Boolean>() {
+			public Boolean call(Connector owner) {
+				return owner.checkCredentials(identity.getPrincipalName(), password);
+			}
+		});
+	}
+
+	@Override
+	protected void setPassword(final Identity identity, final char[] password,
+			final boolean forcePasswordChangeAtLogon, final PasswordResetType type) throws ConnectorException {
+		onOwner(identity.getPrincipalName(), new OwnerCall<Void>() {
+			public Void call(Connector owner) {
+				owner.setPassword(identity.getPrincipalName(), identity.getGuid(), password,
+						forcePasswordChangeAtLogon, type);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	protected void changePassword(final Identity identity, final char[] oldPassword, final char[] password) {
+		onOwner(identity.getPrincipalName(), new OwnerCall<Void>() {
+			public Void call(Connector owner) {
+				owner.changePassword(identity.getPrincipalName(), identity.getGuid(), oldPassword, password);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public Identity createIdentity(Identity identity, char[] password) throws ConnectorException {
+		Identity created = delegates.get(0).createIdentity(identity, password);
+		remember(identity.getPrincipalName(), delegates.get(0));
+		return created;
+	}
+
+	@Override
+	public void updateIdentity(final Identity identity) throws ConnectorException {
+		onOwner(identity.getPrincipalName(), new OwnerCall<Void>() {
+			public Void call(Connector owner) {
+				owner.updateIdentity(identity);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void deleteIdentity(final String principalName) throws ConnectorException {
+		onOwner(principalName, new OwnerCall<Void>() {
+			public Void call(Connector owner) {
+				owner.deleteIdentity(principalName);
+				return null;
+			}
+		});
+		forget(principalName);
+	}
+
+	@Override
+	public void lockIdentity(final Identity identity) throws ConnectorException {
+		onOwner(identity.getPrincipalName(), new OwnerCall<Void>() {
+			public Void call(Connector owner) {
+				owner.lockIdentity(identity);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void unlockIdentity(final Identity identity) throws ConnectorException {
+		onOwner(identity.getPrincipalName(), new OwnerCall<Void>() {
+			public Void call(Connector owner) {
+				owner.unlockIdentity(identity);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void disableIdentity(final Identity identity) {
+		onOwner(identity.getPrincipalName(), new OwnerCall<Void>() {
+			public Void call(Connector owner) {
+				owner.disableIdentity(identity);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public void enableIdentity(final Identity identity) {
+		onOwner(identity.getPrincipalName(), new OwnerCall<Void>() {
+			public Void call(Connector owner) {
+				owner.enableIdentity(identity);
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public Role createRole(Role role) throws ConnectorException {
+		return delegates.get(0).createRole(role);
+	}
+
+	@Override
+	public void updateRole(final Role role) throws ConnectorException {
+		findRole(role.getPrincipalName()).delegate.updateRole(role);
+	}
+
+	@Override
+	public void deleteRole(String principalName) throws ConnectorException {
+		findRole(principalName).delegate.deleteRole(principalName);
+	}
+
+	/**
+	 * Get the de-duplication key of a principal.
+	 *
+	 * @param principal principal
+	 * @return key or <code>null</code> if the principal has no value for the
+	 *         key
+	 */
+	protected String getKey(Principal principal) {
+		String key;
+		if (KEY_PRINCIPAL_NAME.equals(deduplicationKey)) {
+			key = principal.getPrincipalName();
+		} else if (KEY_GUID.equals(deduplicationKey)) {
+			key = principal.getGuid();
+		} else if (KEY_EMAIL.equals(deduplicationKey)) {
+			key = principal instanceof Identity ? ((Identity) principal).getAddress(Media.email) : null;
+		} else {
+			key = principal.getAttribute(deduplicationKey);
+		}
+		return key == null || !caseInsensitiveKeys ? key : key.toLowerCase();
+	}
+
+	private <P extends Principal> Iterator<P> deduplicate(PrefetchingConcatIterator<P> it) {
+		return new DeduplicatingIterator<P>(it);
+	}
+
+	/**
+	 * Call the delegate an identity is in. If the remembered delegate no
+	 * longer has it, it is looked up again in all of them.
+	 */
+	private <T> T onOwner(String name, OwnerCall<T> call) {
+		Connector owner;
+		synchronized (owners) {
+			owner = owners.get(ownerKey(name));
+		}
+		if (owner != null) {
+			try {
+				return call.call(owner);
+			} catch (PrincipalNotFoundException pnfe) {
+				forget(name);
+			}
+		}
+		return call.call(findIdentity(name).delegate);
+	}
+
+	private void remember(String name, Connector owner) {
+		synchronized (owners) {
+			owners.put(ownerKey(name), owner);
+		}
+	}
+
+	private void forget(String name) {
+		synchronized (owners) {
+			owners.remove(ownerKey(name));
+		}
+	}
+
+	private String ownerKey(String name) {
+		return caseInsensitiveKeys ? name.toLowerCase() : name;
+	}
+
+	private Hit<Identity> findIdentity(final String name) {
+		Hit<Identity> hit = lookup(name, new Lookup<Identity>() {
+			public Identity lookup(Connector delegate) {
+				return delegate.getIdentityByName(name);
+			}
+		});
+		remember(name, hit.delegate);
+		return hit;
+	}
+
+	private Hit<Role> findRole(final String name) {
+		return lookup(name, new Lookup<Role>() {
+			public Role lookup(Connector delegate) {
+				return delegate.getRoleByName(name);
+			}
+		});
+	}
+
+	private <P extends Principal> Hit<P> lookup(String name, final Lookup<P> lookup) {
+		int count = delegates.size();
+		CompletionService<Hit<P>> completion = new ExecutorCompletionService<Hit<P>>(getExecutor());
+		List<Future<Hit<P>>> futures = new ArrayList<Future<Hit<P>>>(count);
+		for (int i = 0; i < count; i++) {
+			final int index = i;
+			final Connector delegate = delegates.get(i);
+			futures.add(completion.submit(new Callable<Hit<P>>() {
+				public Hit<P> call() {
+					try {
+						return new Hit<P>(index, delegate, lookup.lookup(delegate), null);
+					} catch (PrincipalNotFoundException pnfe) {
+						return new Hit<P>(index, delegate, null, null);
+					} catch (RuntimeException re) {
+						return new Hit<P>(index, delegate, null, re);
+					}
+				}
+			}));
+		}
+
+		@SuppressWarnings("unchecked")
+		Hit<P>[] results = new Hit[count];
+		long deadline = lookupTimeout > 0 ? System.currentTimeMillis() + lookupTimeout : 0;
+		boolean timedOut = false;
+		try {
+			for (int received = 0; received < count; received++) {
+				Future<Hit<P>> future;
+				if (deadline == 0) {
+					future = completion.take();
+				} else {
+					future = completion.poll(Math.max(0, deadline - System.currentTimeMillis()),
+							TimeUnit.MILLISECONDS);
+					if (future == null) {
+						LOG.warn("Timed out waiting for all delegates to look up " + name);
+						timedOut = true;
+						break;
+					}
+				}
+				Hit<P> hit = future.get();
+				results[hit.index] = hit;
+				if (hit.error != null && LOG.isDebugEnabled()) {
+					LOG.debug("Delegate " + hit.index + " failed to look up " + name, hit.error);
+				}
+				if (lookupMode == LookupMode.FIRST && hit.principal != null) {
+					return hit;
+				}
+				if (lookupMode == LookupMode.PRIORITY) {
+					for (Hit<P> result : results) {
+						if (result == null) {
+							break;
+						}
+						if (result.principal != null) {
+							return result;
+						}
+					}
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted looking up " + name, ie);
+		} catch (Exception e) {
+			throw new ConnectorException("Failed to look up " + name, e);
+		} finally {
+			/* Delegates are left to finish, interrupting could break them */
+			for (Future<Hit<P>> future : futures) {
+				future.cancel(false);
+			}
+		}
+
+		/* Nothing decisive, use the best answer there is */
+		RuntimeException error = null;
+		for (Hit<P> result : results) {
+			if (result != null) {
+				if (result.principal != null) {
+					return result;
+				}
+				if (error == null) {
+					error = result.error;
+				}
+			}
+		}
+		if (error != null) {
+			/* Don't report not found when a backend could not be asked */
+			throw error;
+		}
+		if (timedOut) {
+			throw new ConnectorException("Timed out looking up " + name);
+		}
+		throw new PrincipalNotFoundException(name + " not found.");
+	}
+
+	/**
+	 * Drops principals whose key has been seen, and stops reading the
+	 * delegates when closed.
+	 */
+	class DeduplicatingIterator<P extends Principal> extends AbstractFilteredIterator<P> implements Closeable {
+		private final PrefetchingConcatIterator<P> source;
+		private final Set<String> seen = new HashSet<String>();
+
+		DeduplicatingIterator(PrefetchingConcatIterator<P> source) {
+			super(source);
+			this.source = source;
+		}
+
+		@Override
+		protected boolean include(P principal) {
+			String key = getKey(principal);
+			return key == null || seen.add(key);
+		}
+
+		@Override
+		public void close() {
+			source.close();
+		}
+	}
+
+	interface OwnerCall<T> {
+		T call(Connector owner);
+	}
+
+	interface Lookup<P extends Principal> {
+		P lookup(Connector delegate);
+	}
+
+	static class Hit<P extends Principal> {
+		final int index;
+		final Connector delegate;
+		final P principal;
+		final RuntimeException error;
+
+		Hit(int index, Connector delegate, P principal, RuntimeException error) {
+			this.index = index;
+			this.delegate = delegate;
+			this.principal = principal;
+			this.error = error;
+		}
+	}
+}
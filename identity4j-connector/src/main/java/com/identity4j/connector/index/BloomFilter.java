@@ -0,0 +1,141 @@
+/* HEADER */
+package com.identity4j.connector.index;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Fixed size Bloom filter of strings. Answers whether a string might have
+ * been added, with no false negatives and a false positive rate that depends
+ * on how full the filter is. Strings cannot be removed.
+ * <p>
+ * Positions are derived from two halves of a 64 bit hash of the string by
+ * double hashing, so only one pass over the characters is made per call.
+ * Not thread safe.
+ */
+public class BloomFilter {
+
+	private final long[] bits;
+	private final long numBits;
+	private final int numHashes;
+	private final int capacity;
+	private int count;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity number of strings expected to be added
+	 * @param falsePositiveRate false positive rate wanted when that many have
+	 *            been added
+	 */
+	public BloomFilter(int capacity, double falsePositiveRate) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		}
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("False positive rate must be between 0 and 1.");
+		}
+		this.capacity = capacity;
+		long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		m = Math.max(64, (m + 63) / 64 * 64);
+		bits = new long[(int) (m / 64)];
+		numBits = m;
+		numHashes = Math.max(1, (int) Math.round((double) m / capacity * Math.log(2)));
+	}
+
+	public void add(String value) {
+		long hash = hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= numHashes; i++) {
+			long idx = index(h1 + i * h2);
+			bits[(int) (idx >>> 6)] |= 1L << idx;
+		}
+		count++;
+	}
+
+	public boolean mightContain(String value) {
+		long hash = hash(value);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= numHashes; i++) {
+			long idx = index(h1 + i * h2);
+			if ((bits[(int) (idx >>> 6)] & (1L << idx)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of strings added, including repeats.
+	 *
+	 * @return count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getNumBits() {
+		return numBits;
+	}
+
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	/**
+	 * Estimate the current false positive rate from the number of strings
+	 * added.
+	 *
+	 * @return false positive rate
+	 */
+	public double getExpectedFalsePositiveRate() {
+		return Math.pow(1 - Math.exp(-(double) numHashes * count / numBits), numHashes);
+	}
+
+	private long index(int combined) {
+		return (combined & 0x7fffffffL) % numBits;
+	}
+
+	/**
+	 * 64 bit FNV-1a over the characters, finished with the MurmurHash3 mixer
+	 * so both halves are well distributed.
+	 */
+	static long hash(String value) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			h ^= value.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,258 @@
+/* HEADER */
+package com.identity4j.connector.index;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.Locale;
+
+import com.identity4j.connector.principal.Principal;
+
+/**
+ * Probabilistic index of the principal names of one type, held in a
+ * {@link BloomFilter}. A name the index does not contain is certainly not in
+ * use as of the last {@link #rebuild(Iterator)}, allowing for names added
+ * since. Names are lower cased, so the index suits both case sensitive and
+ * case insensitive backends.
+ * <p>
+ * Names that are removed stay in the filter, only costing false positives,
+ * until the next rebuild. The index reports itself as stale once enough
+ * names have been added or removed to push the false positive rate over
+ * twice the target, or when it is older than the maximum age. Names added
+ * while a rebuild is running go into both the old and new filters, so
+ * checks can keep using the old one until the new one is complete.
+ * <p>
+ * Backends often find principals by more than one form of name, for example
+ * <code>user@domain</code> or <code>DOMAIN\user</code> as well as the plain
+ * principal name. Only principal names are indexed, so a name containing a
+ * qualifier character ({@value #QUALIFIERS}) that no indexed name contains
+ * is in a form the index cannot answer for, and always might be in use.
+ */
+public class NameIndex {
+
+	/**
+	 * Characters that mark a name as qualified, e.g. by a domain, rather than
+	 * a plain principal name
+	 */
+	public static final String QUALIFIERS = "@\\/=,";
+
+	private final double falsePositiveRate;
+	private int minimumCapacity = 1000;
+	private long maxAge;
+
+	private BloomFilter filter;
+	private BloomFilter building;
+	private int forms;
+	private int buildingForms;
+	private long builtAt;
+	private int removed;
+
+	public NameIndex(double falsePositiveRate) {
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	/**
+	 * Get the smallest number of names a new filter is sized for. Filters are
+	 * otherwise sized at twice the number of names found on the previous
+	 * build.
+	 *
+	 * @return minimum capacity
+	 */
+	public synchronized int getMinimumCapacity() {
+		return minimumCapacity;
+	}
+
+	public synchronized void setMinimumCapacity(int minimumCapacity) {
+		this.minimumCapacity = minimumCapacity;
+	}
+
+	/**
+	 * Get how long in milliseconds an index may be used before it is stale,
+	 * bounding how long names created by other means go unseen. Zero means
+	 * no limit.
+	 *
+	 * @return maximum age
+	 */
+	public synchronized long getMaxAge() {
+		return maxAge;
+	}
+
+	public synchronized void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Get whether the index has been built.
+	 *
+	 * @return built
+	 */
+	public synchronized boolean isBuilt() {
+		return filter != null;
+	}
+
+	/**
+	 * Get whether a name might be in use. Until the index is built every name
+	 * might be.
+	 *
+	 * @param name name
+	 * @return might be in use
+	 */
+	public synchronized boolean mightContain(String name) {
+		String key = key(name);
+		return filter == null || (form(key) & ~forms) != 0 || filter.mightContain(key);
+	}
+
+	/**
+	 * Add a name that is now, or is about to be, in use.
+	 *
+	 * @param name name
+	 */
+	public synchronized void add(String name) {
+		String key = key(name);
+		int form = form(key);
+		if (filter != null) {
+			filter.add(key);
+			forms |= form;
+		}
+		if (building != null) {
+			building.add(key);
+			buildingForms |= form;
+		}
+	}
+
+	/**
+	 * Note that a name is no longer in use. It stays in the filter, but counts
+	 * towards the index becoming stale.
+	 *
+	 * @param name name
+	 */
+	public synchronized void removed(String name) {
+		removed++;
+	}
+
+	/**
+	 * Get whether the index should be rebuilt.
+	 *
+	 * @return stale
+	 */
+	public synchronized boolean isStale() {
+		if (filter == null) {
+			return true;
+		}
+		if (maxAge > 0 && System.currentTimeMillis() - builtAt > maxAge) {
+			return true;
+		}
+		return removed > filter.getCount() / 2 || filter.getExpectedFalsePositiveRate() > falsePositiveRate * 2;
+	}
+
+	/**
+	 * Get whether a rebuild is in progress.
+	 *
+	 * @return rebuilding
+	 */
+	public synchronized boolean isRebuilding() {
+		return building != null;
+	}
+
+	/**
+	 * Replace the index with one holding all the names from an enumeration.
+	 * The current index stays in use until this completes. If the
+	 * enumeration fails the current index is kept. Only one rebuild may run
+	 * at a time; a second concurrent call does nothing.
+	 *
+	 * @param principals principals
+	 * @return number of names indexed, or -1 if a rebuild was already running
+	 */
+	public int rebuild(Iterator<? extends Principal> principals) {
+		BloomFilter next;
+		synchronized (this) {
+			if (building != null) {
+				return -1;
+			}
+			int capacity = Math.max(minimumCapacity, filter == null ? 0 : filter.getCount() * 2);
+			next = building = new BloomFilter(capacity, falsePositiveRate);
+			buildingForms = 0;
+		}
+		try {
+			int names = 0;
+			while (principals.hasNext()) {
+				String key = key(principals.next().getPrincipalName());
+				int form = form(key);
+				synchronized (this) {
+					next.add(key);
+					buildingForms |= form;
+				}
+				names++;
+			}
+			synchronized (this) {
+				filter = next;
+				forms = buildingForms;
+				builtAt = System.currentTimeMillis();
+				removed = 0;
+			}
+			return names;
+		} finally {
+			synchronized (this) {
+				if (building == next) {
+					building = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Discard the index, so every name might be in use until it is rebuilt.
+	 */
+	public synchronized void clear() {
+		filter = null;
+		forms = 0;
+		removed = 0;
+	}
+
+	/**
+	 * Get the number of names in the filter, including any added more than
+	 * once and any since removed.
+	 *
+	 * @return size
+	 */
+	public synchronized int size() {
+		return filter == null ? 0 : filter.getCount();
+	}
+
+	/**
+	 * Get a bit for each qualifier character a name contains.
+	 */
+	private static int form(String key) {
+		int form = 0;
+		for (int i = 0; i < QUALIFIERS.length(); i++) {
+			if (key.indexOf(QUALIFIERS.charAt(i)) != -1) {
+				form |= 1 << i;
+			}
+		}
+		return form;
+	}
+
+	private static String key(String name) {
+		return name == null ? "" : name.toLowerCase(Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,358 @@
+/* HEADER */
+package com.identity4j.connector.index;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.AbstractConnector;
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.ConnectorCapability;
+import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.PasswordCreationCallback;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.util.NamedThreadFactory;
+import com.identity4j.util.passwords.PasswordCharacteristics;
+
+/**
+ * Wraps another connector, keeping a {@link NameIndex} of identity and role
+ * names so that {@link #isIdentityNameInUse(String)} and
+ * {@link #isRoleNameInUse(String)} can answer definite misses without a
+ * backend lookup. Only names the index might contain are looked up.
+ * <p>
+ * The indexes are built from a full enumeration on the first check, and kept
+ * up to date as principals are created, renamed and deleted through this
+ * connector. Once an index becomes stale it is rebuilt in the background
+ * while the old one continues to answer. Names created directly in the
+ * backend are only seen after a rebuild, so set a maximum age that suits how
+ * often that happens; any name wrongly reported as free will still be
+ * rejected by the backend when it is created.
+ */
+public class NameIndexedConnector extends AbstractConnector {
+
+	final static Log LOG = LogFactory.getLog(NameIndexedConnector.class);
+
+	/**
+	 * Default false positive rate of the indexes
+	 */
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+	/**
+	 * Default maximum age of the indexes, one hour
+	 */
+	public static final long DEFAULT_MAX_AGE = 60 * 60 * 1000;
+
+	private final Connector delegate;
+	private final NameIndex identityNames;
+	private final NameIndex roleNames;
+	private final AtomicLong avoidedLookups = new AtomicLong();
+	private ExecutorService executor;
+
+	public NameIndexedConnector(Connector delegate) {
+		this(delegate, DEFAULT_FALSE_POSITIVE_RATE);
+	}
+
+	public NameIndexedConnector(Connector delegate, double falsePositiveRate) {
+		this.delegate = delegate;
+		identityNames = new NameIndex(falsePositiveRate);
+		roleNames = new NameIndex(falsePositiveRate);
+		setMaxAge(DEFAULT_MAX_AGE);
+	}
+
+	public Connector getDelegate() {
+		return delegate;
+	}
+
+	public NameIndex getIdentityNames() {
+		return identityNames;
+	}
+
+	public NameIndex getRoleNames() {
+		return roleNames;
+	}
+
+	/**
+	 * Set how long in milliseconds an index is used before it is rebuilt.
+	 * Zero means indexes are only rebuilt once they fill up.
+	 *
+	 * @param maxAge maximum age
+	 */
+	public void setMaxAge(long maxAge) {
+		identityNames.setMaxAge(maxAge);
+		roleNames.setMaxAge(maxAge);
+	}
+
+	/**
+	 * Get the number of name checks answered from an index without a backend
+	 * lookup.
+	 *
+	 * @return avoided lookups
+	 */
+	public long getAvoidedLookups() {
+		return avoidedLookups.get();
+	}
+
+	/**
+	 * Rebuild both indexes now, in the calling thread.
+	 */
+	public void rebuildIndexes() {
+		if (getCapabilities().contains(ConnectorCapability.identities)) {
+			identityNames.rebuild(delegate.allIdentities());
+		}
+		if (getCapabilities().contains(ConnectorCapability.roles)) {
+			roleNames.rebuild(delegate.allRoles());
+		}
+	}
+
+	@Override
+	protected boolean isIdentityNameKnownUnused(String identityName) {
+		if (!getCapabilities().contains(ConnectorCapability.identities)) {
+			return false;
+		}
+		checkIndex(identityNames, false);
+		return knownUnused(identityNames, identityName);
+	}
+
+	@Override
+	protected boolean isRoleNameKnownUnused(String roleName) {
+		if (!getCapabilities().contains(ConnectorCapability.roles)) {
+			return false;
+		}
+		checkIndex(roleNames, true);
+		return knownUnused(roleNames, roleName);
+	}
+
+	@Override
+	public Set<ConnectorCapability> getCapabilities() {
+		return delegate.getCapabilities();
+	}
+
+	@Override
+	public PasswordCharacteristics getPasswordCharacteristics() {
+		return delegate.getPasswordCharacteristics();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return delegate.isOpen();
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return delegate.isReadOnly();
+	}
+
+	@Override
+	protected void onOpen(ConnectorConfigurationParameters parameters) throws ConnectorException {
+		// The delegate is opened by the caller
+	}
+
+	@Override
+	protected void onClose() {
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+		identityNames.clear();
+		roleNames.clear();
+		delegate.close();
+	}
+
+	@Override
+	public Identity getIdentityByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		return delegate.getIdentityByName(name);
+	}
+
+	@Override
+	public Role getRoleByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		return delegate.getRoleByName(name);
+	}
+
+	@Override
+	public Iterator<Identity> allIdentities() throws ConnectorException {
+		return delegate.allIdentities();
+	}
+
+	@Override
+	public Iterator<Role> allRoles() throws ConnectorException {
+		return delegate.allRoles();
+	}
+
+	@Override
+	public long countIdentities() throws ConnectorException {
+		return delegate.countIdentities();
+	}
+
+	@Override
+	public long countRoles() throws ConnectorException {
+		return delegate.countRoles();
+	}
+
+	@Override
+	protected boolean areCredentialsValid(Identity identity, char[] password) throws ConnectorException {
+		return delegate.checkCredentials(identity.getPrincipalName(), password);
+	}
+
+	@Override
+	protected void setPassword(Identity identity, char[] password, boolean forcePasswordChangeAtLogon,
+			PasswordResetType type) throws ConnectorException {
+		delegate.setPassword(identity.getPrincipalName(), identity.getGuid(), password, forcePasswordChangeAtLogon,
+				type);
+	}
+
+	@Override
+	protected void changePassword(Identity identity, char[] oldPassword, char[] password) {
+		delegate.changePassword(identity.getPrincipalName(), identity.getGuid(), oldPassword, password);
+	}
+
+	/*
+	 * Names are indexed before the backend is changed, so there is never a
+	 * moment when a name is in use but missing from the index. If the change
+	 * fails the name is just a false positive until the next rebuild.
+	 */
+
+	@Override
+	public Identity createIdentity(Identity identity, char[] password) throws ConnectorException {
+		identityNames.add(identity.getPrincipalName());
+		return delegate.createIdentity(identity, password);
+	}
+
+	@Override
+	public Identity createIdentity(Identity identity, PasswordCreationCallback passwordCallback, boolean forceChange)
+			throws ConnectorException {
+		identityNames.add(identity.getPrincipalName());
+		return delegate.createIdentity(identity, passwordCallback, forceChange);
+	}
+
+	@Override
+	public void updateIdentity(Identity identity) throws ConnectorException {
+		/* May be a rename */
+		identityNames.add(identity.getPrincipalName());
+		delegate.updateIdentity(identity);
+	}
+
+	@Override
+	public void deleteIdentity(String principalName) throws ConnectorException {
+		delegate.deleteIdentity(principalName);
+		identityNames.removed(principalName);
+	}
+
+	@Override
+	public void lockIdentity(Identity identity) throws ConnectorException {
+		delegate.lockIdentity(identity);
+	}
+
+	@Override
+	public void unlockIdentity(Identity identity) throws ConnectorException {
+		delegate.unlockIdentity(identity);
+	}
+
+	@Override
+	public void disableIdentity(Identity identity) {
+		delegate.disableIdentity(identity);
+	}
+
+	@Override
+	public void enableIdentity(Identity identity) {
+		delegate.enableIdentity(identity);
+	}
+
+	@Override
+	public Role createRole(Role role) throws ConnectorException {
+		roleNames.add(role.getPrincipalName());
+		return delegate.createRole(role);
+	}
+
+	@Override
+	public void updateRole(Role role) throws ConnectorException {
+		roleNames.add(role.getPrincipalName());
+		delegate.updateRole(role);
+	}
+
+	@Override
+	public void deleteRole(String principalName) throws ConnectorException {
+		delegate.deleteRole(principalName);
+		roleNames.removed(principalName);
+	}
+
+	private boolean knownUnused(NameIndex index, String name) {
+		if (index.mightContain(name)) {
+			return false;
+		}
+		avoidedLookups.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Build an index in the calling thread if it has never been built, or
+	 * start rebuilding it in the background if it is stale.
+	 */
+	private void checkIndex(final NameIndex index, final boolean roles) {
+		if (!index.isStale() || index.isRebuilding()) {
+			return;
+		}
+		if (!index.isBuilt()) {
+			rebuild(index, roles);
+			return;
+		}
+		ExecutorService executor;
+		synchronized (this) {
+			if (this.executor == null) {
+				this.executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("NameIndex"));
+			}
+			executor = this.executor;
+		}
+		executor.execute(new Runnable() {
+			public void run() {
+				if (index.isStale()) {
+					rebuild(index, roles);
+				}
+			}
+		});
+	}
+
+	private void rebuild(NameIndex index, boolean roles) {
+		try {
+			Iterator<? extends Principal> it = roles ? delegate.allRoles() : delegate.allIdentities();
+			int names = index.rebuild(it);
+			if (names >= 0 && LOG.isDebugEnabled()) {
+				LOG.debug("Indexed " + names + (roles ? " role" : " identity") + " names.");
+			}
+		} catch (RuntimeException re) {
+			LOG.warn("Failed to index " + (roles ? "role" : "identity") + " names.", re);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/* HEADER */
+package com.identity4j.connector.load;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe, fixed size histogram of latencies. Values are recorded in
+ * microseconds into buckets that are exact below 128&micro;s and then have 64
+ * sub-buckets per power of two, so any percentile is reported to within
+ * about 1.5% regardless of how many values are recorded.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR = SUB_BUCKETS * 2;
+	private static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param nanos latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+		counts.incrementAndGet(index(micros));
+		count.incrementAndGet();
+		total.addAndGet(micros);
+		long m;
+		while (micros > (m = max.get()) && !max.compareAndSet(m, micros)) {
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Get the largest latency recorded.
+	 *
+	 * @return latency in microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Get the mean latency.
+	 *
+	 * @return latency in microseconds
+	 */
+	public double getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : (double) total.get() / c;
+	}
+
+	/**
+	 * Get the latency that the given percentage of recorded values were at or
+	 * below.
+	 *
+	 * @param percentile percentile between 0 and 100
+	 * @return latency in microseconds
+	 */
+	public long getPercentile(double percentile) {
+		long c = count.get();
+		if (c == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile / 100d * c));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return i + 1 == BUCKETS ? max.get() : Math.min(lowerBound(i + 1) - 1, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	static int index(long micros) {
+		if (micros < LINEAR) {
+			return (int) micros;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+		int top = (int) (micros >>> (magnitude - SUB_BUCKET_BITS));
+		return LINEAR + (magnitude - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + (top - SUB_BUCKETS);
+	}
+
+	static long lowerBound(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int relative = index - LINEAR;
+		int magnitude = relative / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		long top = relative % SUB_BUCKETS + SUB_BUCKETS;
+		return top << (magnitude - SUB_BUCKET_BITS);
+	}
+}
@@ -0,0 +1,623 @@
+/* HEADER */
+package com.identity4j.connector.load;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.ConnectorBuilder;
+import com.identity4j.connector.ConnectorCapability;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.util.MultiMap;
+import com.identity4j.util.NamedThreadFactory;
+
+/**
+ * Drives a weighted mix of {@link LoadOperation}s against a connector, either
+ * as fast as a fixed number of threads allow or at a target rate, and reports
+ * throughput, latency percentiles and error rates in a {@link LoadReport}.
+ * <p>
+ * When a target rate is set, operations are scheduled at fixed intervals and
+ * latency is measured from when an operation should have started rather than
+ * when a thread became free to start it, so a stalled backend shows up as
+ * high latency instead of silently reducing the load.
+ * <p>
+ * The generator may be configured entirely from a properties file, which
+ * contains the usual {@link ConnectorBuilder} configuration plus the
+ * <code>load.*</code> keys defined here. Pointing this at the same local
+ * stand-ins the connector test suites use (a flat file, an embedded database
+ * or a mock HTTP server) gives reproducible results. Run from the command line
+ * with :-
+ *
+ * <pre>
+ * java com.identity4j.connector.load.LoadGenerator connector.properties [key=value ...]
+ * </pre>
+ */
+public class LoadGenerator {
+
+	final static Log LOG = LogFactory.getLog(LoadGenerator.class);
+
+	/**
+	 * Operation mix as comma separated <i>operation:weight</i> pairs.
+	 */
+	public static final String MIX = "load.mix";
+	/**
+	 * Number of threads, i.e. the maximum concurrency.
+	 */
+	public static final String THREADS = "load.threads";
+	/**
+	 * Target operations per second across all threads, or 0 for as fast as
+	 * possible.
+	 */
+	public static final String RATE = "load.rate";
+	/**
+	 * Measured duration in seconds, or 0 to stop only after
+	 * {@link #OPERATIONS}.
+	 */
+	public static final String DURATION = "load.duration";
+	/**
+	 * Number of measured operations after which to stop, or 0 for no limit.
+	 */
+	public static final String OPERATIONS = "load.operations";
+	/**
+	 * Seconds to run before measuring begins.
+	 */
+	public static final String WARMUP = "load.warmup";
+	/**
+	 * Comma separated principal names to operate on. If not set, principals
+	 * are taken from the connector.
+	 */
+	public static final String PRINCIPALS = "load.principals";
+	/**
+	 * Maximum number of principals to take from the connector when
+	 * {@link #PRINCIPALS} is not set.
+	 */
+	public static final String MAX_PRINCIPALS = "load.maxPrincipals";
+	/**
+	 * Password used to authenticate, and set by password operations.
+	 */
+	public static final String PASSWORD = "load.password";
+	/**
+	 * Seed for the random choice of operations and principals.
+	 */
+	public static final String SEED = "load.seed";
+
+	private final Connector connector;
+	private final Map<LoadOperation, Integer> mix = new LinkedHashMap<LoadOperation, Integer>();
+	private int threads = 4;
+	private int rate;
+	private long duration = 30000;
+	private long maxOperations;
+	private long warmup;
+	private List<String> principals = new ArrayList<String>();
+	private int maxPrincipals = 1000;
+	private char[] password;
+	private long seed = System.nanoTime();
+	private String newIdentityPrefix = "load-";
+
+	public LoadGenerator(Connector connector) {
+		this.connector = connector;
+	}
+
+	/**
+	 * Build a connector and generator from a properties file.
+	 *
+	 * @param file properties file
+	 * @return generator
+	 * @throws IOException on error reading the file
+	 */
+	public static LoadGenerator fromProperties(File file) throws IOException {
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return fromProperties(properties);
+	}
+
+	/**
+	 * Build a connector using {@link ConnectorBuilder} and a generator
+	 * configured from the <code>load.*</code> properties.
+	 *
+	 * @param properties properties
+	 * @return generator
+	 */
+	public static LoadGenerator fromProperties(Properties properties) {
+		Connector connector = new ConnectorBuilder().buildConnector(MultiMap.toMultiMap(properties));
+		LoadGenerator generator = new LoadGenerator(connector);
+		generator.configure(properties);
+		return generator;
+	}
+
+	/**
+	 * Apply any <code>load.*</code> properties.
+	 *
+	 * @param properties properties
+	 */
+	public void configure(Properties properties) {
+		if (properties.containsKey(MIX)) {
+			setMix(properties.getProperty(MIX));
+		}
+		if (properties.containsKey(THREADS)) {
+			setThreads(Integer.parseInt(properties.getProperty(THREADS).trim()));
+		}
+		if (properties.containsKey(RATE)) {
+			setRate(Integer.parseInt(properties.getProperty(RATE).trim()));
+		}
+		if (properties.containsKey(DURATION)) {
+			setDuration(Long.parseLong(properties.getProperty(DURATION).trim()) * 1000);
+		}
+		if (properties.containsKey(OPERATIONS)) {
+			setMaxOperations(Long.parseLong(properties.getProperty(OPERATIONS).trim()));
+		}
+		if (properties.containsKey(WARMUP)) {
+			setWarmup(Long.parseLong(properties.getProperty(WARMUP).trim()) * 1000);
+		}
+		if (properties.containsKey(PRINCIPALS)) {
+			principals.clear();
+			for (String p : properties.getProperty(PRINCIPALS).split(",")) {
+				if (p.trim().length() > 0) {
+					principals.add(p.trim());
+				}
+			}
+		}
+		if (properties.containsKey(MAX_PRINCIPALS)) {
+			setMaxPrincipals(Integer.parseInt(properties.getProperty(MAX_PRINCIPALS).trim()));
+		}
+		if (properties.containsKey(PASSWORD)) {
+			setPassword(properties.getProperty(PASSWORD).toCharArray());
+		}
+		if (properties.containsKey(SEED)) {
+			setSeed(Long.parseLong(properties.getProperty(SEED).trim()));
+		}
+	}
+
+	public Connector getConnector() {
+		return connector;
+	}
+
+	public Map<LoadOperation, Integer> getMix() {
+		return mix;
+	}
+
+	/**
+	 * Set the operation mix from comma separated <i>operation:weight</i>
+	 * pairs, e.g. <code>checkCredentials:90,getIdentityByName:10</code>. A
+	 * missing weight is taken as 1.
+	 *
+	 * @param mix mix
+	 */
+	public void setMix(String mix) {
+		this.mix.clear();
+		for (String entry : mix.split(",")) {
+			entry = entry.trim();
+			if (entry.length() == 0) {
+				continue;
+			}
+			int idx = entry.indexOf(':');
+			if (idx == -1) {
+				setWeight(LoadOperation.fromKey(entry), 1);
+			} else {
+				setWeight(LoadOperation.fromKey(entry.substring(0, idx).trim()),
+						Integer.parseInt(entry.substring(idx + 1).trim()));
+			}
+		}
+	}
+
+	/**
+	 * Set the relative weight of an operation in the mix. A weight of zero
+	 * removes it.
+	 *
+	 * @param operation operation
+	 * @param weight weight
+	 */
+	public void setWeight(LoadOperation operation, int weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Weight must not be negative.");
+		}
+		if (weight == 0) {
+			mix.remove(operation);
+		} else {
+			mix.put(operation, weight);
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Must have at least one thread.");
+		}
+		this.threads = threads;
+	}
+
+	public int getRate() {
+		return rate;
+	}
+
+	/**
+	 * Set the target number of operations per second across all threads. If
+	 * the connector cannot keep up, latencies will grow. Zero (the default)
+	 * runs as fast as the threads allow.
+	 *
+	 * @param rate operations per second
+	 */
+	public void setRate(int rate) {
+		this.rate = rate;
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Set how long to measure for, not including any warm up.
+	 *
+	 * @param duration duration in milliseconds, or 0 to stop only after the
+	 *            maximum number of operations
+	 */
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	public long getMaxOperations() {
+		return maxOperations;
+	}
+
+	public void setMaxOperations(long maxOperations) {
+		this.maxOperations = maxOperations;
+	}
+
+	public long getWarmup() {
+		return warmup;
+	}
+
+	/**
+	 * Set how long to run before measuring, so that connection pools, caches
+	 * and the JIT are warm.
+	 *
+	 * @param warmup warm up in milliseconds
+	 */
+	public void setWarmup(long warmup) {
+		this.warmup = warmup;
+	}
+
+	public List<String> getPrincipals() {
+		return principals;
+	}
+
+	/**
+	 * Set the names of the principals to operate on. If empty, up to
+	 * {@link #getMaxPrincipals()} are taken from the connector.
+	 *
+	 * @param principals principal names
+	 */
+	public void setPrincipals(List<String> principals) {
+		this.principals = principals;
+	}
+
+	public int getMaxPrincipals() {
+		return maxPrincipals;
+	}
+
+	public void setMaxPrincipals(int maxPrincipals) {
+		this.maxPrincipals = maxPrincipals;
+	}
+
+	public char[] getPassword() {
+		return password;
+	}
+
+	/**
+	 * Set the password used by {@link LoadOperation#CHECK_CREDENTIALS}, and
+	 * set by {@link LoadOperation#SET_PASSWORD} and
+	 * {@link LoadOperation#CREATE_DELETE_IDENTITY}. All principals operated on
+	 * should have this password.
+	 *
+	 * @param password password
+	 */
+	public void setPassword(char[] password) {
+		this.password = password;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Set the seed for choosing operations and principals, so the same
+	 * sequence is chosen on each run.
+	 *
+	 * @param seed seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public String getNewIdentityPrefix() {
+		return newIdentityPrefix;
+	}
+
+	/**
+	 * Set the prefix for the names of identities created by
+	 * {@link LoadOperation#CREATE_DELETE_IDENTITY}.
+	 *
+	 * @param newIdentityPrefix prefix
+	 */
+	public void setNewIdentityPrefix(String newIdentityPrefix) {
+		this.newIdentityPrefix = newIdentityPrefix;
+	}
+
+	/**
+	 * Run the load, blocking until the duration has elapsed or the maximum
+	 * number of operations have completed.
+	 *
+	 * @return report
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public LoadReport run() throws InterruptedException {
+		if (mix.isEmpty()) {
+			throw new IllegalStateException("No operations in the mix.");
+		}
+		if (duration <= 0 && maxOperations <= 0) {
+			throw new IllegalStateException("Either a duration or a maximum number of operations is required.");
+		}
+		Set<ConnectorCapability> capabilities = connector.getCapabilities();
+		for (LoadOperation op : mix.keySet()) {
+			if (!capabilities.contains(op.getCapability())) {
+				throw new ConnectorException("Connector does not support " + op.getKey() + ", it requires "
+						+ op.getCapability());
+			}
+			if (password == null && (op == LoadOperation.CHECK_CREDENTIALS || op == LoadOperation.SET_PASSWORD)) {
+				throw new IllegalStateException(op.getKey() + " requires a password.");
+			}
+		}
+
+		final Identity[] targets = resolveTargets();
+		final LoadOperation[] choices = mix.keySet().toArray(new LoadOperation[0]);
+		final int[] cumulative = new int[choices.length];
+		int total = 0;
+		for (int i = 0; i < choices.length; i++) {
+			total += mix.get(choices[i]);
+			cumulative[i] = total;
+		}
+		final int totalWeight = total;
+
+		final LoadReport report = new LoadReport(mix.keySet());
+		final Run run = new Run();
+		run.interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+		run.nextSlot.set(System.nanoTime());
+		final CountDownLatch done = new CountDownLatch(threads);
+		NamedThreadFactory factory = new NamedThreadFactory("load");
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			final Random random = new Random(seed + i);
+			Thread t = factory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						work(run, report, random, choices, cumulative, totalWeight, targets);
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+			workers.add(t);
+			t.start();
+		}
+
+		try {
+			if (warmup > 0) {
+				done.await(warmup, TimeUnit.MILLISECONDS);
+			}
+			report.started();
+			run.measuring = true;
+			if (duration > 0) {
+				done.await(duration, TimeUnit.MILLISECONDS);
+			} else {
+				done.await();
+			}
+		} finally {
+			run.stopped = true;
+			for (Thread t : workers) {
+				t.join();
+			}
+			report.finished();
+		}
+		return report;
+	}
+
+	/**
+	 * Shared state of a run.
+	 */
+	static class Run {
+		volatile boolean stopped;
+		volatile boolean measuring;
+		long interval;
+		final AtomicLong nextSlot = new AtomicLong();
+		final AtomicLong issued = new AtomicLong();
+	}
+
+	private Identity[] resolveTargets() {
+		List<Identity> targets = new ArrayList<Identity>();
+		boolean needsTargets = false;
+		for (LoadOperation op : mix.keySet()) {
+			needsTargets |= op != LoadOperation.ALL_IDENTITIES && op != LoadOperation.CREATE_DELETE_IDENTITY;
+		}
+		if (!needsTargets) {
+			return new Identity[0];
+		}
+		if (principals.isEmpty()) {
+			for (Iterator<Identity> it = connector.allIdentities(); it.hasNext() && targets.size() < maxPrincipals;) {
+				targets.add(it.next());
+			}
+		} else {
+			for (String name : principals) {
+				targets.add(connector.getIdentityByName(name));
+			}
+		}
+		if (targets.isEmpty()) {
+			throw new ConnectorException("There are no identities to operate on.");
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Operating on " + targets.size() + " identities");
+		}
+		return targets.toArray(new Identity[0]);
+	}
+
+	private void work(Run run, LoadReport report, Random random, LoadOperation[] choices, int[] cumulative,
+			int totalWeight, Identity[] targets) {
+		while (!run.stopped) {
+			boolean measure = run.measuring;
+			if (measure && maxOperations > 0 && run.issued.incrementAndGet() > maxOperations) {
+				return;
+			}
+
+			long start;
+			if (run.interval > 0) {
+				/* Latency is measured from the scheduled start */
+				start = run.nextSlot.getAndAdd(run.interval);
+				long wait;
+				while ((wait = start - System.nanoTime()) > 0) {
+					if (run.stopped) {
+						return;
+					}
+					LockSupport.parkNanos(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(100)));
+				}
+			} else {
+				start = System.nanoTime();
+			}
+
+			int pick = random.nextInt(totalWeight);
+			int idx = 0;
+			while (pick >= cumulative[idx]) {
+				idx++;
+			}
+			LoadOperation op = choices[idx];
+			Identity target = targets.length == 0 ? null : targets[random.nextInt(targets.length)];
+
+			String error = null;
+			try {
+				error = perform(op, target);
+			} catch (Throwable t) {
+				error = t.getClass().getName();
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Failed " + op.getKey(), t);
+				}
+			}
+			long latency = System.nanoTime() - start;
+			if (measure) {
+				report.getOperation(op).record(latency, error);
+			}
+		}
+	}
+
+	/**
+	 * Perform a single operation.
+	 *
+	 * @param op operation
+	 * @param target identity to operate on, if required by the operation
+	 * @return <code>null</code> on success, or a short description of an
+	 *         error that did not raise an exception
+	 */
+	protected String perform(LoadOperation op, Identity target) {
+		switch (op) {
+		case CHECK_CREDENTIALS:
+			return connector.checkCredentials(target.getPrincipalName(), password) ? null : "invalidCredentials";
+		case GET_IDENTITY_BY_NAME:
+			connector.getIdentityByName(target.getPrincipalName());
+			return null;
+		case ALL_IDENTITIES:
+			for (Iterator<Identity> it = connector.allIdentities(); it.hasNext();) {
+				it.next();
+			}
+			return null;
+		case UPDATE_IDENTITY:
+			connector.updateIdentity(target);
+			return null;
+		case SET_PASSWORD:
+			connector.setPassword(target.getPrincipalName(), target.getGuid(), password, false);
+			return null;
+		case CREATE_DELETE_IDENTITY:
+			String name = newIdentityPrefix + UUID.randomUUID().toString().substring(0, 8);
+			Identity created = connector.createIdentity(new IdentityImpl(name), password);
+			connector.deleteIdentity(created.getPrincipalName());
+			return null;
+		default:
+			throw new UnsupportedOperationException(op.getKey());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			System.err.println("Usage: " + LoadGenerator.class.getName() + " <properties file> [key=value ...]");
+			System.exit(1);
+		}
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(args[0]);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		for (int i = 1; i < args.length; i++) {
+			int idx = args[i].indexOf('=');
+			if (idx == -1) {
+				System.err.println("Expected key=value, not " + args[i]);
+				System.exit(1);
+			}
+			properties.setProperty(args[i].substring(0, idx), args[i].substring(idx + 1));
+		}
+		LoadGenerator generator = fromProperties(properties);
+		try {
+			System.out.print(generator.run());
+		} finally {
+			generator.getConnector().close();
+		}
+	}
+}
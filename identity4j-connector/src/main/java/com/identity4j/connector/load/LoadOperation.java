@@ -0,0 +1,95 @@
+/* HEADER */
+package com.identity4j.connector.load;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.identity4j.connector.ConnectorCapability;
+
+/**
+ * The operations a {@link LoadGenerator} may perform. Each has a key used to
+ * describe the operation mix in configuration, e.g.
+ * <code>checkCredentials:80,getIdentityByName:15,updateIdentity:5</code>.
+ */
+public enum LoadOperation {
+	/**
+	 * Authenticate a known principal with the configured password.
+	 */
+	CHECK_CREDENTIALS("checkCredentials", ConnectorCapability.authentication),
+	/**
+	 * Look up a known principal by name.
+	 */
+	GET_IDENTITY_BY_NAME("getIdentityByName", ConnectorCapability.identities),
+	/**
+	 * Enumerate every identity.
+	 */
+	ALL_IDENTITIES("allIdentities", ConnectorCapability.identities),
+	/**
+	 * Write back a known principal without changes.
+	 */
+	UPDATE_IDENTITY("updateIdentity", ConnectorCapability.updateUser),
+	/**
+	 * Reset the password of a known principal to the configured password.
+	 */
+	SET_PASSWORD("setPassword", ConnectorCapability.passwordSet),
+	/**
+	 * Create a new identity and delete it again.
+	 */
+	CREATE_DELETE_IDENTITY("createDeleteIdentity", ConnectorCapability.createUser);
+
+	private final String key;
+	private final ConnectorCapability capability;
+
+	private LoadOperation(String key, ConnectorCapability capability) {
+		this.key = key;
+		this.capability = capability;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Get the capability a connector must have to perform this operation.
+	 *
+	 * @return capability
+	 */
+	public ConnectorCapability getCapability() {
+		return capability;
+	}
+
+	/**
+	 * Get the operation with the given key.
+	 *
+	 * @param key key
+	 * @return operation
+	 * @throws IllegalArgumentException if there is no such operation
+	 */
+	public static LoadOperation fromKey(String key) {
+		for (LoadOperation op : values()) {
+			if (op.key.equalsIgnoreCase(key)) {
+				return op;
+			}
+		}
+		throw new IllegalArgumentException("Unknown operation '" + key + "'");
+	}
+}
@@ -0,0 +1,219 @@
+/* HEADER */
+package com.identity4j.connector.load;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcome of a {@link LoadGenerator} run. Statistics are updated by the worker
+ * threads as the run progresses, so the report may also be used to monitor a
+ * run in progress.
+ */
+public class LoadReport {
+
+	/**
+	 * Statistics for a single kind of operation.
+	 */
+	public static class OperationStats {
+		private final LoadOperation operation;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong();
+		private final ConcurrentMap<String, AtomicLong> errorTypes = new ConcurrentHashMap<String, AtomicLong>();
+
+		OperationStats(LoadOperation operation) {
+			this.operation = operation;
+		}
+
+		public LoadOperation getOperation() {
+			return operation;
+		}
+
+		/**
+		 * Get the number of operations completed, whether or not they
+		 * succeeded.
+		 *
+		 * @return operations
+		 */
+		public long getCount() {
+			return latency.getCount();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		/**
+		 * Get the proportion of operations that failed.
+		 *
+		 * @return error rate between 0 and 1
+		 */
+		public double getErrorRate() {
+			long count = getCount();
+			return count == 0 ? 0 : (double) errors.get() / count;
+		}
+
+		/**
+		 * Get the number of failures of each type, usually the exception class.
+		 *
+		 * @return failures keyed by type
+		 */
+		public Map<String, Long> getErrorTypes() {
+			Map<String, Long> m = new TreeMap<String, Long>();
+			for (Map.Entry<String, AtomicLong> en : errorTypes.entrySet()) {
+				m.put(en.getKey(), en.getValue().get());
+			}
+			return m;
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		void record(long nanos, String error) {
+			latency.record(nanos);
+			if (error != null) {
+				errors.incrementAndGet();
+				String type = error;
+				AtomicLong c = errorTypes.get(type);
+				if (c == null) {
+					AtomicLong n = new AtomicLong();
+					c = errorTypes.putIfAbsent(type, n);
+					if (c == null) {
+						c = n;
+					}
+				}
+				c.incrementAndGet();
+			}
+		}
+	}
+
+	private final Map<LoadOperation, OperationStats> operations;
+	private volatile long started;
+	private volatile long finished;
+
+	LoadReport(Iterable<LoadOperation> mix) {
+		Map<LoadOperation, OperationStats> m = new EnumMap<LoadOperation, OperationStats>(LoadOperation.class);
+		for (LoadOperation op : mix) {
+			m.put(op, new OperationStats(op));
+		}
+		operations = Collections.unmodifiableMap(m);
+	}
+
+	/**
+	 * Get the statistics for each operation in the mix.
+	 *
+	 * @return statistics
+	 */
+	public Map<LoadOperation, OperationStats> getOperations() {
+		return operations;
+	}
+
+	/**
+	 * Get the statistics for an operation.
+	 *
+	 * @param operation operation
+	 * @return statistics or <code>null</code> if not in the mix
+	 */
+	public OperationStats getOperation(LoadOperation operation) {
+		return operations.get(operation);
+	}
+
+	public long getCount() {
+		long c = 0;
+		for (OperationStats s : operations.values()) {
+			c += s.getCount();
+		}
+		return c;
+	}
+
+	public long getErrors() {
+		long c = 0;
+		for (OperationStats s : operations.values()) {
+			c += s.getErrors();
+		}
+		return c;
+	}
+
+	/**
+	 * Get the time measured, excluding any warm up. If the run is still in
+	 * progress this is the time so far.
+	 *
+	 * @return elapsed time in milliseconds
+	 */
+	public long getElapsed() {
+		if (started == 0) {
+			return 0;
+		}
+		long end = finished == 0 ? System.nanoTime() : finished;
+		return TimeUnit.NANOSECONDS.toMillis(end - started);
+	}
+
+	/**
+	 * Get the number of operations completed per second.
+	 *
+	 * @return throughput
+	 */
+	public double getThroughput() {
+		return throughput(getCount());
+	}
+
+	void started() {
+		started = System.nanoTime();
+	}
+
+	void finished() {
+		finished = System.nanoTime();
+	}
+
+	private double throughput(long count) {
+		long elapsed = getElapsed();
+		return elapsed == 0 ? 0 : count * 1000d / elapsed;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append(String.format("%d operations in %.3fs, %.1f/s, %d errors%n", getCount(), getElapsed() / 1000d,
+				getThroughput(), getErrors()));
+		b.append(String.format("%-22s %10s %10s %8s %10s %10s %10s %10s %10s%n", "Operation", "Count", "Ops/s",
+				"Errors", "Mean(us)", "p50", "p90", "p99", "Max"));
+		for (OperationStats s : operations.values()) {
+			LatencyHistogram h = s.getLatency();
+			b.append(String.format("%-22s %10d %10.1f %7.2f%% %10.0f %10d %10d %10d %10d%n",
+					s.getOperation().getKey(), s.getCount(), throughput(s.getCount()), s.getErrorRate() * 100,
+					h.getMean(), h.getPercentile(50), h.getPercentile(90), h.getPercentile(99), h.getMax()));
+			for (Map.Entry<String, Long> en : s.getErrorTypes().entrySet()) {
+				b.append(String.format("    %s x %d%n", en.getKey(), en.getValue()));
+			}
+		}
+		return b.toString();
+	}
+}
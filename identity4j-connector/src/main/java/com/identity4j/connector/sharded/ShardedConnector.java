@@ -0,0 +1,403 @@
+/* HEADER */
+package com.identity4j.connector.sharded;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.AbstractConnector;
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.ConnectorCapability;
+import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.util.NamedThreadFactory;
+import com.identity4j.util.PrefetchingConcatIterator;
+
+/**
+ * Spreads principals over several identical connectors (shards), each
+ * holding a partition of the principals.
+ * <p>
+ * Operations on a single principal are routed to one shard, chosen by
+ * consistent hashing of the principal name. Each shard is given a number of
+ * points on a hash ring, and a name belongs to the shard owning the first
+ * point at or after the hash of the name. Adding a shard to the end of the
+ * list therefore only moves the names that now belong to the new shard; the
+ * order of existing shards must never change.
+ * <p>
+ * Enumeration and counts are sent to all shards at once and the results
+ * merged.
+ */
+public class ShardedConnector extends AbstractConnector {
+
+	final static Log LOG = LogFactory.getLog(ShardedConnector.class);
+
+	/**
+	 * Default number of points each shard has on the hash ring
+	 */
+	public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+	private final List<Connector> shards;
+	private final TreeMap<Long, Connector> ring = new TreeMap<Long, Connector>();
+	private boolean caseInsensitiveNames = true;
+	private int bufferSize = 1000;
+	private ExecutorService executor;
+	private boolean ownExecutor;
+
+	public ShardedConnector(Connector... shards) {
+		this(Arrays.asList(shards));
+	}
+
+	public ShardedConnector(List<? extends Connector> shards) {
+		this(shards, DEFAULT_VIRTUAL_NODES);
+	}
+
+	public ShardedConnector(List<? extends Connector> shards, int virtualNodes) {
+		if (shards.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is required.");
+		}
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException("Each shard must have at least one virtual node.");
+		}
+		this.shards = Collections.unmodifiableList(new ArrayList<Connector>(shards));
+		for (int i = 0; i < shards.size(); i++) {
+			for (int j = 0; j < virtualNodes; j++) {
+				ring.put(hash("shard-" + i + "-" + j), shards.get(i));
+			}
+		}
+	}
+
+	public List<Connector> getShards() {
+		return shards;
+	}
+
+	/**
+	 * Get whether principal names are lower cased before hashing, so names
+	 * that differ only in case are routed to the same shard. Defaults to
+	 * <code>true</code>. Changing this on an existing set of shards will move
+	 * principals.
+	 *
+	 * @return case insensitive names
+	 */
+	public boolean isCaseInsensitiveNames() {
+		return caseInsensitiveNames;
+	}
+
+	public void setCaseInsensitiveNames(boolean caseInsensitiveNames) {
+		this.caseInsensitiveNames = caseInsensitiveNames;
+	}
+
+	/**
+	 * Get the number of principals read ahead from each shard while
+	 * enumerating.
+	 *
+	 * @return buffer size
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Set the executor used to call shards in parallel. If not set, a cached
+	 * pool of daemon threads is created and shut down when the connector is
+	 * closed.
+	 *
+	 * @param executor executor
+	 */
+	public synchronized void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+		ownExecutor = false;
+	}
+
+	protected synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(new NamedThreadFactory("Sharded"));
+			ownExecutor = true;
+		}
+		return executor;
+	}
+
+	/**
+	 * Get the shard a principal name belongs to.
+	 *
+	 * @param principalName principal name
+	 * @return shard
+	 */
+	public Connector getShard(String principalName) {
+		if (principalName == null) {
+			throw new ConnectorException("A principal name is required to select a shard.");
+		}
+		Map.Entry<Long, Connector> entry = ring.ceilingEntry(hash(caseInsensitiveNames ? principalName
+				.toLowerCase() : principalName));
+		return entry == null ? ring.firstEntry().getValue() : entry.getValue();
+	}
+
+	@Override
+	public Set<ConnectorCapability> getCapabilities() {
+		Set<ConnectorCapability> capabilities = new HashSet<ConnectorCapability>(shards.get(0).getCapabilities());
+		for (Connector shard : shards) {
+			capabilities.retainAll(shard.getCapabilities());
+		}
+		return capabilities;
+	}
+
+	@Override
+	public boolean isOpen() {
+		for (Connector shard : shards) {
+			if (!shard.isOpen()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		for (Connector shard : shards) {
+			if (shard.isReadOnly()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	protected void onOpen(ConnectorConfigurationParameters parameters) throws ConnectorException {
+		// Shards are opened individually
+	}
+
+	@Override
+	protected void onClose() {
+		for (Connector shard : shards) {
+			try {
+				shard.close();
+			} catch (RuntimeException re) {
+				LOG.warn("Failed to close shard.", re);
+			}
+		}
+		synchronized (this) {
+			if (ownExecutor && executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+	}
+
+	@Override
+	public Identity getIdentityByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		return getShard(name).getIdentityByName(name);
+	}
+
+	@Override
+	public Role getRoleByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		return getShard(name).getRoleByName(name);
+	}
+
+	@Override
+	public Iterator<Identity> allIdentities() throws ConnectorException {
+		List<Callable<Iterator<Identity>>> sources = new ArrayList<Callable<Iterator<Identity>>>();
+		for (final Connector shard : shards) {
+			sources.add(new Callable<Iterator<Identity>>() {
+				public Iterator<Identity> call() throws Exception {
+					return shard.allIdentities();
+				}
+			});
+		}
+		return new PrefetchingConcatIterator<Identity>(getExecutor(), sources, bufferSize);
+	}
+
+	@Override
+	public Iterator<Role> allRoles() throws ConnectorException {
+		List<Callable<Iterator<Role>>> sources = new ArrayList<Callable<Iterator<Role>>>();
+		for (final Connector shard : shards) {
+			sources.add(new Callable<Iterator<Role>>() {
+				public Iterator<Role> call() throws Exception {
+					return shard.allRoles();
+				}
+			});
+		}
+		return new PrefetchingConcatIterator<Role>(getExecutor(), sources, bufferSize);
+	}
+
+	@Override
+	public long countIdentities() throws ConnectorException {
+		List<Callable<Long>> counts = new ArrayList<Callable<Long>>();
+		for (final Connector shard : shards) {
+			counts.add(new Callable<Long>() {
+				public Long call() throws Exception {
+					return shard.countIdentities();
+				}
+			});
+		}
+		return sum(counts);
+	}
+
+	@Override
+	public long countRoles() throws ConnectorException {
+		List<Callable<Long>> counts = new ArrayList<Callable<Long>>();
+		for (final Connector shard : shards) {
+			counts.add(new Callable<Long>() {
+				public Long call() throws Exception {
+					return shard.countRoles();
+				}
+			});
+		}
+		return sum(counts);
+	}
+
+	@Override
+	protected boolean areCredentialsValid(Identity identity, char[] password) throws ConnectorException {
+		return getShard(identity.getPrincipalName()).checkCredentials(identity.getPrincipalName(), password);
+	}
+
+	@Override
+	protected void setPassword(Identity identity, char[] password, boolean forcePasswordChangeAtLogon,
+			PasswordResetType type) throws ConnectorException {
+		getShard(identity.getPrincipalName()).setPassword(identity.getPrincipalName(), identity.getGuid(), password,
+				forcePasswordChangeAtLogon, type);
+	}
+
+	@Override
+	protected void changePassword(Identity identity, char[] oldPassword, char[] password) {
+		getShard(identity.getPrincipalName()).changePassword(identity.getPrincipalName(), identity.getGuid(),
+				oldPassword, password);
+	}
+
+	@Override
+	public Identity createIdentity(Identity identity, char[] password) throws ConnectorException {
+		return getShard(identity.getPrincipalName()).createIdentity(identity, password);
+	}
+
+	@Override
+	public void updateIdentity(Identity identity) throws ConnectorException {
+		getShard(identity.getPrincipalName()).updateIdentity(identity);
+	}
+
+	@Override
+	public void deleteIdentity(String principalName) throws ConnectorException {
+		getShard(principalName).deleteIdentity(principalName);
+	}
+
+	@Override
+	public void lockIdentity(Identity identity) throws ConnectorException {
+		getShard(identity.getPrincipalName()).lockIdentity(identity);
+	}
+
+	@Override
+	public void unlockIdentity(Identity identity) throws ConnectorException {
+		getShard(identity.getPrincipalName()).unlockIdentity(identity);
+	}
+
+	@Override
+	public void disableIdentity(Identity identity) {
+		getShard(identity.getPrincipalName()).disableIdentity(identity);
+	}
+
+	@Override
+	public void enableIdentity(Identity identity) {
+		getShard(identity.getPrincipalName()).enableIdentity(identity);
+	}
+
+	@Override
+	public Role createRole(Role role) throws ConnectorException {
+		return getShard(role.getPrincipalName()).createRole(role);
+	}
+
+	@Override
+	public void updateRole(Role role) throws ConnectorException {
+		getShard(role.getPrincipalName()).updateRole(role);
+	}
+
+	@Override
+	public void deleteRole(String principalName) throws ConnectorException {
+		getShard(principalName).deleteRole(principalName);
+	}
+
+	private long sum(List<Callable<Long>> counts) {
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+		ExecutorService executor = getExecutor();
+		for (Callable<Long> count : counts) {
+			futures.add(executor.submit(count));
+		}
+		long total = 0;
+		try {
+			for (Future<Long> future : futures) {
+				total += future.get();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ConnectorException("Interrupted counting principals.", ie);
+		} catch (ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if (cause instanceof ConnectorException) {
+				throw (ConnectorException) cause;
+			}
+			throw new ConnectorException("Failed to count principals. " + cause.getMessage(), cause);
+		} finally {
+			for (Future<Long> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return total;
+	}
+
+	static long hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+			long hash = 0;
+			for (int i = 0; i < 8; i++) {
+				hash = (hash << 8) | (digest[i] & 0xff);
+			}
+			return hash;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
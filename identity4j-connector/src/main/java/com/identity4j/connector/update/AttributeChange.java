@@ -0,0 +1,138 @@
+/* HEADER */
+package com.identity4j.connector.update;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A change to a single attribute of a principal, as found by an
+ * {@link UpdatePlanner}. As well as the complete old and new values, the
+ * individual values added and removed are available, so connectors for
+ * stores with multi-valued attributes may send only those.
+ */
+public class AttributeChange {
+
+	/**
+	 * The kind of change.
+	 */
+	public enum Type {
+		/**
+		 * The attribute had no value and now has one or more.
+		 */
+		ADD,
+		/**
+		 * The attribute had a value and now has a different one.
+		 */
+		REPLACE,
+		/**
+		 * The attribute had a value and now has none.
+		 */
+		REMOVE
+	}
+
+	private final String name;
+	private final Type type;
+	private final String[] oldValues;
+	private final String[] newValues;
+
+	AttributeChange(String name, Type type, String[] oldValues, String[] newValues) {
+		this.name = name;
+		this.type = type;
+		this.oldValues = oldValues;
+		this.newValues = newValues;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Get the values before the change, never <code>null</code>.
+	 *
+	 * @return old values
+	 */
+	public String[] getOldValues() {
+		return oldValues;
+	}
+
+	/**
+	 * Get the values after the change, never <code>null</code>.
+	 *
+	 * @return new values
+	 */
+	public String[] getNewValues() {
+		return newValues;
+	}
+
+	/**
+	 * Get whether either side of the change has more than one value.
+	 *
+	 * @return multi-valued
+	 */
+	public boolean isMultiValued() {
+		return oldValues.length > 1 || newValues.length > 1;
+	}
+
+	/**
+	 * Get the values present after the change that were not present before.
+	 *
+	 * @return added values
+	 */
+	public List<String> getAddedValues() {
+		return difference(newValues, oldValues);
+	}
+
+	/**
+	 * Get the values present before the change that are no longer present.
+	 *
+	 * @return removed values
+	 */
+	public List<String> getRemovedValues() {
+		return difference(oldValues, newValues);
+	}
+
+	private static List<String> difference(String[] a, String[] b) {
+		if (a.length == 0) {
+			return Collections.emptyList();
+		}
+		Set<String> s = new LinkedHashSet<String>(Arrays.asList(a));
+		s.removeAll(Arrays.asList(b));
+		return new ArrayList<String>(s);
+	}
+
+	@Override
+	public String toString() {
+		return "AttributeChange [name=" + name + ", type=" + type + ", oldValues=" + Arrays.toString(oldValues)
+				+ ", newValues=" + Arrays.toString(newValues) + "]";
+	}
+}
@@ -0,0 +1,148 @@
+/* HEADER */
+package com.identity4j.connector.update;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import com.identity4j.connector.principal.Role;
+
+/**
+ * The minimal set of changes needed to turn the stored state of a principal
+ * into its updated state, as produced by {@link UpdatePlanner}. Connectors
+ * translate this into the smallest native operation they can, and should do
+ * nothing at all when the plan {@link #isEmpty()}.
+ */
+public class UpdatePlan {
+
+	/**
+	 * Properties of a principal, other than its attributes and roles, that may
+	 * change.
+	 */
+	public enum Property {
+		PRINCIPAL_NAME, FULL_NAME, OTHER_NAME, EMAIL, MOBILE, ACCOUNT_DISABLED, ACCOUNT_LOCKED
+	}
+
+	private final Set<Property> properties = EnumSet.noneOf(Property.class);
+	private final List<AttributeChange> attributeChanges = new ArrayList<AttributeChange>();
+	private final List<Role> rolesAdded = new ArrayList<Role>();
+	private final List<Role> rolesRemoved = new ArrayList<Role>();
+
+	UpdatePlan() {
+	}
+
+	/**
+	 * Get whether nothing has changed.
+	 *
+	 * @return empty
+	 */
+	public boolean isEmpty() {
+		return properties.isEmpty() && attributeChanges.isEmpty() && rolesAdded.isEmpty() && rolesRemoved.isEmpty();
+	}
+
+	/**
+	 * Get whether a property has changed.
+	 *
+	 * @param property property
+	 * @return changed
+	 */
+	public boolean isChanged(Property property) {
+		return properties.contains(property);
+	}
+
+	/**
+	 * Get all changed properties.
+	 *
+	 * @return changed properties
+	 */
+	public Set<Property> getChangedProperties() {
+		return Collections.unmodifiableSet(properties);
+	}
+
+	public List<AttributeChange> getAttributeChanges() {
+		return Collections.unmodifiableList(attributeChanges);
+	}
+
+	/**
+	 * Get the change to an attribute.
+	 *
+	 * @param name attribute name
+	 * @return change or <code>null</code> if unchanged
+	 */
+	public AttributeChange getAttributeChange(String name) {
+		for (AttributeChange c : attributeChanges) {
+			if (c.getName().equals(name)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	public boolean hasRoleChanges() {
+		return !rolesAdded.isEmpty() || !rolesRemoved.isEmpty();
+	}
+
+	/**
+	 * Get the roles the principal is now a member of but was not before.
+	 *
+	 * @return roles added
+	 */
+	public List<Role> getRolesAdded() {
+		return Collections.unmodifiableList(rolesAdded);
+	}
+
+	/**
+	 * Get the roles the principal was a member of but no longer is.
+	 *
+	 * @return roles removed
+	 */
+	public List<Role> getRolesRemoved() {
+		return Collections.unmodifiableList(rolesRemoved);
+	}
+
+	void changed(Property property) {
+		properties.add(property);
+	}
+
+	void add(AttributeChange change) {
+		attributeChanges.add(change);
+	}
+
+	void roleAdded(Role role) {
+		rolesAdded.add(role);
+	}
+
+	void roleRemoved(Role role) {
+		rolesRemoved.add(role);
+	}
+
+	@Override
+	public String toString() {
+		return "UpdatePlan [properties=" + properties + ", attributeChanges=" + attributeChanges + ", rolesAdded="
+				+ rolesAdded + ", rolesRemoved=" + rolesRemoved + "]";
+	}
+}
@@ -0,0 +1,256 @@
+/* HEADER */
+package com.identity4j.connector.update;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.identity4j.connector.Media;
+import com.identity4j.connector.principal.AccountStatus;
+import com.identity4j.connector.principal.AccountStatusType;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.update.AttributeChange.Type;
+import com.identity4j.connector.update.UpdatePlan.Property;
+
+/**
+ * Compares the stored and updated state of an {@link Identity} or
+ * {@link Role} and produces an {@link UpdatePlan} containing only what has
+ * changed, so connectors may send the smallest possible update to their
+ * backend, or skip it entirely.
+ * <p>
+ * Empty strings and missing values are treated as the same thing, and the
+ * order of multiple attribute values is not significant. Attributes missing
+ * from the updated principal are left alone unless
+ * {@link #setRemoveMissingAttributes(boolean)} is set, as callers commonly
+ * supply only the attributes they wish to change.
+ */
+public class UpdatePlanner {
+
+	private final Set<String> ignoredAttributes = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+	private boolean removeMissingAttributes;
+
+	/**
+	 * Never plan changes to the named attributes, e.g. those maintained by the
+	 * backend itself.
+	 *
+	 * @param names attribute names
+	 */
+	public void addIgnoredAttributes(String... names) {
+		ignoredAttributes.addAll(Arrays.asList(names));
+	}
+
+	/**
+	 * Never plan changes to the named attributes.
+	 *
+	 * @param names attribute names
+	 */
+	public void addIgnoredAttributes(Collection<String> names) {
+		ignoredAttributes.addAll(names);
+	}
+
+	public boolean isRemoveMissingAttributes() {
+		return removeMissingAttributes;
+	}
+
+	/**
+	 * Set whether attributes present in the stored principal but missing from
+	 * the updated principal should be removed.
+	 *
+	 * @param removeMissingAttributes remove missing attributes
+	 */
+	public void setRemoveMissingAttributes(boolean removeMissingAttributes) {
+		this.removeMissingAttributes = removeMissingAttributes;
+	}
+
+	/**
+	 * Plan the changes to an identity.
+	 *
+	 * @param previous stored state
+	 * @param updated updated state
+	 * @return plan
+	 */
+	public UpdatePlan plan(Identity previous, Identity updated) {
+		UpdatePlan plan = new UpdatePlan();
+		planProperty(plan, Property.PRINCIPAL_NAME, previous.getPrincipalName(), updated.getPrincipalName());
+		planProperty(plan, Property.FULL_NAME, previous.getFullName(), updated.getFullName());
+		planProperty(plan, Property.OTHER_NAME, previous.getOtherName(), updated.getOtherName());
+		planProperty(plan, Property.EMAIL, previous.getAddress(Media.email), updated.getAddress(Media.email));
+		planProperty(plan, Property.MOBILE, previous.getAddress(Media.mobile), updated.getAddress(Media.mobile));
+
+		AccountStatus was = previous.getAccountStatus();
+		AccountStatus now = updated.getAccountStatus();
+		if (was != null && now != null) {
+			if (was.isDisabled() != now.isDisabled()) {
+				plan.changed(Property.ACCOUNT_DISABLED);
+			}
+			if ((was.getType() == AccountStatusType.locked) != (now.getType() == AccountStatusType.locked)) {
+				plan.changed(Property.ACCOUNT_LOCKED);
+			}
+		}
+
+		planAttributes(plan, previous, updated);
+		planRoles(plan, previous.getRoles(), updated.getRoles());
+		return plan;
+	}
+
+	/**
+	 * Plan the changes to a role.
+	 *
+	 * @param previous stored state
+	 * @param updated updated state
+	 * @return plan
+	 */
+	public UpdatePlan plan(Role previous, Role updated) {
+		UpdatePlan plan = new UpdatePlan();
+		planProperty(plan, Property.PRINCIPAL_NAME, previous.getPrincipalName(), updated.getPrincipalName());
+		planAttributes(plan, previous, updated);
+		return plan;
+	}
+
+	/**
+	 * Plan only the changes to the attributes of any kind of principal.
+	 *
+	 * @param previous stored state
+	 * @param updated updated state
+	 * @return plan
+	 */
+	public UpdatePlan planAttributes(Principal previous, Principal updated) {
+		UpdatePlan plan = new UpdatePlan();
+		planAttributes(plan, previous, updated);
+		return plan;
+	}
+
+	/**
+	 * Get whether changes to an attribute should never be planned. By default
+	 * this checks the names added with {@link #addIgnoredAttributes(String...)}.
+	 *
+	 * @param name attribute name
+	 * @return ignored
+	 */
+	protected boolean isIgnored(String name) {
+		return ignoredAttributes.contains(name);
+	}
+
+	private void planProperty(UpdatePlan plan, Property property, String previous, String updated) {
+		if (!normalise(previous).equals(normalise(updated))) {
+			plan.changed(property);
+		}
+	}
+
+	private void planAttributes(UpdatePlan plan, Principal previous, Principal updated) {
+		Map<String, String[]> was = previous.getAttributes();
+		Map<String, String[]> now = updated.getAttributes();
+		for (Map.Entry<String, String[]> en : now.entrySet()) {
+			String name = en.getKey();
+			if (isIgnored(name)) {
+				continue;
+			}
+			planAttribute(plan, name, was.get(name), en.getValue());
+		}
+		if (removeMissingAttributes) {
+			for (Map.Entry<String, String[]> en : was.entrySet()) {
+				if (!now.containsKey(en.getKey()) && !isIgnored(en.getKey())) {
+					planAttribute(plan, en.getKey(), en.getValue(), null);
+				}
+			}
+		}
+	}
+
+	private void planAttribute(UpdatePlan plan, String name, String[] previous, String[] updated) {
+		String[] oldValues = values(previous);
+		String[] newValues = values(updated);
+		if (oldValues.length == 0 && newValues.length == 0) {
+			return;
+		}
+		if (oldValues.length == 0) {
+			plan.add(new AttributeChange(name, Type.ADD, oldValues, newValues));
+		} else if (newValues.length == 0) {
+			plan.add(new AttributeChange(name, Type.REMOVE, oldValues, newValues));
+		} else if (!new HashSet<String>(Arrays.asList(oldValues)).equals(new HashSet<String>(Arrays.asList(newValues)))) {
+			plan.add(new AttributeChange(name, Type.REPLACE, oldValues, newValues));
+		}
+	}
+
+	private void planRoles(UpdatePlan plan, Role[] previous, Role[] updated) {
+		List<Role> was = previous == null ? Collections.<Role> emptyList() : Arrays.asList(previous);
+		List<Role> now = updated == null ? Collections.<Role> emptyList() : Arrays.asList(updated);
+		for (Role r : now) {
+			if (!containsRole(was, r)) {
+				plan.roleAdded(r);
+			}
+		}
+		for (Role r : was) {
+			if (!containsRole(now, r)) {
+				plan.roleRemoved(r);
+			}
+		}
+	}
+
+	/**
+	 * Roles are the same if they have the same GUID or, when either has no
+	 * GUID, the same principal name.
+	 */
+	private static boolean containsRole(Collection<Role> roles, Role role) {
+		for (Role r : roles) {
+			if (r.getGuid() != null && role.getGuid() != null) {
+				if (r.getGuid().equals(role.getGuid())) {
+					return true;
+				}
+			} else if (normalise(r.getPrincipalName()).equals(normalise(role.getPrincipalName()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drop empty values, so that <code>null</code>, an empty array and an
+	 * array holding an empty string all mean no value.
+	 */
+	private static String[] values(String[] values) {
+		if (values == null || values.length == 0) {
+			return new String[0];
+		}
+		List<String> l = new ArrayList<String>(values.length);
+		for (String v : values) {
+			if (v != null && v.length() > 0) {
+				l.add(v);
+			}
+		}
+		return l.toArray(new String[0]);
+	}
+
+	private static String normalise(String value) {
+		return value == null ? "" : value;
+	}
+}
@@ -0,0 +1,213 @@
+/* HEADER */
+package com.identity4j.connector.writebehind;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.util.json.JsonMapperService;
+
+/**
+ * Append-only file of pending operations. Each operation is written as one
+ * JSON object per line, tagged with a sequence number. When operations have
+ * been applied, a record listing their sequence numbers is appended. On start
+ * up the operations that were never completed are returned for replay, and
+ * the file is rewritten to contain only those. The rewritten copy is
+ * complete before the original is removed, so if a crash leaves only the
+ * copy, that is read instead.
+ */
+class Journal {
+
+	final static Log LOG = LogFactory.getLog(Journal.class);
+
+	static final String SEQ = "seq";
+	static final String DONE = "done";
+
+	private final File file;
+	private final boolean sync;
+	private FileOutputStream out;
+	private long nextSeq = 1;
+	private long outstanding;
+
+	Journal(File file, boolean sync) {
+		this.file = file;
+		this.sync = sync;
+	}
+
+	/**
+	 * Read the journal, returning the operations that have not been completed
+	 * in the order they were written, and open it for appending.
+	 *
+	 * @return outstanding operations
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized List<Map<String, Object>> open() throws IOException {
+		TreeMap<Long, Map<String, Object>> operations = new TreeMap<Long, Map<String, Object>>();
+		Set<Long> done = new HashSet<Long>();
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		if (!file.exists() && tmp.exists()) {
+			/* Stopped after removing the original but before renaming the compacted copy */
+			LOG.warn("Recovering journal " + file + " from " + tmp);
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Could not recover journal " + file + " from " + tmp);
+			}
+		}
+		if (file.exists()) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.trim().length() == 0) {
+						continue;
+					}
+					Map<String, Object> record;
+					try {
+						record = JsonMapperService.getInstance().getObject(LinkedHashMap.class, line);
+					} catch (RuntimeException re) {
+						/* A torn final write after a crash */
+						LOG.warn("Ignoring unreadable journal record in " + file);
+						continue;
+					}
+					if (record.containsKey(DONE)) {
+						for (Object seq : (Collection<Object>) record.get(DONE)) {
+							done.add(((Number) seq).longValue());
+						}
+					} else {
+						long seq = ((Number) record.get(SEQ)).longValue();
+						operations.put(seq, record);
+						nextSeq = Math.max(nextSeq, seq + 1);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		operations.keySet().removeAll(done);
+		List<Map<String, Object>> remaining = new ArrayList<Map<String, Object>>(operations.values());
+
+		/*
+		 * Compact, keeping only what is still to do. Any copy left by an earlier
+		 * compaction that stopped before removing the original is overwritten.
+		 */
+		FileOutputStream tmpOut = new FileOutputStream(tmp);
+		try {
+			for (Map<String, Object> record : remaining) {
+				writeRecord(tmpOut, record);
+			}
+			tmpOut.getFD().sync();
+		} finally {
+			tmpOut.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Could not replace journal " + file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException("Could not replace journal " + file);
+		}
+		out = new FileOutputStream(file, true);
+		outstanding = remaining.size();
+		return remaining;
+	}
+
+	/**
+	 * Append an operation, assigning it the next sequence number.
+	 *
+	 * @param record operation
+	 * @return sequence number
+	 */
+	synchronized long append(Map<String, Object> record) {
+		long seq = nextSeq++;
+		record.put(SEQ, seq);
+		try {
+			writeRecord(out, record);
+			if (sync) {
+				out.getFD().sync();
+			}
+		} catch (IOException ioe) {
+			throw new ConnectorException("Failed to write to journal " + file, ioe);
+		}
+		outstanding++;
+		return seq;
+	}
+
+	/**
+	 * Record operations as complete. Once nothing is outstanding the journal
+	 * is truncated, so it only grows while there is a backlog.
+	 *
+	 * @param seqs sequence numbers
+	 */
+	synchronized void done(Collection<Long> seqs) {
+		try {
+			outstanding -= seqs.size();
+			if (outstanding <= 0) {
+				outstanding = 0;
+				out.getChannel().truncate(0);
+			} else {
+				Map<String, Object> record = new LinkedHashMap<String, Object>();
+				record.put(DONE, seqs);
+				writeRecord(out, record);
+			}
+			if (sync) {
+				out.getFD().sync();
+			}
+		} catch (IOException ioe) {
+			LOG.warn("Failed to record completion in journal " + file + ", operations may be repeated.", ioe);
+		}
+	}
+
+	synchronized void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException ioe) {
+				LOG.warn("Failed to close journal " + file, ioe);
+			}
+			out = null;
+		}
+	}
+
+	private void writeRecord(OutputStream out, Map<String, Object> record) throws IOException {
+		out.write(JsonMapperService.getInstance().getJson(record).getBytes("UTF-8"));
+		out.write('\n');
+		out.flush();
+	}
+}
@@ -0,0 +1,847 @@
+/* HEADER */
+package com.identity4j.connector.writebehind;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.AbstractConnector;
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.ConnectorCapability;
+import com.identity4j.connector.ConnectorConfigurationParameters;
+import com.identity4j.connector.Media;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.principal.RoleImpl;
+import com.identity4j.util.NamedThreadFactory;
+import com.identity4j.util.crypt.impl.Base64AESEncoder;
+import com.identity4j.util.crypt.impl.DefaultEncoderManager;
+import com.identity4j.util.passwords.PasswordCharacteristics;
+
+/**
+ * Wraps a connector so that changes to existing principals are queued and
+ * applied in the background, instead of making the caller wait for a slow
+ * backend.
+ * <p>
+ * Updates, deletes, locking, enabling and password resets return as soon as
+ * they have been written to a local append-only journal. Operations queued
+ * for the same principal are merged, so a user edited three times before the
+ * queue reaches them results in a single update of the delegate. Worker
+ * threads apply the merged changes, retrying failures with an exponential
+ * back-off. Anything not applied when the connector is closed (or the JVM
+ * stops) is replayed from the journal the next time a connector is created
+ * for the same journal file and {@link #start() started}.
+ * <p>
+ * Looking up a principal by name reflects queued changes, which are laid over
+ * a copy of the identity the delegate returns so its concrete type is kept.
+ * When the changes are applied they are laid over a fresh lookup in the same
+ * way, so the delegate always receives identities it created itself.
+ * Enumeration and counts come straight from the delegate so may lag
+ * behind. Creation is always synchronous, as are password changes that
+ * require the old password.
+ * <p>
+ * Password resets are only queued if a passphrase has been set with
+ * {@link #setPassphrase(byte[])}, in which case they are stored in the
+ * journal encrypted. Without one, they are applied immediately once any
+ * other pending changes for the principal have been applied.
+ */
+public class WriteBehindConnector extends AbstractConnector {
+
+	final static Log LOG = LogFactory.getLog(WriteBehindConnector.class);
+
+	private static final String OP = "op";
+	private static final String OP_UPDATE_IDENTITY = "updateIdentity";
+	private static final String OP_DELETE_IDENTITY = "deleteIdentity";
+	private static final String OP_LOCK_IDENTITY = "lockIdentity";
+	private static final String OP_UNLOCK_IDENTITY = "unlockIdentity";
+	private static final String OP_DISABLE_IDENTITY = "disableIdentity";
+	private static final String OP_ENABLE_IDENTITY = "enableIdentity";
+	private static final String OP_SET_PASSWORD = "setPassword";
+	private static final String OP_UPDATE_ROLE = "updateRole";
+	private static final String OP_DELETE_ROLE = "deleteRole";
+
+	private final Connector delegate;
+	private final Journal journal;
+	private final Object lock = new Object();
+	private final Map<String, PendingChange> pending = new LinkedHashMap<String, PendingChange>();
+	private final Map<String, PendingChange> inFlight = new LinkedHashMap<String, PendingChange>();
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private final List<WriteBehindListener> listeners = new CopyOnWriteArrayList<WriteBehindListener>();
+	private final int workerCount;
+	private volatile boolean running;
+	private volatile boolean closed;
+	private int maxRetries = 5;
+	private long retryDelay = 1000;
+	private byte[] passphrase;
+
+	/**
+	 * Create a write-behind connector with a single worker thread.
+	 *
+	 * @param delegate connector to apply changes to
+	 * @param journalFile journal file
+	 */
+	public WriteBehindConnector(Connector delegate, File journalFile) {
+		this(delegate, journalFile, 1, false);
+	}
+
+	/**
+	 * Create a write-behind connector. Any operations left in the journal are
+	 * queued again, to be applied once {@link #start()} is called.
+	 *
+	 * @param delegate connector to apply changes to
+	 * @param journalFile journal file
+	 * @param workers number of worker threads. Changes to different principals
+	 *            are applied in parallel, changes to the same principal never
+	 *            are.
+	 * @param sync force every journal write to disk before returning
+	 */
+	public WriteBehindConnector(Connector delegate, File journalFile, int workers, boolean sync) {
+		this.delegate = delegate;
+		journal = new Journal(journalFile, sync);
+		try {
+			List<Map<String, Object>> outstanding = journal.open();
+			for (Map<String, Object> record : outstanding) {
+				merge(record);
+			}
+			if (!outstanding.isEmpty() && LOG.isInfoEnabled()) {
+				LOG.info("Replaying " + outstanding.size() + " operations from " + journalFile);
+			}
+		} catch (IOException ioe) {
+			throw new ConnectorException("Failed to open journal " + journalFile, ioe);
+		}
+		this.workerCount = workers;
+	}
+
+	/**
+	 * Start the worker threads. Call this once any passphrase and listeners
+	 * have been set, so replayed operations are handled the same way as new
+	 * ones. Operations may be queued before the workers are started.
+	 */
+	public void start() {
+		synchronized (lock) {
+			if (running || closed) {
+				throw new IllegalStateException("Already started or closed.");
+			}
+			running = true;
+		}
+		NamedThreadFactory factory = new NamedThreadFactory("WriteBehind");
+		for (int i = 0; i < workerCount; i++) {
+			Thread thread = factory.newThread(new Runnable() {
+				public void run() {
+					work();
+				}
+			});
+			workers.add(thread);
+			thread.start();
+		}
+	}
+
+	public Connector getDelegate() {
+		return delegate;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Get the delay in milliseconds before the first retry. The delay doubles
+	 * for each subsequent attempt.
+	 *
+	 * @return retry delay
+	 */
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+	public void setRetryDelay(long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Set the passphrase used to encrypt passwords stored in the journal.
+	 * Password resets are only queued when this is set.
+	 *
+	 * @param passphrase passphrase
+	 */
+	public void setPassphrase(byte[] passphrase) {
+		this.passphrase = passphrase;
+	}
+
+	public void addListener(WriteBehindListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(WriteBehindListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Get the number of principals with changes not yet applied.
+	 *
+	 * @return pending principals
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pending.size() + inFlight.size();
+		}
+	}
+
+	/**
+	 * Wait until all queued changes have been applied (or given up on). The
+	 * workers must have been started.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (lock) {
+			while (!closed && (!pending.isEmpty() || !inFlight.isEmpty())) {
+				lock.wait();
+			}
+		}
+	}
+
+	@Override
+	public Set<ConnectorCapability> getCapabilities() {
+		return delegate.getCapabilities();
+	}
+
+	@Override
+	public PasswordCharacteristics getPasswordCharacteristics() {
+		return delegate.getPasswordCharacteristics();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed && delegate.isOpen();
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return delegate.isReadOnly();
+	}
+
+	@Override
+	protected void onOpen(ConnectorConfigurationParameters parameters) throws ConnectorException {
+		// The delegate is opened by the caller
+	}
+
+	/**
+	 * Stop the workers without waiting for the queue to drain. Anything not
+	 * yet applied remains in the journal. The delegate is also closed.
+	 */
+	@Override
+	protected void onClose() {
+		synchronized (lock) {
+			running = false;
+			closed = true;
+			lock.notifyAll();
+		}
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		journal.close();
+		delegate.close();
+	}
+
+	@Override
+	public Iterator<Identity> allIdentities() throws ConnectorException {
+		return delegate.allIdentities();
+	}
+
+	@Override
+	public Iterator<Role> allRoles() throws ConnectorException {
+		return delegate.allRoles();
+	}
+
+	@Override
+	public long countIdentities() throws ConnectorException {
+		return delegate.countIdentities();
+	}
+
+	@Override
+	public long countRoles() throws ConnectorException {
+		return delegate.countRoles();
+	}
+
+	@Override
+	public Identity getIdentityByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		Map<String, Object> update = null;
+		synchronized (lock) {
+			for (PendingChange change : changesFor(identityKey(name))) {
+				if (change.delete) {
+					throw new PrincipalNotFoundException(name + " not found.");
+				}
+				if (change.identity != null) {
+					update = change.identity;
+					break;
+				}
+			}
+		}
+		Identity identity = delegate.getIdentityByName(name);
+		if (update != null) {
+			identity = copy(identity);
+			overlay(identity, update);
+		}
+		return identity;
+	}
+
+	@Override
+	public Role getRoleByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		synchronized (lock) {
+			for (PendingChange change : changesFor(roleKey(name))) {
+				if (change.delete) {
+					throw new PrincipalNotFoundException(name + " not found.");
+				}
+				if (change.role != null) {
+					return change.role;
+				}
+			}
+		}
+		return delegate.getRoleByName(name);
+	}
+
+	@Override
+	public Identity createIdentity(Identity identity, char[] password) throws ConnectorException {
+		await(identityKey(identity.getPrincipalName()));
+		return delegate.createIdentity(identity, password);
+	}
+
+	@Override
+	public Role createRole(Role role) throws ConnectorException {
+		await(roleKey(role.getPrincipalName()));
+		return delegate.createRole(role);
+	}
+
+	@Override
+	public void updateIdentity(Identity identity) throws ConnectorException {
+		Map<String, Object> record = record(OP_UPDATE_IDENTITY, identity.getPrincipalName());
+		record.put("identity", toMap(identity));
+		enqueue(identityKey(identity.getPrincipalName()), record);
+	}
+
+	@Override
+	public void deleteIdentity(String principalName) throws ConnectorException {
+		enqueue(identityKey(principalName), record(OP_DELETE_IDENTITY, principalName));
+	}
+
+	@Override
+	public void lockIdentity(Identity identity) throws ConnectorException {
+		enqueueIdentityOperation(OP_LOCK_IDENTITY, identity);
+	}
+
+	@Override
+	public void unlockIdentity(Identity identity) throws ConnectorException {
+		enqueueIdentityOperation(OP_UNLOCK_IDENTITY, identity);
+	}
+
+	@Override
+	public void disableIdentity(Identity identity) {
+		enqueueIdentityOperation(OP_DISABLE_IDENTITY, identity);
+	}
+
+	@Override
+	public void enableIdentity(Identity identity) {
+		enqueueIdentityOperation(OP_ENABLE_IDENTITY, identity);
+	}
+
+	@Override
+	public void updateRole(Role role) throws ConnectorException {
+		Map<String, Object> record = record(OP_UPDATE_ROLE, role.getPrincipalName());
+		record.put("role", toMap(role));
+		enqueue(roleKey(role.getPrincipalName()), record);
+	}
+
+	@Override
+	public void deleteRole(String principalName) throws ConnectorException {
+		enqueue(roleKey(principalName), record(OP_DELETE_ROLE, principalName));
+	}
+
+	@Override
+	protected void setPassword(Identity identity, char[] password, boolean forcePasswordChangeAtLogon,
+			PasswordResetType type) throws ConnectorException {
+		if (passphrase == null) {
+			await(identityKey(identity.getPrincipalName()));
+			delegate.setPassword(identity.getPrincipalName(), identity.getGuid(), password, forcePasswordChangeAtLogon,
+					type);
+			return;
+		}
+		Map<String, Object> record = record(OP_SET_PASSWORD, identity.getPrincipalName());
+		record.put("guid", identity.getGuid());
+		record.put("password", encrypt(password));
+		record.put("force", forcePasswordChangeAtLogon);
+		record.put("type", type.name());
+		enqueue(identityKey(identity.getPrincipalName()), record);
+	}
+
+	@Override
+	protected void changePassword(Identity identity, char[] oldPassword, char[] password) {
+		await(identityKey(identity.getPrincipalName()));
+		delegate.changePassword(identity.getPrincipalName(), identity.getGuid(), oldPassword, password);
+	}
+
+	@Override
+	protected boolean areCredentialsValid(Identity identity, char[] password) throws ConnectorException {
+		String key = identityKey(identity.getPrincipalName());
+		boolean passwordPending = false;
+		synchronized (lock) {
+			for (PendingChange change : changesFor(key)) {
+				passwordPending |= change.password != null;
+			}
+		}
+		if (passwordPending) {
+			/* The new password must be in place before it can be checked */
+			await(key);
+		}
+		return delegate.checkCredentials(identity.getPrincipalName(), password);
+	}
+
+	private void enqueueIdentityOperation(String op, Identity identity) {
+		Map<String, Object> record = record(op, identity.getPrincipalName());
+		record.put("identity", toMap(identity));
+		enqueue(identityKey(identity.getPrincipalName()), record);
+	}
+
+	private Map<String, Object> record(String op, String principalName) {
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put(OP, op);
+		record.put("name", principalName);
+		return record;
+	}
+
+	private void enqueue(String key, Map<String, Object> record) {
+		synchronized (lock) {
+			if (closed) {
+				throw new ConnectorException("Write-behind connector is closed.");
+			}
+			PendingChange change = pending.get(key);
+			if (change != null && change.delete) {
+				throw new PrincipalNotFoundException(record.get("name") + " is being deleted.");
+			}
+			journal.append(record);
+			merge(record);
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Merge an operation into the pending changes for its principal.
+	 */
+	@SuppressWarnings("unchecked")
+	private void merge(Map<String, Object> record) {
+		String op = (String) record.get(OP);
+		String name = (String) record.get("name");
+		boolean role = op.equals(OP_UPDATE_ROLE) || op.equals(OP_DELETE_ROLE);
+		String key = role ? roleKey(name) : identityKey(name);
+		PendingChange change = pending.get(key);
+		if (change == null) {
+			change = new PendingChange(name, role);
+			pending.put(key, change);
+		}
+		change.seqs.add(((Number) record.get(Journal.SEQ)).longValue());
+
+		if (op.equals(OP_DELETE_IDENTITY) || op.equals(OP_DELETE_ROLE)) {
+			change.identity = null;
+			change.role = null;
+			change.lock = null;
+			change.disable = null;
+			change.password = null;
+			change.delete = true;
+		} else if (op.equals(OP_UPDATE_IDENTITY)) {
+			change.identity = (Map<String, Object>) record.get("identity");
+		} else if (op.equals(OP_LOCK_IDENTITY) || op.equals(OP_UNLOCK_IDENTITY)) {
+			change.lock = op.equals(OP_LOCK_IDENTITY);
+		} else if (op.equals(OP_DISABLE_IDENTITY) || op.equals(OP_ENABLE_IDENTITY)) {
+			change.disable = op.equals(OP_DISABLE_IDENTITY);
+		} else if (op.equals(OP_SET_PASSWORD)) {
+			change.guid = (String) record.get("guid");
+			change.password = (String) record.get("password");
+			change.force = Boolean.TRUE.equals(record.get("force"));
+			change.type = PasswordResetType.valueOf((String) record.get("type"));
+		} else if (op.equals(OP_UPDATE_ROLE)) {
+			change.role = toRole((Map<String, Object>) record.get("role"));
+		} else {
+			LOG.warn("Ignoring unknown journal operation " + op);
+		}
+	}
+
+	/**
+	 * Get the changes for a principal, newest first. Must hold the lock.
+	 */
+	private List<PendingChange> changesFor(String key) {
+		List<PendingChange> changes = new ArrayList<PendingChange>(2);
+		if (pending.containsKey(key)) {
+			changes.add(pending.get(key));
+		}
+		if (inFlight.containsKey(key)) {
+			changes.add(inFlight.get(key));
+		}
+		return changes;
+	}
+
+	private void await(String key) {
+		synchronized (lock) {
+			while (!closed && (pending.containsKey(key) || inFlight.containsKey(key))) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ConnectorException("Interrupted waiting for pending changes.", e);
+				}
+			}
+		}
+	}
+
+	private void work() {
+		while (true) {
+			String key = null;
+			PendingChange change = null;
+			synchronized (lock) {
+				while (running && change == null) {
+					for (Map.Entry<String, PendingChange> en : pending.entrySet()) {
+						if (!inFlight.containsKey(en.getKey())) {
+							key = en.getKey();
+							change = en.getValue();
+							break;
+						}
+					}
+					if (change == null) {
+						try {
+							lock.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+				if (!running) {
+					return;
+				}
+				pending.remove(key);
+				inFlight.put(key, change);
+			}
+
+			Throwable failure = null;
+			try {
+				failure = applyWithRetries(change);
+			} catch (InterruptedException ie) {
+				/* Closing, leave it in the journal */
+				return;
+			}
+
+			journal.done(change.seqs);
+			/* Notify while still in flight, so flush() waits for listeners */
+			for (WriteBehindListener listener : listeners) {
+				try {
+					if (failure == null) {
+						listener.applied(change.principalName, change.seqs.size());
+					} else {
+						listener.failed(change.principalName, failure);
+					}
+				} catch (RuntimeException re) {
+					LOG.warn("Write behind listener failed.", re);
+				}
+			}
+			synchronized (lock) {
+				inFlight.remove(key);
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private Throwable applyWithRetries(PendingChange change) throws InterruptedException {
+		long delay = retryDelay;
+		for (int attempt = 0;; attempt++) {
+			try {
+				apply(change);
+				return null;
+			} catch (RuntimeException re) {
+				if (re instanceof PrincipalNotFoundException || attempt >= maxRetries) {
+					LOG.error("Failed to apply " + change.seqs.size() + " queued operations for "
+							+ change.principalName + ", discarding them.", re);
+					return re;
+				}
+				if (!running) {
+					/* Closing, so leave them in the journal to be retried when next started */
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Failed to apply queued operations for " + change.principalName
+								+ " while closing, keeping them.", re);
+					}
+					throw new InterruptedException();
+				}
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Failed to apply queued operations for " + change.principalName + ", retrying in "
+							+ delay + "ms", re);
+				}
+			}
+			Thread.sleep(delay);
+			delay *= 2;
+		}
+	}
+
+	private void apply(PendingChange change) {
+		String name = change.principalName;
+		if (change.forRole) {
+			if (change.delete) {
+				delegate.deleteRole(name);
+			} else if (change.role != null) {
+				delegate.updateRole(change.role);
+			}
+			return;
+		}
+		if (change.delete) {
+			delegate.deleteIdentity(name);
+			return;
+		}
+		if (change.identity != null || change.lock != null || change.disable != null) {
+			/*
+			 * Work on the delegate's own identity, so anything it keeps that the
+			 * journal does not (type, DN, account status) is still there
+			 */
+			Identity identity = delegate.getIdentityByName(name);
+			if (change.identity != null) {
+				overlay(identity, change.identity);
+				delegate.updateIdentity(identity);
+			}
+			if (change.lock != null) {
+				if (change.lock) {
+					delegate.lockIdentity(identity);
+				} else {
+					delegate.unlockIdentity(identity);
+				}
+			}
+			if (change.disable != null) {
+				if (change.disable) {
+					delegate.disableIdentity(identity);
+				} else {
+					delegate.enableIdentity(identity);
+				}
+			}
+		}
+		if (change.password != null) {
+			delegate.setPassword(name, change.guid, decrypt(change.password), change.force, change.type);
+		}
+	}
+
+	private String encrypt(char[] password) {
+		try {
+			return new String(DefaultEncoderManager.getInstance().encode(password, Base64AESEncoder.ID, "UTF-8", null,
+					passphrase), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private char[] decrypt(String password) {
+		if (passphrase == null) {
+			throw new ConnectorException("A passphrase is required to apply queued password changes.");
+		}
+		try {
+			return DefaultEncoderManager.getInstance().decode(password.getBytes("UTF-8"), Base64AESEncoder.ID,
+					"UTF-8", null, passphrase);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String identityKey(String name) {
+		return "identity:" + name;
+	}
+
+	private static String roleKey(String name) {
+		return "role:" + name;
+	}
+
+	static Map<String, Object> toMap(Identity identity) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("guid", identity.getGuid());
+		map.put("principalName", identity.getPrincipalName());
+		map.put("fullName", identity.getFullName());
+		map.put("otherName", identity.getOtherName());
+		Map<String, String> addresses = new LinkedHashMap<String, String>();
+		for (Media media : Media.values()) {
+			String address = identity.getAddress(media);
+			if (address != null) {
+				addresses.put(media.name(), address);
+			}
+		}
+		map.put("addresses", addresses);
+		map.put("attributes", attributesToMap(identity));
+		List<Map<String, Object>> roles = new ArrayList<Map<String, Object>>();
+		for (Role role : identity.getRoles()) {
+			roles.add(toMap(role));
+		}
+		map.put("roles", roles);
+		return map;
+	}
+
+	static Map<String, Object> toMap(Role role) {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("guid", role.getGuid());
+		map.put("principalName", role.getPrincipalName());
+		map.put("attributes", attributesToMap(role));
+		return map;
+	}
+
+	/**
+	 * Copy a principal's attributes as lists, the form they take once read
+	 * back from the journal, so the record shares no state with the principal.
+	 */
+	private static Map<String, List<String>> attributesToMap(Principal principal) {
+		Map<String, List<String>> attributes = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, String[]> en : principal.getAttributes().entrySet()) {
+			String[] values = en.getValue();
+			attributes.put(en.getKey(), values == null ? new ArrayList<String>()
+					: new ArrayList<String>(Arrays.asList(values)));
+		}
+		return attributes;
+	}
+
+	/**
+	 * Lay the state recorded by {@link #toMap(Identity)} over an identity
+	 * obtained from the delegate.
+	 */
+	@SuppressWarnings("unchecked")
+	static void overlay(Identity identity, Map<String, Object> map) {
+		identity.setFullName((String) map.get("fullName"));
+		if (identity instanceof IdentityImpl) {
+			IdentityImpl impl = (IdentityImpl) identity;
+			impl.setOtherName((String) map.get("otherName"));
+			Map<String, String> addresses = (Map<String, String>) map.get("addresses");
+			if (addresses != null) {
+				for (Media media : Media.values()) {
+					impl.setAddress(media, addresses.get(media.name()));
+				}
+			}
+		}
+		setAttributes(identity, (Map<String, Object>) map.get("attributes"));
+		List<Map<String, Object>> roles = (List<Map<String, Object>>) map.get("roles");
+		if (roles != null) {
+			List<Role> l = new ArrayList<Role>();
+			for (Map<String, Object> role : roles) {
+				l.add(toRole(role));
+			}
+			identity.setRoles(l.toArray(new Role[0]));
+		}
+	}
+
+	/**
+	 * Copy an identity, keeping its class, so that queued changes may be laid
+	 * over it without touching an instance the delegate may hold on to. If the
+	 * identity cannot be serialized, the original is returned.
+	 */
+	static Identity copy(Identity identity) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			try {
+				oos.writeObject(identity);
+			} finally {
+				oos.close();
+			}
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()));
+			try {
+				return (Identity) ois.readObject();
+			} finally {
+				ois.close();
+			}
+		} catch (Exception e) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Could not copy " + identity.getPrincipalName() + ", using the delegate's instance.", e);
+			}
+			return identity;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static RoleImpl toRole(Map<String, Object> map) {
+		RoleImpl role = new RoleImpl((String) map.get("guid"), (String) map.get("principalName"));
+		setAttributes(role, (Map<String, Object>) map.get("attributes"));
+		return role;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void setAttributes(Principal principal, Map<String, Object> attributes) {
+		if (attributes != null) {
+			for (Map.Entry<String, Object> en : attributes.entrySet()) {
+				List<String> values = (List<String>) en.getValue();
+				principal.setAttribute(en.getKey(), values.toArray(new String[0]));
+			}
+		}
+	}
+
+	/**
+	 * The net effect of all queued operations for one principal.
+	 */
+	static class PendingChange {
+		final String principalName;
+		final boolean forRole;
+		final List<Long> seqs = new ArrayList<Long>();
+		boolean delete;
+		Map<String, Object> identity;
+		Role role;
+		Boolean lock;
+		Boolean disable;
+		String guid;
+		String password;
+		boolean force;
+		PasswordResetType type;
+
+		PendingChange(String principalName, boolean forRole) {
+			this.principalName = principalName;
+			this.forRole = forRole;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+/* HEADER */
+package com.identity4j.connector.writebehind;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Notified as queued operations are applied to the delegate of a
+ * {@link WriteBehindConnector}. Called from the worker threads.
+ */
+public interface WriteBehindListener {
+
+	/**
+	 * All pending operations for a principal were applied.
+	 *
+	 * @param principalName principal name
+	 * @param operations number of queued operations that were merged
+	 */
+	void applied(String principalName, int operations);
+
+	/**
+	 * Pending operations for a principal could not be applied, even after
+	 * retrying, and have been discarded.
+	 *
+	 * @param principalName principal name
+	 * @param exception last failure
+	 */
+	void failed(String principalName, Throwable exception);
+}
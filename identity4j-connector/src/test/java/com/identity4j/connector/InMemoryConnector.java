@@ -0,0 +1,154 @@
+/* HEADER */
+package com.identity4j.connector;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalAlreadyExistsException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.Role;
+
+/**
+ * Simple thread safe connector that keeps its principals in memory. Used by
+ * unit tests of components that sit on top of the {@link Connector} API.
+ */
+public class InMemoryConnector extends AbstractConnector {
+
+	private final Map<String, Identity> identities = new LinkedHashMap<String, Identity>();
+	private final Map<String, Role> roles = new LinkedHashMap<String, Role>();
+	private boolean open;
+
+	public InMemoryConnector(Principal... principals) {
+		for (Principal principal : principals) {
+			if (principal instanceof Identity) {
+				identities.put(principal.getPrincipalName(), (Identity) principal);
+			} else {
+				roles.put(principal.getPrincipalName(), (Role) principal);
+			}
+		}
+	}
+
+	public Set<ConnectorCapability> getCapabilities() {
+		return new HashSet<ConnectorCapability>(Arrays.asList(ConnectorCapability.identities, ConnectorCapability.roles,
+				ConnectorCapability.createUser, ConnectorCapability.updateUser, ConnectorCapability.deleteUser,
+				ConnectorCapability.createRole, ConnectorCapability.updateRole, ConnectorCapability.deleteRole));
+	}
+
+	public synchronized Iterator<Identity> allIdentities() throws ConnectorException {
+		return new ArrayList<Identity>(identities.values()).iterator();
+	}
+
+	public synchronized Iterator<Role> allRoles() throws ConnectorException {
+		return new ArrayList<Role>(roles.values()).iterator();
+	}
+
+	@Override
+	public synchronized Identity getIdentityByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		Identity identity = identities.get(name);
+		if (identity == null) {
+			throw new PrincipalNotFoundException(name + " not found.");
+		}
+		return identity;
+	}
+
+	@Override
+	public synchronized Role getRoleByName(String name) throws PrincipalNotFoundException, ConnectorException {
+		Role role = roles.get(name);
+		if (role == null) {
+			throw new PrincipalNotFoundException(name + " not found.");
+		}
+		return role;
+	}
+
+	@Override
+	public synchronized Identity createIdentity(Identity identity, char[] password) throws ConnectorException {
+		if (identities.containsKey(identity.getPrincipalName())) {
+			throw new PrincipalAlreadyExistsException(identity.getPrincipalName() + " already exists.");
+		}
+		identities.put(identity.getPrincipalName(), identity);
+		return identity;
+	}
+
+	@Override
+	public synchronized void updateIdentity(Identity identity) throws ConnectorException {
+		getIdentityByName(identity.getPrincipalName());
+		identities.put(identity.getPrincipalName(), identity);
+	}
+
+	@Override
+	public synchronized void deleteIdentity(String principalName) throws ConnectorException {
+		if (identities.remove(principalName) == null) {
+			throw new PrincipalNotFoundException(principalName + " not found.");
+		}
+	}
+
+	@Override
+	public synchronized Role createRole(Role role) throws ConnectorException {
+		if (roles.containsKey(role.getPrincipalName())) {
+			throw new PrincipalAlreadyExistsException(role.getPrincipalName() + " already exists.");
+		}
+		roles.put(role.getPrincipalName(), role);
+		return role;
+	}
+
+	@Override
+	public synchronized void updateRole(Role role) throws ConnectorException {
+		getRoleByName(role.getPrincipalName());
+		roles.put(role.getPrincipalName(), role);
+	}
+
+	@Override
+	public synchronized void deleteRole(String principalName) throws ConnectorException {
+		if (roles.remove(principalName) == null) {
+			throw new PrincipalNotFoundException(principalName + " not found.");
+		}
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public boolean isReadOnly() {
+		return false;
+	}
+
+	@Override
+	protected void onOpen(ConnectorConfigurationParameters parameters) throws ConnectorException {
+		open = true;
+	}
+
+	@Override
+	protected void onClose() {
+		open = false;
+	}
+}
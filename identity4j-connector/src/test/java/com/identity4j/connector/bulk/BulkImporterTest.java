@@ -0,0 +1,138 @@
+/* HEADER */
+package com.identity4j.connector.bulk;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.identity4j.connector.InMemoryConnector;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.principal.RoleImpl;
+
+public class BulkImporterTest {
+
+	@Test
+	public void testRolesCreatedBeforeMembers() {
+		List<Identity> identities = new ArrayList<Identity>();
+		for (int i = 0; i < 200; i++) {
+			IdentityImpl identity = new IdentityImpl(String.valueOf(i), "user" + i);
+			identity.addRole(new RoleImpl("r" + (i % 5), "role" + (i % 5)));
+			identities.add(identity);
+		}
+		InMemoryConnector target = new InMemoryConnector(new IdentityImpl("0", "user0"));
+
+		BulkImporter importer = new BulkImporter();
+		importer.setThreads(4);
+		importer.setTargetConcurrency(2);
+		ImportReport report = importer.importIdentities(identities.iterator(), target);
+
+		assertTrue(report.isFinished());
+		assertEquals(199, report.getIdentitiesCreated());
+		assertEquals(1, report.getIdentitiesSkipped());
+		assertEquals(5, report.getRolesCreated());
+		assertEquals(0, report.getFailed());
+		Role[] roles = target.getIdentityByName("user7").getRoles();
+		assertEquals(1, roles.length);
+		assertTrue(roles[0] == target.getRoleByName("role2"));
+	}
+
+	@Test
+	public void testTransientFailuresRetried() {
+		final AtomicInteger attempts = new AtomicInteger();
+		InMemoryConnector target = new InMemoryConnector() {
+			@Override
+			public synchronized Identity createIdentity(Identity identity, char[] password) throws ConnectorException {
+				if (identity.getPrincipalName().equals("flaky") && attempts.incrementAndGet() < 3) {
+					throw new ConnectorException("Connection reset", new IOException("Connection reset"));
+				}
+				if (identity.getPrincipalName().equals("bad")) {
+					throw new ConnectorException("Rejected");
+				}
+				return super.createIdentity(identity, password);
+			}
+		};
+		List<Identity> identities = new ArrayList<Identity>();
+		identities.add(new IdentityImpl("1", "flaky"));
+		identities.add(new IdentityImpl("2", "bad"));
+
+		BulkImporter importer = new BulkImporter();
+		importer.setRetryDelay(1);
+		ImportReport report = importer.importIdentities(identities.iterator(), target);
+
+		assertEquals(1, report.getIdentitiesCreated());
+		assertEquals(2, report.getRetries());
+		assertEquals(1, report.getFailed());
+		assertEquals("bad", report.getFailures().get(0).getPrincipalName());
+	}
+
+	@Test
+	public void testRoleFailureFailsEveryMember() {
+		InMemoryConnector target = new InMemoryConnector() {
+			@Override
+			public synchronized Role createRole(Role role) throws ConnectorException {
+				throw new ConnectorException("Rejected");
+			}
+		};
+		List<Identity> identities = new ArrayList<Identity>();
+		for (int i = 0; i < 20; i++) {
+			IdentityImpl identity = new IdentityImpl(String.valueOf(i), "user" + i);
+			identity.addRole(new RoleImpl("r1", "staff"));
+			identities.add(identity);
+		}
+
+		BulkImporter importer = new BulkImporter();
+		importer.setThreads(4);
+		ImportReport report = importer.importIdentities(identities.iterator(), target);
+
+		assertEquals(0, report.getIdentitiesCreated());
+		assertEquals(20, report.getFailed());
+	}
+
+	@Test
+	public void testImportAll() {
+		RoleImpl admins = new RoleImpl("r1", "admins");
+		IdentityImpl alice = new IdentityImpl("1", "alice");
+		alice.setFullName("Alice");
+		alice.addRole(admins);
+		InMemoryConnector source = new InMemoryConnector(admins, alice);
+		InMemoryConnector target = new InMemoryConnector();
+
+		ImportReport report = new BulkImporter().importAll(source, target);
+
+		assertEquals(1, report.getRolesCreated());
+		assertEquals(1, report.getIdentitiesCreated());
+		assertEquals("Alice", target.getIdentityByName("alice").getFullName());
+		assertTrue(target.getIdentityByName("alice") != alice);
+	}
+}
@@ -0,0 +1,120 @@
+/* HEADER */
+package com.identity4j.connector.export;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.InMemoryConnector;
+import com.identity4j.connector.Media;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.RoleImpl;
+import com.identity4j.util.json.JsonMapperService;
+
+public class PrincipalExporterTest {
+
+	private InMemoryConnector connector;
+
+	@Before
+	public void setUp() {
+		RoleImpl admins = new RoleImpl("r1", "admins");
+		IdentityImpl alice = new IdentityImpl("1", "alice");
+		alice.setFullName("Alice, Smith");
+		alice.setAddress(Media.email, "alice@example.com");
+		alice.setAttribute("department", "Sales", "Support");
+		alice.setAttribute("secret", "x");
+		alice.addRole(admins);
+		IdentityImpl bob = new IdentityImpl("2", "bob");
+		bob.setFullName("Bob \"The Builder\"");
+		connector = new InMemoryConnector(admins, alice, bob);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testNdjson() throws IOException {
+		PrincipalExporter exporter = new PrincipalExporter();
+		exporter.setAttributes(Arrays.asList("department"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(2, exporter.exportIdentities(connector, out));
+
+		String[] lines = new String(out.toByteArray(), "UTF-8").split("\n");
+		assertEquals(2, lines.length);
+		for (String line : lines) {
+			assertTrue(line, line.startsWith("{"));
+		}
+		Map<String, Object> first = JsonMapperService.getInstance().getObject(Map.class, lines[0]);
+		assertEquals("alice", first.get("principalName"));
+		assertEquals("alice@example.com", first.get("email"));
+		assertEquals(Arrays.asList("admins"), first.get("roles"));
+		Map<String, Object> attributes = (Map<String, Object>) first.get("attributes");
+		assertEquals(Arrays.asList("Sales", "Support"), attributes.get("department"));
+		assertFalse(attributes.containsKey("secret"));
+	}
+
+	@Test
+	public void testCsvQuoting() throws IOException {
+		PrincipalExporter exporter = new PrincipalExporter();
+		exporter.setFormat(ExportFormat.CSV);
+		exporter.setAttributes(Arrays.asList("department"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		exporter.exportIdentities(connector, out);
+
+		String[] lines = new String(out.toByteArray(), "UTF-8").split("\r\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[0].startsWith("guid,principalName,fullName,"));
+		assertTrue(lines[0].endsWith(",roles,department"));
+		assertEquals("1,alice,\"Alice, Smith\",,alice@example.com,,unlocked,upToDate,,admins,Sales|Support", lines[1]);
+		assertTrue(lines[2].startsWith("2,bob,\"Bob \"\"The Builder\"\"\","));
+	}
+
+	@Test
+	public void testCompressedRoles() throws IOException {
+		PrincipalExporter exporter = new PrincipalExporter();
+		exporter.setCompress(true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(1, exporter.exportRoles(connector, out));
+		assertEquals("roles.ndjson.gz", exporter.getFileName("roles"));
+
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int r;
+		while ((r = in.read(buf)) != -1) {
+			plain.write(buf, 0, r);
+		}
+		assertEquals("{\"guid\":\"r1\",\"principalName\":\"admins\",\"attributes\":{}}\n",
+				new String(plain.toByteArray(), "UTF-8"));
+	}
+}
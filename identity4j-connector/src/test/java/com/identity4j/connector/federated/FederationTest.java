@@ -0,0 +1,210 @@
+/* HEADER */
+package com.identity4j.connector.federated;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.identity4j.connector.ConnectorCapability;
+import com.identity4j.connector.InMemoryConnector;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+
+public class FederationTest {
+
+	private FederatedConnector connector;
+
+	@After
+	public void tearDown() {
+		if (connector != null) {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testPriorityLookupDoesNotWaitForSlowerBackend() {
+		IdentityImpl primary = new IdentityImpl("1", "alice");
+		IdentityImpl secondary = new IdentityImpl("2", "alice");
+		connector = new FederatedConnector(new InMemoryConnector(), new InMemoryConnector(primary),
+				new SlowConnector(2000, secondary));
+
+		long started = System.currentTimeMillis();
+		assertEquals("1", connector.getIdentityByName("alice").getGuid());
+		assertTrue(System.currentTimeMillis() - started < 1000);
+	}
+
+	@Test
+	public void testFirstLookupMode() {
+		connector = new FederatedConnector(new SlowConnector(2000, new IdentityImpl("1", "bob")),
+				new InMemoryConnector(new IdentityImpl("2", "bob")));
+		connector.setLookupMode(FederatedConnector.LookupMode.FIRST);
+		assertEquals("2", connector.getIdentityByName("bob").getGuid());
+	}
+
+	@Test
+	public void testNotFoundAndFailures() {
+		connector = new FederatedConnector(new InMemoryConnector(), new InMemoryConnector());
+		assertFalse(connector.isIdentityNameInUse("nobody"));
+
+		connector = new FederatedConnector(new InMemoryConnector(), new InMemoryConnector() {
+			@Override
+			public synchronized Identity getIdentityByName(String name) {
+				throw new ConnectorException("Backend down");
+			}
+		});
+		try {
+			connector.getIdentityByName("nobody");
+			fail("Expected failure rather than not found");
+		} catch (PrincipalNotFoundException pnfe) {
+			fail("Expected failure rather than not found");
+		} catch (ConnectorException ce) {
+			assertEquals("Backend down", ce.getMessage());
+		}
+	}
+
+	@Test
+	public void testAllIdentitiesDeduplicated() {
+		connector = new FederatedConnector(new InMemoryConnector(new IdentityImpl("1", "alice"), new IdentityImpl("2",
+				"bob")), new SlowConnector(100, new IdentityImpl("3", "Alice"), new IdentityImpl("4", "carol")));
+		List<String> guids = new ArrayList<String>();
+		for (Iterator<Identity> it = connector.allIdentities(); it.hasNext();) {
+			guids.add(it.next().getGuid());
+		}
+		assertEquals("[1, 2, 4]", guids.toString());
+		assertEquals(3, connector.countIdentities());
+	}
+
+	@Test
+	public void testUpdateRoutedToOwner() {
+		InMemoryConnector first = new InMemoryConnector();
+		InMemoryConnector second = new InMemoryConnector(new IdentityImpl("1", "dave"));
+		connector = new FederatedConnector(first, second);
+		IdentityImpl dave = new IdentityImpl("1", "dave");
+		dave.setFullName("Dave");
+		connector.updateIdentity(dave);
+		assertEquals("Dave", second.getIdentityByName("dave").getFullName());
+		assertFalse(first.isIdentityNameInUse("dave"));
+	}
+
+	@Test
+	public void testCreateCapabilitiesFromFirstDelegate() {
+		InMemoryConnector first = new InMemoryConnector() {
+			@Override
+			public Set<ConnectorCapability> getCapabilities() {
+				Set<ConnectorCapability> capabilities = new HashSet<ConnectorCapability>(super.getCapabilities());
+				capabilities.remove(ConnectorCapability.createUser);
+				capabilities.remove(ConnectorCapability.createRole);
+				return capabilities;
+			}
+		};
+		connector = new FederatedConnector(first, new InMemoryConnector());
+		Set<ConnectorCapability> capabilities = connector.getCapabilities();
+		assertFalse(capabilities.contains(ConnectorCapability.createUser));
+		assertFalse(capabilities.contains(ConnectorCapability.createRole));
+		assertTrue(capabilities.contains(ConnectorCapability.updateRole));
+	}
+
+	@Test
+	public void testOwnerRemembered() {
+		final AtomicInteger lookups = new AtomicInteger();
+		InMemoryConnector first = new InMemoryConnector() {
+			@Override
+			public synchronized Identity getIdentityByName(String name) {
+				lookups.incrementAndGet();
+				return super.getIdentityByName(name);
+			}
+		};
+		InMemoryConnector second = new InMemoryConnector(new IdentityImpl("1", "erin"));
+		connector = new FederatedConnector(first, second);
+		for (int i = 0; i < 3; i++) {
+			IdentityImpl erin = new IdentityImpl("1", "erin");
+			erin.setFullName("Erin " + i);
+			connector.updateIdentity(erin);
+		}
+		assertEquals(1, lookups.get());
+		assertEquals("Erin 2", second.getIdentityByName("erin").getFullName());
+
+		/* Moved behind our back, found again */
+		second.deleteIdentity("erin");
+		first.createIdentity(new IdentityImpl("1", "erin"), (char[]) null);
+		connector.updateIdentity(new IdentityImpl("1", "erin"));
+		assertEquals(3, lookups.get());
+	}
+
+	@Test
+	public void testEnumerationClosable() throws IOException {
+		connector = new FederatedConnector(new InMemoryConnector(new IdentityImpl("1", "alice")),
+				new SlowConnector(100, new IdentityImpl("2", "bob")));
+		Iterator<Identity> it = connector.allIdentities();
+		assertEquals("alice", it.next().getPrincipalName());
+		assertTrue(it instanceof Closeable);
+		((Closeable) it).close();
+		assertFalse(it.hasNext());
+	}
+
+	static class SlowConnector extends InMemoryConnector {
+		private final long delay;
+
+		SlowConnector(long delay, IdentityImpl... identities) {
+			super(identities);
+			this.delay = delay;
+		}
+
+		@Override
+		public Identity getIdentityByName(String name) {
+			pause();
+			return super.getIdentityByName(name);
+		}
+
+		@Override
+		public Iterator<Identity> allIdentities() {
+			pause();
+			return super.allIdentities();
+		}
+
+		private void pause() {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new ConnectorException("Interrupted");
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/* HEADER */
+package com.identity4j.connector.index;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.identity4j.connector.InMemoryConnector;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.exception.PrincipalNotFoundException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.RoleImpl;
+
+public class NameIndexTest {
+
+	@Test
+	public void testBloomFilter() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		for (int i = 0; i < 10000; i++) {
+			filter.add("user" + i);
+		}
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(filter.mightContain("user" + i));
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (filter.mightContain("other" + i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("False positives " + falsePositives, falsePositives < 250);
+		assertEquals(0.01, filter.getExpectedFalsePositiveRate(), 0.005);
+	}
+
+	@Test
+	public void testMissesAnsweredLocally() {
+		CountingConnector backend = new CountingConnector();
+		for (int i = 0; i < 500; i++) {
+			backend.createIdentity(new IdentityImpl(String.valueOf(i), "user" + i), null);
+		}
+		NameIndexedConnector connector = new NameIndexedConnector(backend);
+		try {
+			assertTrue(connector.isIdentityNameInUse("user42"));
+			/* Lower cased in the index, so only the backend decides on case */
+			assertFalse(connector.isIdentityNameInUse("USER42"));
+			assertEquals(2, backend.lookups.get());
+
+			backend.lookups.set(0);
+			for (int i = 0; i < 1000; i++) {
+				assertFalse(connector.isIdentityNameInUse("candidate" + i));
+			}
+			assertTrue("Lookups " + backend.lookups.get(), backend.lookups.get() < 50);
+			assertEquals(1000 - backend.lookups.get(), connector.getAvoidedLookups());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testMaintainedOnChanges() {
+		CountingConnector backend = new CountingConnector(new IdentityImpl("1", "alice"), new RoleImpl("10",
+				"admins"));
+		NameIndexedConnector connector = new NameIndexedConnector(backend);
+		try {
+			assertFalse(connector.isIdentityNameInUse("bob"));
+			assertFalse(connector.isRoleNameInUse("staff"));
+
+			connector.createIdentity(new IdentityImpl("2", "bob"), null);
+			connector.createRole(new RoleImpl("11", "staff"));
+			assertTrue(connector.isIdentityNameInUse("bob"));
+			assertTrue(connector.isRoleNameInUse("staff"));
+
+			/* Still in the filter, but the backend has the final say */
+			connector.deleteIdentity("bob");
+			assertFalse(connector.isIdentityNameInUse("bob"));
+
+			/* Created behind the connector's back, only seen after a rebuild */
+			backend.createIdentity(new IdentityImpl("3", "carol"), null);
+			connector.rebuildIndexes();
+			assertTrue(connector.isIdentityNameInUse("carol"));
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testQualifiedNamesLookedUp() {
+		/* As a backend that also finds users by name@domain */
+		CountingConnector backend = new CountingConnector(new IdentityImpl("1", "jsmith")) {
+			@Override
+			public synchronized Identity getIdentityByName(String name) throws PrincipalNotFoundException,
+					ConnectorException {
+				return super.getIdentityByName(name.endsWith("@corp") ? name.substring(0, name.length() - 5) : name);
+			}
+		};
+		NameIndexedConnector connector = new NameIndexedConnector(backend);
+		try {
+			assertTrue(connector.isIdentityNameInUse("jsmith@corp"));
+			/* Not a form this backend knows, but only the backend can say so */
+			assertFalse(connector.isIdentityNameInUse("CORP\\jsmith"));
+			assertFalse(connector.isIdentityNameInUse("nobody"));
+			assertEquals(2, backend.lookups.get());
+			assertEquals(1, connector.getAvoidedLookups());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testStaleWhenFull() {
+		NameIndex index = new NameIndex(0.01);
+		index.setMinimumCapacity(100);
+		assertTrue(index.isStale());
+		assertTrue(index.mightContain("anything"));
+		index.rebuild(new InMemoryConnector(new IdentityImpl("1", "alice")).allIdentities());
+		assertFalse(index.isStale());
+		assertFalse(index.mightContain("bob"));
+		for (int i = 0; i < 300; i++) {
+			index.add("user" + i);
+		}
+		assertTrue(index.isStale());
+	}
+
+	static class CountingConnector extends InMemoryConnector {
+		final AtomicInteger lookups = new AtomicInteger();
+
+		CountingConnector(com.identity4j.connector.principal.Principal... principals) {
+			super(principals);
+		}
+
+		@Override
+		public synchronized Identity getIdentityByName(String name) throws PrincipalNotFoundException,
+				ConnectorException {
+			lookups.incrementAndGet();
+			return super.getIdentityByName(name);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/* HEADER */
+package com.identity4j.connector.load;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.identity4j.connector.InMemoryConnector;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.principal.IdentityImpl;
+
+public class LoadGeneratorTest {
+
+	@Test
+	public void testOperationLimitAndMix() throws Exception {
+		InMemoryConnector connector = new InMemoryConnector(new IdentityImpl("1", "alice"), new IdentityImpl("2",
+				"bob"));
+		LoadGenerator generator = new LoadGenerator(connector);
+		Properties properties = new Properties();
+		properties.setProperty(LoadGenerator.MIX, "getIdentityByName:3,updateIdentity:1,createDeleteIdentity:1");
+		properties.setProperty(LoadGenerator.OPERATIONS, "500");
+		properties.setProperty(LoadGenerator.THREADS, "4");
+		properties.setProperty(LoadGenerator.SEED, "1");
+		generator.configure(properties);
+
+		LoadReport report = generator.run();
+		assertEquals(500, report.getCount());
+		assertEquals(0, report.getErrors());
+		assertEquals(3, report.getOperations().size());
+		long lookups = report.getOperation(LoadOperation.GET_IDENTITY_BY_NAME).getCount();
+		assertTrue("Lookups " + lookups, lookups > 200 && lookups < 400);
+		assertEquals(2, connector.countIdentities());
+		assertTrue(report.toString().contains("createDeleteIdentity"));
+	}
+
+	@Test
+	public void testTargetRate() throws Exception {
+		LoadGenerator generator = new LoadGenerator(new InMemoryConnector(new IdentityImpl("1", "alice")));
+		generator.setMix("getIdentityByName");
+		generator.setRate(200);
+		generator.setDuration(500);
+		LoadReport report = generator.run();
+		assertTrue("Completed " + report.getCount(), report.getCount() > 60 && report.getCount() <= 130);
+	}
+
+	@Test(expected = ConnectorException.class)
+	public void testUnsupportedOperationRejected() throws Exception {
+		/* The in memory connector cannot authenticate */
+		LoadGenerator generator = new LoadGenerator(new InMemoryConnector(new IdentityImpl("1", "alice")));
+		generator.setMix("checkCredentials");
+		generator.setPassword("secret".toCharArray());
+		generator.run();
+	}
+
+	@Test
+	public void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 10000; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000, histogram.getMax());
+		assertEquals(5000, histogram.getPercentile(50), 5000 * 0.016);
+		assertEquals(9900, histogram.getPercentile(99), 9900 * 0.016);
+		assertEquals(100, histogram.getPercentile(1));
+		for (int i = 0; i < 3000; i++) {
+			assertTrue(LatencyHistogram.lowerBound(LatencyHistogram.index(LatencyHistogram.lowerBound(i))) == LatencyHistogram
+					.lowerBound(i));
+		}
+	}
+}
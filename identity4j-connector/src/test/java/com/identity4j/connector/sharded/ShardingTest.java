@@ -0,0 +1,86 @@
+/* HEADER */
+package com.identity4j.connector.sharded;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.identity4j.connector.Connector;
+import com.identity4j.connector.InMemoryConnector;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+
+public class ShardingTest {
+
+	@Test
+	public void testRoutingAndEnumeration() {
+		InMemoryConnector[] shards = { new InMemoryConnector(), new InMemoryConnector(), new InMemoryConnector() };
+		ShardedConnector connector = new ShardedConnector(shards);
+		try {
+			for (int i = 0; i < 300; i++) {
+				connector.createIdentity(new IdentityImpl(String.valueOf(i), "user" + i), null);
+			}
+			for (InMemoryConnector shard : shards) {
+				long count = shard.countIdentities();
+				assertTrue("Unbalanced shard with " + count, count > 50 && count < 150);
+			}
+			assertEquals(300, connector.countIdentities());
+
+			Set<String> names = new HashSet<String>();
+			for (Iterator<Identity> it = connector.allIdentities(); it.hasNext();) {
+				names.add(it.next().getPrincipalName());
+			}
+			assertEquals(300, names.size());
+			assertEquals("42", connector.getIdentityByName("user42").getGuid());
+			assertSame(connector.getShard("user42"), connector.getShard("USER42"));
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testAddingShardOnlyMovesNamesToNewShard() {
+		Connector a = new InMemoryConnector(), b = new InMemoryConnector(), c = new InMemoryConnector();
+		ShardedConnector two = new ShardedConnector(Arrays.asList(a, b));
+		ShardedConnector three = new ShardedConnector(Arrays.asList(a, b, c));
+		int moved = 0;
+		for (int i = 0; i < 1000; i++) {
+			Connector before = two.getShard("user" + i);
+			Connector after = three.getShard("user" + i);
+			if (before != after) {
+				assertSame(c, after);
+				moved++;
+			}
+		}
+		assertTrue("Moved " + moved, moved > 200 && moved < 450);
+	}
+}
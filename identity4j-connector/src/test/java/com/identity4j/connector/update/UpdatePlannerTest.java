@@ -0,0 +1,145 @@
+/* HEADER */
+package com.identity4j.connector.update;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.identity4j.connector.Media;
+import com.identity4j.connector.principal.AccountStatus;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.principal.RoleImpl;
+import com.identity4j.connector.update.AttributeChange.Type;
+import com.identity4j.connector.update.UpdatePlan.Property;
+
+public class UpdatePlannerTest {
+
+	@Test
+	public void testNoChanges() {
+		IdentityImpl previous = identity();
+		IdentityImpl updated = identity();
+		/* Empty values and blank strings mean no value */
+		updated.setAttribute("description", "");
+		updated.setAddress(Media.mobile, "");
+		UpdatePlan plan = new UpdatePlanner().plan(previous, updated);
+		assertTrue(plan.toString(), plan.isEmpty());
+	}
+
+	@Test
+	public void testPropertiesAndAttributes() {
+		IdentityImpl previous = identity();
+		IdentityImpl updated = identity();
+		updated.setFullName("Alice Jones");
+		updated.setAttribute("title", "Manager");
+		updated.setAttribute("department", (String) null);
+		updated.setAttribute("phone", "123");
+		updated.setAttribute("lastLogon", "999");
+		updated.getAccountStatus().setDisabled(true);
+
+		UpdatePlanner planner = new UpdatePlanner();
+		planner.addIgnoredAttributes("LASTLOGON");
+		UpdatePlan plan = planner.plan(previous, updated);
+
+		assertEquals(2, plan.getChangedProperties().size());
+		assertTrue(plan.isChanged(Property.FULL_NAME));
+		assertTrue(plan.isChanged(Property.ACCOUNT_DISABLED));
+		assertFalse(plan.isChanged(Property.EMAIL));
+		assertEquals(3, plan.getAttributeChanges().size());
+		assertEquals(Type.REPLACE, plan.getAttributeChange("title").getType());
+		assertFalse(plan.getAttributeChange("title").isMultiValued());
+		assertEquals(Type.REMOVE, plan.getAttributeChange("department").getType());
+		assertEquals(Type.ADD, plan.getAttributeChange("phone").getType());
+		assertNull(plan.getAttributeChange("lastLogon"));
+		assertFalse(plan.hasRoleChanges());
+	}
+
+	@Test
+	public void testMultiValuedAttributes() {
+		IdentityImpl previous = identity();
+		previous.setAttribute("proxyAddresses", "a", "b", "c");
+		IdentityImpl updated = identity();
+		updated.setAttribute("proxyAddresses", "c", "d", "a");
+
+		AttributeChange change = new UpdatePlanner().plan(previous, updated).getAttributeChange("proxyAddresses");
+		assertEquals(Type.REPLACE, change.getType());
+		assertTrue(change.isMultiValued());
+		assertEquals(Arrays.asList("d"), change.getAddedValues());
+		assertEquals(Arrays.asList("b"), change.getRemovedValues());
+
+		/* Order alone is not a change */
+		updated.setAttribute("proxyAddresses", "c", "b", "a");
+		assertTrue(new UpdatePlanner().plan(previous, updated).isEmpty());
+	}
+
+	@Test
+	public void testRemoveMissingAttributes() {
+		IdentityImpl previous = identity();
+		IdentityImpl updated = new IdentityImpl("1", "alice");
+		updated.setFullName("Alice Smith");
+		updated.setAccountStatus(new AccountStatus());
+
+		assertTrue(new UpdatePlanner().plan(previous, updated).getAttributeChanges().isEmpty());
+
+		UpdatePlanner planner = new UpdatePlanner();
+		planner.setRemoveMissingAttributes(true);
+		UpdatePlan plan = planner.plan(previous, updated);
+		assertEquals(2, plan.getAttributeChanges().size());
+		assertEquals(Type.REMOVE, plan.getAttributeChange("title").getType());
+	}
+
+	@Test
+	public void testRoles() {
+		Role admins = new RoleImpl("10", "admins");
+		Role users = new RoleImpl("11", "users");
+		IdentityImpl previous = identity();
+		previous.setRoles(new Role[] { admins, users });
+		IdentityImpl updated = identity();
+		/* No GUID, so matched by name */
+		updated.setRoles(new Role[] { new RoleImpl(null, "users"), new RoleImpl("12", "staff") });
+
+		UpdatePlan plan = new UpdatePlanner().plan(previous, updated);
+		assertTrue(plan.hasRoleChanges());
+		assertEquals(1, plan.getRolesAdded().size());
+		assertEquals("staff", plan.getRolesAdded().get(0).getPrincipalName());
+		assertEquals(Arrays.asList(admins), plan.getRolesRemoved());
+		assertTrue(plan.getChangedProperties().isEmpty());
+	}
+
+	private static IdentityImpl identity() {
+		IdentityImpl identity = new IdentityImpl("1", "alice");
+		identity.setFullName("Alice Smith");
+		identity.setAddress(Media.email, "alice@example.com");
+		identity.setAttribute("title", "Engineer");
+		identity.setAttribute("department", "R&D");
+		identity.setAccountStatus(new AccountStatus());
+		return identity;
+	}
+}
@@ -0,0 +1,306 @@
+/* HEADER */
+package com.identity4j.connector.writebehind;
+
+/*
+ * #%L
+ * Identity4J Connector
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.connector.Connector.PasswordResetType;
+import com.identity4j.connector.InMemoryConnector;
+import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.RoleImpl;
+
+public class WriteBehindTest {
+
+	private File journalFile;
+
+	@Before
+	public void setUp() throws IOException {
+		journalFile = File.createTempFile("writebehind", ".journal");
+		journalFile.delete();
+	}
+
+	@After
+	public void tearDown() {
+		journalFile.delete();
+		new File(journalFile.getParentFile(), journalFile.getName() + ".tmp").delete();
+	}
+
+	@Test
+	public void testUpdatesCoalesced() throws Exception {
+		CountingConnector delegate = new CountingConnector(new IdentityImpl("1", "alice"));
+		WriteBehindConnector connector = new WriteBehindConnector(delegate, journalFile);
+		try {
+			for (int i = 1; i <= 3; i++) {
+				IdentityImpl alice = new IdentityImpl("1", "alice");
+				alice.setFullName("Alice " + i);
+				connector.updateIdentity(alice);
+			}
+			/* Reads see queued changes before they are applied */
+			assertEquals("Alice 3", connector.getIdentityByName("alice").getFullName());
+			assertEquals(0, delegate.updates.get());
+
+			connector.start();
+			connector.flush();
+			assertEquals(1, delegate.updates.get());
+			assertEquals("Alice 3", delegate.getIdentityByName("alice").getFullName());
+			assertEquals(0, journalFile.length());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testJournalReplayedAfterRestart() throws Exception {
+		CountingConnector delegate = new CountingConnector(new IdentityImpl("1", "bob"), new IdentityImpl("2",
+				"carol"));
+		WriteBehindConnector connector = new WriteBehindConnector(delegate, journalFile);
+		connector.setPassphrase("secret".getBytes("UTF-8"));
+		IdentityImpl bob = new IdentityImpl("1", "bob");
+		bob.setFullName("Bob");
+		connector.updateIdentity(bob);
+		connector.setPassword("bob", "1", "n3wPassword".toCharArray(), false, PasswordResetType.ADMINISTRATIVE);
+		connector.deleteIdentity("carol");
+		/* Closed without ever starting, as if the process died */
+		connector.close();
+		assertEquals(0, delegate.updates.get());
+
+		connector = new WriteBehindConnector(delegate, journalFile);
+		connector.setPassphrase("secret".getBytes("UTF-8"));
+		try {
+			assertEquals(2, connector.getPendingCount());
+			connector.start();
+			connector.flush();
+			assertEquals(1, delegate.updates.get());
+			assertEquals("Bob", delegate.getIdentityByName("bob").getFullName());
+			assertEquals("n3wPassword", delegate.password);
+			assertFalse(delegate.isIdentityNameInUse("carol"));
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testJournalRecoveredFromCompactedCopy() throws Exception {
+		CountingConnector delegate = new CountingConnector(new IdentityImpl("1", "bob"));
+		WriteBehindConnector connector = new WriteBehindConnector(delegate, journalFile);
+		IdentityImpl bob = new IdentityImpl("1", "bob");
+		bob.setFullName("Bob");
+		connector.updateIdentity(bob);
+		connector.close();
+
+		/* As if stopped between removing the journal and renaming its compacted copy */
+		File tmp = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+		assertTrue(journalFile.renameTo(tmp));
+
+		connector = new WriteBehindConnector(delegate, journalFile);
+		try {
+			assertEquals(1, connector.getPendingCount());
+			assertFalse(tmp.exists());
+			connector.start();
+			connector.flush();
+			assertEquals("Bob", delegate.getIdentityByName("bob").getFullName());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testKeptWhenFailingWhileClosing() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		CountingConnector delegate = new CountingConnector(new IdentityImpl("1", "dave")) {
+			@Override
+			public void updateIdentity(Identity identity) {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException ie) {
+					throw new ConnectorException("Interrupted", ie);
+				}
+			}
+		};
+		WriteBehindConnector connector = new WriteBehindConnector(delegate, journalFile);
+		connector.updateIdentity(new IdentityImpl("1", "dave"));
+		connector.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		/* The update fails because of the close, so is not a final failure */
+		connector.close();
+
+		connector = new WriteBehindConnector(new CountingConnector(new IdentityImpl("1", "dave")), journalFile);
+		try {
+			assertEquals(1, connector.getPendingCount());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testRetriesThenDiscards() throws Exception {
+		final AtomicInteger failures = new AtomicInteger();
+		CountingConnector delegate = new CountingConnector(new IdentityImpl("1", "dave")) {
+			@Override
+			public synchronized void updateIdentity(Identity identity) {
+				failures.incrementAndGet();
+				throw new ConnectorException("Service unavailable");
+			}
+		};
+		WriteBehindConnector connector = new WriteBehindConnector(delegate, journalFile);
+		connector.setRetryDelay(1);
+		connector.setMaxRetries(2);
+		final String[] failed = new String[1];
+		connector.addListener(new WriteBehindListener() {
+			public void applied(String principalName, int operations) {
+			}
+
+			public void failed(String principalName, Throwable exception) {
+				failed[0] = principalName;
+			}
+		});
+		try {
+			connector.updateIdentity(new IdentityImpl("1", "dave"));
+			connector.start();
+			connector.flush();
+			assertEquals(3, failures.get());
+			assertEquals("dave", failed[0]);
+			assertEquals(0, connector.getPendingCount());
+		} finally {
+			connector.close();
+		}
+		assertEquals(0, journalFile.length());
+	}
+
+	@Test
+	public void testDelegateIdentityTypeKept() throws Exception {
+		final String[] locked = new String[1];
+		CountingConnector delegate = new CountingConnector(new TypedIdentity("1", "erin", "cn=erin,dc=example")) {
+			@Override
+			public void lockIdentity(Identity identity) {
+				if (!(identity instanceof TypedIdentity)) {
+					throw new IllegalArgumentException("May only lock typed identities.");
+				}
+				locked[0] = ((TypedIdentity) identity).dn;
+			}
+		};
+		WriteBehindConnector connector = new WriteBehindConnector(delegate, journalFile);
+		try {
+			IdentityImpl erin = new IdentityImpl("1", "erin");
+			erin.setFullName("Erin");
+			connector.updateIdentity(erin);
+			connector.lockIdentity(erin);
+
+			Identity read = connector.getIdentityByName("erin");
+			assertTrue(read instanceof TypedIdentity);
+			assertEquals("cn=erin,dc=example", ((TypedIdentity) read).dn);
+			assertEquals("Erin", read.getFullName());
+			/* The delegate's own instance is not touched until applied */
+			assertNull(delegate.getIdentityByName("erin").getFullName());
+
+			connector.start();
+			connector.flush();
+			assertEquals("cn=erin,dc=example", locked[0]);
+			Identity updated = delegate.getIdentityByName("erin");
+			assertTrue(updated instanceof TypedIdentity);
+			assertEquals("Erin", updated.getFullName());
+		} finally {
+			connector.close();
+		}
+	}
+
+	@Test
+	public void testPrincipalsWithAttributes() throws Exception {
+		CountingConnector delegate = new CountingConnector(new IdentityImpl("1", "frank"), new RoleImpl("2",
+				"staff"));
+		WriteBehindConnector connector = new WriteBehindConnector(delegate, journalFile);
+		try {
+			IdentityImpl frank = new IdentityImpl("1", "frank");
+			frank.setAttribute("mail", "frank@example.com", "f@example.com");
+			connector.updateIdentity(frank);
+			RoleImpl staff = new RoleImpl("2", "staff");
+			staff.setAttribute("description", "All staff");
+			connector.updateRole(staff);
+
+			/* The queued record does not share state with the caller's copy */
+			frank.setAttribute("mail", "changed@example.com");
+
+			assertArrayEquals(new String[] { "frank@example.com", "f@example.com" },
+					connector.getIdentityByName("frank").getAttributes("mail"));
+
+			connector.start();
+			connector.flush();
+			assertEquals(0, connector.getPendingCount());
+			assertArrayEquals(new String[] { "frank@example.com", "f@example.com" },
+					delegate.getIdentityByName("frank").getAttributes("mail"));
+			assertEquals("All staff", delegate.getRoleByName("staff").getAttribute("description"));
+		} finally {
+			connector.close();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static class TypedIdentity extends IdentityImpl {
+		final String dn;
+
+		TypedIdentity(String guid, String principalName, String dn) {
+			super(guid, principalName);
+			this.dn = dn;
+		}
+	}
+
+	static class CountingConnector extends InMemoryConnector {
+		final AtomicInteger updates = new AtomicInteger();
+		String password;
+
+		CountingConnector(Principal... identities) {
+			super(identities);
+		}
+
+		@Override
+		public synchronized void updateIdentity(Identity identity) {
+			updates.incrementAndGet();
+			super.updateIdentity(identity);
+		}
+
+		@Override
+		protected void setPassword(Identity identity, char[] password, boolean forcePasswordChangeAtLogon,
+				PasswordResetType type) {
+			this.password = new String(password);
+		}
+	}
+}
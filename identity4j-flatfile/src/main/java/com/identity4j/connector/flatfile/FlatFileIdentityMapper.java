@@ -0,0 +1,227 @@
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.identity4j.connector.Media;
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.RoleImpl;
+import com.identity4j.util.AbstractTransformingIterator;
+import com.identity4j.util.StringUtil;
+
+/**
+ * Maps the rows of a flat file to {@link IdentityImpl} objects, typically to
+ * be fed to a {@link com.identity4j.connector.bulk.BulkImporter}. Unlike
+ * {@link FlatFileConnector}, which only knows the key, GUID and full name
+ * columns, this mapper may also take the other name, email, mobile, role
+ * membership and any number of attributes from the row. A column index of -1
+ * means the column is not present.
+ */
+public class FlatFileIdentityMapper {
+
+    private int keyFieldIndex = 0;
+    private int guidFieldIndex = -1;
+    private int fullNameFieldIndex = -1;
+    private int otherNameFieldIndex = -1;
+    private int emailFieldIndex = -1;
+    private int mobileFieldIndex = -1;
+    private int rolesFieldIndex = -1;
+    private char roleSeparator = ';';
+    private final Map<String, Integer> attributeFieldIndexes = new LinkedHashMap<String, Integer>();
+
+    public FlatFileIdentityMapper() {
+    }
+
+    /**
+     * Create a mapper that uses the same key, GUID and full name columns as a
+     * configured {@link FlatFileConnector}.
+     *
+     * @param configuration flat file configuration
+     */
+    public FlatFileIdentityMapper(FlatFileConfiguration configuration) {
+        keyFieldIndex = configuration.getKeyFieldIndex();
+        guidFieldIndex = configuration.getGuidFieldIndex();
+        fullNameFieldIndex = configuration.getFullNameFieldIndex();
+    }
+
+    public int getKeyFieldIndex() {
+        return keyFieldIndex;
+    }
+
+    public void setKeyFieldIndex(int keyFieldIndex) {
+        this.keyFieldIndex = keyFieldIndex;
+    }
+
+    public int getGuidFieldIndex() {
+        return guidFieldIndex;
+    }
+
+    /**
+     * Set the column containing the GUID. If -1, the principal name will be
+     * used as the GUID.
+     *
+     * @param guidFieldIndex column index
+     */
+    public void setGuidFieldIndex(int guidFieldIndex) {
+        this.guidFieldIndex = guidFieldIndex;
+    }
+
+    public int getFullNameFieldIndex() {
+        return fullNameFieldIndex;
+    }
+
+    public void setFullNameFieldIndex(int fullNameFieldIndex) {
+        this.fullNameFieldIndex = fullNameFieldIndex;
+    }
+
+    public int getOtherNameFieldIndex() {
+        return otherNameFieldIndex;
+    }
+
+    public void setOtherNameFieldIndex(int otherNameFieldIndex) {
+        this.otherNameFieldIndex = otherNameFieldIndex;
+    }
+
+    public int getEmailFieldIndex() {
+        return emailFieldIndex;
+    }
+
+    public void setEmailFieldIndex(int emailFieldIndex) {
+        this.emailFieldIndex = emailFieldIndex;
+    }
+
+    public int getMobileFieldIndex() {
+        return mobileFieldIndex;
+    }
+
+    public void setMobileFieldIndex(int mobileFieldIndex) {
+        this.mobileFieldIndex = mobileFieldIndex;
+    }
+
+    public int getRolesFieldIndex() {
+        return rolesFieldIndex;
+    }
+
+    /**
+     * Set the column containing the names of the roles the identity is a
+     * member of, separated by {@link #getRoleSeparator()}.
+     *
+     * @param rolesFieldIndex column index
+     */
+    public void setRolesFieldIndex(int rolesFieldIndex) {
+        this.rolesFieldIndex = rolesFieldIndex;
+    }
+
+    public char getRoleSeparator() {
+        return roleSeparator;
+    }
+
+    public void setRoleSeparator(char roleSeparator) {
+        this.roleSeparator = roleSeparator;
+    }
+
+    /**
+     * Map a column to a native attribute of the identity.
+     *
+     * @param attributeName attribute name
+     * @param fieldIndex column index
+     */
+    public void addAttributeFieldIndex(String attributeName, int fieldIndex) {
+        attributeFieldIndexes.put(attributeName, fieldIndex);
+    }
+
+    public Map<String, Integer> getAttributeFieldIndexes() {
+        return Collections.unmodifiableMap(attributeFieldIndexes);
+    }
+
+    /**
+     * Map a single row to an identity.
+     *
+     * @param row row
+     * @return identity
+     */
+    public IdentityImpl map(List<String> row) {
+        String principalName = field(row, keyFieldIndex);
+        if (StringUtil.isNullOrEmpty(principalName)) {
+            throw new IllegalArgumentException("Row has no value in the key field (" + keyFieldIndex + ")");
+        }
+        String guid = guidFieldIndex == -1 ? principalName : field(row, guidFieldIndex);
+        IdentityImpl identity = new IdentityImpl(guid, principalName);
+        identity.setFullName(field(row, fullNameFieldIndex));
+        identity.setOtherName(field(row, otherNameFieldIndex));
+        String email = field(row, emailFieldIndex);
+        if (!StringUtil.isNullOrEmpty(email)) {
+            identity.setAddress(Media.email, email);
+        }
+        String mobile = field(row, mobileFieldIndex);
+        if (!StringUtil.isNullOrEmpty(mobile)) {
+            identity.setAddress(Media.mobile, mobile);
+        }
+        String roles = field(row, rolesFieldIndex);
+        if (!StringUtil.isNullOrEmpty(roles)) {
+            for (String roleName : roles.split(Pattern.quote(String.valueOf(roleSeparator)))) {
+                roleName = roleName.trim();
+                if (roleName.length() > 0) {
+                    identity.addRole(new RoleImpl(roleName, roleName));
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> en : attributeFieldIndexes.entrySet()) {
+            String value = field(row, en.getValue());
+            if (value != null) {
+                identity.setAttribute(en.getKey(), value);
+            }
+        }
+        return identity;
+    }
+
+    /**
+     * Lazily map all rows of a loaded flat file to identities. Rows with an
+     * empty key field are skipped.
+     *
+     * @param flatFile flat file
+     * @return identities
+     */
+    public Iterator<Identity> identities(AbstractFlatFile flatFile) {
+        return new AbstractTransformingIterator<List<String>, Identity>(flatFile.getContents().iterator()) {
+            @Override
+            protected Identity transform(List<String> row) {
+                if (StringUtil.isNullOrEmpty(field(row, keyFieldIndex))) {
+                    return null;
+                }
+                return map(row);
+            }
+        };
+    }
+
+    private String field(List<String> row, int index) {
+        return index < 0 || index >= row.size() ? null : row.get(index);
+    }
+}
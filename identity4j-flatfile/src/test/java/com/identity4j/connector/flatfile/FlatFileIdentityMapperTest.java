@@ -0,0 +1,111 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.identity4j.connector.Media;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Role;
+
+public class FlatFileIdentityMapperTest {
+
+	@Test
+	public void testAbsentColumns() {
+		FlatFileIdentityMapper mapper = new FlatFileIdentityMapper();
+		IdentityImpl identity = mapper.map(row("alice", "Alice Smith", "alice@example.com"));
+		assertEquals("alice", identity.getPrincipalName());
+		/* No GUID column, so the principal name is used */
+		assertEquals("alice", identity.getGuid());
+		assertNull(identity.getFullName());
+		assertNull(identity.getAddress(Media.email));
+		assertEquals(0, identity.getRoles().length);
+		assertEquals(0, identity.getAttributes().size());
+	}
+
+	@Test
+	public void testColumns() {
+		FlatFileIdentityMapper mapper = new FlatFileIdentityMapper();
+		mapper.setKeyFieldIndex(1);
+		mapper.setGuidFieldIndex(0);
+		mapper.setFullNameFieldIndex(2);
+		mapper.setEmailFieldIndex(3);
+		mapper.setMobileFieldIndex(4);
+		IdentityImpl identity = mapper.map(row("1001", "bob", "Bob Jones", "bob@example.com", ""));
+		assertEquals("1001", identity.getGuid());
+		assertEquals("bob", identity.getPrincipalName());
+		assertEquals("Bob Jones", identity.getFullName());
+		assertEquals("bob@example.com", identity.getAddress(Media.email));
+		assertNull(identity.getAddress(Media.mobile));
+	}
+
+	@Test
+	public void testRolesSplit() {
+		FlatFileIdentityMapper mapper = new FlatFileIdentityMapper();
+		mapper.setRolesFieldIndex(1);
+		assertArrayEquals(new String[] { "admins", "staff" },
+				roleNames(mapper.map(row("carol", "admins; staff;")).getRoles()));
+
+		mapper.setRoleSeparator('|');
+		assertArrayEquals(new String[] { "a;b", "c" }, roleNames(mapper.map(row("carol", "a;b|c")).getRoles()));
+	}
+
+	@Test
+	public void testAttributeColumns() {
+		FlatFileIdentityMapper mapper = new FlatFileIdentityMapper();
+		mapper.addAttributeFieldIndex("department", 1);
+		mapper.addAttributeFieldIndex("title", 2);
+		/* Beyond the end of the row */
+		mapper.addAttributeFieldIndex("office", 5);
+		IdentityImpl identity = mapper.map(row("dave", "Sales", "Manager"));
+		assertEquals("Sales", identity.getAttribute("department"));
+		assertEquals("Manager", identity.getAttribute("title"));
+		assertFalse(identity.getAttributes().containsKey("office"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingKey() {
+		new FlatFileIdentityMapper().map(row("", "Nobody"));
+	}
+
+	private static List<String> row(String... fields) {
+		return Arrays.asList(fields);
+	}
+
+	private static String[] roleNames(Role[] roles) {
+		String[] names = new String[roles.length];
+		for (int i = 0; i < roles.length; i++) {
+			names[i] = roles[i].getPrincipalName();
+		}
+		return names;
+	}
+}
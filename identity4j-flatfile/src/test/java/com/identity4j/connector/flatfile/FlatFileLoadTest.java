@@ -0,0 +1,65 @@
+/* HEADER */
+package com.identity4j.connector.flatfile;
+
+/*
+ * #%L
+ * Identity4J Flat File
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.identity4j.connector.load.LoadGenerator;
+import com.identity4j.connector.load.LoadOperation;
+import com.identity4j.connector.load.LoadReport;
+
+public class FlatFileLoadTest {
+
+	@Test
+	public void testLoadFromProperties() throws Exception {
+		Properties properties = new Properties();
+		InputStream in = getClass().getResourceAsStream("/flatfile-connector.properties");
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		properties.setProperty(LoadGenerator.MIX, "checkCredentials:4,getIdentityByName:1");
+		properties.setProperty(LoadGenerator.PRINCIPALS, "user1");
+		properties.setProperty(LoadGenerator.PASSWORD, "qwqwqw");
+		properties.setProperty(LoadGenerator.OPERATIONS, "200");
+		properties.setProperty(LoadGenerator.THREADS, "2");
+
+		LoadGenerator generator = LoadGenerator.fromProperties(properties);
+		try {
+			LoadReport report = generator.run();
+			assertEquals(200, report.getCount());
+			assertEquals(0, report.getErrors());
+			assertTrue(report.getOperation(LoadOperation.CHECK_CREDENTIALS).getCount() > 0);
+		} finally {
+			generator.getConnector().close();
+		}
+	}
+}
@@ -42,6 +42,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
@@ -85,6 +86,7 @@ import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.util.CollectionUtil;
 import com.identity4j.util.StringUtil;
+import com.identity4j.util.Util;
 import com.identity4j.util.passwords.PasswordCharacteristics;
 
 /**
@@ -292,14 +294,24 @@ public class GoogleConnector extends AbstractConnector {
 			if(userKey == null)
 			    throw new PrincipalNotFoundException("Only users with an ID may be updated.", null, PrincipalType.user);
 			checkRequestInterval();
-			directory.users().patch(userKey, GoogleModelConvertor.googleIdentityToUser(identity)).execute();
-			
-			/* I know ... But there IS a delay, and Google says it can be up to 10 minutes. In practice
-			 * though it doesn't seem to be more than 1 minute.  */
-			try {
-                Thread.sleep(1000 * 60 * 2);
-            } catch (InterruptedException e) {
-            }
+			User current = GoogleModelConvertor.googleIdentityToUser(
+					GoogleModelConvertor.googleUserToGoogleIdentity(directory.users().get(userKey).execute()));
+			User patch = changedFields(current, GoogleModelConvertor.googleIdentityToUser(identity));
+			if (patch.isEmpty()) {
+				if (log.isInfoEnabled()) {
+					log.info("No changes to google identity " + identity.getPrincipalName());
+				}
+			} else {
+				checkRequestInterval();
+				directory.users().patch(userKey, patch).execute();
+				
+				/* I know ... But there IS a delay, and Google says it can be up to 10 minutes. In practice
+				 * though it doesn't seem to be more than 1 minute.  */
+				try {
+	                Thread.sleep(1000 * 60 * 2);
+	            } catch (InterruptedException e) {
+	            }
+			}
 			
 			if (configuration.getFetchRoles()) {
 				adjustAdditionRemovalOfRoleOnIdentityUpdate(identity);
@@ -316,6 +328,21 @@ public class GoogleConnector extends AbstractConnector {
 		}
 	}
 
+	/**
+	 * Build a patch holding only the fields of the updated user that differ
+	 * from the current one. Both are produced by the same conversion, so
+	 * fields the identity model does not carry compare as equal.
+	 */
+	private User changedFields(User current, User updated) {
+		User patch = new User();
+		for (Map.Entry<String, Object> en : updated.entrySet()) {
+			if (!"id".equals(en.getKey()) && Util.differs(current.get(en.getKey()), en.getValue())) {
+				patch.set(en.getKey(), en.getValue());
+			}
+		}
+		return patch;
+	}
+
 	/**
 	 * <p>
 	 * Finds an identity by principal/email id supplied. <br />
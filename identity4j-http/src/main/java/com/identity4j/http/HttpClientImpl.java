@@ -74,6 +74,9 @@ import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.ssl.SSLContexts;
 import org.apache.http.util.EntityUtils;
 
+import com.identity4j.util.events.OperationEvent;
+import com.identity4j.util.events.OperationEvents;
+import com.identity4j.util.events.OperationKind;
 import com.identity4j.util.http.HttpData;
 import com.identity4j.util.http.HttpException;
 import com.identity4j.util.http.HttpPair;
@@ -100,8 +103,13 @@ public class HttpClientImpl implements HttpProviderClient {
 
 		void checkDone() throws HttpException {
 			if (!done) {
+				OperationEvent event = OperationEvents.begin(OperationKind.HTTP, HttpClientImpl.class, method.getMethod());
 				try {
 					try {
+						if (event.isEnabled() && method instanceof HttpEntityEnclosingRequestBase
+								&& ((HttpEntityEnclosingRequestBase) method).getEntity() != null) {
+							event.bytes(((HttpEntityEnclosingRequestBase) method).getEntity().getContentLength());
+						}
 						response = httpClient.execute(method);
 						status = new HttpStatus(response.getStatusLine().getStatusCode(),
 								response.getStatusLine().getReasonPhrase(),
@@ -109,15 +117,25 @@ public class HttpClientImpl implements HttpProviderClient {
 						for (Header h : response.getAllHeaders()) {
 							headers.add(new HttpPair(h.getName(), h.getValue()));
 						}
+						if (event.isEnabled()) {
+							event.result(String.valueOf(status.getCode()));
+							if (response.getEntity() != null) {
+								event.bytes(response.getEntity().getContentLength());
+							}
+						}
 					} catch(HttpException he) {
+						event.failed(he);
 						throw he;
 					} catch(RuntimeException re) {
+						event.failed(re);
 						throw re;
 					} catch (Exception e) {
+						event.failed(e);
 						throw new HttpException(status, e);
 					}
 				} finally {
 					done = true;
+					event.end();
 				}
 			}
 		}
@@ -55,6 +55,7 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 	public static final String SQL_IDENTITY_TABLE_DELETE = "sqlIdentityTableDelete";
 	public static final String SQL_IDENTITY_TABLE_CREATE = "sqlIdentityTableCreate";
 	public static final String SQL_IDENTITY_TABLE_UPDATE = "sqlIdentityTableUpdate";
+	public static final String SQL_IDENTITY_TABLE_UPDATE_CHANGED_ONLY = "sqlIdentityTableUpdateChangedOnly";
 
 	// Identity Columns
 	public static final String SQL_IDENTITY_TABLE_GUID = "sqlIdentityTableGuid";
@@ -319,6 +320,20 @@ public abstract class JDBCConfiguration extends AbstractConnectorConfiguration {
 		return sql;
 	}
 
+	/**
+	 * Get whether an update that only changes mapped columns should set just
+	 * those columns, rather than running the configured update statement.
+	 * 
+	 * @return update changed columns only
+	 */
+	public boolean isUpdateChangedColumnsOnly() {
+		return configurationParameters.getBooleanOrDefault(SQL_IDENTITY_TABLE_UPDATE_CHANGED_ONLY, false);
+	}
+
+	public String getIdentityTable() {
+		return configurationParameters.getString(SQL_IDENTITY_TABLE);
+	}
+
 	public String getRevokeFromRoleSQL(Identity identity, Role role) {
 		String sql = replaceTokens(configurationParameters.getStringOrDefault(SQL_ROLE_IDENTITY_REVOKE_FROM_ROLE, ""));
 		sql = replaceTokens(sql, identity);
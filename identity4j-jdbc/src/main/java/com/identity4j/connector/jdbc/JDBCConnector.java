@@ -39,6 +39,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -60,6 +61,8 @@ import com.identity4j.connector.principal.Identity;
 import com.identity4j.connector.principal.PasswordStatus;
 import com.identity4j.connector.principal.PasswordStatusType;
 import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.update.UpdatePlan;
+import com.identity4j.connector.update.UpdatePlanner;
 import com.identity4j.util.StringUtil;
 import com.identity4j.util.crypt.EncoderManager;
 import com.identity4j.util.crypt.impl.DefaultEncoderManager;
@@ -70,6 +73,7 @@ public abstract class JDBCConnector extends AbstractConnector {
 
 	protected Connection connect = null;
 	protected JDBCConfiguration configuration = null;
+	private final UpdatePlanner planner = new UpdatePlanner();
 
 	static Log log = LogFactory.getLog(JDBCConnector.class);
 
@@ -541,10 +545,21 @@ public abstract class JDBCConnector extends AbstractConnector {
 		try {
 			connect.setAutoCommit(false);
 			Identity existingIdentity = getIdentityByName(identity.getPrincipalName());
-			statement = connect.createStatement();
-			String sql = configuration.getUpdateSQL(identity);
-			statement.executeUpdate(sql);
-			updateIdentityRoles(existingIdentity, identity);
+			UpdatePlan plan = planner.plan(existingIdentity, identity);
+			if (plan.isEmpty()) {
+				return;
+			}
+			Map<String, String> columns = getChangedColumns(plan, identity);
+			if (columns == null) {
+				statement = connect.createStatement();
+				String sql = configuration.getUpdateSQL(identity);
+				statement.executeUpdate(sql);
+			} else if (!columns.isEmpty()) {
+				updateColumns(identity, columns);
+			}
+			if (plan.hasRoleChanges()) {
+				updateIdentityRoles(existingIdentity, identity);
+			}
 			connect.commit();
 		} catch (SQLException e) {
 			throw new ConnectorException(e);
@@ -558,6 +573,77 @@ public abstract class JDBCConnector extends AbstractConnector {
 		}
 	}
 
+	/**
+	 * Get the columns to set for a planned update, keyed by column name. If
+	 * anything other than roles and properties with a mapped column changed,
+	 * <code>null</code> is returned and the configured update statement
+	 * should be used instead.
+	 */
+	private Map<String, String> getChangedColumns(UpdatePlan plan, Identity identity) {
+		if (!configuration.isUpdateChangedColumnsOnly() || !plan.getAttributeChanges().isEmpty()
+				|| StringUtil.isNullOrEmpty(configuration.getIdentityTable())
+				|| StringUtil.isNullOrEmpty(configuration.getIdentityPrincipalNameColumn())) {
+			return null;
+		}
+		Map<String, String> columns = new LinkedHashMap<String, String>();
+		for (UpdatePlan.Property property : plan.getChangedProperties()) {
+			String column;
+			String value;
+			switch (property) {
+			case FULL_NAME:
+				column = configuration.getIdentityFullnameColumn();
+				value = identity.getFullName();
+				break;
+			case OTHER_NAME:
+				column = configuration.getIdentityOtherNameColumn();
+				value = identity.getOtherName();
+				break;
+			case EMAIL:
+				column = configuration.getIdentityEmailColumn();
+				value = identity.getAddress(Media.email);
+				break;
+			case MOBILE:
+				column = configuration.getIdentityMobileColumn();
+				value = identity.getAddress(Media.mobile);
+				break;
+			default:
+				return null;
+			}
+			if (StringUtil.isNullOrEmpty(column)) {
+				return null;
+			}
+			columns.put(column, value);
+		}
+		return columns;
+	}
+
+	private void updateColumns(Identity identity, Map<String, String> columns) throws SQLException {
+		StringBuilder sql = new StringBuilder("UPDATE ");
+		sql.append(configuration.getIdentityTable());
+		sql.append(" SET ");
+		for (Iterator<String> it = columns.keySet().iterator(); it.hasNext();) {
+			sql.append(it.next());
+			sql.append(" = ?");
+			if (it.hasNext()) {
+				sql.append(", ");
+			}
+		}
+		sql.append(" WHERE ");
+		sql.append(configuration.getIdentityPrincipalNameColumn());
+		sql.append(" = ?");
+		PreparedStatement statement = connect.prepareStatement(sql.toString());
+		try {
+			int idx = 1;
+			for (String value : columns.values()) {
+				statement.setString(idx++, value);
+			}
+			statement.setString(idx, identity.getPrincipalName());
+			statement.executeUpdate();
+		} finally {
+			statement.close();
+		}
+	}
+
 	protected void updateIdentityRoles(Identity oldIdentity, Identity newIdentity) throws SQLException {
 		Map<String, Role> oldRoles = getRoleNames(oldIdentity);
 		Map<String, Role> newRoles = getRoleNames(newIdentity);
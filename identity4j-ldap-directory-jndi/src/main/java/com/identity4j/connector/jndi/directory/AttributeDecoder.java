@@ -0,0 +1,215 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+
+import com.identity4j.connector.principal.Principal;
+
+/**
+ * Converts attribute values returned by a search into the strings held by a
+ * {@link Principal}. Values JNDI returns as <code>byte[]</code> (those named
+ * in <code>java.naming.ldap.attributes.binary</code>, and the provider's own
+ * binary attributes) are encoded as hex or base64 rather than with
+ * {@link String#valueOf(Object)}, so identifiers such as
+ * <code>objectGUID</code> and <code>objectSid</code> survive the round trip.
+ * Other values are already strings and are used as they are.
+ * <p>
+ * Values are read by index rather than enumerated, and encoding is done in a
+ * per thread buffer that is reused from one entry to the next. Instances are
+ * thread safe.
+ */
+public class AttributeDecoder {
+
+	public enum Encoding {
+		HEX, BASE64
+	}
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.toCharArray();
+	private static final String[] EMPTY = new String[0];
+
+	private final Encoding encoding;
+	private final ThreadLocal<char[]> scratch = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[64];
+		}
+	};
+
+	public AttributeDecoder() {
+		this(Encoding.HEX);
+	}
+
+	public AttributeDecoder(Encoding encoding) {
+		this.encoding = encoding;
+	}
+
+	public Encoding getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Set the attributes of a principal from those of an entry. When a
+	 * projection is given, only the attributes named in it are copied, so
+	 * anything else the server returned is not decoded at all.
+	 * 
+	 * @param attributes entry attributes
+	 * @param projection attributes requested, or <code>null</code> for all
+	 * @param principal principal to set attributes on
+	 * @param skip attributes not to copy
+	 * @throws NamingException
+	 */
+	public void decode(Attributes attributes, String[] projection, Principal principal, String... skip)
+			throws NamingException {
+		if (projection == null || isAll(projection)) {
+			NamingEnumeration<? extends Attribute> en = attributes.getAll();
+			try {
+				while (en.hasMore()) {
+					Attribute attribute = en.next();
+					if (!isSkipped(attribute.getID(), skip)) {
+						principal.setAttribute(attribute.getID(), decode(attribute));
+					}
+				}
+			} finally {
+				en.close();
+			}
+		} else {
+			for (String name : projection) {
+				Attribute attribute = attributes.get(name);
+				if (attribute != null && !isSkipped(attribute.getID(), skip)) {
+					principal.setAttribute(attribute.getID(), decode(attribute));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decode all values of an attribute.
+	 * 
+	 * @param attribute attribute
+	 * @return values
+	 * @throws NamingException
+	 */
+	public String[] decode(Attribute attribute) throws NamingException {
+		int size = attribute.size();
+		if (size == 0) {
+			return EMPTY;
+		}
+		String[] values = new String[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = decodeValue(attribute.get(i));
+		}
+		return values;
+	}
+
+	/**
+	 * Decode the first value of an attribute.
+	 * 
+	 * @param attribute attribute, may be <code>null</code>
+	 * @return value, or <code>null</code> if there is none
+	 * @throws NamingException
+	 */
+	public String decodeFirst(Attribute attribute) throws NamingException {
+		return attribute == null || attribute.size() == 0 ? null : decodeValue(attribute.get());
+	}
+
+	/**
+	 * Decode a single value.
+	 * 
+	 * @param value value
+	 * @return string
+	 */
+	public String decodeValue(Object value) {
+		if (value == null || value instanceof String) {
+			return (String) value;
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			return encoding == Encoding.BASE64 ? base64(bytes) : hex(bytes);
+		}
+		return value.toString();
+	}
+
+	private String hex(byte[] bytes) {
+		char[] buf = buffer(bytes.length * 2);
+		int j = 0;
+		for (byte b : bytes) {
+			buf[j++] = HEX_DIGITS[(b >> 4) & 0xF];
+			buf[j++] = HEX_DIGITS[b & 0xF];
+		}
+		return new String(buf, 0, j);
+	}
+
+	private String base64(byte[] bytes) {
+		char[] buf = buffer((bytes.length + 2) / 3 * 4);
+		int j = 0;
+		int i = 0;
+		for (; i + 2 < bytes.length; i += 3) {
+			int n = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+			buf[j++] = BASE64_DIGITS[n >>> 18];
+			buf[j++] = BASE64_DIGITS[(n >>> 12) & 0x3F];
+			buf[j++] = BASE64_DIGITS[(n >>> 6) & 0x3F];
+			buf[j++] = BASE64_DIGITS[n & 0x3F];
+		}
+		int remaining = bytes.length - i;
+		if (remaining > 0) {
+			int n = (bytes[i] & 0xFF) << 16 | (remaining == 2 ? (bytes[i + 1] & 0xFF) << 8 : 0);
+			buf[j++] = BASE64_DIGITS[n >>> 18];
+			buf[j++] = BASE64_DIGITS[(n >>> 12) & 0x3F];
+			buf[j++] = remaining == 2 ? BASE64_DIGITS[(n >>> 6) & 0x3F] : '=';
+			buf[j++] = '=';
+		}
+		return new String(buf, 0, j);
+	}
+
+	private char[] buffer(int length) {
+		char[] buf = scratch.get();
+		if (buf.length < length) {
+			buf = new char[Math.max(length, buf.length * 2)];
+			scratch.set(buf);
+		}
+		return buf;
+	}
+
+	private static boolean isAll(String[] projection) {
+		for (String name : projection) {
+			if (name.equals("*") || name.equals("+")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isSkipped(String id, String[] skip) {
+		for (String name : skip) {
+			if (id.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
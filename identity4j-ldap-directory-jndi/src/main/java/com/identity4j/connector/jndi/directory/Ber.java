@@ -0,0 +1,226 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Just enough of the Basic Encoding Rules to encode and decode the values of
+ * LDAP controls that JNDI does not provide.
+ */
+public final class Ber {
+
+	public static final int BOOLEAN = 0x01;
+	public static final int INTEGER = 0x02;
+	public static final int OCTET_STRING = 0x04;
+	public static final int ENUMERATED = 0x0a;
+	public static final int SEQUENCE = 0x30;
+
+	private Ber() {
+	}
+
+	public static byte[] sequence(byte[]... elements) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] element : elements) {
+			if (element != null) {
+				out.write(element, 0, element.length);
+			}
+		}
+		return tlv(SEQUENCE, out.toByteArray());
+	}
+
+	public static byte[] integer(long value) {
+		return integer(INTEGER, value);
+	}
+
+	public static byte[] enumerated(int value) {
+		return integer(ENUMERATED, value);
+	}
+
+	public static byte[] bool(boolean value) {
+		return tlv(BOOLEAN, new byte[] { value ? (byte) 0xff : 0 });
+	}
+
+	public static byte[] octets(byte[] value) {
+		return tlv(OCTET_STRING, value);
+	}
+
+	public static byte[] string(String value) {
+		try {
+			return tlv(OCTET_STRING, value.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static byte[] tlv(int tag, byte[] value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(value.length + 6);
+		out.write(tag);
+		if (value.length < 0x80) {
+			out.write(value.length);
+		} else {
+			int bytes = 0;
+			for (int len = value.length; len > 0; len >>>= 8) {
+				bytes++;
+			}
+			out.write(0x80 | bytes);
+			for (int i = bytes - 1; i >= 0; i--) {
+				out.write(value.length >>> (i * 8));
+			}
+		}
+		out.write(value, 0, value.length);
+		return out.toByteArray();
+	}
+
+	private static byte[] integer(int tag, long value) {
+		int bytes = 1;
+		while (bytes < 8 && (value >> (bytes * 8 - 1)) != 0 && (value >> (bytes * 8 - 1)) != -1) {
+			bytes++;
+		}
+		byte[] encoded = new byte[bytes];
+		for (int i = 0; i < bytes; i++) {
+			encoded[i] = (byte) (value >> ((bytes - 1 - i) * 8));
+		}
+		return tlv(tag, encoded);
+	}
+
+	/**
+	 * Reads the elements of an encoded value in order.
+	 */
+	public static class Reader {
+		private final byte[] buf;
+		private int pos;
+		private final int end;
+
+		public Reader(byte[] buf) {
+			this(buf, 0, buf == null ? 0 : buf.length);
+		}
+
+		private Reader(byte[] buf, int pos, int end) {
+			this.buf = buf;
+			this.pos = pos;
+			this.end = end;
+		}
+
+		public boolean hasMore() {
+			return pos < end;
+		}
+
+		/**
+		 * Get the tag of the next element without reading it.
+		 * 
+		 * @return tag, or -1 if there are no more elements
+		 */
+		public int peek() {
+			return pos < end ? buf[pos] & 0xff : -1;
+		}
+
+		public Reader sequence() throws IOException {
+			int len = header(SEQUENCE);
+			Reader reader = new Reader(buf, pos, pos + len);
+			pos += len;
+			return reader;
+		}
+
+		public long integer() throws IOException {
+			return readInteger(INTEGER);
+		}
+
+		public int enumerated() throws IOException {
+			return (int) readInteger(ENUMERATED);
+		}
+
+		public boolean bool() throws IOException {
+			int len = header(BOOLEAN);
+			if (len != 1) {
+				throw new IOException("Invalid BER boolean.");
+			}
+			return buf[pos++] != 0;
+		}
+
+		public byte[] octets() throws IOException {
+			return read(OCTET_STRING);
+		}
+
+		public String string() throws IOException {
+			return new String(octets(), "UTF-8");
+		}
+
+		/**
+		 * Read an element with any tag, returning its value.
+		 * 
+		 * @param tag expected tag
+		 * @return value
+		 * @throws IOException if the next element has a different tag
+		 */
+		public byte[] read(int tag) throws IOException {
+			int len = header(tag);
+			byte[] value = new byte[len];
+			System.arraycopy(buf, pos, value, 0, len);
+			pos += len;
+			return value;
+		}
+
+		private long readInteger(int tag) throws IOException {
+			int len = header(tag);
+			if (len < 1 || len > 8) {
+				throw new IOException("Invalid BER integer length " + len + ".");
+			}
+			long value = buf[pos++];
+			for (int i = 1; i < len; i++) {
+				value = (value << 8) | (buf[pos++] & 0xff);
+			}
+			return value;
+		}
+
+		private int header(int tag) throws IOException {
+			if (pos >= end) {
+				throw new IOException("Expected BER tag " + tag + " but there is no more data.");
+			}
+			int actual = buf[pos++] & 0xff;
+			if (actual != tag) {
+				throw new IOException("Expected BER tag " + tag + " but found " + actual + ".");
+			}
+			if (pos >= end) {
+				throw new IOException("Truncated BER length.");
+			}
+			int len = buf[pos++] & 0xff;
+			if ((len & 0x80) != 0) {
+				int bytes = len & 0x7f;
+				if (bytes == 0 || bytes > 4 || pos + bytes > end) {
+					throw new IOException("Invalid BER length.");
+				}
+				len = 0;
+				for (int i = 0; i < bytes; i++) {
+					len = (len << 8) | (buf[pos++] & 0xff);
+				}
+			}
+			if (len < 0 || pos + len > end) {
+				throw new IOException("BER length " + len + " exceeds data.");
+			}
+			return len;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.NamingException;
+
+import com.identity4j.connector.BrowseNode;
+
+/**
+ * The containers of the directory, loaded one level at a time as nodes are
+ * opened. The children of each node are kept until the time to live expires
+ * or the node, or one of its ancestors, is invalidated.
+ */
+class BrowseTree {
+
+	/**
+	 * Lists the DNs of the children of a node.
+	 */
+	interface ChildLoader {
+		/**
+		 * @param parent DN of parent, or <code>null</code> for the naming
+		 *            contexts at the root
+		 * @return DNs of children
+		 */
+		List<String> load(String parent) throws NamingException, IOException;
+	}
+
+	private static final String ROOT = "";
+
+	private final ChildLoader loader;
+	private final long ttl;
+	private final Map<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * @param loader loader
+	 * @param ttl milliseconds children are kept for, or 0 to list them every
+	 *            time
+	 */
+	BrowseTree(ChildLoader loader, long ttl) {
+		this.loader = loader;
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Get the children of a node, listing them if they are not cached.
+	 * 
+	 * @param parent DN of parent, or <code>null</code> or the empty root DN
+	 *            for the root
+	 * @return children
+	 */
+	List<BrowseNode> children(String parent) throws NamingException, IOException {
+		String key = parent == null ? ROOT : key(parent);
+		if (key.equals(ROOT)) {
+			parent = null;
+		}
+		long now = System.currentTimeMillis();
+		Entry entry = cache.get(key);
+		if (entry != null && entry.expires > now) {
+			return entry.children;
+		}
+		List<BrowseNode> children = new ArrayList<BrowseNode>();
+		for (String dn : loader.load(parent)) {
+			children.add(new DirectoryBrowseNode(dn));
+		}
+		children = Collections.unmodifiableList(children);
+		if (ttl > 0) {
+			cache.put(key, new Entry(children, now + ttl));
+		}
+		return children;
+	}
+
+	/**
+	 * Forget the children of a node and everything below it, for example
+	 * after a container is created, moved or deleted beneath it. The empty
+	 * root DN forgets everything.
+	 * 
+	 * @param dn DN
+	 */
+	void invalidate(String dn) {
+		String key = dn == null ? ROOT : key(dn);
+		if (key.equals(ROOT)) {
+			clear();
+			return;
+		}
+		String suffix = "," + key;
+		for (Iterator<String> it = cache.keySet().iterator(); it.hasNext();) {
+			String cached = it.next();
+			if (cached.equals(key) || cached.endsWith(suffix)) {
+				it.remove();
+			}
+		}
+	}
+
+	void clear() {
+		cache.clear();
+	}
+
+	private static String key(String dn) {
+		return dn.replaceAll("\\s*,\\s*", ",").trim().toLowerCase();
+	}
+
+	static class Entry {
+		final List<BrowseNode> children;
+		final long expires;
+
+		Entry(List<BrowseNode> children, long expires) {
+			this.children = children;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.identity4j.connector.BrowseNode;
+
+/**
+ * A container in the directory tree, identified by its DN.
+ */
+public class DirectoryBrowseNode implements BrowseNode {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String dn;
+	private final boolean leaf;
+
+	public DirectoryBrowseNode(String dn) {
+		this(dn, false);
+	}
+
+	public DirectoryBrowseNode(String dn, boolean leaf) {
+		this.dn = dn;
+		this.leaf = leaf;
+	}
+
+	public String getDn() {
+		return dn;
+	}
+
+	/**
+	 * Whether the node is known to have no children. Children are only
+	 * listed when a node is opened, so this is <code>false</code> until then.
+	 */
+	@Override
+	public boolean isLeaf() {
+		return leaf;
+	}
+
+	@Override
+	public int hashCode() {
+		return dn.toLowerCase().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof DirectoryBrowseNode && ((DirectoryBrowseNode) obj).dn.equalsIgnoreCase(dn);
+	}
+
+	@Override
+	public String toString() {
+		return dn;
+	}
+}
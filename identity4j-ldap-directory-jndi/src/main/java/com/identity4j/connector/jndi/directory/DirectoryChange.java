@@ -0,0 +1,153 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.connector.principal.Role;
+
+/**
+ * A change to an entry reported by a {@link DirectoryChangeFeed}.
+ */
+public class DirectoryChange {
+
+	public enum Type {
+		ADD, MODIFY, DELETE, RENAME
+	}
+
+	private final Type type;
+	private final String dn;
+	private final Principal principal;
+	private String previousDn;
+	private String entryUUID;
+	private String[] objectClasses;
+	private long changeNumber = -1;
+
+	public DirectoryChange(Type type, String dn, Principal principal) {
+		this.type = type;
+		this.dn = dn;
+		this.principal = principal;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getDn() {
+		return dn;
+	}
+
+	/**
+	 * Get the identity or role the entry maps to. This is <code>null</code>
+	 * when the entry was deleted and the server did not send its attributes.
+	 * 
+	 * @return principal or <code>null</code>
+	 */
+	public Principal getPrincipal() {
+		return principal;
+	}
+
+	public boolean isIdentity() {
+		return principal instanceof Identity;
+	}
+
+	public boolean isRole() {
+		return principal instanceof Role;
+	}
+
+	/**
+	 * Get the DN before a rename, if known.
+	 * 
+	 * @return previous DN or <code>null</code>
+	 */
+	public String getPreviousDn() {
+		return previousDn;
+	}
+
+	public void setPreviousDn(String previousDn) {
+		this.previousDn = previousDn;
+	}
+
+	/**
+	 * Get the entryUUID of the entry, when synchronizing with RFC 4533. This
+	 * identifies deleted entries, which are sent without attributes.
+	 * 
+	 * @return entry UUID or <code>null</code>
+	 */
+	public String getEntryUUID() {
+		return entryUUID;
+	}
+
+	public void setEntryUUID(String entryUUID) {
+		this.entryUUID = entryUUID;
+	}
+
+	/**
+	 * Get the object classes of the entry, when known. These tell what a
+	 * deleted entry was, as it has no principal.
+	 * 
+	 * @return object classes or <code>null</code>
+	 */
+	public String[] getObjectClasses() {
+		return objectClasses;
+	}
+
+	public void setObjectClasses(String... objectClasses) {
+		this.objectClasses = objectClasses;
+	}
+
+	/**
+	 * Get if the entry is known to be of an object class, ignoring case.
+	 * 
+	 * @param objectClass object class
+	 * @return entry is of the object class
+	 */
+	public boolean isObjectClass(String objectClass) {
+		if (objectClasses != null) {
+			for (String c : objectClasses) {
+				if (c.equalsIgnoreCase(objectClass)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the change log number, when reported by a persistent search.
+	 * 
+	 * @return change number, or -1 if not known
+	 */
+	public long getChangeNumber() {
+		return changeNumber;
+	}
+
+	public void setChangeNumber(long changeNumber) {
+		this.changeNumber = changeNumber;
+	}
+
+	@Override
+	public String toString() {
+		return type + " " + dn;
+	}
+}
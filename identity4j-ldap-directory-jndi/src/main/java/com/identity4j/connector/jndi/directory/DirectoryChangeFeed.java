@@ -0,0 +1,348 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+import javax.naming.InterruptedNamingException;
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.util.NamedThreadFactory;
+
+/**
+ * Keeps a search open on a dedicated connection and passes changes to
+ * identities and roles to a {@link DirectoryChangeListener} as they happen.
+ * <p>
+ * Where the server supports RFC 4533 content synchronization (OpenLDAP
+ * syncrepl) the search runs in refresh and persist mode, and the listener is
+ * given a cookie to resume from after each change. Started without a cookie,
+ * the full content is sent first as additions. Sync Info messages are not
+ * passed on by JNDI, so cookies are taken from the entries and the Sync Done
+ * control. Deletions made while the feed was not running are only reported
+ * if the server keeps a session log.
+ * <p>
+ * Otherwise a persistent search is used (389 Directory Server and others),
+ * which reports only changes made while the search is open. Whenever it has
+ * to be re-opened the listener is told to refresh.
+ * <p>
+ * If the connection is lost the search is re-opened after the retry delay,
+ * until the feed is closed.
+ */
+public class DirectoryChangeFeed implements Closeable {
+
+	final static Log LOG = LogFactory.getLog(DirectoryChangeFeed.class);
+
+	/**
+	 * How changes are obtained from the server.
+	 */
+	public enum Mode {
+		SYNC_REPL, PERSISTENT_SEARCH
+	}
+
+	private final LdapService ldapService;
+	private final DirectoryConfiguration configuration;
+	private final Mode mode;
+	private final String filter;
+	private final String[] attributes;
+	private final ResultMapper<Principal> mapper;
+	private final DirectoryChangeListener listener;
+
+	private volatile byte[] cookie;
+	private volatile boolean closed;
+	private volatile LdapContext context;
+	private long retryDelay = 10000;
+	private Thread thread;
+
+	DirectoryChangeFeed(LdapService ldapService, DirectoryConfiguration configuration, Mode mode, String filter,
+			String[] attributes, ResultMapper<Principal> mapper, DirectoryChangeListener listener, byte[] cookie) {
+		this.ldapService = ldapService;
+		this.configuration = configuration;
+		this.mode = mode;
+		this.filter = filter;
+		this.attributes = attributes;
+		this.mapper = mapper;
+		this.listener = listener;
+		this.cookie = cookie;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Get the cookie to resume from, if any.
+	 * 
+	 * @return cookie or <code>null</code>
+	 */
+	public byte[] getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * Get how long in milliseconds to wait before re-opening the search after
+	 * a failure.
+	 * 
+	 * @return retry delay
+	 */
+	public long getRetryDelay() {
+		return retryDelay;
+	}
+
+	public void setRetryDelay(long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Start receiving changes on a background thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			throw new IllegalStateException("Already started.");
+		}
+		thread = new NamedThreadFactory("LdapChangeFeed").newThread(new Runnable() {
+			@Override
+			public void run() {
+				DirectoryChangeFeed.this.run();
+			}
+		});
+		thread.start();
+	}
+
+	/**
+	 * Stop receiving changes and close the connection.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Thread thread;
+		synchronized (this) {
+			thread = this.thread;
+		}
+		if (thread != null) {
+			thread.interrupt();
+		}
+		closeContext();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	private void run() {
+		boolean first = true;
+		while (!closed) {
+			try {
+				if (mode == Mode.PERSISTENT_SEARCH && !first) {
+					listener.refreshRequired();
+				}
+				first = false;
+				context = ldapService.openDedicatedConnection();
+				search(context);
+			} catch (Exception e) {
+				if (closed || e instanceof InterruptedNamingException) {
+					break;
+				}
+				if (cookie != null && isRefreshRequired(e)) {
+					LOG.info("Directory no longer accepts the synchronization cookie, starting again.");
+					cookie = null;
+					listener.refreshRequired();
+					continue;
+				}
+				LOG.warn("Directory change feed failed, retrying in " + retryDelay + "ms.", e);
+				listener.failed(e);
+				try {
+					Thread.sleep(retryDelay);
+				} catch (InterruptedException ie) {
+					break;
+				}
+			} finally {
+				closeContext();
+			}
+		}
+	}
+
+	private void search(LdapContext context) throws NamingException, IOException {
+		if (mode == Mode.SYNC_REPL) {
+			context.setRequestControls(new Control[] {
+					new SyncRequestControl(SyncRequestControl.REFRESH_AND_PERSIST, cookie, false) });
+		} else {
+			context.setRequestControls(
+					new Control[] { new PersistentSearchControl(PersistentSearchControl.ALL, true, true) });
+		}
+		SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		controls.setReturningAttributes(attributes);
+		NamingEnumeration<SearchResult> results = context.search(configuration.getBaseDn(), filter, controls);
+		try {
+			while (!closed && results.hasMore()) {
+				process(results.next());
+			}
+		} finally {
+			results.close();
+		}
+		/* Refresh and persist only ends if the server ends it */
+		SyncDoneControl done = SyncDoneControl.get(context.getResponseControls());
+		if (done != null && done.getCookie() != null) {
+			checkpoint(done.getCookie());
+		}
+	}
+
+	/**
+	 * Turn one entry of the search into a change and pass it on.
+	 * 
+	 * @param result search result
+	 * @throws NamingException
+	 * @throws IOException
+	 */
+	void process(SearchResult result) throws NamingException, IOException {
+		Control[] controls = result instanceof HasControls ? ((HasControls) result).getControls() : null;
+		DirectoryChange change = null;
+		byte[] entryCookie = null;
+		if (mode == Mode.SYNC_REPL) {
+			SyncStateControl state = SyncStateControl.get(controls);
+			if (state != null) {
+				entryCookie = state.getCookie();
+				change = toChange(state, result);
+			}
+		} else {
+			EntryChangeNotificationControl ecn = EntryChangeNotificationControl.get(controls);
+			if (ecn != null) {
+				change = toChange(ecn, result);
+			}
+		}
+		if (change != null && (!mapper.isApplyFilters() || isIncluded(change.getDn()))) {
+			listener.changed(change);
+		}
+		if (entryCookie != null) {
+			checkpoint(entryCookie);
+		}
+	}
+
+	private DirectoryChange toChange(SyncStateControl state, SearchResult result)
+			throws NamingException, IOException {
+		DirectoryChange.Type type;
+		switch (state.getState()) {
+		case SyncStateControl.ADD:
+			type = DirectoryChange.Type.ADD;
+			break;
+		case SyncStateControl.MODIFY:
+			type = DirectoryChange.Type.MODIFY;
+			break;
+		case SyncStateControl.DELETE:
+			type = DirectoryChange.Type.DELETE;
+			break;
+		default:
+			/* Present, the entry has not changed */
+			return null;
+		}
+		Principal principal = type == DirectoryChange.Type.DELETE ? null : mapper.apply(result);
+		if (principal == null && type != DirectoryChange.Type.DELETE) {
+			return null;
+		}
+		DirectoryChange change = new DirectoryChange(type, result.getNameInNamespace(), principal);
+		change.setEntryUUID(state.getEntryUUID());
+		return change;
+	}
+
+	private DirectoryChange toChange(EntryChangeNotificationControl ecn, SearchResult result)
+			throws NamingException, IOException {
+		DirectoryChange.Type type;
+		switch (ecn.getChangeType()) {
+		case PersistentSearchControl.ADD:
+			type = DirectoryChange.Type.ADD;
+			break;
+		case PersistentSearchControl.DELETE:
+			type = DirectoryChange.Type.DELETE;
+			break;
+		case PersistentSearchControl.MODDN:
+			type = DirectoryChange.Type.RENAME;
+			break;
+		default:
+			type = DirectoryChange.Type.MODIFY;
+			break;
+		}
+		Principal principal = result.getAttributes() == null || result.getAttributes().size() == 0 ? null
+				: mapper.apply(result);
+		if (principal == null && type != DirectoryChange.Type.DELETE) {
+			return null;
+		}
+		DirectoryChange change = new DirectoryChange(type, result.getNameInNamespace(), principal);
+		change.setPreviousDn(ecn.getPreviousDN());
+		change.setChangeNumber(ecn.getChangeNumber());
+		return change;
+	}
+
+	private void checkpoint(byte[] cookie) {
+		this.cookie = cookie;
+		listener.checkpoint(cookie);
+	}
+
+	private boolean isIncluded(String dn) throws NamingException {
+		Name name = new LdapName(dn);
+		Collection<Name> includes = configuration.getIncludes();
+		boolean include = includes.isEmpty();
+		for (Name n : includes) {
+			if (name.startsWith(n)) {
+				include = true;
+				break;
+			}
+		}
+		for (Name n : configuration.getExcludes()) {
+			if (name.startsWith(n)) {
+				return false;
+			}
+		}
+		return include;
+	}
+
+	private static boolean isRefreshRequired(Exception e) {
+		/* e-syncRefreshRequired, which JNDI has no exception for */
+		return e instanceof NamingException && e.getMessage() != null && e.getMessage().contains("error code 4096");
+	}
+
+	private void closeContext() {
+		LdapContext context = this.context;
+		this.context = null;
+		if (context != null) {
+			try {
+				context.close();
+			} catch (NamingException e) {
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Receives changes from a {@link DirectoryChangeFeed}. Called from the feed's
+ * own thread.
+ */
+public interface DirectoryChangeListener {
+
+	/**
+	 * An identity or role was added, modified, renamed or deleted.
+	 * 
+	 * @param change change
+	 */
+	void changed(DirectoryChange change);
+
+	/**
+	 * All changes so far have been delivered. Pass the cookie to
+	 * {@link DirectoryConnector#watch(DirectoryChangeListener, byte[])} to
+	 * resume from this point later.
+	 * 
+	 * @param cookie cookie
+	 */
+	void checkpoint(byte[] cookie);
+
+	/**
+	 * The feed cannot tell what changed while it was not connected, either
+	 * because the server no longer accepts the cookie or because persistent
+	 * search has no way to resume. Anything cached should be reloaded.
+	 */
+	void refreshRequired();
+
+	/**
+	 * The feed lost its connection or search, and will retry.
+	 * 
+	 * @param exception failure
+	 */
+	void failed(Throwable exception);
+}
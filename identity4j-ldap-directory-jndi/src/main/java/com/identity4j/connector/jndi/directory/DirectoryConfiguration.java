@@ -120,10 +120,125 @@ public class DirectoryConfiguration extends AbstractConnectorConfiguration {
 	 */
 	public static final String DIRECTORY_MAX_PAGE_SIZE = "directory.maxPageSize";
 	
+	/**
+	 * Pool service account connections
+	 */
+	public static final String DIRECTORY_CONNECTION_POOL = "directory.connectionPool";
+	
+	/**
+	 * Read the next page of search results in the background
+	 */
+	public static final String DIRECTORY_PREFETCH_PAGES = "directory.prefetchPages";
+	
+	/**
+	 * Search each include in parallel, leaving out excluded subtrees
+	 */
+	public static final String DIRECTORY_PARALLEL_SEARCH = "directory.parallelSearch";
+	
+	/**
+	 * Number of searches run at once when searching in parallel
+	 */
+	public static final String DIRECTORY_SEARCH_THREADS = "directory.searchThreads";
+	
+	/**
+	 * Seconds primary roles looked up while mapping identities are kept for
+	 */
+	public static final String DIRECTORY_ROLE_CACHE_TTL = "directory.roleCacheTtl";
+	
+	/**
+	 * Have searches return a context object for each result
+	 */
+	public static final String DIRECTORY_RETURN_OBJECTS = "directory.returnObjects";
+	
+	/**
+	 * Minimum number of pooled connections
+	 */
+	public static final String DIRECTORY_POOL_MIN_SIZE = "directory.poolMinSize";
+	
+	/**
+	 * Maximum number of pooled connections
+	 */
+	public static final String DIRECTORY_POOL_MAX_SIZE = "directory.poolMaxSize";
+	
+	/**
+	 * Seconds a pooled connection may be idle before it is closed
+	 */
+	public static final String DIRECTORY_POOL_MAX_IDLE = "directory.poolMaxIdle";
+	
+	/**
+	 * Seconds a pooled connection may be idle before it is validated
+	 */
+	public static final String DIRECTORY_POOL_VALIDATION_INTERVAL = "directory.poolValidationInterval";
+	
+	/**
+	 * Check credentials by binding on pooled connections
+	 */
+	public static final String DIRECTORY_AUTHENTICATION_POOL = "directory.authenticationPool";
+	
+	/**
+	 * Maximum number of pooled connections used to check credentials
+	 */
+	public static final String DIRECTORY_AUTHENTICATION_POOL_MAX_SIZE = "directory.authenticationPoolMaxSize";
+	
+	/**
+	 * How operations are spread over the controllers, one of
+	 * <code>failover</code>, <code>roundRobin</code> or
+	 * <code>leastOutstanding</code>
+	 */
+	public static final String DIRECTORY_LOAD_BALANCING = "directory.loadBalancing";
+	
+	/**
+	 * Send independent modifications in a batch without waiting for each
+	 * response
+	 */
+	public static final String DIRECTORY_PIPELINE_MODIFIES = "directory.pipelineModifies";
+	
+	/**
+	 * Space separated names of further attributes that hold binary values
+	 */
+	public static final String DIRECTORY_BINARY_ATTRIBUTES = "directory.binaryAttributes";
+	
+	/**
+	 * How binary attribute values are held as strings, <code>hex</code> or
+	 * <code>base64</code>
+	 */
+	public static final String DIRECTORY_BINARY_ENCODING = "directory.binaryEncoding";
+	
+	/**
+	 * Comma separated attributes the server is asked to sort search results
+	 * by, each prefixed with <code>-</code> for descending order
+	 */
+	public static final String DIRECTORY_SORT_ATTRIBUTES = "directory.sortAttributes";
+	
+	/**
+	 * Fail searches if the server cannot sort them
+	 */
+	public static final String DIRECTORY_SORT_CRITICAL = "directory.sortCritical";
+	
+	/**
+	 * Filter selecting the children shown when browsing the directory
+	 */
+	public static final String DIRECTORY_BROWSE_FILTER = "directory.browseFilter";
+	
+	/**
+	 * Seconds the children of a browsed container are kept for
+	 */
+	public static final String DIRECTORY_BROWSE_CACHE_TTL = "directory.browseCacheTtl";
+	
+	/**
+	 * Seconds between attempts to reconnect to controllers that are down
+	 */
+	public static final String DIRECTORY_HEALTH_CHECK_INTERVAL = "directory.healthCheckInterval";
+	
 	/**
      */
 	public static final char PORT_SEPARATOR = ':';
 	
+	/**
+	 * JNDI environment property naming attributes returned as bytes
+	 */
+	public static final String BINARY_ATTRIBUTES = "java.naming.ldap.attributes.binary";
+	
 	/**
      */
 	public static final String COMMON_NAME = "CN=";
@@ -336,6 +451,241 @@ public class DirectoryConfiguration extends AbstractConnectorConfiguration {
 		return configurationParameters.getIntegerOrDefault(DIRECTORY_MAX_PAGE_SIZE, 1000);
 	}
 
+	/**
+	 * Whether paged searches read ahead on a background thread while results
+	 * are being processed, the default is <code>false</code>. Each search
+	 * holds a connection until it is read to the end. If nothing is taken
+	 * from it for the read timeout (or a minute, if there is none), as when
+	 * the caller stops early, the search is abandoned and its connection
+	 * released, so results must not be processed more slowly than that.
+	 * 
+	 * @return prefetch pages
+	 */
+	public boolean isPrefetchPages() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_PREFETCH_PAGES, false);
+	}
+
+	/**
+	 * Whether searches ask JNDI for a context object with each result, as
+	 * well as its attributes. Results are only ever mapped from their
+	 * attributes, so the default is <code>false</code>.
+	 * 
+	 * @return return objects
+	 */
+	public boolean isReturnObjects() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_RETURN_OBJECTS, false);
+	}
+
+	/**
+	 * Whether identity and role searches are split into one search per
+	 * include, run in parallel, with excluded subtrees left out where
+	 * possible. An include with excludes below it is searched as its
+	 * immediate children, listed once and kept for five minutes. Entries
+	 * created directly below such an include by other means than this
+	 * connector, and anything beneath them, may be missing from enumerations
+	 * until then. Searches the caller stops reading are released as for
+	 * {@link #isPrefetchPages()}. The default is <code>false</code>.
+	 * 
+	 * @return parallel search
+	 */
+	public boolean isParallelSearch() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_PARALLEL_SEARCH, false);
+	}
+
+	/**
+	 * The most searches run at once when searching in parallel, the default
+	 * is 4.
+	 * 
+	 * @return search threads
+	 */
+	public int getSearchThreads() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_SEARCH_THREADS, 4);
+	}
+
+	/**
+	 * Whether service account connections are pooled, the default is
+	 * <code>true</code>.
+	 * 
+	 * @return connection pool
+	 */
+	public boolean isConnectionPool() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_CONNECTION_POOL, true);
+	}
+
+	/**
+	 * The number of pooled connections kept open even when idle, the default
+	 * is 0.
+	 * 
+	 * @return minimum pool size
+	 */
+	public int getPoolMinSize() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_MIN_SIZE, 0);
+	}
+
+	/**
+	 * The most pooled connections open at once, the default is 10.
+	 * 
+	 * @return maximum pool size
+	 */
+	public int getPoolMaxSize() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_MAX_SIZE, 10);
+	}
+
+	/**
+	 * Milliseconds a pooled connection may be idle before it is closed, the
+	 * default is 5 minutes.
+	 * 
+	 * @return maximum idle time
+	 */
+	public long getPoolMaxIdle() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_MAX_IDLE, 300) * 1000L;
+	}
+
+	/**
+	 * Milliseconds a pooled connection may be idle before it is validated
+	 * when next used, the default is 30 seconds.
+	 * 
+	 * @return validation interval
+	 */
+	public long getPoolValidationInterval() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_POOL_VALIDATION_INTERVAL, 30) * 1000L;
+	}
+
+	/**
+	 * Whether credentials are checked by binding as the user on pooled
+	 * connections, rather than opening a new connection for each check. The
+	 * default is <code>true</code>.
+	 * 
+	 * @return authentication pool
+	 */
+	public boolean isAuthenticationPool() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_AUTHENTICATION_POOL, true);
+	}
+
+	/**
+	 * The most pooled connections used to check credentials open at once,
+	 * the default is 10.
+	 * 
+	 * @return maximum authentication pool size
+	 */
+	public int getAuthenticationPoolMaxSize() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_AUTHENTICATION_POOL_MAX_SIZE, 10);
+	}
+
+	/**
+	 * Whether a run of modifications of different entries in a
+	 * {@link LdapBatch} is sent without waiting for each response. They are
+	 * sent on the batch's connection from threads of their own, waiting at
+	 * most the read timeout for each. The default is <code>false</code>.
+	 * 
+	 * @return pipeline modifies
+	 */
+	public boolean isPipelineModifies() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_PIPELINE_MODIFIES, false);
+	}
+
+	/**
+	 * Names of attributes, besides those the connector and JNDI already know
+	 * of, whose values are binary and should be returned as bytes.
+	 * 
+	 * @return binary attributes
+	 */
+	public String[] getBinaryAttributes() {
+		return StringUtils.split(configurationParameters.getStringOrDefault(DIRECTORY_BINARY_ATTRIBUTES, ""));
+	}
+
+	/**
+	 * How binary attribute values are encoded when held as strings. The
+	 * default is {@link AttributeDecoder.Encoding#HEX}.
+	 * 
+	 * @return binary encoding
+	 */
+	public AttributeDecoder.Encoding getBinaryEncoding() {
+		String encoding = configurationParameters.getStringOrDefault(DIRECTORY_BINARY_ENCODING, "hex");
+		try {
+			return AttributeDecoder.Encoding.valueOf(encoding.toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			throw new ConnectorException("Unknown binary encoding " + encoding);
+		}
+	}
+
+	/**
+	 * Attributes the server is asked to sort search results by, using the
+	 * server side sort control. When not set, results are returned in the
+	 * order the server chooses.
+	 * 
+	 * @return sort attributes, or <code>null</code> for no sorting
+	 * @see ServerSort#parse(String, boolean)
+	 */
+	public String getSortAttributes() {
+		String sort = configurationParameters.getStringOrDefault(DIRECTORY_SORT_ATTRIBUTES, "");
+		return StringUtils.isBlank(sort) ? null : sort;
+	}
+
+	/**
+	 * Whether searches fail when the server cannot sort them, rather than
+	 * returning results unsorted. The default is <code>false</code>.
+	 * 
+	 * @return sort critical
+	 */
+	public boolean isSortCritical() {
+		return configurationParameters.getBooleanOrDefault(DIRECTORY_SORT_CRITICAL, false);
+	}
+
+	/**
+	 * The filter selecting the children of a container shown when browsing
+	 * the directory. The default selects organizational units, containers
+	 * and domains.
+	 * 
+	 * @return browse filter
+	 */
+	public String getBrowseFilter() {
+		return configurationParameters.getStringOrDefault(DIRECTORY_BROWSE_FILTER,
+				"(|(objectClass=organizationalUnit)(objectClass=organization)(objectClass=container)"
+						+ "(objectClass=domain)(objectClass=builtinDomain))");
+	}
+
+	/**
+	 * Milliseconds the children of a browsed container are kept before they
+	 * are listed again, the default is 5 minutes. Zero lists them every time.
+	 * 
+	 * @return browse cache time to live
+	 */
+	public long getBrowseCacheTtl() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_BROWSE_CACHE_TTL, 300) * 1000L;
+	}
+
+	/**
+	 * How operations are spread over the controllers when connections are
+	 * pooled and more than one controller is configured. The default is
+	 * {@link LdapHostBalancer.Policy#FAILOVER}, where everything goes to the
+	 * first controller that can be reached, so a change is always visible to
+	 * the next read.
+	 * 
+	 * @return load balancing policy
+	 */
+	public LdapHostBalancer.Policy getLoadBalancing() {
+		String policy = configurationParameters.getStringOrDefault(DIRECTORY_LOAD_BALANCING, "failover");
+		if (policy.equalsIgnoreCase("roundRobin")) {
+			return LdapHostBalancer.Policy.ROUND_ROBIN;
+		} else if (policy.equalsIgnoreCase("leastOutstanding")) {
+			return LdapHostBalancer.Policy.LEAST_OUTSTANDING;
+		} else if (policy.equalsIgnoreCase("failover")) {
+			return LdapHostBalancer.Policy.FAILOVER;
+		}
+		throw new ConnectorException("Unknown load balancing policy " + policy);
+	}
+
+	/**
+	 * Milliseconds between attempts to reconnect to controllers that are
+	 * down, the default is 10 seconds.
+	 * 
+	 * @return health check interval
+	 */
+	public long getHealthCheckInterval() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_HEALTH_CHECK_INTERVAL, 10) * 1000L;
+	}
+
 	/**
 	 * The value to use for <code>java.naming.ldap.version</code>, the default
 	 * is 3.
@@ -451,6 +801,17 @@ public class DirectoryConfiguration extends AbstractConnectorConfiguration {
 		return configurationParameters.getStringOrNull("directory.identityRoleNameAttribute");
 	}
 
+	/**
+	 * Milliseconds a primary role looked up while mapping identities is
+	 * shared between enumerations for. The default is 0, where a role is only
+	 * reused within the same enumeration.
+	 * 
+	 * @return role cache time to live
+	 */
+	public long getRoleCacheTtl() {
+		return configurationParameters.getIntegerOrDefault(DIRECTORY_ROLE_CACHE_TTL, 0) * 1000L;
+	}
+
 	/**
 	 * The attribute name which is used to set the identity password.
 	 * 
@@ -563,6 +924,12 @@ public class DirectoryConfiguration extends AbstractConnectorConfiguration {
 		
 
 		variables.putAll(getInitialConfigurationParameters());
+		String[] binaryAttributes = getBinaryAttributes();
+		if (binaryAttributes.length > 0) {
+			String binary = variables.get(BINARY_ATTRIBUTES);
+			variables.put(BINARY_ATTRIBUTES, (binary == null ? "" : binary + " ")
+					+ StringUtils.join(binaryAttributes, ' '));
+		}
 		return variables;
 	}
 
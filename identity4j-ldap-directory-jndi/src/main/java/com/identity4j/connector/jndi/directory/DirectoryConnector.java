@@ -59,6 +59,7 @@ import com.identity4j.connector.exception.InvalidLoginCredentialsException;
 import com.identity4j.connector.exception.PrincipalNotFoundException;
 import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
 import com.identity4j.connector.principal.Identity;
+import com.identity4j.connector.principal.Principal;
 import com.identity4j.connector.principal.Role;
 import com.identity4j.util.CollectionUtil;
 import com.identity4j.util.StringUtil;
@@ -75,6 +76,9 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 
 	private DirectoryConfiguration directoryConfiguration;
 	protected LdapService ldapService;
+	private RoleCache roleCache = new RoleCache(0);
+	private AttributeDecoder attributeDecoder = new AttributeDecoder();
+	private BrowseTree browseTree = createBrowseTree(0);
 	protected SocketFactory socketFactory;
 	
 
@@ -225,6 +229,22 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 		return getIdentities(buildIdentityFilter(WILDCARD_SEARCH));
 	}
 
+	/**
+	 * Whether identities or roles returned by a search were sorted by the
+	 * server, as configured by
+	 * {@link DirectoryConfiguration#DIRECTORY_SORT_ATTRIBUTES}. This is only
+	 * known once the first page has been read, and is <code>false</code> if
+	 * sorting is not configured or the server ignored the request, in which
+	 * case the caller must sort the results itself.
+	 * 
+	 * @param results iterator returned by a search, such as
+	 *            {@link #allIdentities()}
+	 * @return sorted by server
+	 */
+	public boolean isSortedByServer(Iterator<?> results) {
+		return results instanceof SortedResults && Boolean.TRUE.equals(((SortedResults) results).isSortedByServer());
+	}
+
 	@Override
 	public long countIdentities() throws ConnectorException {
 		// There is no method for generic LDAP so it's better to return nothing
@@ -244,16 +264,19 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 	}
 
 	protected Iterator<Identity> getIdentities(String filter) {
+		final RoleCache.Enumeration roles = roleCache.begin();
 		try {
+			SearchControls searchControls = configureSearchControls(ldapService.getSearchControls());
+			final String[] projection = searchControls.getReturningAttributes();
 			return ldapService.search(filter, new ResultMapper<Identity>() {
 
 				public Identity apply(SearchResult result) throws NamingException {
-					return mapIdentity(result);
+					return mapIdentity(result, roles, projection);
 				}
 				public boolean isApplyFilters() {
 					return true;
 				}
-			}, configureSearchControls(ldapService.getSearchControls()));
+			}, searchControls);
 		} catch (NamingException e) {
 			processNamingException(e);
 			throw new IllegalStateException("Unreachable code");
@@ -262,43 +285,54 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 		}
 	}
 
+	/**
+	 * Forget the roles cached while mapping identities, so a role created,
+	 * changed or deleted through the connector is looked up again. Roles
+	 * changed by other means are seen once the role cache time to live has
+	 * passed.
+	 */
+	protected void rolesChanged() {
+		roleCache.clear();
+	}
+
 	protected Identity mapIdentity(SearchResult result) throws NamingException {
+		return mapIdentity(result, roleCache.begin(), null);
+	}
+
+	private Identity mapIdentity(SearchResult result, RoleCache.Enumeration roles, String[] projection) throws NamingException {
 		Attributes attributes = result.getAttributes();
-		String guid = StringUtil.nonNull(attributes.get(directoryConfiguration.getIdentityGuidAttribute()).get().toString());
-		String identityName = StringUtil.nonNull(attributes.get(directoryConfiguration.getIdentityNameAttribute()).get().toString());
-		LdapName dn = new LdapName(result.getName().toString());
-		Name base = directoryConfiguration.getBaseDn();
-		for(int i = base.size() - 1 ; i >= 0; i--) {
-			dn.add(0, base.get(i));	
-		}
+		String guidAttribute = directoryConfiguration.getIdentityGuidAttribute();
+		String nameAttribute = directoryConfiguration.getIdentityNameAttribute();
+		String guid = StringUtil.nonNull(attributeDecoder.decodeFirst(attributes.get(guidAttribute)));
+		String identityName = StringUtil.nonNull(attributeDecoder.decodeFirst(attributes.get(nameAttribute)));
+		String dn = result.getNameInNamespace();
 		
-		NamingEnumeration<? extends Attribute> ne = attributes.getAll();
 		DirectoryIdentity directoryIdentity = new DirectoryIdentity(guid, identityName,dn);
-		directoryIdentity.setAttribute("dn", dn.toString());
-		while(ne.hasMoreElements()) {
-			Attribute a = ne.next();
-			if(!a.getID().equals(directoryConfiguration.getIdentityGuidAttribute()) &&
-					!a.getID().equals(directoryConfiguration.getIdentityNameAttribute())) {
-				List<String> vals = new ArrayList<String>();
-				NamingEnumeration<?> ane = a.getAll();
-				while(ane.hasMoreElements()) {
-					Object val = ane.next();					
-					vals.add(val == null ? null : String.valueOf(val));
-				}
-				directoryIdentity.setAttribute(a.getID(), vals.toArray(new String[0]));
-			}
-		}
+		directoryIdentity.setAttribute("dn", dn);
+		attributeDecoder.decode(attributes, projection, directoryIdentity, guidAttribute, nameAttribute);
 		
 		String idRoleAttr = directoryConfiguration.getIdentityRoleGuidAttribute();
 		if(!StringUtil.isNullOrEmpty(idRoleAttr)) {
-			String roleObjectClass = directoryConfiguration.getRoleObjectClass();
-			String roleNameAttribute = directoryConfiguration.getRoleGuidAttribute();
-			String filter = ldapService.buildObjectClassFilter(roleObjectClass, roleNameAttribute, attributes.get(idRoleAttr).get().toString());
-			directoryIdentity.addRole(getPrincipal(filter, getRoles(filter)));
+			String roleGuid = attributes.get(idRoleAttr).get().toString();
+			Role role = roles.get(idRoleAttr, roleGuid);
+			if(role == null) {
+				String roleObjectClass = directoryConfiguration.getRoleObjectClass();
+				String roleNameAttribute = directoryConfiguration.getRoleGuidAttribute();
+				String filter = ldapService.buildObjectClassFilter(roleObjectClass, roleNameAttribute, roleGuid);
+				role = getPrincipal(filter, getRoles(filter));
+				roles.put(idRoleAttr, roleGuid, role);
+			}
+			directoryIdentity.addRole(role);
 		} else {
 			idRoleAttr = directoryConfiguration.getIdentityRoleNameAttribute();
 			if(!StringUtil.isNullOrEmpty(idRoleAttr)) {
-				directoryIdentity.addRole(getRoleByName(idRoleAttr));				
+				String roleName = attributes.get(idRoleAttr).get().toString();
+				Role role = roles.get(idRoleAttr, roleName);
+				if(role == null) {
+					role = getRoleByName(roleName);
+					roles.put(idRoleAttr, roleName, role);
+				}
+				directoryIdentity.addRole(role);
 			}	
 		}
 		
@@ -355,42 +389,109 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 
 	protected Role mapRole(SearchResult result) throws NamingException {
 		Attributes attributes = result.getAttributes();
-		String guid = StringUtil.nonNull(attributes.get(directoryConfiguration.getRoleGuidAttribute()).get().toString());
-		String identityName = StringUtil.nonNull(attributes.get(directoryConfiguration.getRoleNameAttribute()).get().toString());
-		LdapName dn = new LdapName(result.getName().toString());
-		NamingEnumeration<? extends Attribute> ne = attributes.getAll();
+		String guid = StringUtil.nonNull(attributeDecoder.decodeFirst(attributes.get(directoryConfiguration.getRoleGuidAttribute())));
+		String identityName = StringUtil.nonNull(attributeDecoder.decodeFirst(attributes.get(directoryConfiguration.getRoleNameAttribute())));
+		String dn = result.getNameInNamespace();
 		DirectoryRole directoryRole = new DirectoryRole(guid, identityName,dn);
-		while(ne.hasMoreElements()) {
-			Attribute a = ne.next();
-			if(!a.getID().equals(directoryConfiguration.getIdentityGuidAttribute()) &&
-					!a.getID().equals(directoryConfiguration.getIdentityNameAttribute())) {
-				List<String> vals = new ArrayList<String>();
-				NamingEnumeration<?> ane = a.getAll();
-				while(ane.hasMoreElements()) {
-					Object val = ane.next();					
-					vals.add(val == null ? null : String.valueOf(val));
+		attributeDecoder.decode(attributes, null, directoryRole, directoryConfiguration.getIdentityGuidAttribute(),
+				directoryConfiguration.getIdentityNameAttribute());
+		return directoryRole;
+	}
+
+
+	/**
+	 * Create a feed of changes to identities and roles, using RFC 4533 content
+	 * synchronization if the server supports it, or persistent search if not.
+	 * The feed must be started, and closed when no longer needed.
+	 * 
+	 * @param listener listener
+	 * @param cookie cookie to resume synchronization from, or
+	 *            <code>null</code>
+	 * @return feed
+	 * @throws ConnectorException if the server supports neither
+	 */
+	public DirectoryChangeFeed watch(DirectoryChangeListener listener, byte[] cookie) throws ConnectorException {
+		DirectoryChangeFeed.Mode mode;
+		try {
+			Set<String> supported = ldapService.getSupportedControls();
+			if (supported.contains(SyncRequestControl.OID)) {
+				mode = DirectoryChangeFeed.Mode.SYNC_REPL;
+			} else if (supported.contains(PersistentSearchControl.OID)) {
+				mode = DirectoryChangeFeed.Mode.PERSISTENT_SEARCH;
+			} else {
+				throw new ConnectorException("Directory supports neither content synchronization nor persistent search.");
+			}
+		} catch (NamingException e) {
+			processNamingException(e);
+			throw new IllegalStateException("Unreachable code");
+		} catch (IOException e) {
+			throw new ConnectorException(e.getMessage(), e);
+		}
+
+		final String identityObjectClass = directoryConfiguration.getIdentityObjectClass();
+		final String roleObjectClass = directoryConfiguration.isEnableRoles() ? directoryConfiguration.getRoleObjectClass() : null;
+		String filter = roleObjectClass == null ? String.format("(objectClass=%s)", identityObjectClass)
+				: String.format("(|(objectClass=%s)(objectClass=%s))", identityObjectClass, roleObjectClass);
+		List<String> attributes = new ArrayList<String>(Arrays.asList("*", OBJECT_CLASS_ATTRIBUTE,
+				directoryConfiguration.getIdentityGuidAttribute()));
+		if (roleObjectClass != null) {
+			attributes.add(directoryConfiguration.getRoleGuidAttribute());
+		}
+
+		return new DirectoryChangeFeed(ldapService, directoryConfiguration, mode, filter,
+				attributes.toArray(new String[0]), new ResultMapper<Principal>() {
+					public Principal apply(SearchResult result) throws NamingException {
+						Attribute objectClass = result.getAttributes().get(OBJECT_CLASS_ATTRIBUTE);
+						if (hasValue(objectClass, identityObjectClass)) {
+							return mapIdentity(result);
+						}
+						if (roleObjectClass != null && hasValue(objectClass, roleObjectClass)) {
+							return mapRole(result);
+						}
+						return null;
+					}
+
+					public boolean isApplyFilters() {
+						return true;
+					}
+				}, listener, cookie);
+	}
+
+	private static boolean hasValue(Attribute attribute, String value) throws NamingException {
+		if (attribute != null) {
+			NamingEnumeration<?> values = attribute.getAll();
+			while (values.hasMore()) {
+				if (value.equalsIgnoreCase(String.valueOf(values.next()))) {
+					return true;
 				}
-				directoryRole.setAttribute(a.getID(), vals.toArray(new String[0]));
 			}
 		}
-		return directoryRole;
+		return false;
 	}
 
-
 	protected SearchControls configureSearchControls(SearchControls searchControls) {
 		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
 		// searchControls.setCountLimit(0);
-		searchControls.setReturningObjFlag(true);
+		searchControls.setReturningObjFlag(directoryConfiguration.isReturnObjects());
 		return searchControls;
 	}
 
 	protected SearchControls configureRoleSearchControls(SearchControls searchControls) {
 		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
 		// searchControls.setCountLimit(0);
-		searchControls.setReturningObjFlag(true);
+		searchControls.setReturningObjFlag(directoryConfiguration.isReturnObjects());
 		return searchControls;
 	}
 
+	/**
+	 * Get the decoder used to convert attribute values to strings.
+	 * 
+	 * @return attribute decoder
+	 */
+	protected AttributeDecoder getAttributeDecoder() {
+		return attributeDecoder;
+	}
+
 	protected final String getAttributeValue(Name dn, String attributeName) {
 		
 		try {
@@ -430,10 +531,13 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 		directoryConfiguration = (DirectoryConfiguration) parameters;
 		
 		try {
-			ldapService = new LdapService();
+			ldapService = createLdapService();
 			ldapService.setSocketFactory(socketFactory);
 			ldapService.init(directoryConfiguration);
 			ldapService.openConnection();
+			roleCache = new RoleCache(directoryConfiguration.getRoleCacheTtl());
+			attributeDecoder = new AttributeDecoder(directoryConfiguration.getBinaryEncoding());
+			browseTree = createBrowseTree(directoryConfiguration.getBrowseCacheTtl());
 			Name baseDn = directoryConfiguration.getBaseDn();
 			LOG.info("Looking up " + baseDn);
 			
@@ -514,71 +618,76 @@ public class DirectoryConnector extends AbstractConnector implements BrowseableC
 
 	@Override
 	public Iterator<BrowseNode> getBrowseableNodes(BrowseNode parent) {
-		final SearchControls ctrls = new SearchControls();
-		ctrls.setSearchScope(SearchControls.OBJECT_SCOPE);
-		ctrls.setReturningObjFlag(true);
-		
 		try {
-			 Iterator<List<BrowseNode>> nodes = ldapService.search(new LdapName(parent.toString()),"(objectclass=*)", new ResultMapper<List<BrowseNode>>() {
-
-				@SuppressWarnings("serial")
-				public List<BrowseNode> apply(SearchResult result) throws NamingException {
-					
-					Attribute namingContexts = result.getAttributes().get("namingContexts");
-					if(namingContexts == null) return Collections.emptyList();
-					
-			        @SuppressWarnings("rawtypes")
-					final NamingEnumeration enumeration = namingContexts.getAll();
-					
-			        List<BrowseNode> l = new ArrayList<BrowseNode>();
-			        while(enumeration.hasMore()) { 
-			        	final String node = (String) enumeration.next();
-			            l.add(new BrowseNode() {
-							@Override
-							public boolean isLeaf() {
-								return false;
-							}
-
-							public String toString() {
-								return node;
-							}
-
-						});
-			        }
-			        return l;
-					
-				}
-				
-				public boolean isApplyFilters() {
-					return true;
-				}
-			}, ldapService.getSearchControls());
-			 
-			 return nodes.hasNext() ? nodes.next().iterator() : new ArrayList<BrowseNode>().iterator(); 
+			String dn = parent == null ? null : parent instanceof DirectoryBrowseNode ? ((DirectoryBrowseNode) parent)
+					.getDn() : parent.toString();
+			return browseTree.children(dn).iterator();
 		} catch (NamingException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			processNamingException(e);
+			throw new IllegalStateException("Unreachable code");
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			throw new ConnectorException(e.getMessage(), e);
 		}
-		
-		return null;
-		
-		
-		
-		// Collection<? extends Name> dns = Collections.singleton(new
-		// DistinguishedName(""));
-		// Iterator<List<BrowseNode>> nodes = new
-		// SearchResultsIterator<List<BrowseNode>>(s, dns, "(objectclass=*)",
-		// ctrls);
-		// return nodes.hasNext() ? nodes.next().iterator() : new
-		// ArrayList<BrowseNode>().iterator();
-
-		//Iterator<List<BrowseNode>> nodes = ldapTemplate.search("", "(objectclass=*)", ctrls, s, null).iterator();
-		//return nodes.hasNext() ? nodes.next().iterator() : new ArrayList<BrowseNode>().iterator();
-		//return null;
+	}
+
+	/**
+	 * Forget the cached children of a container and everything below it, so
+	 * they are listed again the next time it is browsed. Call with the parent
+	 * of any container that is created, moved or deleted.
+	 * 
+	 * @param dn DN of container
+	 */
+	public void invalidateBrowseableNodes(String dn) {
+		browseTree.invalidate(dn);
+	}
+
+	/**
+	 * Create the service used to talk to the directory. It is initialised and
+	 * connected when the connector is opened.
+	 * 
+	 * @return LDAP service
+	 */
+	protected LdapService createLdapService() {
+		return new LdapService();
+	}
+
+	private BrowseTree createBrowseTree(long ttl) {
+		return new BrowseTree(new BrowseTree.ChildLoader() {
+			@Override
+			public List<String> load(String parent) throws NamingException, IOException {
+				return listBrowseableNodes(parent);
+			}
+		}, ttl);
+	}
 
+	private List<String> listBrowseableNodes(String parent) throws NamingException, IOException {
+		if (parent == null || parent.trim().length() == 0) {
+			/* The root DSE lists the naming contexts */
+			Set<String> namingContexts = ldapService.getRootAttribute("namingContexts");
+			List<String> roots = new ArrayList<String>(namingContexts);
+			Collections.sort(roots, String.CASE_INSENSITIVE_ORDER);
+			return roots;
+		}
+		SearchControls ctrls = new SearchControls();
+		ctrls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+		ctrls.setReturningAttributes(new String[] { "1.1" });
+		List<String> children = new ArrayList<String>();
+		Iterator<String> it = ldapService.search(new LdapName(parent), directoryConfiguration.getBrowseFilter(),
+				new ResultMapper<String>() {
+
+					public String apply(SearchResult result) throws NamingException {
+						return result.getNameInNamespace();
+					}
+
+					public boolean isApplyFilters() {
+						return false;
+					}
+				}, ctrls);
+		while (it.hasNext()) {
+			children.add(it.next());
+		}
+		Collections.sort(children, String.CASE_INSENSITIVE_ORDER);
+		return children;
 	}
 
 }
\ No newline at end of file
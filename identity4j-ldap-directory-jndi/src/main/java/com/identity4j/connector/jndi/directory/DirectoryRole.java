@@ -24,7 +24,9 @@ package com.identity4j.connector.jndi.directory;
  */
 
 
+import javax.naming.InvalidNameException;
 import javax.naming.Name;
+import javax.naming.ldap.LdapName;
 
 import com.identity4j.connector.principal.RoleImpl;
 
@@ -32,14 +34,36 @@ public class DirectoryRole extends RoleImpl {
 
 	private static final long serialVersionUID = -4687400736606488002L;
 
-	private final Name dn;
+	private final String dnString;
+	private Name dn;
 
     public DirectoryRole(String guid, String principalName, Name dn) {
         super(guid, principalName);
         this.dn = dn;
+        this.dnString = dn.toString();
+    }
+
+    /**
+     * Constructor for mapping search results. The DN is only parsed if it is
+     * asked for.
+     * 
+     * @param guid guid
+     * @param principalName principal name
+     * @param dn distinguished name
+     */
+    public DirectoryRole(String guid, String principalName, String dn) {
+        super(guid, principalName);
+        this.dnString = dn;
     }
 
     public final Name getDn() {
+        if (dn == null) {
+            try {
+                dn = new LdapName(dnString);
+            } catch (InvalidNameException e) {
+                throw new IllegalStateException("Invalid DN " + dnString, e);
+            }
+        }
         return dn;
     }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * The entry change notification control, attached to each change returned
+ * by a persistent search.
+ */
+public class EntryChangeNotificationControl extends BasicControl {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String OID = "2.16.840.1.113730.3.4.7";
+
+	private final int changeType;
+	private final String previousDN;
+	private final long changeNumber;
+
+	public EntryChangeNotificationControl(String id, boolean criticality, byte[] value) throws IOException {
+		super(id, criticality, value);
+		Ber.Reader reader = new Ber.Reader(value).sequence();
+		changeType = reader.enumerated();
+		previousDN = reader.peek() == Ber.OCTET_STRING ? reader.string() : null;
+		changeNumber = reader.peek() == Ber.INTEGER ? reader.integer() : -1;
+	}
+
+	/**
+	 * Find and decode the control in a set of response controls.
+	 * 
+	 * @param controls controls, may be <code>null</code>
+	 * @return control, or <code>null</code> if not present
+	 * @throws IOException if the control cannot be decoded
+	 */
+	public static EntryChangeNotificationControl get(Control[] controls) throws IOException {
+		if (controls != null) {
+			for (Control control : controls) {
+				if (OID.equals(control.getID())) {
+					return control instanceof EntryChangeNotificationControl ? (EntryChangeNotificationControl) control
+							: new EntryChangeNotificationControl(control.getID(), control.isCritical(),
+									control.getEncodedValue());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the kind of change, one of the {@link PersistentSearchControl}
+	 * change types.
+	 * 
+	 * @return change type
+	 */
+	public int getChangeType() {
+		return changeType;
+	}
+
+	/**
+	 * Get the DN of the entry before it was renamed.
+	 * 
+	 * @return previous DN or <code>null</code>
+	 */
+	public String getPreviousDN() {
+		return previousDN;
+	}
+
+	/**
+	 * Get the change log number of the change.
+	 * 
+	 * @return change number, or -1 if not known
+	 */
+	public long getChangeNumber() {
+		return changeNumber;
+	}
+}
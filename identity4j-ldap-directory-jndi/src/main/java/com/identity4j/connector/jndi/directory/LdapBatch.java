@@ -0,0 +1,332 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A sequence of changes that are made on a single connection, rather than
+ * one connection per change. Create with {@link LdapService#createBatch()},
+ * add the changes, and run with {@link LdapService#execute(LdapBatch)}.
+ * <p>
+ * Changes are made in the order they were added and the batch stops at the
+ * first that fails. Consecutive modifies of the same entry are sent as one
+ * request. A run of consecutive modifies of different entries, such as adding
+ * a member to several groups, is independent, so when pipelining is enabled
+ * those requests are sent without waiting for each response. They share the
+ * same connection, and if one fails the others in the run may still have
+ * been made.
+ */
+public class LdapBatch {
+
+	final static Log LOG = LogFactory.getLog(LdapBatch.class);
+
+	private final String passwordAttribute;
+	private final List<Operation> operations = new ArrayList<Operation>();
+	private final List<Name> added = new ArrayList<Name>();
+
+	LdapBatch(String passwordAttribute) {
+		this.passwordAttribute = passwordAttribute;
+	}
+
+	/**
+	 * Create an entry.
+	 * 
+	 * @param name name of entry
+	 * @param attrs attributes
+	 * @return this batch
+	 */
+	public LdapBatch bind(final Name name, final Attribute... attrs) {
+		added.add(name);
+		operations.add(new Operation(name) {
+			@Override
+			void apply(LdapContext context) throws NamingException {
+				Attributes attributes = new BasicAttributes();
+				for (Attribute attribute : attrs) {
+					attributes.put(attribute);
+				}
+				context.bind(name, null, attributes);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Modify an entry.
+	 * 
+	 * @param name name of entry
+	 * @param mods modifications
+	 * @return this batch
+	 */
+	public LdapBatch update(Name name, ModificationItem... mods) {
+		if (mods.length == 0) {
+			return this;
+		}
+		Operation last = operations.isEmpty() ? null : operations.get(operations.size() - 1);
+		if (last instanceof Modify && last.name.equals(name)) {
+			((Modify) last).mods.addAll(Arrays.asList(mods));
+		} else {
+			operations.add(new Modify(name, mods));
+		}
+		return this;
+	}
+
+	/**
+	 * Replace the password of an entry with an encoded password.
+	 * 
+	 * @param account name of entry
+	 * @param encodedPassword encoded password
+	 * @return this batch
+	 * @throws NamingException if account is not a valid name
+	 */
+	public LdapBatch setPassword(String account, byte[] encodedPassword) throws NamingException {
+		return update(new LdapName(account), new ModificationItem(DirContext.REPLACE_ATTRIBUTE,
+				new BasicAttribute(passwordAttribute, encodedPassword)));
+	}
+
+	/**
+	 * Rename an entry.
+	 * 
+	 * @param currentDN current name
+	 * @param newDN new name
+	 * @return this batch
+	 */
+	public LdapBatch rename(final Name currentDN, final Name newDN) {
+		added.add(newDN);
+		operations.add(new Operation(currentDN) {
+			@Override
+			void apply(LdapContext context) throws NamingException {
+				context.rename(currentDN, newDN);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Delete an entry.
+	 * 
+	 * @param name name of entry
+	 * @return this batch
+	 */
+	public LdapBatch unbind(final Name name) {
+		operations.add(new Operation(name) {
+			@Override
+			void apply(LdapContext context) throws NamingException {
+				context.unbind(name);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Get the number of requests that will be sent.
+	 * 
+	 * @return requests
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	public boolean isEmpty() {
+		return operations.isEmpty();
+	}
+
+	/**
+	 * Get the names of entries the batch creates or renames to.
+	 * 
+	 * @return added names
+	 */
+	List<Name> getAddedNames() {
+		return added;
+	}
+
+	/**
+	 * Make the changes on a context. Runs of independent modifies are sent
+	 * from the executor on contexts derived from this one with
+	 * {@link LdapContext#newInstance(javax.naming.ldap.Control[])}, which
+	 * share its connection.
+	 * 
+	 * @param context context
+	 * @param executor executor to pipeline modifies on, or <code>null</code>
+	 *            to send each request after the last is answered
+	 * @param timeout milliseconds to wait for each pipelined modify, or zero
+	 *            to wait as long as it takes
+	 * @throws NamingException on the first change that fails, or if a
+	 *             pipelined modify is not answered in time
+	 * @throws IOException
+	 */
+	void apply(LdapContext context, ExecutorService executor, long timeout) throws NamingException, IOException {
+		int i = 0;
+		while (i < operations.size()) {
+			int end = i + 1;
+			if (executor != null && operations.get(i) instanceof Modify) {
+				Set<Name> names = new HashSet<Name>();
+				names.add(operations.get(i).name);
+				while (end < operations.size() && operations.get(end) instanceof Modify
+						&& names.add(operations.get(end).name)) {
+					end++;
+				}
+			}
+			if (end - i > 1) {
+				pipeline(context, operations.subList(i, end), executor, timeout);
+			} else {
+				operations.get(i).apply(context);
+			}
+			i = end;
+		}
+	}
+
+	private void pipeline(LdapContext context, List<Operation> run, ExecutorService executor, long timeout)
+			throws NamingException {
+		List<LdapContext> derived = new ArrayList<LdapContext>();
+		try {
+			for (int i = 0; i < run.size(); i++) {
+				LdapContext instance = context.newInstance(null);
+				if (instance == null) {
+					/* Not supported by this provider */
+					for (Operation operation : run) {
+						operation.apply(context);
+					}
+					return;
+				}
+				derived.add(instance);
+			}
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < run.size(); i++) {
+				final Operation operation = run.get(i);
+				final LdapContext instance = derived.get(i);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws NamingException {
+						operation.apply(instance);
+						return null;
+					}
+				}));
+			}
+			NamingException failure = null;
+			try {
+				for (Future<Void> future : futures) {
+					try {
+						if (timeout > 0) {
+							future.get(timeout, TimeUnit.MILLISECONDS);
+						} else {
+							future.get();
+						}
+					} catch (ExecutionException ee) {
+						if (failure == null) {
+							failure = toNamingException(ee.getCause());
+						}
+					}
+				}
+			} catch (TimeoutException te) {
+				cancel(futures);
+				throw new NamingException("Timed out waiting for modifications.");
+			} catch (InterruptedException ie) {
+				cancel(futures);
+				Thread.currentThread().interrupt();
+				throw new NamingException("Interrupted waiting for modifications.");
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			for (LdapContext instance : derived) {
+				try {
+					instance.close();
+				} catch (NamingException ne) {
+					LOG.debug("Failed to close derived context.", ne);
+				}
+			}
+		}
+	}
+
+	private static void cancel(List<Future<Void>> futures) {
+		for (Future<Void> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	private static NamingException toNamingException(Throwable cause) {
+		if (cause instanceof NamingException) {
+			return (NamingException) cause;
+		}
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		NamingException ne = new NamingException(cause.getMessage());
+		ne.setRootCause(cause);
+		return ne;
+	}
+
+	abstract static class Operation {
+		final Name name;
+
+		Operation(Name name) {
+			this.name = name;
+		}
+
+		abstract void apply(LdapContext context) throws NamingException;
+	}
+
+	static class Modify extends Operation {
+		final List<ModificationItem> mods;
+
+		Modify(Name name, ModificationItem... mods) {
+			super(name);
+			this.mods = new ArrayList<ModificationItem>(Arrays.asList(mods));
+		}
+
+		@Override
+		void apply(LdapContext context) throws NamingException {
+			context.modifyAttributes(name, mods.toArray(new ModificationItem[mods.size()]));
+		}
+	}
+}
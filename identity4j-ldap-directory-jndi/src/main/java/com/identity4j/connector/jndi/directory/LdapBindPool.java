@@ -0,0 +1,108 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Checks credentials by binding as the user on a pooled connection, so a
+ * login costs a bind rather than a new connection and, over SSL, a TLS
+ * handshake.
+ * <p>
+ * The connections are kept apart from those used for other operations. Each
+ * is re-bound as the user with {@link LdapContext#reconnect(javax.naming.ldap.Control[])},
+ * which on LDAP v3 binds again over the existing connection, and then
+ * re-bound as the service account, so an idle connection never holds a
+ * user's credentials. If the service account cannot be restored the
+ * connection is discarded.
+ */
+public class LdapBindPool {
+
+	final static Log LOG = LogFactory.getLog(LdapBindPool.class);
+
+	private final LdapContextPool pool;
+	private final String servicePrincipal;
+	private final String serviceCredentials;
+
+	/**
+	 * @param pool pool of connections bound as the service account
+	 * @param servicePrincipal service account DN
+	 * @param serviceCredentials service account password
+	 */
+	public LdapBindPool(LdapContextPool pool, String servicePrincipal, String serviceCredentials) {
+		this.pool = pool;
+		this.servicePrincipal = servicePrincipal;
+		this.serviceCredentials = serviceCredentials;
+	}
+
+	/**
+	 * Check the credentials of an account by binding as it.
+	 * 
+	 * @param principal account DN
+	 * @param credentials password
+	 * @throws NamingException if the bind fails, usually an
+	 *             {@link javax.naming.AuthenticationException}
+	 */
+	public void authenticate(String principal, String credentials) throws NamingException {
+		LdapContext context = pool.borrow();
+		boolean restored = false;
+		try {
+			try {
+				bind(context, principal, credentials);
+			} finally {
+				try {
+					bind(context, servicePrincipal, serviceCredentials);
+					restored = true;
+				} catch (NamingException ne) {
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Could not restore service account binding, discarding connection.", ne);
+					}
+				}
+			}
+		} finally {
+			if (!restored) {
+				pool.invalidate(context);
+			}
+			context.close();
+		}
+	}
+
+	public LdapContextPool getPool() {
+		return pool;
+	}
+
+	public void close() {
+		pool.close();
+	}
+
+	private void bind(LdapContext context, String principal, String credentials) throws NamingException {
+		context.addToEnvironment(Context.SECURITY_PRINCIPAL, principal);
+		context.addToEnvironment(Context.SECURITY_CREDENTIALS, credentials);
+		context.reconnect(null);
+	}
+}
@@ -0,0 +1,486 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CommunicationException;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.util.NamedThreadFactory;
+
+/**
+ * Pool of bound {@link LdapContext}s, so that operations do not each pay for
+ * a TCP connect, TLS handshake and bind.
+ * <p>
+ * Contexts are handed out wrapped, and calling {@link LdapContext#close()} on
+ * the wrapper returns the real context to the pool, so existing code that
+ * closes its context when done needs no change. Request controls are reset as
+ * a context is returned, so controls set for one operation never leak into
+ * the next. A context that fails with a {@link CommunicationException} or
+ * {@link ServiceUnavailableException} is discarded rather than returned.
+ * <p>
+ * Idle contexts are kept most recently used first. Those idle for longer
+ * than the maximum idle time are closed by a background task, leaving at
+ * least the minimum size open, and a context that has been idle for longer
+ * than the validation interval is checked with a read of the root DSE before
+ * it is handed out. When all contexts are in use a borrower waits up to the
+ * maximum wait, then is given an unpooled context so work is never blocked
+ * for good by contexts that are never returned.
+ */
+public class LdapContextPool {
+
+	final static Log LOG = LogFactory.getLog(LdapContextPool.class);
+
+	/**
+	 * Creates the contexts held by a pool.
+	 */
+	public interface ContextFactory {
+		LdapContext create() throws NamingException;
+	}
+
+	private final ContextFactory factory;
+	private final LinkedList<Entry> idle = new LinkedList<Entry>();
+	private final Object lock = new Object();
+
+	private int minSize = 0;
+	private int maxSize = 10;
+	private long maxIdleTime = 5 * 60 * 1000;
+	private long validationInterval = 30 * 1000;
+	private long maxWait = 10 * 1000;
+
+	private int active;
+	private int creating;
+	private long created;
+	private boolean closed;
+	private ScheduledExecutorService evictor;
+
+	public LdapContextPool(ContextFactory factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Get the number of contexts kept open even when idle.
+	 *
+	 * @return minimum size
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Get the most contexts that may be open at once, in use or idle.
+	 *
+	 * @return maximum size
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Maximum size must be at least 1.");
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Get how long in milliseconds a context may be idle before it is closed.
+	 * Zero means idle contexts are never closed.
+	 *
+	 * @return maximum idle time
+	 */
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	public void setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+
+	/**
+	 * Get how long in milliseconds a context may be idle before it is
+	 * validated when next borrowed. Zero means always validate, and a negative
+	 * value never.
+	 *
+	 * @return validation interval
+	 */
+	public long getValidationInterval() {
+		return validationInterval;
+	}
+
+	public void setValidationInterval(long validationInterval) {
+		this.validationInterval = validationInterval;
+	}
+
+	/**
+	 * Get how long in milliseconds to wait for a context when all are in use,
+	 * before falling back to an unpooled one.
+	 *
+	 * @return maximum wait
+	 */
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Open the minimum number of contexts and start evicting idle ones.
+	 *
+	 * @throws NamingException if a context cannot be created
+	 */
+	public void start() throws NamingException {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (int i = 0; i < minSize; i++) {
+			entries.add(new Entry(factory.create()));
+		}
+		synchronized (lock) {
+			for (Entry e : entries) {
+				created++;
+				idle.addFirst(e);
+			}
+			if (maxIdleTime > 0 && evictor == null) {
+				long period = Math.max(1000, Math.min(maxIdleTime / 2, 30 * 1000));
+				evictor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("LdapPool"));
+				evictor.scheduleWithFixedDelay(new Runnable() {
+					public void run() {
+						evict();
+					}
+				}, period, period, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Borrow a context, which is returned to the pool when closed.
+	 *
+	 * @param controls request controls to set on the context
+	 * @return context
+	 * @throws NamingException if a context cannot be created
+	 */
+	public LdapContext borrow(Control... controls) throws NamingException {
+		long deadline = System.currentTimeMillis() + maxWait;
+		while (true) {
+			Entry entry = null;
+			boolean create = false;
+			boolean unpooled = false;
+			synchronized (lock) {
+				while (entry == null && !create && !unpooled) {
+					if (closed) {
+						throw new ServiceUnavailableException("Connection pool is closed.");
+					}
+					if (!idle.isEmpty()) {
+						entry = idle.removeFirst();
+						active++;
+					} else if (active + idle.size() + creating < maxSize) {
+						creating++;
+						create = true;
+					} else {
+						long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0) {
+							/* Connected outside the lock, so other borrowers and returns are not held up */
+							unpooled = true;
+							break;
+						}
+						try {
+							lock.wait(remaining);
+						} catch (InterruptedException ie) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedNamingException("Interrupted waiting for a pooled connection.");
+						}
+					}
+				}
+			}
+
+			if (unpooled) {
+				LOG.warn("All " + maxSize + " pooled directory connections are in use, using an unpooled connection.");
+				return wrap(new Entry(factory.create()), false, controls);
+			}
+
+			if (create) {
+				try {
+					entry = new Entry(factory.create());
+				} catch (NamingException ne) {
+					synchronized (lock) {
+						creating--;
+						lock.notifyAll();
+					}
+					throw ne;
+				} catch (RuntimeException re) {
+					synchronized (lock) {
+						creating--;
+						lock.notifyAll();
+					}
+					throw re;
+				}
+				synchronized (lock) {
+					creating--;
+					active++;
+					created++;
+				}
+			} else if (validationInterval >= 0
+					&& System.currentTimeMillis() - entry.lastValidated >= validationInterval && !validate(entry)) {
+				discard(entry);
+				continue;
+			}
+
+			try {
+				return wrap(entry, true, controls);
+			} catch (NamingException ne) {
+				discard(entry);
+				throw ne;
+			}
+		}
+	}
+
+	/**
+	 * Close idle contexts and stop the pool. Contexts in use are closed as
+	 * they are returned.
+	 */
+	public void close() {
+		List<Entry> toClose;
+		synchronized (lock) {
+			closed = true;
+			toClose = new ArrayList<Entry>(idle);
+			idle.clear();
+			if (evictor != null) {
+				evictor.shutdownNow();
+				evictor = null;
+			}
+			lock.notifyAll();
+		}
+		for (Entry e : toClose) {
+			closeQuietly(e.context);
+		}
+	}
+
+	/**
+	 * Have a borrowed context closed rather than returned to the pool when it
+	 * is closed, for example because it has been left in an unknown state.
+	 *
+	 * @param context borrowed context
+	 */
+	public void invalidate(LdapContext context) {
+		if (Proxy.isProxyClass(context.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(context);
+			if (handler instanceof PooledContext) {
+				((PooledContext) handler).broken = true;
+			}
+		}
+	}
+
+	public int getIdleCount() {
+		synchronized (lock) {
+			return idle.size();
+		}
+	}
+
+	public int getActiveCount() {
+		synchronized (lock) {
+			return active;
+		}
+	}
+
+	/**
+	 * Get the total number of pooled contexts created since the pool started.
+	 *
+	 * @return created
+	 */
+	public long getCreatedCount() {
+		synchronized (lock) {
+			return created;
+		}
+	}
+
+	/**
+	 * Close contexts that have been idle too long, keeping the minimum size.
+	 */
+	void evict() {
+		List<Entry> toClose = new ArrayList<Entry>();
+		synchronized (lock) {
+			long now = System.currentTimeMillis();
+			/* Least recently used are at the end */
+			for (Iterator<Entry> it = idle.descendingIterator(); it.hasNext();) {
+				Entry e = it.next();
+				if (active + idle.size() <= minSize || now - e.lastUsed < maxIdleTime) {
+					break;
+				}
+				it.remove();
+				toClose.add(e);
+			}
+		}
+		for (Entry e : toClose) {
+			closeQuietly(e.context);
+		}
+	}
+
+	private boolean validate(Entry entry) {
+		try {
+			SearchControls controls = new SearchControls();
+			controls.setSearchScope(SearchControls.OBJECT_SCOPE);
+			controls.setReturningAttributes(new String[] { "1.1" });
+			controls.setTimeLimit((int) Math.min(Integer.MAX_VALUE, Math.max(1000, maxWait)));
+			entry.context.setRequestControls(null);
+			entry.context.search("", "(objectClass=*)", controls).close();
+			entry.lastValidated = System.currentTimeMillis();
+			return true;
+		} catch (NamingException ne) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Discarding pooled directory connection that failed validation.", ne);
+			}
+			return false;
+		}
+	}
+
+	private void release(Entry entry, boolean broken) {
+		if (!broken) {
+			try {
+				entry.context.setRequestControls(null);
+			} catch (NamingException ne) {
+				broken = true;
+			}
+		}
+		synchronized (lock) {
+			if (!broken && !closed) {
+				active--;
+				entry.lastUsed = System.currentTimeMillis();
+				idle.addFirst(entry);
+				lock.notifyAll();
+				return;
+			}
+		}
+		discard(entry);
+	}
+
+	private void discard(Entry entry) {
+		synchronized (lock) {
+			active--;
+			lock.notifyAll();
+		}
+		closeQuietly(entry.context);
+	}
+
+	private LdapContext wrap(Entry entry, boolean pooled, Control... controls) throws NamingException {
+		entry.context.setRequestControls(controls == null || controls.length == 0 ? null : controls);
+		return (LdapContext) Proxy.newProxyInstance(LdapContextPool.class.getClassLoader(),
+				new Class<?>[] { LdapContext.class }, new PooledContext(entry, pooled));
+	}
+
+	private static void closeQuietly(LdapContext context) {
+		try {
+			context.close();
+		} catch (NamingException ne) {
+		}
+	}
+
+	static class Entry {
+		final LdapContext context;
+		long lastUsed = System.currentTimeMillis();
+		long lastValidated = System.currentTimeMillis();
+
+		Entry(LdapContext context) {
+			this.context = context;
+		}
+	}
+
+	/**
+	 * Passes calls to the borrowed context, returning it to the pool on
+	 * close. Closing more than once has no further effect.
+	 */
+	class PooledContext implements InvocationHandler {
+		private final Entry entry;
+		private final boolean pooled;
+		private volatile boolean broken;
+		private boolean returned;
+
+		PooledContext(Entry entry, boolean pooled) {
+			this.entry = entry;
+			this.pooled = pooled;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			int argc = args == null ? 0 : args.length;
+			if (name.equals("close") && argc == 0) {
+				synchronized (this) {
+					if (returned) {
+						return null;
+					}
+					returned = true;
+				}
+				if (pooled) {
+					release(entry, broken);
+				} else {
+					closeQuietly(entry.context);
+				}
+				return null;
+			} else if (name.equals("equals") && argc == 1) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode") && argc == 0) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("toString") && argc == 0) {
+				return "Pooled[" + entry.context + "]";
+			}
+			synchronized (this) {
+				if (returned) {
+					throw new NamingException("Connection has already been returned to the pool.");
+				}
+			}
+			try {
+				return method.invoke(entry.context, args);
+			} catch (InvocationTargetException ite) {
+				Throwable cause = ite.getCause();
+				if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException) {
+					broken = true;
+				}
+				throw cause;
+			}
+		}
+	}
+}
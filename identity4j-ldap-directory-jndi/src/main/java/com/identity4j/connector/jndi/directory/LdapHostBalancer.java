@@ -0,0 +1,353 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.identity4j.util.NamedThreadFactory;
+
+/**
+ * Spreads operations over several directory controllers, each with its own
+ * {@link LdapContextPool}.
+ * <p>
+ * A controller is marked down as soon as connecting to it, or an operation
+ * on it, fails with a {@link CommunicationException} or
+ * {@link ServiceUnavailableException}, and is skipped until a background
+ * health check can connect to it and read its root DSE again. If every
+ * controller is down, the one that has been down longest is tried anyway.
+ */
+public class LdapHostBalancer {
+
+	final static Log LOG = LogFactory.getLog(LdapHostBalancer.class);
+
+	/**
+	 * How a controller is chosen for each operation.
+	 */
+	public enum Policy {
+		/**
+		 * Always use the first controller that is up, as JNDI does with a
+		 * list of provider URLs.
+		 */
+		FAILOVER,
+		/**
+		 * Take turns between the controllers that are up.
+		 */
+		ROUND_ROBIN,
+		/**
+		 * Use the controller that is up with the fewest connections in use.
+		 */
+		LEAST_OUTSTANDING
+	}
+
+	/**
+	 * Creates contexts connected to a particular controller.
+	 */
+	public interface HostContextFactory {
+		LdapContext create(String providerUrl) throws NamingException;
+	}
+
+	private final List<Host> hosts = new ArrayList<Host>();
+	private final HostContextFactory factory;
+	private final AtomicInteger next = new AtomicInteger();
+	private Policy policy = Policy.ROUND_ROBIN;
+	private long healthCheckInterval = 10000;
+	private ScheduledExecutorService checker;
+
+	/**
+	 * @param providerUrls one provider URL per controller
+	 * @param factory creates contexts for a controller
+	 */
+	public LdapHostBalancer(List<String> providerUrls, final HostContextFactory factory) {
+		this.factory = factory;
+		for (final String url : providerUrls) {
+			hosts.add(new Host(url, new LdapContextPool(new LdapContextPool.ContextFactory() {
+				@Override
+				public LdapContext create() throws NamingException {
+					return factory.create(url);
+				}
+			})));
+		}
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public void setPolicy(Policy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * Get how often in milliseconds controllers that are down are checked.
+	 * 
+	 * @return health check interval
+	 */
+	public long getHealthCheckInterval() {
+		return healthCheckInterval;
+	}
+
+	public void setHealthCheckInterval(long healthCheckInterval) {
+		this.healthCheckInterval = healthCheckInterval;
+	}
+
+	/**
+	 * Get the pool for each controller, in configured order, to change their
+	 * settings before starting.
+	 * 
+	 * @return pools
+	 */
+	public List<LdapContextPool> getPools() {
+		List<LdapContextPool> pools = new ArrayList<LdapContextPool>();
+		for (Host host : hosts) {
+			pools.add(host.pool);
+		}
+		return pools;
+	}
+
+	public int getHostCount() {
+		return hosts.size();
+	}
+
+	/**
+	 * Get the provider URLs of the controllers currently up.
+	 * 
+	 * @return provider URLs
+	 */
+	public List<String> getHealthyHosts() {
+		List<String> up = new ArrayList<String>();
+		for (Host host : hosts) {
+			if (host.downSince == 0) {
+				up.add(host.url);
+			}
+		}
+		return Collections.unmodifiableList(up);
+	}
+
+	/**
+	 * Start the pools and the health checks. A controller that cannot be
+	 * reached is marked down rather than failing the start, unless none can.
+	 * 
+	 * @throws NamingException if no controller can be reached
+	 */
+	public synchronized void start() throws NamingException {
+		NamingException last = null;
+		for (Host host : hosts) {
+			try {
+				host.pool.start();
+			} catch (NamingException ne) {
+				markDown(host, ne);
+				last = ne;
+			}
+		}
+		if (last != null && getHealthyHosts().isEmpty()) {
+			throw last;
+		}
+		if (healthCheckInterval > 0 && checker == null) {
+			checker = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("LdapHealth"));
+			checker.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					checkHealth();
+				}
+			}, healthCheckInterval, healthCheckInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Borrow a context from a controller chosen by the policy, moving on to
+	 * the next if it cannot be reached. The context is returned to its pool
+	 * when closed.
+	 * 
+	 * @param controls request controls
+	 * @return context
+	 * @throws NamingException if no controller can be reached
+	 */
+	public LdapContext borrow(Control... controls) throws NamingException {
+		NamingException last = null;
+		for (int attempt = 0; attempt < hosts.size(); attempt++) {
+			Host host = choose();
+			try {
+				final LdapContext context = host.pool.borrow(controls);
+				return (LdapContext) Proxy.newProxyInstance(LdapHostBalancer.class.getClassLoader(),
+						new Class<?>[] { LdapContext.class }, new HostContext(host, context));
+			} catch (NamingException ne) {
+				if (!isConnectionFailure(ne)) {
+					throw ne;
+				}
+				markDown(host, ne);
+				last = ne;
+			}
+		}
+		throw last;
+	}
+
+	/**
+	 * Stop the health checks and close the pools.
+	 */
+	public synchronized void close() {
+		if (checker != null) {
+			checker.shutdownNow();
+			checker = null;
+		}
+		for (Host host : hosts) {
+			host.pool.close();
+		}
+	}
+
+	/**
+	 * Try to connect to each controller that is down, marking it up again if
+	 * its root DSE can be read.
+	 */
+	void checkHealth() {
+		for (Host host : hosts) {
+			if (host.downSince == 0) {
+				continue;
+			}
+			try {
+				LdapContext context = factory.create(host.url);
+				try {
+					SearchControls controls = new SearchControls();
+					controls.setSearchScope(SearchControls.OBJECT_SCOPE);
+					controls.setReturningAttributes(new String[] { "1.1" });
+					context.search("", "(objectClass=*)", controls).close();
+				} finally {
+					context.close();
+				}
+				LOG.info("Directory controller " + host.url + " is up again.");
+				host.downSince = 0;
+			} catch (NamingException ne) {
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Directory controller " + host.url + " is still down.", ne);
+				}
+			}
+		}
+	}
+
+	Host choose() {
+		int size = hosts.size();
+		int start = policy == Policy.FAILOVER ? 0 : (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+		Host chosen = null;
+		Host longestDown = null;
+		for (int i = 0; i < size; i++) {
+			Host host = hosts.get((start + i) % size);
+			if (host.downSince != 0) {
+				if (longestDown == null || host.downSince < longestDown.downSince) {
+					longestDown = host;
+				}
+				continue;
+			}
+			if (policy != Policy.LEAST_OUTSTANDING) {
+				return host;
+			}
+			if (chosen == null || host.pool.getActiveCount() < chosen.pool.getActiveCount()) {
+				chosen = host;
+			}
+		}
+		return chosen == null ? longestDown : chosen;
+	}
+
+	void markDown(Host host, NamingException cause) {
+		if (host.downSince == 0) {
+			host.downSince = System.currentTimeMillis();
+			LOG.warn("Directory controller " + host.url + " is down. " + cause.getMessage());
+		}
+	}
+
+	static boolean isConnectionFailure(NamingException ne) {
+		/* A thread that was interrupted says nothing about the controller */
+		if (Thread.currentThread().isInterrupted()) {
+			return false;
+		}
+		return ne instanceof CommunicationException || ne instanceof ServiceUnavailableException;
+	}
+
+	static class Host {
+		final String url;
+		final LdapContextPool pool;
+		volatile long downSince;
+
+		Host(String url, LdapContextPool pool) {
+			this.url = url;
+			this.pool = pool;
+		}
+
+		@Override
+		public String toString() {
+			return url;
+		}
+	}
+
+	/**
+	 * Marks the controller down if an operation fails to reach it.
+	 */
+	class HostContext implements InvocationHandler {
+		private final Host host;
+		private final LdapContext context;
+
+		HostContext(Host host, LdapContext context) {
+			this.host = host;
+			this.context = context;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			int argc = args == null ? 0 : args.length;
+			if (name.equals("equals") && argc == 1) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode") && argc == 0) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("toString") && argc == 0) {
+				return host.url + "[" + context + "]";
+			}
+			try {
+				return method.invoke(context, args);
+			} catch (InvocationTargetException ite) {
+				Throwable cause = ite.getCause();
+				if (cause instanceof NamingException && isConnectionFailure((NamingException) cause)) {
+					markDown(host, (NamingException) cause);
+				}
+				throw cause;
+			}
+		}
+	}
+}
@@ -22,20 +22,34 @@ package com.identity4j.connector.jndi.directory;
  * #L%
  */
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.Context;
 import javax.naming.Name;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.PartialResultException;
+import javax.naming.SizeLimitExceededException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
@@ -57,7 +71,13 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import com.identity4j.connector.exception.ConnectorException;
+import com.identity4j.connector.jndi.directory.SearchBasePlanner.SearchBase;
+import com.identity4j.util.NamedThreadFactory;
+import com.identity4j.util.PrefetchingConcatIterator;
 import com.identity4j.util.crypt.impl.DefaultEncoderManager;
+import com.identity4j.util.events.OperationEvent;
+import com.identity4j.util.events.OperationEvents;
+import com.identity4j.util.events.OperationKind;
 
 public class LdapService {
 
@@ -68,9 +88,23 @@ public class LdapService {
 
 	public static final String OBJECT_CLASS_ATTRIBUTE = "objectClass";
 
+	private static final long SEARCH_BASES_TTL = TimeUnit.MINUTES.toMillis(5);
+	private static final int MAX_CHILDREN = 100;
+	private static final long DEFAULT_PREFETCH_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
 	private DirectoryConfiguration configuration;
 	private SocketFactory socketFactory;
 	private Hashtable<String, String> env = new Hashtable<String, String>();
+	private volatile LdapContextPool pool;
+	private volatile LdapBindPool bindPool;
+	private volatile LdapHostBalancer balancer;
+	private ServerSort serverSort;
+	private ExecutorService prefetchExecutor;
+	private ExecutorService searchExecutor;
+	private ExecutorService writeExecutor;
+	private final ThreadLocal<Boolean> searchWorker = new ThreadLocal<Boolean>();
+	private volatile List<SearchBase> searchBases;
+	private volatile long searchBasesTime;
 
 	public void openConnection() throws NamingException, IOException {
 		checkLDAPHost();
@@ -82,10 +116,66 @@ public class LdapService {
 						configuration.getSecurityProtocol().equalsIgnoreCase(DirectoryConfiguration.SSL),
 						configuration.getControllerHosts()));
 		configureSocket(env);
+		closePool();
+		searchBases = null;
+		String[] providerUrls = configuration.getProviderURLList();
+		if (configuration.isConnectionPool() && providerUrls.length > 1
+				&& configuration.getLoadBalancing() != LdapHostBalancer.Policy.FAILOVER) {
+			LdapHostBalancer balancer = new LdapHostBalancer(Arrays.asList(providerUrls),
+					new LdapHostBalancer.HostContextFactory() {
+						@Override
+						public LdapContext create(String providerUrl) throws NamingException {
+							Hashtable<String, String> hostEnv = new Hashtable<String, String>(env);
+							hostEnv.put(Context.PROVIDER_URL, providerUrl);
+							return createConnection(hostEnv);
+						}
+					});
+			balancer.setPolicy(configuration.getLoadBalancing());
+			balancer.setHealthCheckInterval(configuration.getHealthCheckInterval());
+			for (LdapContextPool pool : balancer.getPools()) {
+				pool.setMinSize(configuration.getPoolMinSize());
+				pool.setMaxSize(configuration.getPoolMaxSize());
+				pool.setMaxIdleTime(configuration.getPoolMaxIdle());
+				pool.setValidationInterval(configuration.getPoolValidationInterval());
+				pool.setMaxWait(configuration.getTimeout());
+			}
+			balancer.start();
+			this.balancer = balancer;
+		} else if (configuration.isConnectionPool()) {
+			LdapContextPool pool = new LdapContextPool(new LdapContextPool.ContextFactory() {
+				@Override
+				public LdapContext create() throws NamingException {
+					return createConnection();
+				}
+			});
+			pool.setMinSize(configuration.getPoolMinSize());
+			pool.setMaxSize(configuration.getPoolMaxSize());
+			pool.setMaxIdleTime(configuration.getPoolMaxIdle());
+			pool.setValidationInterval(configuration.getPoolValidationInterval());
+			pool.setMaxWait(configuration.getTimeout());
+			pool.start();
+			this.pool = pool;
+		}
+		if (configuration.isAuthenticationPool()) {
+			LdapContextPool pool = new LdapContextPool(new LdapContextPool.ContextFactory() {
+				@Override
+				public LdapContext create() throws NamingException {
+					return createConnection();
+				}
+			});
+			pool.setMaxSize(configuration.getAuthenticationPoolMaxSize());
+			pool.setMaxIdleTime(configuration.getPoolMaxIdle());
+			pool.setValidationInterval(configuration.getPoolValidationInterval());
+			pool.setMaxWait(configuration.getTimeout());
+			pool.start();
+			bindPool = new LdapBindPool(pool, configuration.getServiceAccountDn(),
+					configuration.getServiceAccountPassword());
+		}
 		lookupContext(configuration.getBaseDn());
 	}
 
 	private void configureSocket(Hashtable<String, String> env) {
+		/* Connections are pooled by LdapContextPool, not by JNDI */
 		env.put("com.sun.jndi.ldap.connect.pool", "false");
 		env.put("com.sun.jndi.ldap.connect.pool.debug", "all");
 		env.put("java.naming.factory.initial", "com.sun.jndi.ldap.LdapCtxFactory");
@@ -100,16 +190,102 @@ public class LdapService {
 		this.socketFactory = socketFactory;
 	}
 
+	/**
+	 * Get a context bound as the service account. When pooling is enabled the
+	 * context comes from the pool and is returned to it when closed.
+	 * 
+	 * @param controls request controls
+	 * @return context
+	 * @throws NamingException
+	 */
 	public LdapContext getConnection(Control... controls) throws NamingException {
+		LdapHostBalancer balancer = this.balancer;
+		if (balancer != null) {
+			return balancer.borrow(controls);
+		}
+		LdapContextPool pool = this.pool;
+		if (pool != null) {
+			return pool.borrow(controls);
+		}
+		LdapContext ctx = createConnection();
+		ctx.setRequestControls(controls);
+		return ctx;
+	}
+
+	/**
+	 * Get the pool of service account contexts, or <code>null</code> when
+	 * pooling is disabled.
+	 * 
+	 * @return pool
+	 */
+	public LdapContextPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Open a connection that is not pooled and has no read timeout, for long
+	 * running operations such as persistent searches. The caller must close
+	 * it.
+	 * 
+	 * @return context
+	 * @throws NamingException
+	 */
+	public LdapContext openDedicatedConnection() throws NamingException {
+		Hashtable<String, String> env = new Hashtable<String, String>(this.env);
+		env.remove("com.sun.jndi.ldap.read.timeout");
+		env.put("com.sun.jndi.ldap.connect.pool", "false");
+		return createConnection(env);
+	}
+
+	/**
+	 * Get the OIDs of the controls the server supports, from the root DSE.
+	 * 
+	 * @return supported controls
+	 * @throws NamingException
+	 * @throws IOException
+	 */
+	public Set<String> getSupportedControls() throws NamingException, IOException {
+		return getRootAttribute("supportedControl");
+	}
+
+	/**
+	 * Get the values of an attribute of the root DSE, such as
+	 * <code>namingContexts</code>.
+	 * 
+	 * @param name attribute name
+	 * @return values, empty if there are none
+	 * @throws NamingException
+	 * @throws IOException
+	 */
+	public Set<String> getRootAttribute(final String name) throws NamingException, IOException {
+		return processReadBlock("lookup", null, true, new Block<Set<String>>() {
+			@Override
+			public Set<String> apply(LdapContext context) throws NamingException {
+				Set<String> values = new LinkedHashSet<String>();
+				Attribute attribute = context.getAttributes("", new String[] { name }).get(name);
+				if (attribute != null) {
+					NamingEnumeration<?> en = attribute.getAll();
+					while (en.hasMore()) {
+						values.add(String.valueOf(en.next()));
+					}
+				}
+				return values;
+			}
+		});
+	}
+
+	private LdapContext createConnection() throws NamingException {
+		return createConnection(env);
+	}
+
+	private LdapContext createConnection(Hashtable<String, String> env) throws NamingException {
 		if (socketFactory != null) {
 			env.put(LDAP_SOCKET_FACTORY, ThreadLocalSocketFactory.class.getName());
 			ThreadLocalSocketFactory.set(socketFactory);
 		}
 		configureSocket(env);
 		try {
-			InitialLdapContext ctx = new InitialLdapContext(env, null);
-			ctx.setRequestControls(controls);
-			return ctx;
+			return new InitialLdapContext(env, null);
 		} finally {
 			if (socketFactory != null) {
 				ThreadLocalSocketFactory.remove();
@@ -143,11 +319,34 @@ public class LdapService {
 	}
 
 	public void authenticate(String account, String password) throws IOException, NamingException {
-		close(getConnection(account, password));
+		OperationEvent event = beginEvent("authenticate", account);
+		try {
+			LdapBindPool bindPool = this.bindPool;
+			if (bindPool == null) {
+				close(getConnection(account, password));
+			} else {
+				if (socketFactory != null) {
+					ThreadLocalSocketFactory.set(socketFactory);
+				}
+				try {
+					bindPool.authenticate(account, password);
+				} finally {
+					if (socketFactory != null) {
+						ThreadLocalSocketFactory.remove();
+					}
+				}
+			}
+			event.succeeded();
+		} catch (NamingException ne) {
+			event.failed(ne);
+			throw ne;
+		} finally {
+			event.end();
+		}
 	}
 
 	public void setPassword(final String account, final char[] newPassword) throws NamingException, IOException {
-		processBlock(new Block<Void>() {
+		processBlock("setPassword", account, new Block<Void>() {
 
 			public Void apply(LdapContext context) throws NamingException {
 				ModificationItem[] mods = new ModificationItem[1];
@@ -163,7 +362,7 @@ public class LdapService {
 
 	public void setPassword(final String account, final byte[] encodedPassword, Control... controls)
 			throws NamingException, IOException {
-		processBlock(new Block<Void>() {
+		processBlock("setPassword", account, new Block<Void>() {
 
 			public Void apply(LdapContext context) throws NamingException {
 				ModificationItem[] mods = new ModificationItem[1];
@@ -176,6 +375,49 @@ public class LdapService {
 	}
 
 	public void close() {
+		synchronized (this) {
+			if (prefetchExecutor != null) {
+				prefetchExecutor.shutdownNow();
+				prefetchExecutor = null;
+			}
+			if (searchExecutor != null) {
+				searchExecutor.shutdownNow();
+				searchExecutor = null;
+			}
+			if (writeExecutor != null) {
+				writeExecutor.shutdownNow();
+				writeExecutor = null;
+			}
+		}
+		closePool();
+	}
+
+	private void closePool() {
+		LdapContextPool pool = this.pool;
+		this.pool = null;
+		if (pool != null) {
+			pool.close();
+		}
+		LdapBindPool bindPool = this.bindPool;
+		this.bindPool = null;
+		if (bindPool != null) {
+			bindPool.close();
+		}
+		LdapHostBalancer balancer = this.balancer;
+		this.balancer = null;
+		if (balancer != null) {
+			balancer.close();
+		}
+	}
+
+	/**
+	 * Get the controller load balancer, or <code>null</code> when all
+	 * operations go to the first controller that can be reached.
+	 * 
+	 * @return balancer
+	 */
+	public LdapHostBalancer getBalancer() {
+		return balancer;
 	}
 
 	private void close(DirContext ctx) {
@@ -197,10 +439,36 @@ public class LdapService {
 
 	public void init(DirectoryConfiguration configuration) {
 		this.configuration = configuration;
+		searchBases = null;
+		serverSort = ServerSort.parse(configuration.getSortAttributes(), configuration.isSortCritical());
+	}
+
+	/**
+	 * Get the sort the server is asked to apply to paged searches, or
+	 * <code>null</code> if results are returned in the server's own order.
+	 * 
+	 * @return server sort
+	 */
+	public ServerSort getServerSort() {
+		return serverSort;
+	}
+
+	/**
+	 * Create the request controls for a page of a search, sorted if
+	 * configured.
+	 */
+	Control[] createPageControls(byte[] cookie) throws IOException {
+		if (serverSort != null) {
+			return serverSort.pageControls(configuration.getMaxPageSize(), cookie);
+		}
+		if (cookie != null) {
+			return new Control[] { new PagedResultsControl(configuration.getMaxPageSize(), cookie, Control.CRITICAL) };
+		}
+		return new Control[] { new PagedResultsControl(configuration.getMaxPageSize(), Control.CRITICAL) };
 	}
 
 	public void rename(final LdapName currentDN, final LdapName newDN) throws NamingException, IOException {
-		processBlock(new Block<Void>() {
+		processBlock("rename", currentDN, new Block<Void>() {
 
 			@Override
 			public Void apply(LdapContext context) throws NamingException, IOException {
@@ -208,28 +476,275 @@ public class LdapService {
 				return null;
 			}
 		});
+		entryAdded(newDN);
 	}
 
+	/**
+	 * Search from the configured base DN. When the mapper applies the
+	 * include and exclude filters to a subtree search, and parallel search is
+	 * enabled, one search is made per include, excluded subtrees are left out
+	 * where possible, and the searches are run at the same time on separate
+	 * connections. Results are returned in include order, with names relative
+	 * to the base DN as for a single search. A single search is always used
+	 * when the server is asked to sort, and when searching while mapping the
+	 * results of a parallel search (such as a role lookup), which then runs
+	 * on the calling thread. Waiting for the search threads from one of them
+	 * could otherwise leave none free to run the search.
+	 * 
+	 * @param filter filter
+	 * @param resultMapper result mapper
+	 * @param searchControls search controls
+	 * @return results
+	 * @throws NamingException
+	 * @throws IOException
+	 */
 	public <T> Iterator<T> search(String filter, ResultMapper<T> resultMapper, SearchControls searchControls)
 			throws NamingException, IOException {
-		return search(configuration.getBaseDn(), filter, resultMapper, searchControls);
+		Name baseDn = configuration.getBaseDn();
+		/* Results of separate searches cannot be sorted as a whole */
+		if (resultMapper.isApplyFilters() && configuration.isParallelSearch() && serverSort == null
+				&& searchControls.getSearchScope() == SearchControls.SUBTREE_SCOPE && searchWorker.get() == null) {
+			List<SearchBase> bases = getSearchBases();
+			if (bases != null && (bases.size() != 1 || bases.get(0).scope != SearchControls.SUBTREE_SCOPE
+					|| !bases.get(0).dn.equals(baseDn))) {
+				return search(bases, filter, resultMapper, searchControls);
+			}
+		}
+		return search(baseDn, filter, resultMapper, searchControls);
 	}
 
 	public <T> Iterator<T> search(final Name baseDN, final String filter, final ResultMapper<T> resultMapper,
 			final SearchControls searchControls) throws NamingException, IOException {
-		return processBlockNoClose(new Block<Iterator<T>>() {
+		final Iterator<T> it = openSearch(baseDN, filter, resultMapper, searchControls);
+		if (!configuration.isPrefetchPages() || searchWorker.get() != null) {
+			return it;
+		}
+		return new SortedPrefetchingIterator<T>(getPrefetchExecutor(), Collections.singletonList(new Callable<Iterator<T>>() {
+			@Override
+			public Iterator<T> call() {
+				return it;
+			}
+		}), configuration.getMaxPageSize(), getPrefetchIdleTimeout(), it);
+	}
+
+	/**
+	 * Get how long a read ahead search waits for a consumer that has stopped
+	 * taking results before giving up and releasing its connection. Callers
+	 * of the connector API cannot close an enumeration they stop reading
+	 * early, so this is kept as short as the read timeout.
+	 */
+	private long getPrefetchIdleTimeout() {
+		long readTimeout = configuration.getReadTimeout();
+		return readTimeout > 0 ? readTimeout : DEFAULT_PREFETCH_IDLE_TIMEOUT;
+	}
+
+	/**
+	 * Reads a search ahead, reporting whether the server sorted it.
+	 */
+	static class SortedPrefetchingIterator<T> extends PrefetchingConcatIterator<T> implements SortedResults {
+		private final Iterator<T> search;
+
+		SortedPrefetchingIterator(Executor executor, List<? extends Callable<? extends Iterator<? extends T>>> sources,
+				int bufferSize, long idleTimeout, Iterator<T> search) {
+			super(executor, sources, bufferSize, idleTimeout);
+			this.search = search;
+		}
+
+		@Override
+		public Boolean isSortedByServer() {
+			return search instanceof SortedResults ? ((SortedResults) search).isSortedByServer() : null;
+		}
+	}
+
+	private <T> Iterator<T> search(List<SearchBase> bases, final String filter, ResultMapper<T> resultMapper,
+			SearchControls searchControls) {
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Searching " + bases + " for " + filter);
+		}
+		List<Callable<Iterator<T>>> sources = new ArrayList<Callable<Iterator<T>>>();
+		for (final SearchBase base : bases) {
+			final SearchControls controls = new SearchControls(base.scope, searchControls.getCountLimit(),
+					searchControls.getTimeLimit(), searchControls.getReturningAttributes(),
+					searchControls.getReturningObjFlag(), searchControls.getDerefLinkFlag());
+			final ResultMapper<T> mapper = rebase(base.dn, resultMapper);
+			sources.add(new Callable<Iterator<T>>() {
+				@Override
+				public Iterator<T> call() throws NamingException, IOException {
+					return openSearch(base.dn, filter, mapper, controls);
+				}
+			});
+		}
+		return new PrefetchingConcatIterator<T>(getSearchExecutor(), sources, configuration.getMaxPageSize(),
+				getPrefetchIdleTimeout());
+	}
+
+	/**
+	 * Wrap a mapper so the names of results found under a search base are
+	 * made relative to the configured base DN.
+	 */
+	private <T> ResultMapper<T> rebase(Name searchBase, final ResultMapper<T> resultMapper) {
+		int baseSize = configuration.getBaseDn().size();
+		if (searchBase.size() <= baseSize) {
+			return resultMapper;
+		}
+		final Name prefix = searchBase.getSuffix(baseSize);
+		return new ResultMapper<T>() {
+			@Override
+			public T apply(SearchResult result) throws NamingException, IOException {
+				if (result.isRelative()) {
+					LdapName name = new LdapName(result.getName());
+					name.addAll(0, prefix);
+					result.setName(name.toString());
+				}
+				return resultMapper.apply(result);
+			}
+
+			@Override
+			public boolean isApplyFilters() {
+				return resultMapper.isApplyFilters();
+			}
+		};
+	}
+
+	/**
+	 * Get the searches that cover the includes without reading the excludes.
+	 * The plan is kept for a few minutes, as working it out may take several
+	 * searches, or until an entry is created or renamed through this service
+	 * directly below an include that was split into its children. If it
+	 * cannot be worked out <code>null</code> is returned.
+	 * 
+	 * @return search bases
+	 */
+	List<SearchBase> getSearchBases() {
+		List<SearchBase> bases = searchBases;
+		if (bases == null || System.currentTimeMillis() - searchBasesTime > SEARCH_BASES_TTL) {
+			try {
+				bases = new SearchBasePlanner(new SearchBasePlanner.ChildLister() {
+					@Override
+					public List<Name> list(Name parent) throws NamingException, IOException {
+						return listChildren(parent);
+					}
+				}).plan(configuration.getIncludes(), configuration.getExcludes());
+			} catch (Exception e) {
+				LOG.warn("Could not plan parallel search, searching from the base DN.", e);
+				bases = null;
+			}
+			searchBasesTime = System.currentTimeMillis();
+			searchBases = bases;
+		}
+		return bases;
+	}
+
+	/**
+	 * Forget the search plan if an entry has been added that it would miss,
+	 * being a new child of an include that is only searched through its
+	 * children.
+	 */
+	private void entryAdded(Name dn) {
+		List<SearchBase> bases = searchBases;
+		if (bases == null) {
+			return;
+		}
+		for (SearchBase base : bases) {
+			if (base.scope == SearchControls.OBJECT_SCOPE && dn.size() == base.dn.size() + 1
+					&& dn.startsWith(base.dn)) {
+				searchBases = null;
+				return;
+			}
+		}
+	}
+
+	private List<Name> listChildren(final Name parent) throws NamingException, IOException {
+		return processReadBlock("list", parent, true, new Block<List<Name>>() {
+			@Override
+			public List<Name> apply(LdapContext context) throws NamingException {
+				SearchControls controls = new SearchControls();
+				controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+				controls.setReturningAttributes(new String[] { "1.1" });
+				controls.setCountLimit(MAX_CHILDREN);
+				List<Name> children = new ArrayList<Name>();
+				NamingEnumeration<SearchResult> results = context.search(parent, "(objectClass=*)", controls);
+				try {
+					while (results.hasMore()) {
+						children.add(new LdapName(results.next().getNameInNamespace()));
+					}
+				} catch (SizeLimitExceededException slee) {
+					return null;
+				} finally {
+					results.close();
+				}
+				return children;
+			}
+		});
+	}
+
+	private <T> Iterator<T> openSearch(final Name baseDN, final String filter, final ResultMapper<T> resultMapper,
+			final SearchControls searchControls) throws NamingException, IOException {
+		return processReadBlock("search", null, false, new Block<Iterator<T>>() {
 
 			public Iterator<T> apply(LdapContext context) throws IOException, NamingException {
 				if("true".equals(System.getProperty("identity4j.useNewIterator", "false")))
-					return new SearchResultsIterator<T>(Arrays.asList(baseDN), filter, searchControls, configuration, resultMapper, context);
+					return new SearchResultsIterator<T>(Arrays.asList(baseDN), filter, searchControls, configuration, resultMapper, context, LdapService.this);
 				else
 					return new OldSearchResultIterator<T>(baseDN, context, filter, resultMapper, searchControls);
 			}
 		});
 	}
 
+	/**
+	 * Get the executor that reads ahead paged searches.
+	 * 
+	 * @return executor
+	 */
+	protected synchronized ExecutorService getPrefetchExecutor() {
+		if (prefetchExecutor == null) {
+			prefetchExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("LdapPrefetch"));
+		}
+		return prefetchExecutor;
+	}
+
+	/**
+	 * Get the executor that runs the searches of a parallel search. Its
+	 * threads are marked so searches made from them are not run in parallel
+	 * again.
+	 * 
+	 * @return executor
+	 */
+	protected synchronized ExecutorService getSearchExecutor() {
+		if (searchExecutor == null) {
+			final ThreadFactory threads = new NamedThreadFactory("LdapSearch");
+			searchExecutor = Executors.newFixedThreadPool(Math.max(1, configuration.getSearchThreads()),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							return threads.newThread(new Runnable() {
+								@Override
+								public void run() {
+									searchWorker.set(Boolean.TRUE);
+									r.run();
+								}
+							});
+						}
+					});
+		}
+		return searchExecutor;
+	}
+
+	/**
+	 * Get the executor that sends pipelined modifies. It is kept apart from
+	 * the search executor, so writes never wait behind searches.
+	 * 
+	 * @return executor
+	 */
+	protected synchronized ExecutorService getWriteExecutor() {
+		if (writeExecutor == null) {
+			writeExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("LdapWrite"));
+		}
+		return writeExecutor;
+	}
+
 	public void unbind(final Name name) throws NamingException, IOException {
-		processBlock(new Block<Void>() {
+		processBlock("unbind", name, new Block<Void>() {
 
 			@Override
 			public Void apply(LdapContext context) throws NamingException, IOException {
@@ -240,7 +755,7 @@ public class LdapService {
 	}
 
 	public void update(final Name name, final ModificationItem... mods) throws NamingException, IOException {
-		processBlock(new Block<Void>() {
+		processBlock("modify", name, new Block<Void>() {
 
 			@Override
 			public Void apply(LdapContext context) throws NamingException, IOException {
@@ -251,7 +766,7 @@ public class LdapService {
 	}
 
 	public void bind(final Name name, final Attribute... attrs) throws NamingException, IOException {
-		processBlock(new Block<Void>() {
+		processBlock("bind", name, new Block<Void>() {
 
 			@Override
 			public Void apply(LdapContext context) throws NamingException, IOException {
@@ -263,10 +778,70 @@ public class LdapService {
 				return null;
 			}
 		});
+		entryAdded(name);
+	}
+
+	/**
+	 * Create an empty batch of changes, to be made on one connection by
+	 * {@link #execute(LdapBatch)}.
+	 * 
+	 * @return batch
+	 */
+	public LdapBatch createBatch() {
+		return new LdapBatch(configuration.getIdentityPasswordAttribute());
+	}
+
+	/**
+	 * Make a batch of changes on a single connection, in order, stopping at
+	 * the first that fails.
+	 * 
+	 * @param batch batch
+	 * @throws NamingException
+	 * @throws IOException
+	 */
+	public void execute(final LdapBatch batch) throws NamingException, IOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			processBlock("batch", null, new Block<Void>() {
+
+				@Override
+				public Void apply(LdapContext context) throws NamingException, IOException {
+					batch.apply(context, configuration.isPipelineModifies() ? getWriteExecutor() : null,
+							configuration.getReadTimeout());
+					return null;
+				}
+			});
+		} finally {
+			/* Some changes may have been made even if the batch failed */
+			for (Name name : batch.getAddedNames()) {
+				entryAdded(name);
+			}
+		}
+	}
+
+	/**
+	 * Read attributes of a single entry. This is a base scope read, so can
+	 * return constructed attributes such as <code>tokenGroups</code> that a
+	 * subtree search does not.
+	 * 
+	 * @param dn DN of entry
+	 * @param names attributes to return
+	 * @return attributes
+	 * @throws NamingException
+	 * @throws IOException
+	 */
+	public Attributes getAttributes(final Name dn, final String... names) throws NamingException, IOException {
+		return processReadBlock("lookup", dn, true, new Block<Attributes>() {
+			public Attributes apply(LdapContext context) throws NamingException {
+				return context.getAttributes(dn, names);
+			}
+		});
 	}
 
 	public LdapContext lookupContext(final Name dn) throws NamingException, IOException {
-		return processBlock(new Block<LdapContext>() {
+		return processReadBlock("lookup", null, true, new Block<LdapContext>() {
 			public LdapContext apply(LdapContext context) throws NamingException {
 				return (LdapContext) context.lookup(dn);
 			}
@@ -281,29 +856,103 @@ public class LdapService {
 	protected SearchControls configureSearchControls(SearchControls searchControls) {
 		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
 		// searchControls.setCountLimit(0);
-		searchControls.setReturningObjFlag(true);
+		searchControls.setReturningObjFlag(configuration.isReturnObjects());
 		return searchControls;
 	}
 
 	protected SearchControls configureRoleSearchControls(SearchControls searchControls) {
 		searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
 		// searchControls.setCountLimit(0);
-		searchControls.setReturningObjFlag(true);
+		searchControls.setReturningObjFlag(configuration.isReturnObjects());
 		return searchControls;
 	}
 
-	private <T> T processBlock(Block<T> block, Control... controls) throws NamingException, IOException {
-		LdapContext connection = getConnection(controls);
+	/**
+	 * Run a block that only reads. If the controller cannot be reached and
+	 * operations are load balanced, it is run again on another controller.
+	 * Search iterators read their first page when created, and wrap a failure
+	 * to do so in an {@link IllegalStateException}, so those are retried too.
+	 */
+	private <T> T processReadBlock(String operation, Object principal, boolean close, Block<T> block,
+			Control... controls)
+			throws NamingException, IOException {
+		LdapHostBalancer balancer = getBalancer();
+		int attempts = balancer == null ? 1 : balancer.getHostCount();
+		for (int attempt = 1;; attempt++) {
+			try {
+				return close ? processBlock(operation, principal, block, controls)
+						: processBlockNoClose(operation, principal, block, controls);
+			} catch (NamingException ne) {
+				if (attempt >= attempts || !LdapHostBalancer.isConnectionFailure(ne)) {
+					throw ne;
+				}
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Retrying " + operation + " on another controller after " + ne.getMessage());
+				}
+			} catch (IllegalStateException ise) {
+				Throwable cause = ise.getCause();
+				if (attempt >= attempts || !(cause instanceof NamingException)
+						|| !LdapHostBalancer.isConnectionFailure((NamingException) cause)) {
+					throw ise;
+				}
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Retrying " + operation + " on another controller after " + cause.getMessage());
+				}
+			}
+		}
+	}
+
+	private <T> T processBlock(String operation, Object principal, Block<T> block, Control... controls)
+			throws NamingException, IOException {
+		OperationEvent event = beginEvent(operation, principal);
 		try {
-			return block.apply(connection);
+			LdapContext connection = getConnection(controls);
+			try {
+				T result = block.apply(connection);
+				event.succeeded();
+				return result;
+			} finally {
+				close(connection);
+			}
+		} catch (NamingException ne) {
+			event.failed(ne);
+			throw ne;
 		} finally {
-			close(connection);
+			event.end();
 		}
+	}
 
+	private <T> T processBlockNoClose(String operation, Object principal, Block<T> block, Control... controls)
+			throws NamingException, IOException {
+		OperationEvent event = beginEvent(operation, principal);
+		try {
+			LdapContext connection = getConnection(controls);
+			boolean ok = false;
+			try {
+				T result = block.apply(connection);
+				ok = true;
+				event.succeeded();
+				return result;
+			} finally {
+				/* On success the result owns the connection */
+				if (!ok) {
+					close(connection);
+				}
+			}
+		} catch (NamingException ne) {
+			event.failed(ne);
+			throw ne;
+		} finally {
+			event.end();
+		}
 	}
 
-	private <T> T processBlockNoClose(Block<T> block, Control... controls) throws NamingException, IOException {
-		return block.apply(getConnection(controls));
+	private OperationEvent beginEvent(String operation, Object principal) {
+		OperationEvent event = OperationEvents.begin(OperationKind.LDAP, LdapService.class, operation);
+		if (principal != null && event.isEnabled()) {
+			event.principal(principal.toString());
+		}
+		return event;
 	}
 
 	public interface ResultMapper<T> {
@@ -341,7 +990,7 @@ public class LdapService {
 		}
 	}
 	
-	class OldSearchResultIterator<T> implements Iterator<T> {
+	class OldSearchResultIterator<T> implements Iterator<T>, Closeable, SortedResults {
 
 		NamingEnumeration<SearchResult> results = null;
 		ResultMapper<T> resultMapper;
@@ -351,6 +1000,7 @@ public class LdapService {
 		Name baseDN;
 		String filter;
 		LinkedList<T> cached = new LinkedList<T>();
+		volatile Boolean sorted;
 		
 		OldSearchResultIterator(Name baseDN, LdapContext context, String filter, ResultMapper<T> resultMapper,
 				SearchControls searchControls) throws NamingException, IOException {
@@ -365,13 +1015,7 @@ public class LdapService {
 		private void buildResults() {
 			
 			try {
-				if (cookie != null) {
-					context.setRequestControls(new Control[] {
-							new PagedResultsControl(configuration.getMaxPageSize(), cookie, Control.CRITICAL) });
-				} else {
-					context.setRequestControls(
-							new Control[] { new PagedResultsControl(configuration.getMaxPageSize(), Control.CRITICAL) });
-				}
+				context.setRequestControls(createPageControls(cookie));
 				
 				results = context.search(baseDN, filter, searchControls);
 				
@@ -464,9 +1108,13 @@ public class LdapService {
 						}
 					}
 				}
+				if (serverSort != null) {
+					sorted = serverSort.response(controls, sorted);
+				}
 
 				if (cookie == null) {
-					close(context);
+					LdapService.this.close(context);
+					context = null;
 					return;
 				}
 
@@ -481,6 +1129,11 @@ public class LdapService {
 			return !cached.isEmpty();
 		}
 
+		@Override
+		public Boolean isSortedByServer() {
+			return sorted;
+		}
+
 		@Override
 		public T next() {
 
@@ -503,5 +1156,14 @@ public class LdapService {
 		public void remove() {
 		}
 
+		@Override
+		public void close() {
+			cached.clear();
+			cookie = null;
+			if (context != null) {
+				LdapService.this.close(context);
+				context = null;
+			}
+		}
 	}
 }
@@ -0,0 +1,55 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import javax.naming.ldap.BasicControl;
+
+/**
+ * The persistent search control (draft-ietf-ldapext-psearch), supported by
+ * 389 Directory Server and others. The search stays open and returns entries
+ * as they change.
+ */
+public class PersistentSearchControl extends BasicControl {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String OID = "2.16.840.1.113730.3.4.3";
+
+	public static final int ADD = 1;
+	public static final int DELETE = 2;
+	public static final int MODIFY = 4;
+	public static final int MODDN = 8;
+	public static final int ALL = ADD | DELETE | MODIFY | MODDN;
+
+	/**
+	 * @param changeTypes change types to return, a combination of
+	 *            {@link #ADD}, {@link #DELETE}, {@link #MODIFY} and
+	 *            {@link #MODDN}
+	 * @param changesOnly only return changes, not the existing entries
+	 * @param returnECs attach an {@link EntryChangeNotificationControl} to
+	 *            each change
+	 */
+	public PersistentSearchControl(int changeTypes, boolean changesOnly, boolean returnECs) {
+		super(OID, true, Ber.sequence(Ber.integer(changeTypes), Ber.bool(changesOnly), Ber.bool(returnECs)));
+	}
+}
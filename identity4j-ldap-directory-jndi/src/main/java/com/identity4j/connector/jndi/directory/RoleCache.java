@@ -0,0 +1,112 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.identity4j.connector.principal.Role;
+
+/**
+ * Roles looked up while mapping identities, keyed by the attribute and value
+ * they were looked up by. Roles are kept for the life of one enumeration,
+ * and if a time to live is set, shared between enumerations until it
+ * expires.
+ */
+class RoleCache {
+
+	private static final int MAX_SHARED = 10000;
+
+	private final Map<String, Entry> shared;
+	private final long ttl;
+
+	/**
+	 * @param ttl milliseconds roles are shared between enumerations for, or
+	 *            0 to only cache for one enumeration
+	 */
+	RoleCache(long ttl) {
+		this.ttl = ttl;
+		shared = ttl > 0 ? new ConcurrentHashMap<String, Entry>() : null;
+	}
+
+	/**
+	 * Start a new enumeration.
+	 * 
+	 * @return roles for the enumeration
+	 */
+	Enumeration begin() {
+		return new Enumeration();
+	}
+
+	void clear() {
+		if (shared != null) {
+			shared.clear();
+		}
+	}
+
+	/**
+	 * Roles for one enumeration. Results of a parallel search are mapped on
+	 * several threads, so this is thread safe.
+	 */
+	class Enumeration {
+		private final Map<String, Role> roles = new ConcurrentHashMap<String, Role>();
+
+		Role get(String attribute, String value) {
+			String key = attribute + "=" + value;
+			Role role = roles.get(key);
+			if (role == null && shared != null) {
+				Entry entry = shared.get(key);
+				if (entry != null) {
+					if (entry.expires > System.currentTimeMillis()) {
+						role = entry.role;
+						roles.put(key, role);
+					} else {
+						shared.remove(key);
+					}
+				}
+			}
+			return role;
+		}
+
+		void put(String attribute, String value, Role role) {
+			String key = attribute + "=" + value;
+			roles.put(key, role);
+			if (shared != null) {
+				if (shared.size() >= MAX_SHARED) {
+					shared.clear();
+				}
+				shared.put(key, new Entry(role, System.currentTimeMillis() + ttl));
+			}
+		}
+	}
+
+	static class Entry {
+		final Role role;
+		final long expires;
+
+		Entry(Role role, long expires) {
+			this.role = role;
+			this.expires = expires;
+		}
+	}
+}
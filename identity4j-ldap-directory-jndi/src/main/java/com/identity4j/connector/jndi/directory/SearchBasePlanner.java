@@ -0,0 +1,134 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+
+/**
+ * Works out which searches cover the configured includes without reading the
+ * configured excludes. Includes nested inside another include are dropped.
+ * An include with no excludes beneath it is searched as a whole subtree,
+ * otherwise the include itself is searched alone and each of its children is
+ * planned the same way, so excluded subtrees are never sent by the server.
+ * <p>
+ * If a container has too many children, or the plan grows too large, the
+ * container is searched as a whole subtree and the excludes are left to the
+ * client side filtering.
+ */
+class SearchBasePlanner {
+
+	/**
+	 * Lists the immediate children of an entry.
+	 */
+	interface ChildLister {
+		/**
+		 * @param parent parent DN
+		 * @return child DNs, or <code>null</code> if there are too many
+		 * @throws NamingException
+		 * @throws IOException
+		 */
+		List<Name> list(Name parent) throws NamingException, IOException;
+	}
+
+	/**
+	 * One search of the plan.
+	 */
+	static class SearchBase {
+		final Name dn;
+		final int scope;
+
+		SearchBase(Name dn, int scope) {
+			this.dn = dn;
+			this.scope = scope;
+		}
+
+		@Override
+		public String toString() {
+			return dn + (scope == SearchControls.OBJECT_SCOPE ? " (object)" : " (subtree)");
+		}
+	}
+
+	private final ChildLister lister;
+	private int maxBases = 64;
+
+	SearchBasePlanner(ChildLister lister) {
+		this.lister = lister;
+	}
+
+	void setMaxBases(int maxBases) {
+		this.maxBases = maxBases;
+	}
+
+	List<SearchBase> plan(Collection<Name> includes, Collection<Name> excludes) throws NamingException,
+			IOException {
+		List<SearchBase> bases = new ArrayList<SearchBase>();
+		for (Name include : includes) {
+			if (!isNested(include, includes)) {
+				expand(include, excludes, bases);
+			}
+		}
+		return bases;
+	}
+
+	private void expand(Name dn, Collection<Name> excludes, List<SearchBase> bases) throws NamingException,
+			IOException {
+		List<Name> excludesBelow = new ArrayList<Name>();
+		for (Name exclude : excludes) {
+			if (dn.startsWith(exclude)) {
+				return;
+			}
+			if (exclude.startsWith(dn)) {
+				excludesBelow.add(exclude);
+			}
+		}
+		if (excludesBelow.isEmpty()) {
+			bases.add(new SearchBase(dn, SearchControls.SUBTREE_SCOPE));
+			return;
+		}
+		List<Name> children = bases.size() < maxBases ? lister.list(dn) : null;
+		if (children == null || bases.size() + children.size() >= maxBases) {
+			bases.add(new SearchBase(dn, SearchControls.SUBTREE_SCOPE));
+			return;
+		}
+		bases.add(new SearchBase(dn, SearchControls.OBJECT_SCOPE));
+		for (Name child : children) {
+			expand(child, excludesBelow, bases);
+		}
+	}
+
+	private static boolean isNested(Name name, Collection<Name> others) {
+		for (Name other : others) {
+			if (name.size() > other.size() && name.startsWith(other)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,5 +1,6 @@
 package com.identity4j.connector.jndi.directory;
 
+import java.io.Closeable;
 import java.io.IOException;
 
 /*
@@ -37,7 +38,7 @@ import org.apache.commons.logging.LogFactory;
 
 import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
 
-public class SearchResultsIterator<T extends Object> implements Iterator<T> {
+public class SearchResultsIterator<T extends Object> implements Iterator<T>, Closeable, SortedResults {
 
 	final static Log LOG = LogFactory.getLog(LdapService.class);
 
@@ -52,9 +53,18 @@ public class SearchResultsIterator<T extends Object> implements Iterator<T> {
 	private SearchControls searchControls;
 	private DirectoryConfiguration configuration;
 	private byte[] cookie = null;
+	private LdapService service;
+	private volatile Boolean sorted;
 
 	public SearchResultsIterator(Collection<? extends Name> dns, String filter, SearchControls searchControls,
 			DirectoryConfiguration configuration, ResultMapper<T> filteredMapper, LdapContext context) {
+		this(dns, filter, searchControls, configuration, filteredMapper, context, null);
+	}
+
+	public SearchResultsIterator(Collection<? extends Name> dns, String filter, SearchControls searchControls,
+			DirectoryConfiguration configuration, ResultMapper<T> filteredMapper, LdapContext context,
+			LdapService service) {
+		this.service = service;
 		this.context = context;
 		this.configuration = configuration;
 		this.searchControls = searchControls;
@@ -72,7 +82,13 @@ public class SearchResultsIterator<T extends Object> implements Iterator<T> {
 		return next != null;
 	}
 
-	private void close() {
+	/**
+	 * Stop the search, releasing the context. Called automatically once all
+	 * results have been read.
+	 */
+	@Override
+	public void close() {
+		closeListIterator();
 		if (context != null) {
 			try {
 				context.close();
@@ -103,6 +119,11 @@ public class SearchResultsIterator<T extends Object> implements Iterator<T> {
 	public void remove() {
 	}
 
+	@Override
+	public Boolean isSortedByServer() {
+		return sorted;
+	}
+
 	void fetchNext() {
 		// If we haven't started on the next DN, get it
 		next = null;
@@ -141,7 +162,9 @@ public class SearchResultsIterator<T extends Object> implements Iterator<T> {
 
 					try {
 						prev = context.getRequestControls();
-						if (cookie != null) {
+						if (service != null) {
+							context.setRequestControls(service.createPageControls(cookie));
+						} else if (cookie != null) {
 							context.setRequestControls(
 									new Control[] { new PagedResultsControl(configuration.getMaxPageSize(), cookie,
 											Control.CRITICAL) });
@@ -227,6 +250,9 @@ public class SearchResultsIterator<T extends Object> implements Iterator<T> {
 										}
 									}
 								}
+								if (service != null && service.getServerSort() != null) {
+									sorted = service.getServerSort().response(controls, sorted);
+								}
 
 							} catch (NamingException e) {
 								throw new IllegalStateException(e.getMessage(), e);
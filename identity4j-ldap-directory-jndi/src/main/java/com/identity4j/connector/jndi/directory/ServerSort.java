@@ -0,0 +1,144 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.ldap.Control;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortKey;
+import javax.naming.ldap.SortResponseControl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Asks the server to sort the results of paged searches, using the RFC 2891
+ * sort request control. The sort control is sent with every page request, so
+ * results can be read in order one page at a time.
+ * <p>
+ * A server that does not support sorting ignores a non-critical control,
+ * and the results come back unsorted. Each search records whether its pages
+ * were sorted, and exposes it through {@link SortedResults}, so the caller
+ * can fall back to sorting itself.
+ */
+public class ServerSort {
+
+	final static Log LOG = LogFactory.getLog(ServerSort.class);
+
+	private final SortKey[] keys;
+	private final boolean critical;
+
+	public ServerSort(SortKey[] keys, boolean critical) {
+		this.keys = keys;
+		this.critical = critical;
+	}
+
+	/**
+	 * Parse sort keys from a comma separated list of attribute names. A name
+	 * prefixed with <code>-</code> sorts in descending order, and may be
+	 * followed by <code>:</code> and the OID of the ordering rule to use,
+	 * for example <code>sn,-whenCreated</code>.
+	 * 
+	 * @param spec sort keys
+	 * @param critical whether the server must sort or fail the search
+	 * @return sort, or <code>null</code> if spec is empty
+	 */
+	public static ServerSort parse(String spec, boolean critical) {
+		if (spec == null) {
+			return null;
+		}
+		List<SortKey> keys = new ArrayList<SortKey>();
+		for (String key : spec.split(",")) {
+			key = key.trim();
+			if (key.length() == 0) {
+				continue;
+			}
+			boolean ascending = true;
+			if (key.startsWith("-")) {
+				ascending = false;
+				key = key.substring(1);
+			}
+			String rule = null;
+			int idx = key.indexOf(':');
+			if (idx != -1) {
+				rule = key.substring(idx + 1);
+				key = key.substring(0, idx);
+			}
+			keys.add(new SortKey(key, ascending, rule));
+		}
+		return keys.isEmpty() ? null : new ServerSort(keys.toArray(new SortKey[keys.size()]), critical);
+	}
+
+	public SortKey[] getKeys() {
+		return keys;
+	}
+
+	public boolean isCritical() {
+		return critical;
+	}
+
+	/**
+	 * Create the request controls for a page of a sorted search.
+	 * 
+	 * @param pageSize page size
+	 * @param cookie cookie from the last page, or <code>null</code> for the
+	 *            first
+	 * @return controls
+	 * @throws IOException
+	 */
+	Control[] pageControls(int pageSize, byte[] cookie) throws IOException {
+		return new Control[] { new SortControl(keys, critical),
+				new PagedResultsControl(pageSize, cookie, Control.CRITICAL) };
+	}
+
+	/**
+	 * Work out from the response controls for a page whether the search is
+	 * still sorted. It is only sorted if every page so far was.
+	 * 
+	 * @param controls response controls, may be <code>null</code>
+	 * @param was whether the earlier pages of the search were sorted, or
+	 *            <code>null</code> for the first page
+	 * @return sorted
+	 */
+	Boolean response(Control[] controls, Boolean was) {
+		boolean sorted = false;
+		String reason = "no sort response";
+		if (controls != null) {
+			for (Control control : controls) {
+				if (control instanceof SortResponseControl) {
+					SortResponseControl response = (SortResponseControl) control;
+					sorted = response.isSorted();
+					reason = "result code " + response.getResultCode();
+				}
+			}
+		}
+		if (!sorted && !Boolean.FALSE.equals(was)) {
+			LOG.warn("Server did not sort results (" + reason + "), they must be sorted by the client.");
+		}
+		return sorted && !Boolean.FALSE.equals(was);
+	}
+}
@@ -0,0 +1,40 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Results of a search that may have asked the server to sort them. Each
+ * search records this for itself, as the server may sort some searches and
+ * not others.
+ */
+public interface SortedResults {
+
+	/**
+	 * Whether the server sorted every page of this search read so far.
+	 * 
+	 * @return <code>true</code> if sorted, <code>false</code> if not, or
+	 *         <code>null</code> if no page has been read or sorting was not
+	 *         asked for
+	 */
+	Boolean isSortedByServer();
+}
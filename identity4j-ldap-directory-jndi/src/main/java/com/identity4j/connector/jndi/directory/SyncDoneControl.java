@@ -0,0 +1,82 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * The RFC 4533 Sync Done control, returned when a content synchronization
+ * operation ends.
+ */
+public class SyncDoneControl extends BasicControl {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String OID = "1.3.6.1.4.1.4203.1.9.1.3";
+
+	private final byte[] cookie;
+	private final boolean refreshDeletes;
+
+	public SyncDoneControl(String id, boolean criticality, byte[] value) throws IOException {
+		super(id, criticality, value);
+		Ber.Reader reader = new Ber.Reader(value).sequence();
+		cookie = reader.peek() == Ber.OCTET_STRING ? reader.octets() : null;
+		refreshDeletes = reader.peek() == Ber.BOOLEAN && reader.bool();
+	}
+
+	/**
+	 * Find and decode the control in a set of response controls.
+	 * 
+	 * @param controls controls, may be <code>null</code>
+	 * @return control, or <code>null</code> if not present
+	 * @throws IOException if the control cannot be decoded
+	 */
+	public static SyncDoneControl get(Control[] controls) throws IOException {
+		if (controls != null) {
+			for (Control control : controls) {
+				if (OID.equals(control.getID())) {
+					return control instanceof SyncDoneControl ? (SyncDoneControl) control
+							: new SyncDoneControl(control.getID(), control.isCritical(), control.getEncodedValue());
+				}
+			}
+		}
+		return null;
+	}
+
+	public byte[] getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * Whether the entries sent were the deleted ones, rather than the ones
+	 * still present.
+	 * 
+	 * @return refresh deletes
+	 */
+	public boolean isRefreshDeletes() {
+		return refreshDeletes;
+	}
+}
@@ -0,0 +1,59 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import javax.naming.ldap.BasicControl;
+
+/**
+ * The RFC 4533 Sync Request control, which turns a search into a content
+ * synchronization operation.
+ */
+public class SyncRequestControl extends BasicControl {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String OID = "1.3.6.1.4.1.4203.1.9.1.1";
+
+	/**
+	 * Return changes since the cookie, then end the search.
+	 */
+	public static final int REFRESH_ONLY = 1;
+
+	/**
+	 * Return changes since the cookie, then keep the search open and return
+	 * further changes as they happen.
+	 */
+	public static final int REFRESH_AND_PERSIST = 3;
+
+	/**
+	 * @param mode {@link #REFRESH_ONLY} or {@link #REFRESH_AND_PERSIST}
+	 * @param cookie cookie from an earlier synchronization, or
+	 *            <code>null</code> to start from the full content
+	 * @param reloadHint ask the server to send the full content if it cannot
+	 *            work out the changes
+	 */
+	public SyncRequestControl(int mode, byte[] cookie, boolean reloadHint) {
+		super(OID, true, Ber.sequence(Ber.enumerated(mode), cookie == null ? null : Ber.octets(cookie),
+				reloadHint ? Ber.bool(true) : null));
+	}
+}
@@ -0,0 +1,107 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+/**
+ * The RFC 4533 Sync State control, attached to each entry returned by a
+ * content synchronization operation.
+ */
+public class SyncStateControl extends BasicControl {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String OID = "1.3.6.1.4.1.4203.1.9.1.2";
+
+	public static final int PRESENT = 0;
+	public static final int ADD = 1;
+	public static final int MODIFY = 2;
+	public static final int DELETE = 3;
+
+	private final int state;
+	private final String entryUUID;
+	private final byte[] cookie;
+
+	public SyncStateControl(String id, boolean criticality, byte[] value) throws IOException {
+		super(id, criticality, value);
+		Ber.Reader reader = new Ber.Reader(value).sequence();
+		state = reader.enumerated();
+		entryUUID = toUUID(reader.octets());
+		cookie = reader.peek() == Ber.OCTET_STRING ? reader.octets() : null;
+	}
+
+	/**
+	 * Find and decode the control in a set of response controls.
+	 * 
+	 * @param controls controls, may be <code>null</code>
+	 * @return control, or <code>null</code> if not present
+	 * @throws IOException if the control cannot be decoded
+	 */
+	public static SyncStateControl get(Control[] controls) throws IOException {
+		if (controls != null) {
+			for (Control control : controls) {
+				if (OID.equals(control.getID())) {
+					return control instanceof SyncStateControl ? (SyncStateControl) control
+							: new SyncStateControl(control.getID(), control.isCritical(), control.getEncodedValue());
+				}
+			}
+		}
+		return null;
+	}
+
+	public int getState() {
+		return state;
+	}
+
+	/**
+	 * Get the entryUUID of the entry, which stays the same across renames.
+	 * 
+	 * @return entry UUID
+	 */
+	public String getEntryUUID() {
+		return entryUUID;
+	}
+
+	/**
+	 * Get the cookie to resume from after this entry, if the server sent one.
+	 * 
+	 * @return cookie or <code>null</code>
+	 */
+	public byte[] getCookie() {
+		return cookie;
+	}
+
+	static String toUUID(byte[] bytes) {
+		if (bytes.length != 16) {
+			return null;
+		}
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		return new UUID(buf.getLong(), buf.getLong()).toString();
+	}
+}
@@ -0,0 +1,95 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+
+import org.junit.Test;
+
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.util.StringUtil;
+
+public class AttributeDecoderTest {
+
+	private static final byte[] GUID = { (byte) 0xb8, 0x1e, 0x00, 0x7f, (byte) 0xff, 0x10, 0x4a };
+
+	@Test
+	public void testBinaryValuesEncoded() throws Exception {
+		AttributeDecoder hex = new AttributeDecoder();
+		assertEquals(StringUtil.convertByteToString(GUID), hex.decodeValue(GUID));
+		assertEquals("b81e007fff104a", hex.decodeValue(GUID));
+
+		AttributeDecoder base64 = new AttributeDecoder(AttributeDecoder.Encoding.BASE64);
+		assertEquals("uB4Af/8QSg==", base64.decodeValue(GUID));
+		assertEquals("uB4A", base64.decodeValue(new byte[] { (byte) 0xb8, 0x1e, 0x00 }));
+		assertEquals("uB4=", base64.decodeValue(new byte[] { (byte) 0xb8, 0x1e }));
+		assertEquals("", base64.decodeValue(new byte[0]));
+	}
+
+	@Test
+	public void testScratchBufferGrows() throws Exception {
+		AttributeDecoder hex = new AttributeDecoder();
+		byte[] certificate = new byte[1000];
+		certificate[999] = 1;
+		String encoded = hex.decodeValue(certificate);
+		assertEquals(2000, encoded.length());
+		assertEquals("01", encoded.substring(1998));
+		assertEquals("b81e007fff104a", hex.decodeValue(GUID));
+	}
+
+	@Test
+	public void testMultipleValues() throws Exception {
+		BasicAttribute attribute = new BasicAttribute("member");
+		attribute.add("cn=a");
+		attribute.add("cn=b");
+		AttributeDecoder decoder = new AttributeDecoder();
+		assertArrayEquals(new String[] { "cn=a", "cn=b" }, decoder.decode(attribute));
+		assertEquals("cn=a", decoder.decodeFirst(attribute));
+		assertNull(decoder.decodeFirst(null));
+	}
+
+	@Test
+	public void testOnlyProjectedAttributesCopied() throws Exception {
+		BasicAttributes attributes = new BasicAttributes(true);
+		attributes.put("cn", "alice");
+		attributes.put("mail", "alice@example.com");
+		attributes.put("objectGUID", GUID);
+		attributes.put("uSNChanged", "1234");
+
+		IdentityImpl identity = new IdentityImpl("1", "alice");
+		new AttributeDecoder().decode(attributes, new String[] { "cn", "mail", "objectGUID" }, identity, "cn");
+		assertEquals(2, identity.getAttributes().size());
+		assertEquals("alice@example.com", identity.getAttribute("mail"));
+		assertEquals("b81e007fff104a", identity.getAttribute("objectGUID"));
+
+		identity = new IdentityImpl("1", "alice");
+		new AttributeDecoder().decode(attributes, null, identity);
+		assertEquals(4, identity.getAttributes().size());
+	}
+}
@@ -0,0 +1,113 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import org.junit.Test;
+
+import com.identity4j.connector.BrowseNode;
+
+public class BrowseTreeTest {
+
+	private final List<String> loads = new ArrayList<String>();
+
+	private final BrowseTree.ChildLoader loader = new BrowseTree.ChildLoader() {
+		@Override
+		public List<String> load(String parent) throws NamingException, IOException {
+			loads.add(String.valueOf(parent));
+			if (parent == null) {
+				return Arrays.asList("dc=example,dc=com");
+			} else if (parent.equals("dc=example,dc=com")) {
+				return Arrays.asList("ou=Sales,dc=example,dc=com", "ou=Staff,dc=example,dc=com");
+			} else if (parent.equals("ou=Staff,dc=example,dc=com")) {
+				return Arrays.asList("ou=London,ou=Staff,dc=example,dc=com");
+			}
+			return Collections.emptyList();
+		}
+	};
+
+	@Test
+	public void testChildrenLoadedLazilyAndCached() throws Exception {
+		BrowseTree tree = new BrowseTree(loader, 60000);
+		List<BrowseNode> roots = tree.children(null);
+		assertEquals(Arrays.<BrowseNode> asList(new DirectoryBrowseNode("dc=example,dc=com")), roots);
+		assertEquals(Arrays.asList("null"), loads);
+
+		assertEquals(2, tree.children("dc=example,dc=com").size());
+		assertEquals(2, tree.children("DC=Example, DC=Com").size());
+		tree.children(null);
+		assertEquals(Arrays.asList("null", "dc=example,dc=com"), loads);
+	}
+
+	@Test
+	public void testInvalidateSubtree() throws Exception {
+		BrowseTree tree = new BrowseTree(loader, 60000);
+		tree.children("dc=example,dc=com");
+		tree.children("ou=Staff,dc=example,dc=com");
+		tree.children("ou=London,ou=Staff,dc=example,dc=com");
+		tree.children("ou=Sales,dc=example,dc=com");
+		loads.clear();
+
+		tree.invalidate("ou=Staff,dc=example,dc=com");
+		tree.children("ou=London,ou=Staff,dc=example,dc=com");
+		tree.children("ou=Staff,dc=example,dc=com");
+		tree.children("ou=Sales,dc=example,dc=com");
+		tree.children("dc=example,dc=com");
+		assertEquals(Arrays.asList("ou=London,ou=Staff,dc=example,dc=com", "ou=Staff,dc=example,dc=com"), loads);
+	}
+
+	@Test
+	public void testEmptyDnIsRoot() throws Exception {
+		BrowseTree tree = new BrowseTree(loader, 60000);
+		assertEquals(Arrays.<BrowseNode> asList(new DirectoryBrowseNode("dc=example,dc=com")), tree.children(""));
+		tree.children(null);
+		tree.children("dc=example,dc=com");
+		assertEquals(Arrays.asList("null", "dc=example,dc=com"), loads);
+
+		/* Invalidating the root forgets the whole tree */
+		tree.invalidate("");
+		tree.children(null);
+		tree.children("dc=example,dc=com");
+		assertEquals(Arrays.asList("null", "dc=example,dc=com", "null", "dc=example,dc=com"), loads);
+	}
+
+	@Test
+	public void testNoCacheWithoutTtl() throws Exception {
+		BrowseTree tree = new BrowseTree(loader, 0);
+		tree.children("dc=example,dc=com");
+		tree.children("dc=example,dc=com");
+		assertEquals(2, loads.size());
+		assertTrue(tree.children("ou=Sales,dc=example,dc=com").isEmpty());
+	}
+}
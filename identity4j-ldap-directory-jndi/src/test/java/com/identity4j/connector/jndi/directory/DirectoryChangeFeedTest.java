@@ -0,0 +1,149 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+
+import org.junit.Test;
+
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.connector.principal.IdentityImpl;
+import com.identity4j.connector.principal.Principal;
+import com.identity4j.util.MultiMap;
+
+public class DirectoryChangeFeedTest {
+
+	private final List<DirectoryChange> changes = new ArrayList<DirectoryChange>();
+	private final List<String> cookies = new ArrayList<String>();
+
+	@Test
+	public void testSyncStates() throws Exception {
+		DirectoryChangeFeed feed = createFeed(DirectoryChangeFeed.Mode.SYNC_REPL);
+		feed.process(result("uid=alice,ou=People,dc=example,dc=com", syncState(SyncStateControl.ADD, "c1")));
+		feed.process(result("uid=bob,ou=People,dc=example,dc=com", syncState(SyncStateControl.PRESENT, null)));
+		feed.process(result("uid=carol,ou=Leavers,dc=example,dc=com", syncState(SyncStateControl.MODIFY, "c2")));
+		feed.process(result("uid=dave,ou=People,dc=example,dc=com", syncState(SyncStateControl.DELETE, "c3")));
+
+		assertEquals("[ADD uid=alice,ou=People,dc=example,dc=com, DELETE uid=dave,ou=People,dc=example,dc=com]",
+				changes.toString());
+		assertEquals("alice", changes.get(0).getPrincipal().getPrincipalName());
+		assertNull(changes.get(1).getPrincipal());
+		/* Excluded entries still move the cookie on */
+		assertEquals("[c1, c2, c3]", cookies.toString());
+		assertEquals("c3", new String(feed.getCookie(), "UTF-8"));
+	}
+
+	@Test
+	public void testEntryChangeNotifications() throws Exception {
+		DirectoryChangeFeed feed = createFeed(DirectoryChangeFeed.Mode.PERSISTENT_SEARCH);
+		feed.process(result("uid=erin,ou=People,dc=example,dc=com", new BasicControl(EntryChangeNotificationControl.OID,
+				false, Ber.sequence(Ber.enumerated(PersistentSearchControl.MODDN),
+						Ber.string("uid=erin,ou=Staff,dc=example,dc=com"), Ber.integer(7)))));
+		assertEquals(1, changes.size());
+		assertEquals(DirectoryChange.Type.RENAME, changes.get(0).getType());
+		assertEquals("uid=erin,ou=Staff,dc=example,dc=com", changes.get(0).getPreviousDn());
+		assertEquals(7, changes.get(0).getChangeNumber());
+		assertEquals(0, cookies.size());
+	}
+
+	private DirectoryChangeFeed createFeed(DirectoryChangeFeed.Mode mode) {
+		MultiMap parameters = new MultiMap();
+		parameters.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "localhost");
+		parameters.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_USERNAME, "cn=admin");
+		parameters.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(DirectoryConfiguration.DIRECTORY_EXCLUDES, "ou=Leavers");
+		return new DirectoryChangeFeed(null, new DirectoryConfiguration(parameters), mode, "(objectClass=*)", null,
+				new ResultMapper<Principal>() {
+					@Override
+					public Principal apply(SearchResult result) throws NamingException, IOException {
+						return new IdentityImpl(result.getNameInNamespace(), result.getName());
+					}
+
+					@Override
+					public boolean isApplyFilters() {
+						return true;
+					}
+				}, new DirectoryChangeListener() {
+					@Override
+					public void changed(DirectoryChange change) {
+						changes.add(change);
+					}
+
+					@Override
+					public void checkpoint(byte[] cookie) {
+						try {
+							cookies.add(new String(cookie, "UTF-8"));
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+					}
+
+					@Override
+					public void refreshRequired() {
+					}
+
+					@Override
+					public void failed(Throwable exception) {
+					}
+				}, null);
+	}
+
+	private static Control syncState(int state, String cookie) throws IOException {
+		return new BasicControl(SyncStateControl.OID, false, Ber.sequence(Ber.enumerated(state),
+				Ber.octets(new byte[16]), cookie == null ? null : Ber.string(cookie)));
+	}
+
+	private static SearchResult result(String dn, Control control) {
+		String uid = dn.substring(4, dn.indexOf(','));
+		ResultWithControls result = new ResultWithControls(uid, new BasicAttributes("uid", uid), control);
+		result.setNameInNamespace(dn);
+		return result;
+	}
+
+	@SuppressWarnings("serial")
+	static class ResultWithControls extends SearchResult implements HasControls {
+		private final Control[] controls;
+
+		ResultWithControls(String name, BasicAttributes attributes, Control... controls) {
+			super(name, null, attributes);
+			this.controls = controls;
+		}
+
+		@Override
+		public Control[] getControls() {
+			return controls;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapName;
+
+import org.junit.Test;
+
+import com.identity4j.util.MultiMap;
+
+public class DirectoryPrincipalTest {
+
+	@Test
+	public void testDnParsedWhenAskedFor() throws Exception {
+		DirectoryIdentity identity = new DirectoryIdentity("1", "alice", "uid=alice,ou=People,dc=example,dc=com");
+		assertEquals(new LdapName("uid=alice,ou=People,dc=example,dc=com"), identity.getDn());
+		assertSame(identity.getDn(), identity.getDn());
+
+		DirectoryRole role = new DirectoryRole("2", "admins", "cn=admins,ou=Groups,dc=example,dc=com");
+		assertEquals(new LdapName("cn=admins,ou=Groups,dc=example,dc=com"), role.getDn());
+		assertSame(role.getDn(), role.getDn());
+	}
+
+	@Test
+	public void testInvalidDnFailsOnlyWhenAskedFor() {
+		DirectoryIdentity identity = new DirectoryIdentity("1", "alice", "not a DN");
+		assertEquals("alice", identity.getPrincipalName());
+		try {
+			identity.getDn();
+			fail("Expected the DN to be rejected");
+		} catch (IllegalStateException ise) {
+		}
+
+		DirectoryRole role = new DirectoryRole("2", "admins", "not a DN");
+		assertEquals("admins", role.getPrincipalName());
+		try {
+			role.getDn();
+			fail("Expected the DN to be rejected");
+		} catch (IllegalStateException ise) {
+		}
+	}
+
+	@Test
+	public void testMappedDnsAreAbsolute() throws Exception {
+		MultiMap parameters = new MultiMap();
+		parameters.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "localhost");
+		parameters.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_USERNAME, "cn=admin");
+		parameters.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set("directory.identityGuidAttribute", "entryUUID");
+		parameters.set("directory.identityNameAttribute", "uid");
+		parameters.set("directory.roleGuidAttribute", "entryUUID");
+		parameters.set("directory.roleNameAttribute", "cn");
+		DirectoryConfiguration configuration = new DirectoryConfiguration(parameters);
+		DirectoryConnector connector = new DirectoryConnector() {
+			@Override
+			protected LdapService createLdapService() {
+				return new LdapService() {
+					@Override
+					public void openConnection() {
+					}
+				};
+			}
+		};
+		connector.open(configuration);
+
+		/* Search results are named relative to the base DN */
+		BasicAttributes attributes = new BasicAttributes(true);
+		attributes.put("entryUUID", "1");
+		attributes.put("uid", "alice");
+		SearchResult result = new SearchResult("uid=alice,ou=People", null, attributes);
+		result.setNameInNamespace("uid=alice,ou=People,dc=example,dc=com");
+		DirectoryIdentity identity = (DirectoryIdentity) connector.mapIdentity(result);
+		assertEquals(new LdapName("uid=alice,ou=People,dc=example,dc=com"), identity.getDn());
+		assertEquals("uid=alice,ou=People,dc=example,dc=com", identity.getAttribute("dn"));
+
+		attributes = new BasicAttributes(true);
+		attributes.put("entryUUID", "2");
+		attributes.put("cn", "admins");
+		result = new SearchResult("cn=admins,ou=Groups", null, attributes);
+		result.setNameInNamespace("cn=admins,ou=Groups,dc=example,dc=com");
+		DirectoryRole role = (DirectoryRole) connector.mapRole(result);
+		assertEquals(new LdapName("cn=admins,ou=Groups,dc=example,dc=com"), role.getDn());
+	}
+}
@@ -0,0 +1,100 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * Stand-in for a directory connection. Records the calls made on it and can
+ * be told to fail them.
+ */
+class FakeContext implements InvocationHandler {
+
+	final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+	volatile Control[] requestControls;
+	volatile boolean closed;
+	volatile NamingException failWith;
+	final Hashtable<Object, Object> environment = new Hashtable<Object, Object>();
+	volatile String rejectPrincipal;
+
+	LdapContext proxy() {
+		return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class },
+				this);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (name.equals("setRequestControls")) {
+			requestControls = (Control[]) args[0];
+			return null;
+		} else if (name.equals("getRequestControls")) {
+			return requestControls;
+		} else if (name.equals("close")) {
+			closed = true;
+			return null;
+		} else if (name.equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		} else if (name.equals("equals")) {
+			return proxy == args[0];
+		} else if (name.equals("toString")) {
+			return "FakeContext";
+		} else if (name.equals("addToEnvironment")) {
+			return environment.put(args[0], args[1]);
+		}
+		calls.add(name);
+		if (failWith != null) {
+			throw failWith;
+		}
+		if (name.equals("reconnect") && rejectPrincipal != null
+				&& rejectPrincipal.equals(environment.get(Context.SECURITY_PRINCIPAL))) {
+			throw new AuthenticationException("Invalid credentials");
+		}
+		if (name.equals("search")) {
+			return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { NamingEnumeration.class },
+					new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if (method.getName().startsWith("has")) {
+								return false;
+							}
+							return null;
+						}
+					});
+		}
+		return null;
+	}
+}
@@ -0,0 +1,164 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class LdapBatchTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+	private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> derived = Collections.synchronizedList(new ArrayList<String>());
+	private volatile String unanswered;
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSameEntryModifiesMerged() throws Exception {
+		LdapBatch batch = new LdapBatch("userPassword");
+		batch.update(new LdapName("cn=alice"), replace("mail", "a@b"));
+		batch.update(new LdapName("cn=alice"), replace("mobile", "123"));
+		batch.setPassword("cn=alice", new byte[] { 1 });
+		assertEquals(1, batch.size());
+
+		batch.apply(new Recorder(false).proxy(), null, 0);
+		assertEquals(Arrays.asList("modifyAttributes cn=alice 3"), requests);
+	}
+
+	@Test
+	public void testOrderKeptWithoutPipelining() throws Exception {
+		LdapBatch batch = createMembershipBatch();
+		batch.apply(new Recorder(true).proxy(), null, 0);
+		assertEquals(Arrays.asList("bind cn=bob", "modifyAttributes cn=g1 1", "modifyAttributes cn=g2 1",
+				"modifyAttributes cn=g3 1", "rename cn=bob"), requests);
+		assertTrue(derived.isEmpty());
+	}
+
+	@Test
+	public void testIndependentModifiesPipelined() throws Exception {
+		LdapBatch batch = createMembershipBatch();
+		batch.apply(new Recorder(true).proxy(), executor, 0);
+		assertEquals(5, requests.size());
+		assertEquals("bind cn=bob", requests.get(0));
+		assertEquals("rename cn=bob", requests.get(4));
+		assertEquals(3, derived.size());
+		assertTrue(requests.subList(1, 4).containsAll(Arrays.asList("modifyAttributes cn=g1 1",
+				"modifyAttributes cn=g2 1", "modifyAttributes cn=g3 1")));
+	}
+
+	@Test
+	public void testFallsBackWhenContextCannotBeShared() throws Exception {
+		LdapBatch batch = createMembershipBatch();
+		batch.apply(new Recorder(false).proxy(), executor, 0);
+		assertEquals(Arrays.asList("bind cn=bob", "modifyAttributes cn=g1 1", "modifyAttributes cn=g2 1",
+				"modifyAttributes cn=g3 1", "rename cn=bob"), requests);
+	}
+
+	@Test
+	public void testUnansweredPipelinedModifyTimesOut() throws Exception {
+		LdapBatch batch = createMembershipBatch();
+		unanswered = "cn=g2";
+		try {
+			batch.apply(new Recorder(true).proxy(), executor, 100);
+			fail("Expected the batch to time out");
+		} catch (NamingException ne) {
+			assertEquals("Timed out waiting for modifications.", ne.getMessage());
+		}
+		/* Nothing after the run is sent */
+		assertFalse(requests.contains("rename cn=bob"));
+	}
+
+	private LdapBatch createMembershipBatch() throws Exception {
+		LdapBatch batch = new LdapBatch("userPassword");
+		batch.bind(new LdapName("cn=bob"), new BasicAttribute("cn", "bob"));
+		for (int i = 1; i <= 3; i++) {
+			batch.update(new LdapName("cn=g" + i), new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute(
+					"member", "cn=bob")));
+		}
+		batch.rename(new LdapName("cn=bob"), new LdapName("cn=robert"));
+		return batch;
+	}
+
+	private static ModificationItem replace(String name, String value) {
+		return new ModificationItem(DirContext.REPLACE_ATTRIBUTE, new BasicAttribute(name, value));
+	}
+
+	/**
+	 * Records each request with its target entry. Contexts derived from it
+	 * record to the same list, as they share its connection.
+	 */
+	class Recorder extends FakeContext {
+		private final boolean derivable;
+
+		Recorder(boolean derivable) {
+			this.derivable = derivable;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("newInstance")) {
+				if (!derivable) {
+					return null;
+				}
+				derived.add(name);
+				return new Recorder(false).proxy();
+			} else if (name.equals("modifyAttributes")) {
+				if (args[0].toString().equals(unanswered)) {
+					/* Never answered, until cancelled */
+					new CountDownLatch(1).await();
+				}
+				requests.add(name + " " + args[0] + " " + ((ModificationItem[]) args[1]).length);
+			} else if (name.equals("bind") || name.equals("rename")) {
+				requests.add(name + " " + args[0]);
+			}
+			return super.invoke(proxy, method, args);
+		}
+	}
+}
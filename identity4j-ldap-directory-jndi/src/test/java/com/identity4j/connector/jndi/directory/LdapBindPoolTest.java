@@ -0,0 +1,100 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LdapBindPoolTest {
+
+	private FakeContext ctx;
+	private LdapBindPool bindPool;
+
+	@Before
+	public void setUp() {
+		LdapContextPool pool = new LdapContextPool(new LdapContextPool.ContextFactory() {
+			@Override
+			public LdapContext create() throws NamingException {
+				ctx = new FakeContext();
+				return ctx.proxy();
+			}
+		});
+		pool.setMaxIdleTime(0);
+		pool.setValidationInterval(-1);
+		bindPool = new LdapBindPool(pool, "cn=service", "secret");
+	}
+
+	@After
+	public void tearDown() {
+		bindPool.close();
+	}
+
+	@Test
+	public void testConnectionReusedAndServiceRestored() throws Exception {
+		bindPool.authenticate("cn=alice", "alicePassword");
+		FakeContext first = ctx;
+		bindPool.authenticate("cn=bob", "bobPassword");
+		assertEquals(first, ctx);
+		assertEquals(1, bindPool.getPool().getCreatedCount());
+		assertEquals(4, ctx.calls.size());
+		assertEquals("cn=service", ctx.environment.get(Context.SECURITY_PRINCIPAL));
+		assertEquals("secret", ctx.environment.get(Context.SECURITY_CREDENTIALS));
+	}
+
+	@Test
+	public void testRejectedCredentials() throws Exception {
+		bindPool.authenticate("cn=alice", "alicePassword");
+		ctx.rejectPrincipal = "cn=mallory";
+		try {
+			bindPool.authenticate("cn=mallory", "guess");
+			fail("Expected authentication to fail");
+		} catch (AuthenticationException ae) {
+		}
+		/* Service account was restored so the connection is kept */
+		assertEquals(1, bindPool.getPool().getIdleCount());
+		assertEquals("cn=service", ctx.environment.get(Context.SECURITY_PRINCIPAL));
+	}
+
+	@Test
+	public void testDiscardedWhenServiceNotRestored() throws Exception {
+		bindPool.authenticate("cn=alice", "alicePassword");
+		FakeContext first = ctx;
+		first.rejectPrincipal = "cn=service";
+		bindPool.authenticate("cn=bob", "bobPassword");
+		assertEquals(0, bindPool.getPool().getIdleCount());
+		assertTrue(first.closed);
+
+		bindPool.authenticate("cn=bob", "bobPassword");
+		assertEquals(2, bindPool.getPool().getCreatedCount());
+	}
+}
@@ -0,0 +1,164 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.CommunicationException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LdapContextPoolTest {
+
+	private List<FakeContext> created;
+	private LdapContextPool pool;
+
+	@Before
+	public void setUp() {
+		created = new ArrayList<FakeContext>();
+		pool = new LdapContextPool(new LdapContextPool.ContextFactory() {
+			@Override
+			public LdapContext create() throws NamingException {
+				FakeContext ctx = new FakeContext();
+				synchronized (created) {
+					created.add(ctx);
+				}
+				return ctx.proxy();
+			}
+		});
+		pool.setMaxSize(2);
+		pool.setMaxIdleTime(0);
+		pool.setValidationInterval(-1);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+	}
+
+	@Test
+	public void testReusedAndControlsReset() throws Exception {
+		Control paged = new PagedResultsControl(100, Control.CRITICAL);
+		LdapContext ctx = pool.borrow(paged);
+		assertSame(paged, ctx.getRequestControls()[0]);
+		ctx.close();
+		/* Closing twice is harmless */
+		ctx.close();
+		assertNull(created.get(0).requestControls);
+		assertFalse(created.get(0).closed);
+
+		ctx = pool.borrow();
+		ctx.unbind("cn=test");
+		ctx.close();
+		assertEquals(1, created.size());
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(1, pool.getIdleCount());
+		assertEquals(0, pool.getActiveCount());
+
+		try {
+			ctx.unbind("cn=test");
+			fail("Expected a returned context to be unusable");
+		} catch (NamingException ne) {
+		}
+	}
+
+	@Test
+	public void testBrokenContextsDiscarded() throws Exception {
+		LdapContext ctx = pool.borrow();
+		created.get(0).failWith = new NameNotFoundException();
+		try {
+			ctx.unbind("cn=missing");
+			fail();
+		} catch (NameNotFoundException nnfe) {
+		}
+		ctx.close();
+		assertEquals(1, pool.getIdleCount());
+
+		ctx = pool.borrow();
+		created.get(0).failWith = new CommunicationException();
+		try {
+			ctx.unbind("cn=test");
+			fail();
+		} catch (CommunicationException ce) {
+		}
+		ctx.close();
+		assertTrue(created.get(0).closed);
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testValidationAndOverflow() throws Exception {
+		pool.setValidationInterval(0);
+		pool.setMaxWait(50);
+		LdapContext first = pool.borrow();
+		first.close();
+		created.get(0).failWith = new CommunicationException();
+
+		/* Stale context fails validation, so a new one is made */
+		LdapContext a = pool.borrow();
+		assertTrue(created.get(0).closed);
+		assertEquals(2, created.size());
+		LdapContext b = pool.borrow();
+
+		/* Pool is full, so after waiting an unpooled context is given */
+		LdapContext c = pool.borrow();
+		assertEquals(4, created.size());
+		assertEquals(2, pool.getActiveCount());
+		c.close();
+		assertTrue(created.get(3).closed);
+		a.close();
+		b.close();
+		assertEquals(2, pool.getIdleCount());
+	}
+
+	@Test
+	public void testIdleEviction() throws Exception {
+		pool.setMinSize(1);
+		pool.setMaxIdleTime(1);
+		LdapContext a = pool.borrow();
+		LdapContext b = pool.borrow();
+		a.close();
+		b.close();
+		Thread.sleep(10);
+		pool.evict();
+		assertEquals(1, pool.getIdleCount());
+		assertTrue(created.get(0).closed);
+		assertFalse(created.get(1).closed);
+	}
+}
@@ -0,0 +1,235 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.CommunicationException;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.util.MultiMap;
+
+public class LdapHostBalancerTest {
+
+	private final Set<String> unreachable = new HashSet<String>();
+	private final Set<String> resetting = new HashSet<String>();
+	private final Map<String, List<FakeContext>> created = new HashMap<String, List<FakeContext>>();
+	private LdapHostBalancer balancer;
+
+	@After
+	public void tearDown() {
+		if (balancer != null) {
+			balancer.close();
+		}
+	}
+
+	@Test
+	public void testRoundRobinSpreadsOverHosts() throws Exception {
+		start(LdapHostBalancer.Policy.ROUND_ROBIN, "ldap://a", "ldap://b", "ldap://c");
+		Set<String> used = new HashSet<String>();
+		for (int i = 0; i < 6; i++) {
+			LdapContext context = balancer.borrow();
+			used.add(hostOf(context));
+			context.close();
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("ldap://a", "ldap://b", "ldap://c")), used);
+	}
+
+	@Test
+	public void testFailoverUsesFirstHost() throws Exception {
+		start(LdapHostBalancer.Policy.FAILOVER, "ldap://a", "ldap://b");
+		for (int i = 0; i < 4; i++) {
+			LdapContext context = balancer.borrow();
+			assertEquals("ldap://a", hostOf(context));
+			context.close();
+		}
+	}
+
+	@Test
+	public void testDownHostSkippedUntilHealthy() throws Exception {
+		unreachable.add("ldap://b");
+		start(LdapHostBalancer.Policy.ROUND_ROBIN, "ldap://a", "ldap://b");
+		for (int i = 0; i < 4; i++) {
+			LdapContext context = balancer.borrow();
+			assertEquals("ldap://a", hostOf(context));
+			context.close();
+		}
+		assertEquals(Arrays.asList("ldap://a"), balancer.getHealthyHosts());
+
+		unreachable.clear();
+		balancer.checkHealth();
+		assertEquals(Arrays.asList("ldap://a", "ldap://b"), balancer.getHealthyHosts());
+	}
+
+	@Test
+	public void testFailedOperationMarksHostDown() throws Exception {
+		start(LdapHostBalancer.Policy.FAILOVER, "ldap://a", "ldap://b");
+		LdapContext context = balancer.borrow();
+		created.get("ldap://a").get(0).failWith = new CommunicationException("Connection reset");
+		try {
+			context.search("", "(objectClass=*)", new SearchControls());
+			fail("Expected the search to fail");
+		} catch (NamingException ne) {
+			assertTrue(LdapHostBalancer.isConnectionFailure(ne));
+		}
+		assertEquals(Arrays.asList("ldap://b"), balancer.getHealthyHosts());
+		assertEquals("ldap://b", hostOf(balancer.borrow()));
+	}
+
+	@Test
+	public void testSearchFailsOver() throws Exception {
+		resetting.add("ldap://a");
+		start(LdapHostBalancer.Policy.FAILOVER, "ldap://a", "ldap://b");
+		MultiMap parameters = new MultiMap();
+		parameters.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "localhost");
+		parameters.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_USERNAME, "cn=admin");
+		parameters.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		LdapService service = new LdapService() {
+			@Override
+			public LdapHostBalancer getBalancer() {
+				return balancer;
+			}
+
+			@Override
+			public LdapContext getConnection(Control... controls) throws NamingException {
+				return balancer.borrow(controls);
+			}
+		};
+		service.init(new DirectoryConfiguration(parameters));
+
+		/* The first page is read, and fails, before the iterator is returned */
+		Iterator<String> it = service.search(new LdapName("dc=example,dc=com"), "(objectClass=*)",
+				new ResultMapper<String>() {
+					@Override
+					public String apply(SearchResult result) {
+						return result.getNameInNamespace();
+					}
+
+					@Override
+					public boolean isApplyFilters() {
+						return false;
+					}
+				}, new SearchControls());
+		assertFalse(it.hasNext());
+		assertTrue(created.get("ldap://b").get(0).calls.contains("search"));
+		assertEquals(Arrays.asList("ldap://b"), balancer.getHealthyHosts());
+	}
+
+	@Test
+	public void testInterruptedBorrowLeavesHostUp() throws Exception {
+		start(LdapHostBalancer.Policy.FAILOVER, "ldap://a", "ldap://b");
+		for (LdapContextPool pool : balancer.getPools()) {
+			pool.setMaxSize(1);
+			pool.setMaxWait(60000);
+		}
+		LdapContext held = balancer.borrow();
+		Thread.currentThread().interrupt();
+		try {
+			balancer.borrow();
+			fail("Expected the borrow to be interrupted");
+		} catch (InterruptedNamingException ine) {
+			assertFalse(LdapHostBalancer.isConnectionFailure(ine));
+		} finally {
+			Thread.interrupted();
+		}
+		held.close();
+		assertEquals(Arrays.asList("ldap://a", "ldap://b"), balancer.getHealthyHosts());
+	}
+
+	@Test
+	public void testLeastOutstandingEvensLoad() throws Exception {
+		start(LdapHostBalancer.Policy.LEAST_OUTSTANDING, "ldap://a", "ldap://b");
+		List<LdapContext> held = new ArrayList<LdapContext>();
+		for (int i = 0; i < 4; i++) {
+			held.add(balancer.borrow());
+		}
+		for (LdapContextPool pool : balancer.getPools()) {
+			assertEquals(2, pool.getActiveCount());
+		}
+		held.get(0).close();
+		String freed = hostOf(held.get(0));
+		LdapContext next = balancer.borrow();
+		assertEquals(freed, hostOf(next));
+		assertFalse(created.get(freed).isEmpty());
+	}
+
+	private void start(LdapHostBalancer.Policy policy, String... urls) throws NamingException {
+		balancer = new LdapHostBalancer(Arrays.asList(urls), new LdapHostBalancer.HostContextFactory() {
+			@Override
+			public LdapContext create(String providerUrl) throws NamingException {
+				if (unreachable.contains(providerUrl)) {
+					throw new CommunicationException(providerUrl + " refused connection");
+				}
+				FakeContext context = new FakeContext();
+				if (resetting.contains(providerUrl)) {
+					context.failWith = new CommunicationException("Connection reset");
+				}
+				synchronized (created) {
+					List<FakeContext> contexts = created.get(providerUrl);
+					if (contexts == null) {
+						contexts = new ArrayList<FakeContext>();
+						created.put(providerUrl, contexts);
+					}
+					contexts.add(context);
+				}
+				return context.proxy();
+			}
+		});
+		balancer.setPolicy(policy);
+		balancer.setHealthCheckInterval(0);
+		for (LdapContextPool pool : balancer.getPools()) {
+			pool.setMinSize(0);
+			pool.setMaxIdleTime(0);
+			pool.setValidationInterval(-1);
+		}
+		balancer.start();
+	}
+
+	private static String hostOf(LdapContext context) {
+		String name = context.toString();
+		return name.substring(0, name.indexOf('['));
+	}
+}
@@ -0,0 +1,192 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+import org.junit.Test;
+
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.connector.jndi.directory.SearchBasePlanner.SearchBase;
+import com.identity4j.util.MultiMap;
+
+public class ParallelSearchTest {
+
+	/**
+	 * Each result of a parallel search over more bases than there are search
+	 * threads makes another search while it is mapped, as looking up a role
+	 * that is not cached does.
+	 */
+	@Test(timeout = 20000)
+	public void testSearchWhileMappingParallelResults() throws Exception {
+		final LdapService service = createService();
+		final SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		final ResultMapper<String> roleMapper = new NameMapper();
+		Iterator<String> it = service.search("(objectClass=person)", new NameMapper() {
+			@Override
+			public String apply(SearchResult result) throws NamingException, IOException {
+				Iterator<String> roles = service.search("(objectClass=group)", roleMapper, controls);
+				int count = 0;
+				while (roles.hasNext()) {
+					roles.next();
+					count++;
+				}
+				return super.apply(result) + "/" + count;
+			}
+		}, controls);
+		List<String> names = new ArrayList<String>();
+		while (it.hasNext()) {
+			names.add(it.next());
+		}
+		/* Nested searches are not split, so read just the base DN */
+		assertEquals(Arrays.asList("ou=A,dc=example,dc=com/1", "ou=B,dc=example,dc=com/1",
+				"ou=C,dc=example,dc=com/1", "ou=D,dc=example,dc=com/1", "ou=E,dc=example,dc=com/1"), names);
+		service.close();
+	}
+
+	@Test
+	public void testPlanForgottenWhenIncludeGainsChild() throws Exception {
+		MultiMap parameters = new MultiMap();
+		parameters.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "localhost");
+		parameters.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_USERNAME, "cn=admin");
+		parameters.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(DirectoryConfiguration.DIRECTORY_EXCLUDES, "ou=Leavers,dc=example,dc=com");
+		final FakeContext context = new FakeContext();
+		LdapService service = new LdapService() {
+			@Override
+			public LdapContext getConnection(Control... controls) {
+				return context.proxy();
+			}
+		};
+		service.init(new DirectoryConfiguration(parameters));
+
+		/* The base DN is split into its children, of which there are none yet */
+		assertEquals("[dc=example,dc=com (object)]", service.getSearchBases().toString());
+		service.getSearchBases();
+		assertEquals(1, Collections.frequency(context.calls, "search"));
+
+		/* Deeper entries are covered by the subtree searches of the children */
+		service.bind(new LdapName("cn=someone,ou=Staff,dc=example,dc=com"));
+		service.getSearchBases();
+		assertEquals(1, Collections.frequency(context.calls, "search"));
+
+		/* A new child would be missed, so the children are listed again */
+		service.bind(new LdapName("ou=Staff,dc=example,dc=com"));
+		service.getSearchBases();
+		assertEquals(2, Collections.frequency(context.calls, "search"));
+		service.close();
+	}
+
+	private LdapService createService() {
+		MultiMap parameters = new MultiMap();
+		parameters.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "localhost");
+		parameters.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_USERNAME, "cn=admin");
+		parameters.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(DirectoryConfiguration.DIRECTORY_PARALLEL_SEARCH, "true");
+		parameters.set(DirectoryConfiguration.DIRECTORY_SEARCH_THREADS, "2");
+		LdapService service = new LdapService() {
+			@Override
+			public LdapContext getConnection(Control... controls) {
+				return new OneResultContext().proxy();
+			}
+
+			@Override
+			List<SearchBase> getSearchBases() {
+				List<SearchBase> bases = new ArrayList<SearchBase>();
+				try {
+					for (String ou : new String[] { "A", "B", "C", "D", "E" }) {
+						bases.add(new SearchBase(new LdapName("ou=" + ou + ",dc=example,dc=com"),
+								SearchControls.SUBTREE_SCOPE));
+					}
+				} catch (NamingException ne) {
+					throw new IllegalStateException(ne);
+				}
+				return bases;
+			}
+		};
+		service.init(new DirectoryConfiguration(parameters));
+		return service;
+	}
+
+	static class NameMapper implements ResultMapper<String> {
+		@Override
+		public String apply(SearchResult result) throws NamingException, IOException {
+			return result.getNameInNamespace();
+		}
+
+		@Override
+		public boolean isApplyFilters() {
+			return true;
+		}
+	}
+
+	/**
+	 * Answers every search with the search base itself.
+	 */
+	static class OneResultContext extends FakeContext {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (!method.getName().equals("search")) {
+				return super.invoke(proxy, method, args);
+			}
+			final SearchResult result = new SearchResult("", null, new BasicAttributes());
+			result.setNameInNamespace(((Name) args[0]).toString());
+			return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { NamingEnumeration.class },
+					new InvocationHandler() {
+						boolean read;
+
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+							if (method.getName().startsWith("has")) {
+								return !read;
+							} else if (method.getName().equals("next")) {
+								read = true;
+								return result;
+							}
+							return null;
+						}
+					});
+		}
+	}
+}
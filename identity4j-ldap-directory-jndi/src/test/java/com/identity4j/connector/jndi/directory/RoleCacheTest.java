@@ -0,0 +1,63 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.identity4j.connector.principal.Role;
+import com.identity4j.connector.principal.RoleImpl;
+
+public class RoleCacheTest {
+
+	@Test
+	public void testEnumerationOnly() {
+		RoleCache cache = new RoleCache(0);
+		Role staff = new RoleImpl("100", "Staff");
+		RoleCache.Enumeration first = cache.begin();
+		first.put("gidNumber", "100", staff);
+		assertSame(staff, first.get("gidNumber", "100"));
+		assertNull(first.get("primaryGroup", "100"));
+		assertNull(cache.begin().get("gidNumber", "100"));
+	}
+
+	@Test
+	public void testSharedUntilExpired() throws Exception {
+		RoleCache cache = new RoleCache(50);
+		Role staff = new RoleImpl("100", "Staff");
+		cache.begin().put("gidNumber", "100", staff);
+		assertSame(staff, cache.begin().get("gidNumber", "100"));
+		Thread.sleep(100);
+		assertNull(cache.begin().get("gidNumber", "100"));
+	}
+
+	@Test
+	public void testClearedOnChange() {
+		RoleCache cache = new RoleCache(60000);
+		cache.begin().put("gidNumber", "100", new RoleImpl("100", "Staff"));
+		cache.clear();
+		assertNull(cache.begin().get("gidNumber", "100"));
+	}
+}
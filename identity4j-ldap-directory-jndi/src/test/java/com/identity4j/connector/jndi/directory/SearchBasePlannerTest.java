@@ -0,0 +1,97 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.InvalidNameException;
+import javax.naming.Name;
+import javax.naming.directory.SearchControls;
+import javax.naming.ldap.LdapName;
+
+import org.junit.Test;
+
+import com.identity4j.connector.jndi.directory.SearchBasePlanner.SearchBase;
+
+public class SearchBasePlannerTest {
+
+	private final Map<Name, List<Name>> tree = new HashMap<Name, List<Name>>();
+	private final List<Name> listed = new ArrayList<Name>();
+	private final SearchBasePlanner planner = new SearchBasePlanner(new SearchBasePlanner.ChildLister() {
+		@Override
+		public List<Name> list(Name parent) {
+			listed.add(parent);
+			return tree.get(parent);
+		}
+	});
+
+	@Test
+	public void testNestedIncludesMerged() throws Exception {
+		List<SearchBase> bases = planner.plan(names("ou=Sales,dc=example,dc=com", "ou=East,ou=Sales,dc=example,dc=com",
+				"ou=Staff,dc=example,dc=com"), names());
+		assertEquals("[ou=Sales,dc=example,dc=com (subtree), ou=Staff,dc=example,dc=com (subtree)]", bases.toString());
+		assertEquals(0, listed.size());
+	}
+
+	@Test
+	public void testExcludedSubtreePruned() throws Exception {
+		tree.put(name("dc=example,dc=com"),
+				names("ou=Sales,dc=example,dc=com", "ou=Staff,dc=example,dc=com", "ou=Leavers,dc=example,dc=com"));
+		List<SearchBase> bases = planner.plan(names("dc=example,dc=com"), names("ou=Leavers,dc=example,dc=com"));
+		assertEquals(3, bases.size());
+		assertEquals(SearchControls.OBJECT_SCOPE, bases.get(0).scope);
+		assertEquals(name("ou=Sales,dc=example,dc=com"), bases.get(1).dn);
+		assertEquals(name("ou=Staff,dc=example,dc=com"), bases.get(2).dn);
+		assertEquals(SearchControls.SUBTREE_SCOPE, bases.get(2).scope);
+	}
+
+	@Test
+	public void testTooManyChildrenSearchesWholeSubtree() throws Exception {
+		/* No entry in the tree, as if the size limit was exceeded */
+		List<SearchBase> bases = planner.plan(names("dc=example,dc=com"), names("ou=Leavers,dc=example,dc=com"));
+		assertEquals("[dc=example,dc=com (subtree)]", bases.toString());
+
+		tree.put(name("dc=example,dc=com"), names("ou=A,dc=example,dc=com", "ou=B,dc=example,dc=com",
+				"ou=Leavers,dc=example,dc=com"));
+		planner.setMaxBases(3);
+		bases = planner.plan(names("dc=example,dc=com"), names("ou=Leavers,dc=example,dc=com"));
+		assertEquals("[dc=example,dc=com (subtree)]", bases.toString());
+	}
+
+	private static Name name(String dn) throws InvalidNameException {
+		return new LdapName(dn);
+	}
+
+	private static List<Name> names(String... dns) throws InvalidNameException {
+		List<Name> names = new ArrayList<Name>();
+		for (String dn : dns) {
+			names.add(name(dn));
+		}
+		return names;
+	}
+}
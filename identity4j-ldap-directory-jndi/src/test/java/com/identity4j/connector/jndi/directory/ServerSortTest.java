@@ -0,0 +1,133 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortResponseControl;
+
+import org.junit.Test;
+
+import com.identity4j.connector.jndi.directory.LdapService.ResultMapper;
+import com.identity4j.util.MultiMap;
+
+public class ServerSortTest {
+
+	@Test
+	public void testParse() {
+		ServerSort sort = ServerSort.parse("sn, -whenCreated:1.2.3", true);
+		assertEquals(2, sort.getKeys().length);
+		assertEquals("sn", sort.getKeys()[0].getAttributeID());
+		assertTrue(sort.getKeys()[0].isAscending());
+		assertEquals("whenCreated", sort.getKeys()[1].getAttributeID());
+		assertFalse(sort.getKeys()[1].isAscending());
+		assertEquals("1.2.3", sort.getKeys()[1].getMatchingRuleID());
+		assertTrue(sort.isCritical());
+		assertNull(ServerSort.parse(" , ", false));
+		assertNull(ServerSort.parse(null, false));
+	}
+
+	@Test
+	public void testPageControls() throws Exception {
+		Control[] controls = ServerSort.parse("cn", false).pageControls(100, new byte[] { 1 });
+		assertEquals(2, controls.length);
+		assertTrue(controls[0] instanceof SortControl);
+		assertFalse(controls[0].isCritical());
+		assertTrue(controls[1] instanceof PagedResultsControl);
+	}
+
+	@Test
+	public void testHonoured() throws Exception {
+		ServerSort sort = ServerSort.parse("cn", false);
+
+		/* SEQUENCE { sortResult ENUMERATED success } */
+		Control[] sorted = new Control[] { new SortResponseControl(SortResponseControl.OID, false, Ber.sequence(Ber
+				.enumerated(0))) };
+		assertTrue(sort.response(sorted, null));
+		assertTrue(sort.response(sorted, true));
+
+		/* Non-critical control not recognised, so no response */
+		assertFalse(sort.response(null, null));
+
+		/* unwillingToPerform */
+		assertFalse(sort.response(new Control[] { new SortResponseControl(SortResponseControl.OID, false, Ber
+				.sequence(Ber.enumerated(53))) }, true));
+
+		/* A search is only sorted if every page was */
+		assertFalse(sort.response(sorted, false));
+	}
+
+	@Test
+	public void testRecordedPerSearch() throws Exception {
+		LdapService service = new LdapService();
+		MultiMap parameters = new MultiMap();
+		parameters.set(DirectoryConfiguration.DIRECTORY_HOSTNAME, "localhost");
+		parameters.set(DirectoryConfiguration.DIRECTORY_SERVICE_ACCOUNT_USERNAME, "cn=admin");
+		parameters.set(DirectoryConfiguration.DIRECTORY_BASE_DN, "dc=example,dc=com");
+		parameters.set(DirectoryConfiguration.DIRECTORY_SORT_ATTRIBUTES, "cn");
+		service.init(new DirectoryConfiguration(parameters));
+
+		/* The first page is read as the search starts */
+		SortedResults sortedSearch = search(service, new Control[] { new SortResponseControl(
+				SortResponseControl.OID, false, Ber.sequence(Ber.enumerated(0))) });
+		SortedResults unsortedSearch = search(service, null);
+		assertTrue(sortedSearch.isSortedByServer());
+		assertFalse(unsortedSearch.isSortedByServer());
+	}
+
+	private SortedResults search(LdapService service, final Control[] response) throws Exception {
+		FakeContext context = new FakeContext() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getResponseControls")) {
+					return response;
+				}
+				return super.invoke(proxy, method, args);
+			}
+		};
+		return service.new OldSearchResultIterator<String>(new LdapName("dc=example,dc=com"), context.proxy(),
+				"(cn=*)", new ResultMapper<String>() {
+					@Override
+					public String apply(SearchResult result) {
+						return result.getName();
+					}
+
+					@Override
+					public boolean isApplyFilters() {
+						return false;
+					}
+				}, new SearchControls());
+	}
+}
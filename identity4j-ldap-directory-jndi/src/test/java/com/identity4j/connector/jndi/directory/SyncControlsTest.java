@@ -0,0 +1,88 @@
+package com.identity4j.connector.jndi.directory;
+
+/*
+ * #%L
+ * Idenity4J LDAP Directory JNDI
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.naming.ldap.BasicControl;
+import javax.naming.ldap.Control;
+
+import org.junit.Test;
+
+public class SyncControlsTest {
+
+	@Test
+	public void testBerRoundTrip() throws Exception {
+		byte[] big = new byte[300];
+		big[299] = 7;
+		Ber.Reader reader = new Ber.Reader(Ber.sequence(Ber.integer(-1), Ber.integer(128), Ber.enumerated(3),
+				Ber.bool(true), Ber.octets(big), Ber.string("cn=test"))).sequence();
+		assertEquals(-1, reader.integer());
+		assertEquals(128, reader.integer());
+		assertEquals(3, reader.enumerated());
+		assertTrue(reader.bool());
+		assertArrayEquals(big, reader.octets());
+		assertEquals("cn=test", reader.string());
+		assertFalse(reader.hasMore());
+	}
+
+	@Test
+	public void testSyncRequestEncoding() throws Exception {
+		SyncRequestControl control = new SyncRequestControl(SyncRequestControl.REFRESH_AND_PERSIST, "abc".getBytes(),
+				false);
+		assertTrue(control.isCritical());
+		assertArrayEquals(new byte[] { 0x30, 0x08, 0x0a, 0x01, 0x03, 0x04, 0x03, 'a', 'b', 'c' },
+				control.getEncodedValue());
+		assertArrayEquals(new byte[] { 0x30, 0x03, 0x0a, 0x01, 0x01 },
+				new SyncRequestControl(SyncRequestControl.REFRESH_ONLY, null, false).getEncodedValue());
+	}
+
+	@Test
+	public void testResponseControlsDecoded() throws Exception {
+		byte[] uuid = new byte[16];
+		uuid[15] = 1;
+		Control state = new BasicControl(SyncStateControl.OID, false,
+				Ber.sequence(Ber.enumerated(SyncStateControl.DELETE), Ber.octets(uuid), Ber.string("rid=001,csn=1")));
+		SyncStateControl decoded = SyncStateControl.get(new Control[] { state });
+		assertEquals(SyncStateControl.DELETE, decoded.getState());
+		assertEquals("00000000-0000-0000-0000-000000000001", decoded.getEntryUUID());
+		assertEquals("rid=001,csn=1", new String(decoded.getCookie(), "UTF-8"));
+
+		SyncDoneControl done = SyncDoneControl.get(new Control[] {
+				new BasicControl(SyncDoneControl.OID, false, Ber.sequence(Ber.bool(true))) });
+		assertNull(done.getCookie());
+		assertTrue(done.isRefreshDeletes());
+
+		EntryChangeNotificationControl ecn = EntryChangeNotificationControl.get(new Control[] { new BasicControl(
+				EntryChangeNotificationControl.OID, false, Ber.sequence(Ber.enumerated(PersistentSearchControl.MODDN),
+						Ber.string("uid=old,dc=example,dc=com"), Ber.integer(42))) });
+		assertEquals(PersistentSearchControl.MODDN, ecn.getChangeType());
+		assertEquals("uid=old,dc=example,dc=com", ecn.getPreviousDN());
+		assertEquals(42, ecn.getChangeNumber());
+		assertNull(EntryChangeNotificationControl.get(new Control[] { state }));
+	}
+}
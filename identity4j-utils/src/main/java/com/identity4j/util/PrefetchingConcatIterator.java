@@ -0,0 +1,222 @@
+package com.identity4j.util;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concatenates several iterators, returning all elements of the first, then
+ * all elements of the second and so on. Every source is opened and read ahead
+ * at the same time on the supplied {@link Executor}, each into its own
+ * bounded buffer, so the total time is close to that of the slowest source
+ * rather than the sum of all of them, while memory use stays bounded.
+ * <p>
+ * If a source fails, the exception is thrown by {@link #hasNext()} or
+ * {@link #next()} when the consumer reaches that source. If the consumer
+ * stops early it should call {@link #cancel()}; otherwise the readers give up
+ * once nothing has been consumed for the idle timeout. A consumer that comes
+ * back after that gets an exception, never a silently shortened result. Time
+ * spent waiting for a slow source does not count as idle. Source iterators
+ * that are {@link Closeable} are closed when their reader finishes or gives
+ * up.
+ *
+ * @param <T> type of element
+ */
+public class PrefetchingConcatIterator<T> implements Iterator<T>, Closeable {
+
+	private final static Object END = new Object();
+	private final static long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+	private final List<Source> sources = new ArrayList<Source>();
+	private final long idleTimeout;
+	private volatile boolean cancelled;
+	private volatile RuntimeException failure;
+	private volatile boolean waiting;
+	private volatile long lastTaken = System.currentTimeMillis();
+	private int current;
+	private Object next;
+
+	public PrefetchingConcatIterator(Executor executor, List<? extends Callable<? extends Iterator<? extends T>>> sources,
+			int bufferSize) {
+		this(executor, sources, bufferSize, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	public PrefetchingConcatIterator(Executor executor, List<? extends Callable<? extends Iterator<? extends T>>> sources,
+			int bufferSize, long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		for (Callable<? extends Iterator<? extends T>> callable : sources) {
+			Source source = new Source(callable, bufferSize);
+			this.sources.add(source);
+			executor.execute(source);
+		}
+	}
+
+	/**
+	 * Stop reading from all sources. Any further calls to {@link #hasNext()}
+	 * will return <code>false</code>.
+	 */
+	public void cancel() {
+		cancelled = true;
+		for (Source source : sources) {
+			source.queue.clear();
+		}
+	}
+
+	/**
+	 * Same as {@link #cancel()}.
+	 */
+	@Override
+	public void close() {
+		cancel();
+	}
+
+	@Override
+	public boolean hasNext() {
+		fetch();
+		return next != null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		fetch();
+		if (next == null) {
+			throw new NoSuchElementException();
+		}
+		try {
+			return (T) next;
+		} finally {
+			next = null;
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private void fetch() {
+		while (next == null && current < sources.size()) {
+			if (failure != null) {
+				throw failure;
+			}
+			if (cancelled) {
+				return;
+			}
+			Source source = sources.get(current);
+			Object obj;
+			waiting = true;
+			try {
+				/* Wake up now and again in case the readers gave up */
+				obj = source.queue.poll(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancel();
+				throw new IllegalStateException("Interrupted waiting for next element.", e);
+			} finally {
+				lastTaken = System.currentTimeMillis();
+				waiting = false;
+			}
+			if (obj == null) {
+				continue;
+			}
+			if (obj == END) {
+				current++;
+				if (source.error != null) {
+					cancel();
+					if (source.error instanceof RuntimeException) {
+						throw (RuntimeException) source.error;
+					}
+					throw new IllegalStateException("Failed to read source " + current + ". " + source.error.getMessage(),
+							source.error);
+				}
+			} else {
+				next = obj;
+			}
+		}
+	}
+
+	class Source implements Runnable {
+		final Callable<? extends Iterator<? extends T>> callable;
+		final BlockingQueue<Object> queue;
+		volatile Throwable error;
+
+		Source(Callable<? extends Iterator<? extends T>> callable, int bufferSize) {
+			this.callable = callable;
+			queue = new ArrayBlockingQueue<Object>(bufferSize + 1);
+		}
+
+		@Override
+		public void run() {
+			Iterator<? extends T> it = null;
+			try {
+				it = callable.call();
+				while (!cancelled && it.hasNext()) {
+					T obj = it.next();
+					if (obj != null && !put(obj)) {
+						return;
+					}
+				}
+			} catch (Throwable t) {
+				error = t;
+			} finally {
+				if (it instanceof Closeable) {
+					try {
+						((Closeable) it).close();
+					} catch (IOException ioe) {
+					}
+				}
+			}
+			put(END);
+		}
+
+		private boolean put(Object obj) {
+			try {
+				while (!cancelled) {
+					if (queue.offer(obj, 1, TimeUnit.SECONDS)) {
+						return true;
+					}
+					if (!waiting && System.currentTimeMillis() - lastTaken >= idleTimeout) {
+						/* Consumer has abandoned the iterator, fail it should it return */
+						failure = new IllegalStateException("Nothing was read for " + idleTimeout
+								+ "ms, so reading was stopped before the end.");
+						cancelled = true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package com.identity4j.util.events;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sends {@link OperationEvent}s to JDK Flight Recorder, so connector activity
+ * appears on the same timeline as GC, I/O and thread events. One event type
+ * is registered for each {@link OperationKind}, in the category
+ * <i>Identity4J</i>.
+ * <p>
+ * The <code>jdk.jfr</code> API is only present on Java 11 and later, while
+ * this library targets older runtimes, so the event types are defined at run
+ * time through <code>jdk.jfr.EventFactory</code> using reflection. The
+ * recorder listens for recordings starting and stopping, and reports that it
+ * is not recording while none are running, so the cost to instrumented code
+ * is then a single volatile read.
+ */
+public class JfrOperationRecorder implements OperationRecorder {
+
+	final static Log LOG = LogFactory.getLog(JfrOperationRecorder.class);
+
+	private static final int SOURCE = 0;
+	private static final int OPERATION = 1;
+	private static final int PRINCIPAL_HASH = 2;
+	private static final int RESULT = 3;
+	private static final int BYTES = 4;
+
+	private final Object[] factories = new Object[OperationKind.values().length];
+	private final Set<Object> running = Collections.synchronizedSet(new HashSet<Object>());
+	private final Method newEvent;
+	private final Method begin;
+	private final Method end;
+	private final Method shouldCommit;
+	private final Method commit;
+	private final Method set;
+	private final Method getState;
+	private volatile boolean recording;
+
+	/**
+	 * Create a recorder if Flight Recorder is available in this JVM.
+	 *
+	 * @return recorder or <code>null</code> if not available
+	 */
+	public static JfrOperationRecorder create() {
+		try {
+			Class.forName("jdk.jfr.EventFactory");
+		} catch (ClassNotFoundException cnfe) {
+			return null;
+		}
+		try {
+			return new JfrOperationRecorder();
+		} catch (Exception e) {
+			LOG.warn("Flight Recorder is present but event types could not be registered.", e);
+		} catch (LinkageError le) {
+			LOG.warn("Flight Recorder is present but event types could not be registered.", le);
+		}
+		return null;
+	}
+
+	protected JfrOperationRecorder() throws Exception {
+		Class<?> eventClass = Class.forName("jdk.jfr.Event");
+		Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+		Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+		Class<?> flightRecorderClass = Class.forName("jdk.jfr.FlightRecorder");
+		Class<?> listenerClass = Class.forName("jdk.jfr.FlightRecorderListener");
+		Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+
+		newEvent = eventFactoryClass.getMethod("newEvent");
+		begin = eventClass.getMethod("begin");
+		end = eventClass.getMethod("end");
+		shouldCommit = eventClass.getMethod("shouldCommit");
+		commit = eventClass.getMethod("commit");
+		set = eventClass.getMethod("set", int.class, Object.class);
+		getState = recordingClass.getMethod("getState");
+
+		Constructor<?> valueDescriptor = valueDescriptorClass.getConstructor(Class.class, String.class, List.class);
+		List<Object> fields = new ArrayList<Object>();
+		fields.add(valueDescriptor.newInstance(String.class, "source", annotations("Label", "Source")));
+		fields.add(valueDescriptor.newInstance(String.class, "operation", annotations("Label", "Operation")));
+		fields.add(valueDescriptor.newInstance(String.class, "principalHash", annotations("Label", "Principal Hash")));
+		fields.add(valueDescriptor.newInstance(String.class, "result", annotations("Label", "Result")));
+		fields.add(valueDescriptor.newInstance(long.class, "bytes",
+				annotations("Label", "Bytes", "DataAmount", "BYTES")));
+
+		Method create = eventFactoryClass.getMethod("create", List.class, List.class);
+		for (OperationKind kind : OperationKind.values()) {
+			List<Object> typeAnnotations = annotations("Name", kind.getEventName(), "Label", kind.getLabel(),
+					"Category", new String[] { "Identity4J" }, "StackTrace", Boolean.FALSE);
+			factories[kind.ordinal()] = create.invoke(null, typeAnnotations, fields);
+		}
+
+		Object listener = Proxy.newProxyInstance(JfrOperationRecorder.class.getClassLoader(),
+				new Class<?>[] { listenerClass }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("recordingStateChanged")) {
+							stateChanged(args[0]);
+						} else if (name.equals("hashCode")) {
+							return System.identityHashCode(proxy);
+						} else if (name.equals("equals")) {
+							return proxy == args[0];
+						} else if (name.equals("toString")) {
+							return JfrOperationRecorder.class.getName() + "$Listener";
+						}
+						return null;
+					}
+				});
+		flightRecorderClass.getMethod("addListener", listenerClass).invoke(null, listener);
+
+		/* Recordings may have been started before the listener was added */
+		if (Boolean.TRUE.equals(flightRecorderClass.getMethod("isInitialized").invoke(null))) {
+			Object flightRecorder = flightRecorderClass.getMethod("getFlightRecorder").invoke(null);
+			for (Object r : (List<?>) flightRecorderClass.getMethod("getRecordings").invoke(flightRecorder)) {
+				stateChanged(r);
+			}
+		}
+	}
+
+	@Override
+	public boolean isRecording(OperationKind kind) {
+		return recording;
+	}
+
+	@Override
+	public Object begin(OperationKind kind) {
+		try {
+			Object event = newEvent.invoke(factories[kind.ordinal()]);
+			begin.invoke(event);
+			return event;
+		} catch (Exception e) {
+			LOG.debug("Failed to begin event.", e);
+			return null;
+		}
+	}
+
+	@Override
+	public void end(Object state, OperationEvent event) {
+		if (state == null) {
+			return;
+		}
+		try {
+			end.invoke(state);
+			if (Boolean.TRUE.equals(shouldCommit.invoke(state))) {
+				set.invoke(state, SOURCE, event.getSource());
+				set.invoke(state, OPERATION, event.getOperation());
+				set.invoke(state, PRINCIPAL_HASH, event.getPrincipalHash());
+				set.invoke(state, RESULT, event.getResult());
+				set.invoke(state, BYTES, event.getBytes());
+				commit.invoke(state);
+			}
+		} catch (Exception e) {
+			LOG.debug("Failed to commit event.", e);
+		}
+	}
+
+	private void stateChanged(Object recording) {
+		try {
+			if ("RUNNING".equals(String.valueOf(getState.invoke(recording)))) {
+				running.add(recording);
+			} else {
+				running.remove(recording);
+			}
+		} catch (Exception e) {
+			LOG.debug("Failed to get recording state.", e);
+		}
+		this.recording = !running.isEmpty();
+	}
+
+	/**
+	 * Build a list of <code>jdk.jfr.AnnotationElement</code> from pairs of
+	 * simple annotation names (in the <code>jdk.jfr</code> package) and values.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Object> annotations(Object... pairs) throws Exception {
+		Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+		Constructor<?> annotationElement = annotationElementClass.getConstructor(Class.class, Object.class);
+		List<Object> elements = new ArrayList<Object>();
+		for (int i = 0; i < pairs.length; i += 2) {
+			Class<? extends Annotation> type = (Class<? extends Annotation>) Class.forName("jdk.jfr." + pairs[i]);
+			elements.add(annotationElement.newInstance(type, pairs[i + 1]));
+		}
+		return elements;
+	}
+
+	@Override
+	public String toString() {
+		return "JfrOperationRecorder [recording=" + recording + "]";
+	}
+}
@@ -0,0 +1,226 @@
+package com.identity4j.util.events;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A single timed operation, such as a bind or an HTTP request. Obtain one
+ * from {@link OperationEvents#begin(OperationKind, Class, String)}, fill in
+ * what is known as the operation proceeds and call {@link #end()} in a
+ * <code>finally</code> block.
+ * <p>
+ * When nothing is recording, a shared disabled instance is returned and all
+ * methods return immediately, so instrumentation may be left in place.
+ */
+public final class OperationEvent {
+
+	/**
+	 * Result of an operation that was ended without a result being set,
+	 * which is normally because an exception was thrown.
+	 */
+	public static final String FAILED = "failed";
+
+	/**
+	 * Result set by {@link #succeeded()}.
+	 */
+	public static final String SUCCEEDED = "succeeded";
+
+	static final OperationEvent DISABLED = new OperationEvent(null, null, null, null, null);
+
+	private final OperationKind kind;
+	private final String source;
+	private final String operation;
+	private final OperationRecorder recorder;
+	private final Object state;
+	private final long started;
+	private String principalName;
+	private String result;
+	private long bytes;
+	private long duration = -1;
+
+	OperationEvent(OperationRecorder recorder, Object state, OperationKind kind, String source, String operation) {
+		this.recorder = recorder;
+		this.state = state;
+		this.kind = kind;
+		this.source = source;
+		this.operation = operation;
+		this.started = recorder == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Get whether this event will be recorded. Use to guard any work done
+	 * only to describe the operation.
+	 *
+	 * @return enabled
+	 */
+	public boolean isEnabled() {
+		return recorder != null;
+	}
+
+	/**
+	 * Set the name of the principal the operation acts on. Only a hash of the
+	 * name is made available to recorders.
+	 *
+	 * @param principalName principal name
+	 * @return this for chaining
+	 */
+	public OperationEvent principal(String principalName) {
+		if (recorder != null) {
+			this.principalName = principalName;
+		}
+		return this;
+	}
+
+	/**
+	 * Set the outcome of the operation, e.g. {@link #SUCCEEDED} or an LDAP
+	 * result code.
+	 *
+	 * @param result result
+	 * @return this for chaining
+	 */
+	public OperationEvent result(String result) {
+		if (recorder != null) {
+			this.result = result;
+		}
+		return this;
+	}
+
+	/**
+	 * Mark the operation as successful.
+	 *
+	 * @return this for chaining
+	 */
+	public OperationEvent succeeded() {
+		return result(SUCCEEDED);
+	}
+
+	/**
+	 * Mark the operation as failed, using the class of the exception as the
+	 * result.
+	 *
+	 * @param exception cause of failure
+	 * @return this for chaining
+	 */
+	public OperationEvent failed(Throwable exception) {
+		if (recorder != null) {
+			this.result = exception.getClass().getSimpleName();
+		}
+		return this;
+	}
+
+	/**
+	 * Add to the number of bytes transferred by the operation.
+	 *
+	 * @param bytes bytes
+	 * @return this for chaining
+	 */
+	public OperationEvent bytes(long bytes) {
+		if (recorder != null && bytes > 0) {
+			this.bytes += bytes;
+		}
+		return this;
+	}
+
+	/**
+	 * Finish the operation and pass it to the recorder. Should be called
+	 * exactly once.
+	 */
+	public void end() {
+		if (recorder != null && duration == -1) {
+			duration = System.nanoTime() - started;
+			if (result == null) {
+				result = FAILED;
+			}
+			recorder.end(state, this);
+		}
+	}
+
+	public OperationKind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Get the component that performed the operation, usually the class name
+	 * of the connector.
+	 *
+	 * @return source
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public String getResult() {
+		return result;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Get how long the operation took, or -1 if it has not ended.
+	 *
+	 * @return duration in nanoseconds
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Get a short, stable hash of the principal name, so that events for the
+	 * same principal may be correlated without recording the name itself.
+	 *
+	 * @return hex encoded hash or <code>null</code> if no principal was set
+	 */
+	public String getPrincipalHash() {
+		if (principalName == null) {
+			return null;
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(principalName.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder(16);
+			for (int i = 0; i < 8; i++) {
+				hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(digest[i] & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "OperationEvent [kind=" + kind + ", source=" + source + ", operation=" + operation + ", result="
+				+ result + ", bytes=" + bytes + ", duration=" + duration + "]";
+	}
+}
@@ -0,0 +1,114 @@
+package com.identity4j.util.events;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Entry point for instrumenting operations. By default events are sent to JDK
+ * Flight Recorder when the running JVM provides it (see
+ * {@link JfrOperationRecorder}), and are discarded otherwise. Set the system
+ * property <code>identity4j.jfr</code> to <code>false</code> to disable this,
+ * or install a different recorder with {@link #setRecorder(OperationRecorder)}.
+ * <p>
+ * Typical use is :-
+ *
+ * <pre>
+ * OperationEvent event = OperationEvents.begin(OperationKind.LDAP, getClass(), &quot;search&quot;);
+ * try {
+ * 	// do work
+ * 	event.succeeded();
+ * } finally {
+ * 	event.end();
+ * }
+ * </pre>
+ */
+public final class OperationEvents {
+
+	final static Log LOG = LogFactory.getLog(OperationEvents.class);
+
+	private static volatile OperationRecorder recorder;
+
+	static {
+		if (!"false".equals(System.getProperty("identity4j.jfr"))) {
+			recorder = JfrOperationRecorder.create();
+			if (recorder != null && LOG.isDebugEnabled()) {
+				LOG.debug("Operation events will be sent to Flight Recorder");
+			}
+		}
+	}
+
+	private OperationEvents() {
+	}
+
+	/**
+	 * Begin an operation performed by a class.
+	 *
+	 * @param kind kind
+	 * @param source class performing the operation
+	 * @param operation operation name
+	 * @return event, never <code>null</code>
+	 */
+	public static OperationEvent begin(OperationKind kind, Class<?> source, String operation) {
+		OperationRecorder r = recorder;
+		if (r == null || !r.isRecording(kind)) {
+			return OperationEvent.DISABLED;
+		}
+		return new OperationEvent(r, r.begin(kind), kind, source.getName(), operation);
+	}
+
+	/**
+	 * Begin an operation.
+	 *
+	 * @param kind kind
+	 * @param source component performing the operation
+	 * @param operation operation name
+	 * @return event, never <code>null</code>
+	 */
+	public static OperationEvent begin(OperationKind kind, String source, String operation) {
+		OperationRecorder r = recorder;
+		if (r == null || !r.isRecording(kind)) {
+			return OperationEvent.DISABLED;
+		}
+		return new OperationEvent(r, r.begin(kind), kind, source, operation);
+	}
+
+	/**
+	 * Get the current recorder.
+	 *
+	 * @return recorder or <code>null</code> if events are discarded
+	 */
+	public static OperationRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Replace the recorder.
+	 *
+	 * @param recorder recorder or <code>null</code> to discard events
+	 */
+	public static void setRecorder(OperationRecorder recorder) {
+		OperationEvents.recorder = recorder;
+	}
+}
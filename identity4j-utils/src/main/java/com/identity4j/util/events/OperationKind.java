@@ -0,0 +1,75 @@
+package com.identity4j.util.events;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * The kinds of timed operation that are reported as {@link OperationEvent}s.
+ * Each kind becomes a separate event type in a flight recording, so they may
+ * be enabled, thresholded and charted independently.
+ */
+public enum OperationKind {
+	/**
+	 * Public operations of a connector, such as logon or setting a password.
+	 */
+	CONNECTOR("identity4j.ConnectorOperation", "Connector Operation"),
+	/**
+	 * Directory searches, binds and modifications.
+	 */
+	LDAP("identity4j.LdapOperation", "LDAP Operation"),
+	/**
+	 * Execution of an HTTP request by an HTTP provider.
+	 */
+	HTTP("identity4j.HttpRequest", "HTTP Request"),
+	/**
+	 * Waiting for a pattern in the output of a command driven by
+	 * {@link com.identity4j.util.expect.Expect}.
+	 */
+	EXPECT("identity4j.ExpectChat", "Expect Chat");
+
+	private final String eventName;
+	private final String label;
+
+	private OperationKind(String eventName, String label) {
+		this.eventName = eventName;
+		this.label = label;
+	}
+
+	/**
+	 * Get the unique name of the event type, e.g.
+	 * <code>identity4j.LdapOperation</code>.
+	 *
+	 * @return event name
+	 */
+	public String getEventName() {
+		return eventName;
+	}
+
+	/**
+	 * Get the human readable name of the event type.
+	 *
+	 * @return label
+	 */
+	public String getLabel() {
+		return label;
+	}
+}
@@ -0,0 +1,58 @@
+package com.identity4j.util.events;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Receives completed {@link OperationEvent}s. A recorder is consulted before
+ * every operation, so {@link #isRecording(OperationKind)} must be cheap, and
+ * should return <code>false</code> whenever nothing would be kept so that
+ * instrumented code does no further work.
+ */
+public interface OperationRecorder {
+
+	/**
+	 * Get whether events of the given kind are currently wanted.
+	 *
+	 * @param kind kind
+	 * @return recording
+	 */
+	boolean isRecording(OperationKind kind);
+
+	/**
+	 * Called as an operation begins. The returned object is handed back to
+	 * {@link #end(Object, OperationEvent)}, allowing the recorder to take its
+	 * own start time.
+	 *
+	 * @param kind kind
+	 * @return recorder specific state, may be <code>null</code>
+	 */
+	Object begin(OperationKind kind);
+
+	/**
+	 * Called once an operation has finished.
+	 *
+	 * @param state object returned from {@link #begin(OperationKind)}
+	 * @param event completed event
+	 */
+	void end(Object state, OperationEvent event);
+}
@@ -33,6 +33,10 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.identity4j.util.events.OperationEvent;
+import com.identity4j.util.events.OperationEvents;
+import com.identity4j.util.events.OperationKind;
+
 public class Expect {
 
 	protected List<ExpectMatcher> matchers = new ArrayList<ExpectMatcher>();
@@ -286,6 +290,24 @@ public class Expect {
 	 */
 	public synchronized String chat(String pattern, boolean consumeRemainingLine, long timeout, long maxLines, boolean ignoreEmptyLines)
 			throws ExpectTimeoutException, IOException {
+		OperationEvent event = OperationEvents.begin(OperationKind.EXPECT, getClass(), "chat");
+		try {
+			String matched = doChat(pattern, consumeRemainingLine, timeout, maxLines, ignoreEmptyLines, event);
+			event.result(matched == null ? "unmatched" : "matched");
+			return matched;
+		} catch (IOException ioe) {
+			event.failed(ioe);
+			throw ioe;
+		} catch (ExpectTimeoutException ete) {
+			event.failed(ete);
+			throw ete;
+		} finally {
+			event.end();
+		}
+	}
+
+	private String doChat(String pattern, boolean consumeRemainingLine, long timeout, long maxLines, boolean ignoreEmptyLines,
+			OperationEvent event) throws ExpectTimeoutException, IOException {
 		checkIn();
 
 		StringBuffer line = new StringBuffer();
@@ -299,6 +321,9 @@ public class Expect {
 					return null;
 
 				int ch = read(timeout);
+				if (ch >= 0) {
+					event.bytes(1);
+				}
 				if (ch == -1) {
 										
 					if(line.length() > 0 && matches(line.toString(), pattern)) {
@@ -23,9 +23,12 @@ package com.identity4j.util.json;
  */
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -105,6 +108,23 @@ public class JsonMapperService{
         return objectMapper.writeValueAsString(object);
     }
     
+    /**
+     * Creates a streaming UTF-8 generator that writes directly to the supplied
+     * stream, sharing this service's mapper configuration. Use this instead of
+     * {@link #getJson(Object)} when producing large documents that should not
+     * be built in memory. The target stream is not closed when the generator
+     * is closed.
+     * 
+     * @param out stream to write to
+     * @return generator
+     * @throws IOException
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
+    }
+    
     /**
      * Fetches a property from a json string. It converts the json into a java Map instance.
      * Hence we can fetch only first level properties only.
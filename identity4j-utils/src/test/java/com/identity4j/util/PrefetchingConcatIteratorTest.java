@@ -0,0 +1,169 @@
+package com.identity4j.util;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PrefetchingConcatIteratorTest {
+
+	private ExecutorService executor = Executors.newCachedThreadPool(new NamedThreadFactory("Test"));
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSourceClosedWhenExhausted() throws Exception {
+		CountingSource source = new CountingSource(10);
+		PrefetchingConcatIterator<Integer> it = iterator(source, 4);
+		int n = 0;
+		while (it.hasNext()) {
+			assertEquals(Integer.valueOf(n++), it.next());
+		}
+		assertEquals(10, n);
+		assertTrue(source.closed.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testSourceClosedWhenCancelled() throws Exception {
+		CountingSource source = new CountingSource(Integer.MAX_VALUE);
+		PrefetchingConcatIterator<Integer> it = iterator(source, 4);
+		assertEquals(Integer.valueOf(0), it.next());
+		/* Reads ahead no further than the buffer */
+		Thread.sleep(200);
+		assertTrue("Read " + source.read.get(), source.read.get() <= 7);
+		it.close();
+		assertTrue(source.closed.await(5, TimeUnit.SECONDS));
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testIdleTimeoutFailsConsumer() throws Exception {
+		CountingSource source = new CountingSource(100);
+		PrefetchingConcatIterator<Integer> it = new PrefetchingConcatIterator<Integer>(executor,
+				Collections.singletonList(callable(source)), 4, 100);
+		assertEquals(Integer.valueOf(0), it.next());
+		assertTrue(source.closed.await(5, TimeUnit.SECONDS));
+		/* Buffered elements are still returned, then the failure */
+		int n = 1;
+		try {
+			while (it.hasNext()) {
+				assertEquals(Integer.valueOf(n++), it.next());
+			}
+			fail("Ended normally after " + n);
+		} catch (IllegalStateException ise) {
+			assertTrue(n < 100);
+		}
+	}
+
+	@Test
+	public void testSlowSourceIsNotIdle() throws Exception {
+		final CountingSource source = new CountingSource(3) {
+			@Override
+			public Integer next() {
+				try {
+					Thread.sleep(150);
+				} catch (InterruptedException e) {
+				}
+				return super.next();
+			}
+		};
+		PrefetchingConcatIterator<Integer> it = new PrefetchingConcatIterator<Integer>(executor,
+				Collections.singletonList(callable(source)), 1, 100);
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		assertEquals(3, n);
+	}
+
+	private static Callable<Iterator<Integer>> callable(final CountingSource source) {
+		return new Callable<Iterator<Integer>>() {
+			@Override
+			public Iterator<Integer> call() {
+				return source;
+			}
+		};
+	}
+
+	private PrefetchingConcatIterator<Integer> iterator(final CountingSource source, int bufferSize) {
+		return new PrefetchingConcatIterator<Integer>(executor, Collections.singletonList(
+				new Callable<Iterator<Integer>>() {
+					@Override
+					public Iterator<Integer> call() {
+						return source;
+					}
+				}), bufferSize);
+	}
+
+	static class CountingSource implements Iterator<Integer>, Closeable {
+		final AtomicInteger read = new AtomicInteger();
+		final CountDownLatch closed = new CountDownLatch(1);
+		final int size;
+
+		CountingSource(int size) {
+			this.size = size;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return read.get() < size;
+		}
+
+		@Override
+		public Integer next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return read.getAndIncrement();
+		}
+
+		@Override
+		public void remove() {
+		}
+
+		@Override
+		public void close() {
+			closed.countDown();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.identity4j.util.events;
+
+/*
+ * #%L
+ * Identity4J Utils
+ * %%
+ * Copyright (C) 2013 - 2017 LogonBox
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.identity4j.util.expect.Expect;
+
+public class OperationEventsTest {
+
+	private OperationRecorder previous;
+	private CapturingRecorder recorder;
+
+	@Before
+	public void setUp() {
+		previous = OperationEvents.getRecorder();
+		recorder = new CapturingRecorder();
+		OperationEvents.setRecorder(recorder);
+	}
+
+	@After
+	public void tearDown() {
+		OperationEvents.setRecorder(previous);
+	}
+
+	@Test
+	public void testNothingRecordedWhenDisabled() {
+		recorder.recording = false;
+		OperationEvent event = OperationEvents.begin(OperationKind.LDAP, getClass(), "search");
+		assertSame(OperationEvent.DISABLED, event);
+		assertFalse(event.isEnabled());
+		event.principal("alice").bytes(10).succeeded().end();
+		assertNull(event.getResult());
+		assertEquals(0, recorder.begun);
+		assertTrue(recorder.events.isEmpty());
+	}
+
+	@Test
+	public void testEventRecorded() {
+		OperationEvent event = OperationEvents.begin(OperationKind.HTTP, getClass(), "GET").principal("alice");
+		event.bytes(100).bytes(-1).bytes(20);
+		event.end();
+		event.end();
+
+		assertEquals(1, recorder.events.size());
+		assertEquals(OperationEvent.FAILED, event.getResult());
+		assertEquals(120, event.getBytes());
+		assertEquals(getClass().getName(), event.getSource());
+		assertTrue(event.getDuration() >= 0);
+		assertEquals(16, event.getPrincipalHash().length());
+		assertEquals(event.getPrincipalHash(), OperationEvents.begin(OperationKind.HTTP, getClass(), "GET")
+				.principal("alice").getPrincipalHash());
+	}
+
+	@Test
+	public void testExpectChat() throws Exception {
+		Expect expect = new Expect(new ByteArrayInputStream("login: ".getBytes("UTF-8")),
+				new ByteArrayOutputStream());
+		assertTrue(expect.expect("login:"));
+
+		OperationEvent event = recorder.events.get(0);
+		assertEquals(OperationKind.EXPECT, event.getKind());
+		assertEquals("matched", event.getResult());
+		assertEquals(6, event.getBytes());
+	}
+
+	static class CapturingRecorder implements OperationRecorder {
+		volatile boolean recording = true;
+		int begun;
+		List<OperationEvent> events = new ArrayList<OperationEvent>();
+
+		@Override
+		public boolean isRecording(OperationKind kind) {
+			return recording;
+		}
+
+		@Override
+		public Object begin(OperationKind kind) {
+			begun++;
+			return null;
+		}
+
+		@Override
+		public void end(Object state, OperationEvent event) {
+			events.add(event);
+		}
+	}
+}